@@ -87,13 +87,30 @@ tasks.register<Jar>("buildJar") {
 }
 
 tasks.named<Test>("test") {
-    // Use JUnit Platform for unit tests.
-    useJUnitPlatform()
+    // Use JUnit Platform for unit tests, leaving out the benchmarks, which time themselves and
+    // are run on their own with the benchmark task.
+    useJUnitPlatform {
+        excludeTags("benchmark")
+    }
 
     // Ensure that the test task uses the correct classpath
     classpath = sourceSets["test"].runtimeClasspath
 }
 
+// Task to run the benchmarks, which are left out of the unit tests
+tasks.register<Test>("benchmark") {
+    description = "Runs the benchmarks."
+    group = "verification"
+    testClassesDirs = sourceSets["test"].output.classesDirs
+    classpath = sourceSets["test"].runtimeClasspath
+    useJUnitPlatform {
+        includeTags("benchmark")
+    }
+    testLogging {
+        showStandardStreams = true
+    }
+}
+
 // Task to generate Javadocs
 tasks.register<Javadoc>("generateDocs") {
     source = sourceSets["main"].allJava
@@ -6,6 +6,7 @@ package hms;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Iterator;
 import java.util.Optional;
@@ -48,9 +49,16 @@ public class App {
      * @param args Command line arguments (not used)
      */
     public static void main(String[] args) {
-        // Prepare repositories
+        // Prepare repositories, keeping appointments on disk if asked to, and bounding the medical
+        // records kept in memory
+        RepositoryManager.setAppointmentMapDirectory(System.getProperty("hms.appointments.map"));
+        RepositoryManager.setMedicalRecordCacheSize(Integer.getInteger("hms.records.cache", 1024));
+        RepositoryManager.setIgnoreUsernameCase(Boolean.getBoolean("hms.usernames.ignoreCase"));
         RepositoryManager.load();
         rm = RepositoryManager.getInstance();
+        rm.startCheckpointing(Duration.ofMinutes(5));
+        // Keep appointments that have been over for a year in the archive only
+        rm.archiveAppointments(Duration.ofDays(365));
 
         try {
             loadPatientsFromExcel("assets/Patient_List.xlsx");
@@ -59,11 +67,33 @@ public class App {
         } catch (Exception e) {
         }
 
+        // Announce medications as their stock falls below their alert level
+        rm.getInventoryRepository()
+                .getInventory()
+                .addStockAlertListener(
+                        (medication, stock, alert, low) -> {
+                            if (low) {
+                                System.out.println(
+                                        "Low stock: "
+                                                + medication.getName()
+                                                + " is down to "
+                                                + stock
+                                                + ", below its alert level of "
+                                                + alert);
+                            }
+                        });
+
         Runtime.getRuntime()
                 .addShutdownHook(
                         new Thread(
                                 new Runnable() {
                                     public void run() {
+                                        rm.stopCheckpointing();
+                                        rm.getCommitMetrics()
+                                                .ifPresent(
+                                                        m ->
+                                                                System.out.println(
+                                                                        "journal: " + m));
                                         rm.saveAndLog();
                                     }
                                 }));
@@ -206,6 +236,7 @@ public class App {
                 }
                 inventory.setMedicationStock(medication, initialStock);
                 inventory.setMedicationStockAlert(medication, lowStock);
+                rm.getInventoryRepository().updateMedication(medication);
             }
             file.close();
             workbook.close();
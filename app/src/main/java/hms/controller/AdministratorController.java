@@ -1,9 +1,11 @@
 package hms.controller;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 import hms.controller.appointment.AppointmentManager;
 import hms.controller.inventory.InventoryManager;
@@ -13,12 +15,14 @@ import hms.model.appointment.AppointmentStatus;
 import hms.model.medication.Inventory;
 import hms.model.medication.Medication;
 import hms.model.medication.ReplenishmentRequest;
+import hms.model.medication.ReplenishmentRequestStatus;
 import hms.model.user.Administrator;
 import hms.model.user.Doctor;
 import hms.model.user.Patient;
 import hms.model.user.Pharmacist;
 import hms.model.user.Staff;
 import hms.model.user.User;
+import hms.model.user.UserRole;
 import hms.repository.AppointmentRepository;
 import hms.repository.RepositoryManager;
 import hms.repository.UserRepository;
@@ -80,6 +84,37 @@ public class AdministratorController implements InventoryManager, AppointmentMan
         return this.ur.removeUser(user);
     }
 
+    /**
+     * Updates the name of a staff member. Empty or null values keep the current name.
+     *
+     * @param staff the staff member to be updated
+     * @param firstName the new first name
+     * @param lastName the new last name
+     */
+    public void updateStaffName(Staff staff, String firstName, String lastName) {
+        if (firstName != null && !firstName.isEmpty()) {
+            staff.setFirstName(firstName);
+        }
+        if (lastName != null && !lastName.isEmpty()) {
+            staff.setLastName(lastName);
+        }
+        this.ur.updateUser(staff);
+    }
+
+    /**
+     * Changes the username of a staff member, unless another user already has it.
+     *
+     * @param staff the staff member to be updated
+     * @param username the new username
+     * @return true if the username is changed, false if it is empty or already taken
+     */
+    public boolean updateStaffUsername(Staff staff, String username) {
+        if (username == null || username.isEmpty()) {
+            return false;
+        }
+        return this.ur.renameUser(staff, username);
+    }
+
     /**
      * Retrieves all users in the system.
      *
@@ -164,10 +199,24 @@ public class AdministratorController implements InventoryManager, AppointmentMan
      * @return a list of all staff members
      */
     public List<Staff> getStaffs() {
-        return this.getUsers().stream()
-                .filter(u -> u instanceof Staff)
-                .map(u -> (Staff) u)
-                .collect(Collectors.toList());
+        List<Staff> staffs = new ArrayList<>(this.ur.getDoctors());
+        staffs.addAll(this.ur.getPharmacists());
+        return staffs;
+    }
+
+    /**
+     * Searches staff members by name or ID, ignoring case and tolerating misspellings.
+     *
+     * @param query part of the name or ID of the staff members
+     * @return the staff members found, best matches first
+     */
+    public List<Staff> searchStaffs(String query) {
+        Set<UserRole> roles = EnumSet.of(UserRole.DOCTOR, UserRole.PHARMACIST);
+        List<Staff> staffs = new ArrayList<>();
+        for (User user : this.ur.searchUsers(query, roles, Integer.MAX_VALUE)) {
+            staffs.add((Staff) user);
+        }
+        return staffs;
     }
 
     /**
@@ -176,10 +225,7 @@ public class AdministratorController implements InventoryManager, AppointmentMan
      * @return a list of all patients
      */
     public List<Patient> getPatients() {
-        return this.getUsers().stream()
-                .filter(u -> u instanceof Patient)
-                .map(u -> (Patient) u)
-                .collect(Collectors.toList());
+        return new ArrayList<>(this.ur.getPatients());
     }
 
     /**
@@ -188,10 +234,7 @@ public class AdministratorController implements InventoryManager, AppointmentMan
      * @return a list of all doctors
      */
     public List<Doctor> getDoctors() {
-        return this.getUsers().stream()
-                .filter(u -> u instanceof Doctor)
-                .map(u -> (Doctor) u)
-                .collect(Collectors.toList());
+        return new ArrayList<>(this.ur.getDoctors());
     }
 
     /**
@@ -200,10 +243,7 @@ public class AdministratorController implements InventoryManager, AppointmentMan
      * @return a list of all pharmacists
      */
     public List<Pharmacist> getPharmacists() {
-        return this.getUsers().stream()
-                .filter(u -> u instanceof Pharmacist)
-                .map(u -> (Pharmacist) u)
-                .collect(Collectors.toList());
+        return new ArrayList<>(this.ur.getPharmacists());
     }
 
     /**
@@ -224,20 +264,24 @@ public class AdministratorController implements InventoryManager, AppointmentMan
      */
     @Override
     public List<Appointment> getAllAppointmentsByStatus(AppointmentStatus as) {
-        return this.ar.getAllAppointments().stream()
-                .filter(ap -> ap.getState().getStatus() == as)
-                .collect(Collectors.toList());
+        return this.ar.getAppointmentsByStatus(as);
     }
 
     /**
-     * Retrieves an appointment by its ID.
+     * Retrieves an appointment by its ID, reading it from the archive if it has been archived.
      *
      * @param id the ID of the appointment
      * @return an optional containing the appointment if found, otherwise empty
      */
     @Override
     public Optional<Appointment> getAppointmentById(int id) {
-        return this.ar.getAppointmentById(id);
+        return this.ar
+                .getAppointmentById(id)
+                .or(
+                        () ->
+                                RepositoryManager.getInstance()
+                                        .getAppointmentArchive()
+                                        .getAppointmentById(id));
     }
 
     /**
@@ -317,22 +361,35 @@ public class AdministratorController implements InventoryManager, AppointmentMan
 
         // Mark as approved
         rr.setApproved();
+        RepositoryManager.getInstance().getInventoryRepository().updateReplenishmentRequest(rr);
         return true;
     }
 
     /**
      * Retrieves all pending replenishment requests.
      *
-     * @return a list of all pending replenishment requests
+     * @return a list of all pending replenishment requests, oldest first
      */
     @Override
     public List<ReplenishmentRequest> getPendingReplenishmentRequests() {
         return RepositoryManager.getInstance()
                 .getInventoryRepository()
-                .getReplenishmentRequests()
-                .stream()
-                .filter(rr -> rr.isPending())
-                .collect(Collectors.toList());
+                .getReplenishmentRequestsByStatus(ReplenishmentRequestStatus.PENDING);
+    }
+
+    /**
+     * Retrieves a page of the history of approved replenishment requests.
+     *
+     * @param offset the number of approved requests to skip
+     * @param limit the maximum number of approved requests to retrieve
+     * @return the approved requests of the page, oldest first
+     */
+    @Override
+    public List<ReplenishmentRequest> getApprovedReplenishmentRequests(int offset, int limit) {
+        return RepositoryManager.getInstance()
+                .getInventoryRepository()
+                .getReplenishmentRequestsByStatus(
+                        ReplenishmentRequestStatus.APPROVED, offset, limit);
     }
 
     /**
@@ -426,4 +483,14 @@ public class AdministratorController implements InventoryManager, AppointmentMan
     public int getMedicationStockAlert(Medication medication) {
         return this.inventoryController.getMedicationStockAlert(medication);
     }
+
+    /**
+     * Retrieves the medications whose stock is below their alert level.
+     *
+     * @return a list of the medications below their alert level, most depleted first
+     */
+    @Override
+    public List<Medication> getLowStockMedications() {
+        return this.inventoryController.getLowStockMedications();
+    }
 }
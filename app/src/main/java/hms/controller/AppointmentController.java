@@ -5,6 +5,7 @@ import java.util.stream.Collectors;
 
 import hms.model.appointment.Appointment;
 import hms.model.appointment.AppointmentOutcome;
+import hms.model.appointment.AppointmentStatus;
 import hms.repository.AppointmentRepository;
 import hms.repository.RepositoryManager;
 
@@ -33,6 +34,7 @@ public class AppointmentController {
      */
     public boolean decline() {
         appointment.cancel();
+        appointmentRepository.updateAppointment(appointment);
         return true;
     }
 
@@ -43,21 +45,27 @@ public class AppointmentController {
      */
     public boolean accept() {
         appointment.confirm();
+        appointmentRepository.updateAppointment(appointment);
         return true;
     }
 
     /**
-     * Frees an appointment.
+     * Frees an appointment, which no longer belongs to its patient.
      *
      * @return {@code true} if the appointment is successfully freed, {@code false} otherwise.
      */
     public boolean free() {
         appointment.free();
+        // The repository forgets the appointment on the patient it belonged to
+        appointment.setPatient(null);
+        appointmentRepository.updateAppointment(appointment);
         return true;
     }
 
     /**
-     * Retrieves a list of outcomes from all completed appointments.
+     * Retrieves a list of outcomes from the completed appointments of the repository. The outcomes
+     * of archived appointments are not read, as that would inflate the whole archive; they are
+     * read by patient or by ID from the {@link hms.repository.AppointmentArchive} instead.
      *
      * @return A list of {@code AppointmentOutcome} objects representing the outcomes of completed
      *     appointments.
@@ -65,9 +73,8 @@ public class AppointmentController {
     public static List<AppointmentOutcome> getAppointmentOutcomes() {
         return RepositoryManager.getInstance()
                 .getAppointmentRepository()
-                .getAllAppointments()
+                .getAppointmentsByStatus(AppointmentStatus.COMPLETED)
                 .stream()
-                .filter(Appointment::isCompleted)
                 .map(Appointment::getOutcome)
                 .collect(Collectors.toList());
     }
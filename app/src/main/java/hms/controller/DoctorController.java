@@ -3,7 +3,11 @@ package hms.controller;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 import hms.controller.appointment.AppointmentDoctor;
@@ -14,8 +18,10 @@ import hms.model.medication.Prescription;
 import hms.model.record.MedicalRecord;
 import hms.model.user.Doctor;
 import hms.model.user.Patient;
+import hms.model.user.User;
 import hms.model.user.UserRole;
 import hms.repository.RepositoryManager;
+import hms.repository.UserRepository;
 
 /**
  * This class serves as a controller for a doctor, handling various operations related to
@@ -34,15 +40,26 @@ public class DoctorController implements AppointmentDoctor {
     }
 
     /**
-     * Retrieves a list of all patients in the system.
+     * Retrieves the patients of the doctor: those with an appointment with the doctor, archived or
+     * not, and those whose medical record names the doctor. The patients are found through indexes
+     * kept as appointments are booked and outcomes recorded, without walking every patient.
      *
-     * @return A list of all patients.
+     * @return A list of the patients of the doctor, in ID order.
      */
     public List<Patient> getPatients() {
-        return RepositoryManager.getInstance().getUserRepository().getAllUsers().stream()
-                .filter(u -> u.getRole() == UserRole.PATIENT)
-                .map(u -> (Patient) u)
-                .collect(Collectors.toList());
+        RepositoryManager rm = RepositoryManager.getInstance();
+        UserRepository ur = rm.getUserRepository();
+        Set<String> ids = new TreeSet<>(ur.getPatientIdsByRecordDoctor(doctor));
+        ids.addAll(rm.getAppointmentRepository().getPatientIdsByDoctor(doctor));
+        ids.addAll(rm.getAppointmentArchive().getPatientIdsByDoctor(doctor));
+
+        List<Patient> patients = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            if (ur.getUserById(id).orElse(null) instanceof Patient patient) {
+                patients.add(patient);
+            }
+        }
+        return patients;
     }
 
     /**
@@ -53,21 +70,18 @@ public class DoctorController implements AppointmentDoctor {
     public List<Appointment> getAppointments() {
         return RepositoryManager.getInstance()
                 .getAppointmentRepository()
-                .getAllAppointments()
-                .stream()
-                .filter(a -> a.getDoctor() == doctor)
-                .collect(Collectors.toList());
+                .getAppointmentsByDoctor(doctor);
     }
 
     /**
      * Retrieves a list of all free appointments associated with the doctor.
      *
-     * @return A list of free appointments.
+     * @return A list of free appointments, in order of start.
      */
     public List<Appointment> getFreeAppointments() {
-        return this.getAppointments().stream()
-                .filter(Appointment::isFree)
-                .collect(Collectors.toList());
+        return RepositoryManager.getInstance()
+                .getAppointmentRepository()
+                .getFreeAppointmentsByDoctor(doctor);
     }
 
     /**
@@ -92,6 +106,30 @@ public class DoctorController implements AppointmentDoctor {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Retrieves the appointments of the doctor starting within a time range.
+     *
+     * @param from The start of the range, inclusive.
+     * @param to The end of the range, exclusive.
+     * @return A list of the appointments starting within the range, in order of start.
+     */
+    public List<Appointment> getAppointmentsBetween(LocalDateTime from, LocalDateTime to) {
+        return RepositoryManager.getInstance()
+                .getAppointmentRepository()
+                .getAppointmentsBetween(doctor, from, to);
+    }
+
+    /**
+     * Retrieves the confirmed appointments of the doctor that have yet to start.
+     *
+     * @return A list of upcoming confirmed appointments, in order of start.
+     */
+    public List<Appointment> getUpcomingAppointments() {
+        return this.getAppointmentsBetween(LocalDateTime.now(), LocalDateTime.MAX).stream()
+                .filter(Appointment::isConfirmed)
+                .collect(Collectors.toList());
+    }
+
     /**
      * Adds a single appointment to the doctor's schedule.
      *
@@ -103,6 +141,17 @@ public class DoctorController implements AppointmentDoctor {
         return doctor.getSchedule().addAppointment(startDateTime, endDateTime);
     }
 
+    /**
+     * Checks whether the doctor has no appointment slot overlapping a time range.
+     *
+     * @param from The start of the range, inclusive.
+     * @param to The end of the range, exclusive.
+     * @return True if the doctor is free over the whole range, false otherwise.
+     */
+    public boolean isFree(LocalDateTime from, LocalDateTime to) {
+        return doctor.getSchedule().isFree(from, to);
+    }
+
     /**
      * Adds hourly appointments to the doctor's schedule within a specified time range.
      *
@@ -131,6 +180,35 @@ public class DoctorController implements AppointmentDoctor {
                 .addMultipleAppointmentDays(startDate, endDate, startTime, endTime);
     }
 
+    /**
+     * Searches patients by name or ID, ignoring case and tolerating misspellings.
+     *
+     * @param query Part of the name or ID of the patients.
+     * @param limit The maximum number of patients to find.
+     * @return The patients found, best matches first.
+     */
+    public List<Patient> searchPatients(String query, int limit) {
+        List<Patient> patients = new ArrayList<>();
+        for (User user :
+                RepositoryManager.getInstance()
+                        .getUserRepository()
+                        .searchUsers(query, EnumSet.of(UserRole.PATIENT), limit)) {
+            patients.add((Patient) user);
+        }
+        return patients;
+    }
+
+    /**
+     * Searches the diagnoses and treatments of every patient's medical record.
+     *
+     * @param query The words to search for, where a word ending with {@code *} matches words
+     *     starting with it and words in double quotes must appear in a row.
+     * @return The patients whose medical record matches every word, in ID order.
+     */
+    public List<Patient> searchMedicalRecords(String query) {
+        return RepositoryManager.getInstance().getUserRepository().searchMedicalRecords(query);
+    }
+
     /**
      * Retrieves the medical record for a specific patient.
      *
@@ -163,9 +241,43 @@ public class DoctorController implements AppointmentDoctor {
 
         mr.addDiagnosis(diagnosis);
         mr.addTreatment(treatment);
+        RepositoryManager.getInstance().getUserRepository().updateMedicalRecord(patient);
         return true;
     }
 
+    /**
+     * Updates the date of birth of a specific patient.
+     *
+     * @param patient The patient whose particulars are to be updated.
+     * @param dateOfBirth The new date of birth of the patient.
+     */
+    public void updatePatientDateOfBirth(Patient patient, String dateOfBirth) {
+        patient.setDateOfBirth(dateOfBirth);
+        RepositoryManager.getInstance().getUserRepository().updateUser(patient);
+    }
+
+    /**
+     * Updates the gender of a specific patient.
+     *
+     * @param patient The patient whose particulars are to be updated.
+     * @param gender The new gender of the patient (M, F, or other).
+     */
+    public void updatePatientGender(Patient patient, String gender) {
+        patient.setGender(gender);
+        RepositoryManager.getInstance().getUserRepository().updateUser(patient);
+    }
+
+    /**
+     * Updates the blood type of a specific patient.
+     *
+     * @param patient The patient whose particulars are to be updated.
+     * @param bloodType The new blood type of the patient.
+     */
+    public void updatePatientBloodType(Patient patient, String bloodType) {
+        patient.setBloodType(bloodType);
+        RepositoryManager.getInstance().getUserRepository().updateUser(patient);
+    }
+
     /**
      * Retrieves the doctor's personal schedule.
      *
@@ -243,6 +355,9 @@ public class DoctorController implements AppointmentDoctor {
         ap.setOutcome(ao);
         ap.complete();
         ap.getPatient().getMedicalRecord().setDoctor(doctor);
+
+        RepositoryManager.getInstance().getAppointmentRepository().updateAppointment(ap);
+        RepositoryManager.getInstance().getUserRepository().updateMedicalRecord(ap.getPatient());
         return true;
     }
 
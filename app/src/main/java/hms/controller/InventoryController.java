@@ -7,6 +7,7 @@ import java.util.UUID;
 import hms.model.medication.Inventory;
 import hms.model.medication.Medication;
 import hms.model.medication.ReplenishmentRequest;
+import hms.repository.InventoryRepository;
 import hms.repository.RepositoryManager;
 
 /**
@@ -16,13 +17,15 @@ import hms.repository.RepositoryManager;
  */
 public class InventoryController {
     private final Inventory inventory;
+    private final InventoryRepository inventoryRepository;
 
     /**
      * Constructs an instance of InventoryController, initializing the inventory with the data from
      * the repository.
      */
     public InventoryController() {
-        this.inventory = RepositoryManager.getInstance().getInventoryRepository().getInventory();
+        this.inventoryRepository = RepositoryManager.getInstance().getInventoryRepository();
+        this.inventory = this.inventoryRepository.getInventory();
     }
 
     /**
@@ -83,7 +86,7 @@ public class InventoryController {
      * @return true if the request was added successfully, false otherwise.
      */
     public boolean addReplenishmentRequest(ReplenishmentRequest rr) {
-        RepositoryManager.getInstance().getInventoryRepository().addReplenishmentRequest(rr);
+        this.inventoryRepository.addReplenishmentRequest(rr);
         return true;
     }
 
@@ -104,7 +107,11 @@ public class InventoryController {
      * @return true if the medication was added successfully, false otherwise.
      */
     public boolean addMedication(Medication medication) {
-        return this.inventory.addMedication(medication);
+        if (!this.inventory.addMedication(medication)) {
+            return false;
+        }
+        this.inventoryRepository.updateMedication(medication);
+        return true;
     }
 
     /**
@@ -115,7 +122,11 @@ public class InventoryController {
      * @return true if the stock was added successfully, false otherwise.
      */
     public boolean addMedicationStock(Medication medication, int qty) {
-        return this.inventory.addMedicationStock(medication, qty);
+        if (!this.inventory.addMedicationStock(medication, qty)) {
+            return false;
+        }
+        this.inventoryRepository.updateMedication(medication);
+        return true;
     }
 
     /**
@@ -126,7 +137,11 @@ public class InventoryController {
      * @return true if the stock quantity was set successfully, false otherwise.
      */
     public boolean setMedicationStock(Medication medication, int qty) {
-        return this.inventory.setMedicationStock(medication, qty);
+        if (!this.inventory.setMedicationStock(medication, qty)) {
+            return false;
+        }
+        this.inventoryRepository.updateMedication(medication);
+        return true;
     }
 
     /**
@@ -136,7 +151,11 @@ public class InventoryController {
      * @return true if the medication was removed successfully, false otherwise.
      */
     public boolean removeMedication(Medication medication) {
-        return this.inventory.removeMedication(medication);
+        if (!this.inventory.removeMedication(medication)) {
+            return false;
+        }
+        this.inventoryRepository.updateMedication(medication);
+        return true;
     }
 
     /**
@@ -147,7 +166,11 @@ public class InventoryController {
      * @return true if the stock was removed successfully, false otherwise.
      */
     public boolean removeMedicationStock(Medication medication, int qty) {
-        return this.inventory.removeMedicationStock(medication, qty);
+        if (!this.inventory.removeMedicationStock(medication, qty)) {
+            return false;
+        }
+        this.inventoryRepository.updateMedication(medication);
+        return true;
     }
 
     /**
@@ -158,7 +181,11 @@ public class InventoryController {
      * @return true if the stock alert quantity was set successfully, false otherwise.
      */
     public boolean setMedicationStockAlert(Medication medication, int alertQty) {
-        return this.inventory.setMedicationStockAlert(medication, alertQty);
+        if (!this.inventory.setMedicationStockAlert(medication, alertQty)) {
+            return false;
+        }
+        this.inventoryRepository.updateMedication(medication);
+        return true;
     }
 
     /**
@@ -170,4 +197,13 @@ public class InventoryController {
     public int getMedicationStockAlert(Medication medication) {
         return this.inventory.getMedicationStockAlert(medication);
     }
+
+    /**
+     * Retrieves the medications whose stock is below their alert quantity.
+     *
+     * @return A list of the medications below their alert quantity, most depleted first.
+     */
+    public List<Medication> getLowStockMedications() {
+        return this.inventory.getLowStockMedications();
+    }
 }
@@ -1,8 +1,12 @@
 package hms.controller;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import hms.controller.appointment.AppointmentUser;
 import hms.model.appointment.Appointment;
@@ -10,6 +14,7 @@ import hms.model.appointment.AppointmentOutcome;
 import hms.model.record.MedicalRecord;
 import hms.model.user.Doctor;
 import hms.model.user.Patient;
+import hms.repository.AppointmentRepository;
 import hms.repository.RepositoryManager;
 
 /**
@@ -44,6 +49,7 @@ public class PatientController implements AppointmentUser {
      */
     public void setEmail(String email) {
         this.patient.setEmail(email);
+        RepositoryManager.getInstance().getUserRepository().updateUser(this.patient);
     }
 
     /**
@@ -53,6 +59,7 @@ public class PatientController implements AppointmentUser {
      */
     public void setPhoneNumber(String phoneNumber) {
         this.patient.setPhoneNumber(phoneNumber);
+        RepositoryManager.getInstance().getUserRepository().updateUser(this.patient);
     }
 
     /**
@@ -72,10 +79,7 @@ public class PatientController implements AppointmentUser {
      */
     @Override
     public List<Doctor> getAllDoctors() {
-        return RepositoryManager.getInstance().getUserRepository().getAllUsers().stream()
-                .filter(u -> u instanceof Doctor)
-                .map(u -> (Doctor) u)
-                .collect(Collectors.toList());
+        return new ArrayList<>(RepositoryManager.getInstance().getUserRepository().getDoctors());
     }
 
     /**
@@ -99,10 +103,7 @@ public class PatientController implements AppointmentUser {
     public List<Appointment> getPersonalAppointments() {
         return RepositoryManager.getInstance()
                 .getAppointmentRepository()
-                .getAllAppointments()
-                .stream()
-                .filter(a -> a.getPatient() == patient)
-                .collect(Collectors.toList());
+                .getAppointmentsByPatient(patient);
     }
 
     /**
@@ -112,16 +113,27 @@ public class PatientController implements AppointmentUser {
      */
     @Override
     public HashMap<Doctor, List<Appointment>> getAvailableAppointmentSlotsByDoctors() {
-        return this.getAllDoctors().stream()
-                .collect(
-                        Collectors.toMap(
-                                doctor -> doctor,
-                                doctor ->
-                                        doctor.getSchedule().getAppointments().stream()
-                                                .filter(appointment -> appointment.isFree())
-                                                .collect(Collectors.toList()),
-                                (prev, next) -> next,
-                                HashMap::new));
+        AppointmentRepository ar = RepositoryManager.getInstance().getAppointmentRepository();
+        HashMap<Doctor, List<Appointment>> slots = new HashMap<>();
+        for (Doctor doctor : this.getAllDoctors()) {
+            slots.put(doctor, ar.getFreeAppointmentsByDoctor(doctor));
+        }
+        return slots;
+    }
+
+    /**
+     * Returns the first available appointment slot of a doctor starting at or after a time.
+     *
+     * @param doctor the doctor
+     * @param from the earliest start of the slot
+     * @return the first available appointment slot, or an empty Optional if there is none
+     */
+    @Override
+    public Optional<Appointment> getFirstAvailableAppointmentSlot(
+            Doctor doctor, LocalDateTime from) {
+        return RepositoryManager.getInstance()
+                .getAppointmentRepository()
+                .getFirstFreeAppointment(doctor, from);
     }
 
     /**
@@ -150,6 +162,7 @@ public class PatientController implements AppointmentUser {
 
         ap.setPatient(this.patient);
         ap.pending();
+        RepositoryManager.getInstance().getAppointmentRepository().updateAppointment(ap);
         return true;
     }
 
@@ -172,6 +185,7 @@ public class PatientController implements AppointmentUser {
 
         oldAp.setPatient(null);
         oldAp.free();
+        RepositoryManager.getInstance().getAppointmentRepository().updateAppointment(oldAp);
 
         this.scheduleAppointment(newAp);
 
@@ -202,13 +216,18 @@ public class PatientController implements AppointmentUser {
     }
 
     /**
-     * Returns a list of past appointment outcomes for the patient.
+     * Returns a list of past appointment outcomes for the patient, including those of archived
+     * appointments.
      *
      * @return the list of past appointment outcomes
      */
     @Override
     public List<AppointmentOutcome> getPastAppointmentOutcomes() {
-        return this.getPersonalAppointments().stream()
+        List<Appointment> archived =
+                RepositoryManager.getInstance()
+                        .getAppointmentArchive()
+                        .getAppointmentsByPatient(patient);
+        return Stream.concat(archived.stream(), this.getPersonalAppointments().stream())
                 .filter(ap -> ap.getOutcome() != null)
                 .map(ap -> ap.getOutcome())
                 .collect(Collectors.toList());
@@ -8,6 +8,7 @@ import java.util.UUID;
 import java.util.stream.Collectors;
 
 import hms.controller.inventory.InventoryUser;
+import hms.model.appointment.Appointment;
 import hms.model.appointment.AppointmentOutcome;
 import hms.model.medication.Inventory;
 import hms.model.medication.Medication;
@@ -15,6 +16,8 @@ import hms.model.medication.Prescription;
 import hms.model.medication.PrescriptionStatus;
 import hms.model.medication.ReplenishmentRequest;
 import hms.model.user.Pharmacist;
+import hms.repository.AppointmentRepository;
+import hms.repository.RepositoryManager;
 
 /**
  * A controller class for handling operations related to pharmacists. It provides methods to manage
@@ -60,10 +63,16 @@ public class PharmacistController implements InventoryUser {
     /**
      * Retrieves a list of all pending prescriptions.
      *
-     * @return A list of Prescription objects that are pending.
+     * @return A list of Prescription objects that are pending, oldest first.
      */
     public List<Prescription> getPendingPrescriptions() {
-        return getAllPrescriptions().stream()
+        // Appointments with a pending prescription are never archived
+        return RepositoryManager.getInstance()
+                .getAppointmentRepository()
+                .getAppointmentsWithPendingPrescription()
+                .stream()
+                .map(ap -> ap.getOutcome().getPrescription())
+                .flatMap(Optional::stream)
                 .filter(ps -> ps.isPending())
                 .collect(Collectors.toList());
     }
@@ -86,6 +95,7 @@ public class PharmacistController implements InventoryUser {
             inventoryController.removeMedicationStock(key, value);
         }
         p.setDispensed();
+        this.updatePrescription(p);
         return true;
     }
 
@@ -107,6 +117,7 @@ public class PharmacistController implements InventoryUser {
             inventoryController.addMedicationStock(key, value);
         }
         p.setCancelled();
+        this.updatePrescription(p);
         return true;
     }
 
@@ -118,12 +129,45 @@ public class PharmacistController implements InventoryUser {
      * @return true if the status was successfully updated.
      */
     public boolean updatePrescriptionStatus(Prescription p, PrescriptionStatus ps) {
+        setStatus(p, ps);
+        this.updatePrescription(p);
+        return true;
+    }
+
+    /**
+     * Records a change to a prescription by recording the appointment it was issued in, so that
+     * the change is persisted. The status is copied to the prescription of the appointment as
+     * loaded, as the appointment the given prescription was read from may have been released by
+     * a mapped store since, and another copy of it loaded.
+     *
+     * @param p The prescription that was changed.
+     */
+    private void updatePrescription(Prescription p) {
+        AppointmentRepository ar = RepositoryManager.getInstance().getAppointmentRepository();
+        Appointment ap = ar.getAppointmentById(p.getAppointmentId()).orElse(null);
+        if (ap == null) {
+            return;
+        }
+        if (ap.getOutcome() != null) {
+            ap.getOutcome()
+                    .getPrescription()
+                    .ifPresent(loaded -> setStatus(loaded, p.getPrescriptionStatus()));
+        }
+        ar.updateAppointment(ap);
+    }
+
+    /**
+     * Sets the status of a prescription.
+     *
+     * @param p The prescription.
+     * @param ps The new status of the prescription.
+     */
+    private static void setStatus(Prescription p, PrescriptionStatus ps) {
         switch (ps) {
             case PENDING -> p.setPending();
             case DISPENSED -> p.setDispensed();
             case CANCELLED -> p.setCancelled();
         }
-        return true;
     }
 
     /**
@@ -158,6 +202,16 @@ public class PharmacistController implements InventoryUser {
         return this.inventoryController.getMedicationStockAlert(medication);
     }
 
+    /**
+     * Retrieves the medications whose stock is below their alert level.
+     *
+     * @return A list of the medications below their alert level, most depleted first.
+     */
+    @Override
+    public List<Medication> getLowStockMedications() {
+        return this.inventoryController.getLowStockMedications();
+    }
+
     /**
      * Retrieves a list of all medications in the inventory.
      *
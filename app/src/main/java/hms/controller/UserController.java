@@ -75,6 +75,7 @@ public class UserController {
             return false;
         }
         user.setPassword(newPassword);
+        userRepository.updateUser(user);
         return true;
     }
 }
@@ -1,7 +1,9 @@
 package hms.controller.appointment;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import hms.model.appointment.Appointment;
 import hms.model.appointment.AppointmentOutcome;
@@ -15,6 +17,8 @@ public interface AppointmentUser extends AppointmentBase {
 
     Map<Doctor, List<Appointment>> getAvailableAppointmentSlotsByDoctors();
 
+    Optional<Appointment> getFirstAvailableAppointmentSlot(Doctor doctor, LocalDateTime from);
+
     List<Appointment> getPersonalAppointments();
 
     List<Appointment> getAvailableAppointmentSlots();
@@ -21,4 +21,6 @@ public interface InventoryBase {
     int getMedicationStock(Medication medication);
 
     int getMedicationStockAlert(Medication medication);
+
+    List<Medication> getLowStockMedications();
 }
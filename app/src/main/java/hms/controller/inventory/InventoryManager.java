@@ -10,6 +10,8 @@ public interface InventoryManager extends InventoryBase {
 
     List<ReplenishmentRequest> getPendingReplenishmentRequests();
 
+    List<ReplenishmentRequest> getApprovedReplenishmentRequests(int offset, int limit);
+
     boolean addMedication(Medication medication);
 
     boolean addMedicationStock(Medication medication, int qty);
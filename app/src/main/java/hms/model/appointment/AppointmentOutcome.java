@@ -24,6 +24,9 @@ public class AppointmentOutcome implements Serializable {
         this.appointment = ap;
         this.description = d;
         this.prescription = pr;
+        if (pr != null) {
+            pr.setAppointmentId(ap.getId());
+        }
     }
 
     /**
@@ -0,0 +1,233 @@
+package hms.model.appointment;
+
+import java.time.LocalDateTime;
+
+/**
+ * A set of time intervals, each identified by the ID of an appointment, which finds whether any
+ * interval overlaps a time range in logarithmic time.
+ *
+ * <p>It is a treap ordered by start, then by ID, whose priorities are scrambled from the IDs. Each
+ * node also holds the latest end of the intervals in its subtree, so that a search skips every
+ * subtree whose intervals all end before the range. Intervals are half-open, so an interval
+ * ending when another starts does not overlap it.
+ */
+class IntervalTree {
+    private Node root;
+    private int size;
+
+    /** A node of the tree, holding one interval. */
+    private static final class Node {
+        private final LocalDateTime start;
+        private final LocalDateTime end;
+        private final int id;
+        private final int priority;
+        private Node left;
+        private Node right;
+
+        /** The latest end of the intervals in the subtree rooted at this node. */
+        private LocalDateTime maxEnd;
+
+        /**
+         * Constructs a leaf holding an interval.
+         *
+         * @param start the start of the interval
+         * @param end the end of the interval
+         * @param id the ID of the appointment
+         */
+        Node(LocalDateTime start, LocalDateTime end, int id) {
+            this.start = start;
+            this.end = end;
+            this.id = id;
+            // Sequential IDs would make a degenerate tree, so they are scrambled first
+            this.priority = id * 0x9e3779b9;
+            this.maxEnd = end;
+        }
+
+        /** Recomputes the latest end of the subtree from those of the children. */
+        void update() {
+            maxEnd = end;
+            if (left != null && left.maxEnd.isAfter(maxEnd)) {
+                maxEnd = left.maxEnd;
+            }
+            if (right != null && right.maxEnd.isAfter(maxEnd)) {
+                maxEnd = right.maxEnd;
+            }
+        }
+
+        /**
+         * Compares the position of an interval with that of this node.
+         *
+         * @param start the start of the interval
+         * @param id the ID of the appointment
+         * @return a negative number, zero or a positive number if the interval comes before, is at
+         *     or comes after this node
+         */
+        int compare(LocalDateTime start, int id) {
+            int c = start.compareTo(this.start);
+            return c != 0 ? c : Integer.compare(id, this.id);
+        }
+    }
+
+    /**
+     * Adds an interval.
+     *
+     * @param start the start of the interval
+     * @param end the end of the interval
+     * @param id the ID of the appointment
+     */
+    void add(LocalDateTime start, LocalDateTime end, int id) {
+        root = add(root, new Node(start, end, id));
+    }
+
+    /**
+     * Removes an interval, if present.
+     *
+     * @param start the start of the interval
+     * @param id the ID of the appointment
+     * @return true if the interval was removed
+     */
+    boolean remove(LocalDateTime start, int id) {
+        int before = size;
+        root = remove(root, start, id);
+        return size < before;
+    }
+
+    /**
+     * Checks whether any interval overlaps a time range.
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @return true if an interval overlaps the range
+     */
+    boolean overlaps(LocalDateTime from, LocalDateTime to) {
+        Node node = root;
+        while (node != null) {
+            if (node.start.isBefore(to) && node.end.isAfter(from)) {
+                return true;
+            }
+            // If the left subtree reaches the range but does not overlap it, its intervals
+            // starting at or after the end of the range rule out the right subtree as well
+            if (node.left != null && node.left.maxEnd.isAfter(from)) {
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts the intervals.
+     *
+     * @return the number of intervals
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a node to a subtree, rotating it up while its priority is higher than its parent's.
+     *
+     * @param parent the root of the subtree, may be null
+     * @param node the node to add
+     * @return the new root of the subtree
+     */
+    private Node add(Node parent, Node node) {
+        if (parent == null) {
+            size++;
+            return node;
+        }
+        if (parent.compare(node.start, node.id) < 0) {
+            parent.left = add(parent.left, node);
+            if (parent.left.priority > parent.priority) {
+                parent = rotateRight(parent);
+            }
+        } else {
+            parent.right = add(parent.right, node);
+            if (parent.right.priority > parent.priority) {
+                parent = rotateLeft(parent);
+            }
+        }
+        parent.update();
+        return parent;
+    }
+
+    /**
+     * Removes an interval from a subtree.
+     *
+     * @param parent the root of the subtree, may be null
+     * @param start the start of the interval
+     * @param id the ID of the appointment
+     * @return the new root of the subtree
+     */
+    private Node remove(Node parent, LocalDateTime start, int id) {
+        if (parent == null) {
+            return null;
+        }
+        int c = parent.compare(start, id);
+        if (c < 0) {
+            parent.left = remove(parent.left, start, id);
+        } else if (c > 0) {
+            parent.right = remove(parent.right, start, id);
+        } else {
+            size--;
+            return merge(parent.left, parent.right);
+        }
+        parent.update();
+        return parent;
+    }
+
+    /**
+     * Merges two subtrees, every interval of the first coming before every one of the second.
+     *
+     * @param left the first subtree, may be null
+     * @param right the second subtree, may be null
+     * @return the root of the merged subtree
+     */
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    /**
+     * Rotates the left child of a node up in its place.
+     *
+     * @param node the node
+     * @return the new root of the subtree
+     */
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        node.update();
+        left.update();
+        return left;
+    }
+
+    /**
+     * Rotates the right child of a node up in its place.
+     *
+     * @param node the node
+     * @return the new root of the subtree
+     */
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        node.update();
+        right.update();
+        return right;
+    }
+}
@@ -1,21 +1,58 @@
 package hms.model.appointment;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import hms.model.user.Doctor;
+import hms.repository.AppointmentRepository;
 import hms.repository.RepositoryManager;
 
-/** Represents a schedule for a doctor, containing a list of appointments. */
+/**
+ * Represents a schedule for a doctor, containing a list of appointments.
+ *
+ * <p>The schedule only holds the IDs of its appointments, which are retrieved from the appointment
+ * repository when needed, so that it does not keep every appointment of the doctor in memory.
+ *
+ * <p>The time slots of the appointments are also kept in an {@link IntervalTree}, so that a slot
+ * overlapping one already on the schedule is rejected, and whether the doctor is free over a time
+ * range is answered, in logarithmic time.
+ */
 public class Schedule implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    private final Doctor doctor;
-    private final List<Appointment> appointments;
+    /**
+     * The serialized form, in which earlier versions held the appointments themselves and later
+     * ones their IDs.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("doctor", Doctor.class),
+        new ObjectStreamField("appointments", List.class),
+        new ObjectStreamField("appointmentIds", List.class)
+    };
+
+    private Doctor doctor;
+
+    /** The IDs of the appointments of the schedule, in ascending order. */
+    private transient List<Integer> appointmentIds;
+
+    /** The appointments read by Java serialization, whose IDs are only taken on first use. */
+    private transient List<Appointment> serializedAppointments;
+
+    /** The time slots of the appointments, or null until first needed. */
+    private transient IntervalTree intervals;
 
     /**
      * Creates a new schedule for the specified doctor.
@@ -23,7 +60,7 @@ public class Schedule implements Serializable {
      * @param doctor the doctor for whom the schedule is created
      */
     public Schedule(Doctor doctor) {
-        this.appointments = new ArrayList<>();
+        this.appointmentIds = new ArrayList<>();
         this.doctor = doctor;
     }
 
@@ -44,7 +81,7 @@ public class Schedule implements Serializable {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (Appointment appointment : appointments) {
+        for (Appointment appointment : getAppointments()) {
             sb.append(appointment).append("\n");
         }
         return sb.toString();
@@ -56,7 +93,12 @@ public class Schedule implements Serializable {
      * @return a list of appointments
      */
     public List<Appointment> getAppointments() {
-        return new ArrayList<>(appointments);
+        AppointmentRepository ar = RepositoryManager.getInstance().getAppointmentRepository();
+        List<Appointment> appointments = new ArrayList<>(appointmentIds().size());
+        for (int id : appointmentIds()) {
+            ar.getAppointmentById(id).ifPresent(appointments::add);
+        }
+        return appointments;
     }
 
     /**
@@ -65,16 +107,15 @@ public class Schedule implements Serializable {
      * @param startDateTime the start time of the appointment
      * @param endDateTime the end time of the appointment
      * @return the newly created appointment
-     * @throws IllegalArgumentException if the start time is after the end time
+     * @throws IllegalArgumentException if the start time is after the end time, or the slot
+     *     overlaps an appointment already on the schedule
      */
     public Appointment addAppointment(LocalDateTime startDateTime, LocalDateTime endDateTime) {
         if (startDateTime.isAfter(endDateTime)) {
             throw new IllegalArgumentException("Start time must be before end time");
         }
-        Appointment appointment = new Appointment(this.doctor, startDateTime, endDateTime);
-        appointments.add(appointment);
-        RepositoryManager.getInstance().getAppointmentRepository().addAppointment(appointment);
-        return appointment;
+        return addAppointments(List.of(new Appointment(this.doctor, startDateTime, endDateTime)))
+                .get(0);
     }
 
     /**
@@ -83,7 +124,8 @@ public class Schedule implements Serializable {
      * @param startDateTime the start time of the appointment window
      * @param endDateTime the end time of the appointment window
      * @return a list of newly created appointments
-     * @throws IllegalArgumentException if the start time is after the end time
+     * @throws IllegalArgumentException if the start time is after the end time, or a slot
+     *     overlaps an appointment already on the schedule, in which case none is added
      */
     public List<Appointment> addAppointmentHourly(
             LocalDateTime startDateTime, LocalDateTime endDateTime) {
@@ -92,18 +134,8 @@ public class Schedule implements Serializable {
         }
 
         List<Appointment> hourlyAppointments = new ArrayList<>();
-        while (startDateTime.plusHours(1).isBefore(endDateTime)) {
-            LocalDateTime nextHour = startDateTime.plusHours(1);
-            Appointment appointment = addAppointment(startDateTime, nextHour);
-            hourlyAppointments.add(appointment);
-            startDateTime = nextHour;
-        }
-        // Add the last appointment to cover the remaining time
-        if (startDateTime.isBefore(endDateTime)) {
-            Appointment appointment = addAppointment(startDateTime, endDateTime);
-            hourlyAppointments.add(appointment);
-        }
-        return hourlyAppointments;
+        addHourlySlots(hourlyAppointments, startDateTime, endDateTime);
+        return addAppointments(hourlyAppointments);
     }
 
     /**
@@ -114,7 +146,8 @@ public class Schedule implements Serializable {
      * @param startTime the start time of the availability period
      * @param endTime the end time of the availability period
      * @return a list of newly created appointments representing the availability slots
-     * @throws IllegalArgumentException if the start time is after the end time
+     * @throws IllegalArgumentException if the start time is after the end time, or a slot
+     *     overlaps an appointment already on the schedule, in which case none is added
      */
     public List<Appointment> addMultipleAppointmentDays(
             LocalDate startDate, LocalDate endDate, LocalTime startTime, LocalTime endTime) {
@@ -122,15 +155,131 @@ public class Schedule implements Serializable {
             throw new IllegalArgumentException("Start time must be before end time");
         }
 
+        // Every day has the same times, so the whole range is validated once and added in bulk
         List<Appointment> availabilitySlots = new ArrayList<>();
         LocalDate currentDate = startDate;
         while (!currentDate.isAfter(endDate)) {
-            LocalDateTime startDateTime = LocalDateTime.of(currentDate, startTime);
-            LocalDateTime endDateTime = LocalDateTime.of(currentDate, endTime);
-            availabilitySlots.addAll(addAppointmentHourly(startDateTime, endDateTime));
+            addHourlySlots(
+                    availabilitySlots,
+                    LocalDateTime.of(currentDate, startTime),
+                    LocalDateTime.of(currentDate, endTime));
             currentDate = currentDate.plusDays(1);
         }
-        return availabilitySlots;
+        return addAppointments(availabilitySlots);
+    }
+
+    /**
+     * Checks whether the doctor has no appointment slot overlapping a time range, whatever the
+     * status of the appointment.
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @return true if no appointment overlaps the range
+     */
+    public boolean isFree(LocalDateTime from, LocalDateTime to) {
+        return !intervals().overlaps(from, to);
+    }
+
+    /**
+     * Creates appointments in one-hour intervals between the specified start and end times,
+     * without adding them yet.
+     *
+     * @param slots the list to add the appointments to
+     * @param startDateTime the start time of the appointment window
+     * @param endDateTime the end time of the appointment window
+     */
+    private void addHourlySlots(
+            List<Appointment> slots, LocalDateTime startDateTime, LocalDateTime endDateTime) {
+        while (startDateTime.plusHours(1).isBefore(endDateTime)) {
+            LocalDateTime nextHour = startDateTime.plusHours(1);
+            slots.add(new Appointment(this.doctor, startDateTime, nextHour));
+            startDateTime = nextHour;
+        }
+        // Add the last appointment to cover the remaining time
+        if (startDateTime.isBefore(endDateTime)) {
+            slots.add(new Appointment(this.doctor, startDateTime, endDateTime));
+        }
+    }
+
+    /**
+     * Adds new appointments to the repository in one pass, and then to the schedule, once every
+     * slot is checked not to overlap the schedule or another slot.
+     *
+     * @param slots the appointments to add
+     * @return the appointments added
+     * @throws IllegalArgumentException if a slot overlaps another, in which case none is added
+     */
+    private List<Appointment> addAppointments(List<Appointment> slots) {
+        List<Appointment> sorted = new ArrayList<>(slots);
+        sorted.sort(Comparator.comparing(Appointment::getStart));
+        for (int i = 0; i < sorted.size(); i++) {
+            Appointment slot = sorted.get(i);
+            if (!isFree(slot.getStart(), slot.getEnd())
+                    || i > 0 && sorted.get(i - 1).getEnd().isAfter(slot.getStart())) {
+                throw new IllegalArgumentException(
+                        "Slot overlaps another appointment: "
+                                + slot.getStart()
+                                + " to "
+                                + slot.getEnd());
+            }
+        }
+
+        RepositoryManager.getInstance().getAppointmentRepository().addAppointments(slots);
+        for (Appointment appointment : slots) {
+            // New IDs come last, so this appends
+            insertId(appointment.getId());
+            intervals.add(appointment.getStart(), appointment.getEnd(), appointment.getId());
+        }
+        return slots;
+    }
+
+    /**
+     * Re-attaches a previously persisted appointment to this schedule. Unlike {@link
+     * #addAppointment(LocalDateTime, LocalDateTime)}, the appointment keeps its identifier and is
+     * not registered with the repository again.
+     *
+     * @param ap the appointment to be restored
+     */
+    public void restoreAppointment(Appointment ap) {
+        insertId(ap.getId());
+        if (intervals != null && ap.getStart() != null && ap.getEnd() != null) {
+            intervals.add(ap.getStart(), ap.getEnd(), ap.getId());
+        }
+    }
+
+    /**
+     * Detaches an appointment from the schedule without removing it from the repository, e.g.
+     * once it is archived or when replaying its removal.
+     *
+     * @param ap the appointment to be detached
+     */
+    public void detachAppointment(Appointment ap) {
+        List<Integer> ids = appointmentIds();
+        int pos = Collections.binarySearch(ids, ap.getId());
+        if (pos >= 0) {
+            ids.remove(pos);
+        }
+        if (intervals != null && ap.getStart() != null) {
+            intervals.remove(ap.getStart(), ap.getId());
+        }
+    }
+
+    /**
+     * Detaches appointments from the schedule without removing them from the repository, e.g.
+     * once they are archived. The IDs of the schedule are rebuilt once, rather than shifted once
+     * per appointment.
+     *
+     * @param aps the appointments to be detached
+     */
+    public void detachAppointments(Collection<Appointment> aps) {
+        Set<Integer> detached = new HashSet<>();
+        for (Appointment ap : aps) {
+            detached.add(ap.getId());
+            if (intervals != null && ap.getStart() != null) {
+                intervals.remove(ap.getStart(), ap.getId());
+            }
+        }
+        appointmentIds().removeIf(detached::contains);
     }
 
     /**
@@ -139,7 +288,96 @@ public class Schedule implements Serializable {
      * @param ap the appointment to be removed
      */
     private void removeAppointment(Appointment ap) {
-        appointments.remove(ap);
+        detachAppointment(ap);
         RepositoryManager.getInstance().getAppointmentRepository().removeAppointment(ap);
     }
+
+    /**
+     * Retrieves the IDs of the appointments of the schedule, taking them from the appointments
+     * read by Java serialization if needed.
+     *
+     * @return the IDs of the appointments, in ascending order
+     */
+    private List<Integer> appointmentIds() {
+        if (appointmentIds == null) {
+            appointmentIds = new ArrayList<>();
+            if (serializedAppointments != null) {
+                for (Appointment ap : serializedAppointments) {
+                    appointmentIds.add(ap.getId());
+                }
+                appointmentIds.sort(null);
+                serializedAppointments = null;
+            }
+        }
+        return appointmentIds;
+    }
+
+    /**
+     * Adds an ID to the IDs of the appointments, keeping them in ascending order, unless it is
+     * there already.
+     *
+     * @param id the ID of the appointment
+     */
+    private void insertId(int id) {
+        List<Integer> ids = appointmentIds();
+        int pos = Collections.binarySearch(ids, id);
+        if (pos < 0) {
+            ids.add(-pos - 1, id);
+        }
+    }
+
+    /**
+     * Retrieves the time slots of the appointments, building them from the appointments on first
+     * use. Appointments restored without a start or an end take no time slot.
+     *
+     * @return the time slots
+     */
+    private IntervalTree intervals() {
+        if (intervals == null) {
+            IntervalTree tree = new IntervalTree();
+            for (Appointment ap : getAppointments()) {
+                if (ap.getStart() != null && ap.getEnd() != null) {
+                    tree.add(ap.getStart(), ap.getEnd(), ap.getId());
+                }
+            }
+            intervals = tree;
+        }
+        return intervals;
+    }
+
+    /**
+     * Writes the schedule with the IDs of its appointments.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the schedule cannot be written
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("doctor", doctor);
+        fields.put("appointmentIds", new ArrayList<>(appointmentIds()));
+        out.writeFields();
+    }
+
+    /**
+     * Reads a schedule written with the IDs of its appointments, or with the appointments
+     * themselves by earlier versions. Those appointments may not be fully read yet when this is
+     * called, so their IDs are only taken on first use.
+     *
+     * @param in the stream to read from
+     * @throws IOException if the schedule cannot be read
+     * @throws ClassNotFoundException if the class of a field cannot be found
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        doctor = (Doctor) fields.get("doctor", null);
+        List<Integer> ids = (List<Integer>) fields.get("appointmentIds", null);
+        if (ids != null) {
+            // Written in the order the appointments were added by earlier versions
+            appointmentIds = new ArrayList<>(ids);
+            appointmentIds.sort(null);
+        } else {
+            serializedAppointments = (List<Appointment>) fields.get("appointments", null);
+        }
+    }
 }
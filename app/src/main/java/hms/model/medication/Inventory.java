@@ -1,13 +1,23 @@
 package hms.model.medication;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeSet;
 import java.util.UUID;
 
-/** Represents an inventory of medications, including stock levels and alert thresholds. */
+/**
+ * Represents an inventory of medications, including stock levels and alert thresholds.
+ * Medications are also indexed by their unique identifier, and every medication in the inventory
+ * is given one if it has none.
+ *
+ * <p>The medications whose stock is below their alert threshold are kept in order of stock over
+ * threshold as stock levels and thresholds change, so that they are listed without checking every
+ * medication. A {@link StockAlertListener} is told whenever a medication crosses its threshold.
+ */
 public class Inventory implements Serializable {
     private static final long serialVersionUID = 1L;
 
@@ -15,6 +25,40 @@ public class Inventory implements Serializable {
     private Map<String, Integer> alert;
     private Map<String, Integer> stock;
 
+    /** The medications by unique identifier, or null until first needed. */
+    private transient Map<UUID, Medication> medicationsById;
+
+    /** The medications below their alert threshold, most depleted first, or null until needed. */
+    private transient TreeSet<LowStock> lowStock;
+
+    /** The entry of each medication below its alert threshold, by name. */
+    private transient Map<String, LowStock> lowStockByName;
+
+    private transient List<StockAlertListener> stockAlertListeners;
+
+    /**
+     * A medication below its alert threshold, ordered by the share of the threshold left in stock,
+     * then by name.
+     *
+     * @param name the name of the medication
+     * @param stock the stock level of the medication
+     * @param alert the alert threshold of the medication
+     */
+    private record LowStock(String name, int stock, int alert) implements Comparable<LowStock> {
+        /**
+         * Compares the share of the threshold left of two medications, without dividing.
+         *
+         * @param other the other medication
+         * @return a negative number, zero or a positive number if this medication is more, as or
+         *     less depleted
+         */
+        @Override
+        public int compareTo(LowStock other) {
+            int c = Long.compare((long) stock * other.alert, (long) other.stock * alert);
+            return c != 0 ? c : name.compareTo(other.name);
+        }
+    }
+
     /** Constructs a new empty inventory. */
     public Inventory() {
         this.medications = new HashMap<>();
@@ -35,11 +79,13 @@ public class Inventory implements Serializable {
             return false;
         }
         medications.put(medication.getName(), medication);
+        indexMedication(medication);
 
         // Update stock as well
         if (!stock.containsKey(medication.getName())) {
             stock.put(medication.getName(), 0);
         }
+        updateLowStock(medication.getName());
 
         return true;
     }
@@ -56,6 +102,7 @@ public class Inventory implements Serializable {
             return false;
         }
         stock.merge(medication.getName(), qty, Integer::sum);
+        updateLowStock(medication.getName());
         return true;
     }
 
@@ -71,6 +118,7 @@ public class Inventory implements Serializable {
             return false;
         }
         stock.put(medication.getName(), qty);
+        updateLowStock(medication.getName());
         return true;
     }
 
@@ -86,12 +134,16 @@ public class Inventory implements Serializable {
         if (!medications.containsKey(medication.getName())) {
             return false;
         }
-        medications.remove(medication.getName());
+        Medication removed = medications.remove(medication.getName());
+        if (medicationsById != null && removed.getId() != null) {
+            medicationsById.remove(removed.getId(), removed);
+        }
 
         // Remove stock as well
         if (stock.containsKey(medication.getName())) {
             stock.remove(medication.getName());
         }
+        updateLowStock(medication.getName());
         return true;
     }
 
@@ -112,6 +164,7 @@ public class Inventory implements Serializable {
         int delta = Integer.min(currentStock, Math.abs(qty));
 
         stock.merge(medication.getName(), -delta, Integer::sum);
+        updateLowStock(medication.getName());
         return true;
     }
 
@@ -128,9 +181,20 @@ public class Inventory implements Serializable {
             return false;
         }
         this.alert.put(medication.getName(), qty);
+        updateLowStock(medication.getName());
         return true;
     }
 
+    /**
+     * Checks whether a stock alert threshold has been set for a medication.
+     *
+     * @param medication the medication to check
+     * @return true if an alert threshold has been set, false otherwise
+     */
+    public boolean hasMedicationStockAlert(Medication medication) {
+        return this.alert.containsKey(medication.getName());
+    }
+
     /**
      * Retrieves the stock alert threshold for a medication.
      *
@@ -142,6 +206,54 @@ public class Inventory implements Serializable {
         return this.alert.get(medication.getName());
     }
 
+    /**
+     * Checks whether the stock of a medication is below its alert threshold.
+     *
+     * @param medication the medication to check
+     * @return true if the medication has an alert threshold and its stock is below it
+     */
+    public boolean isLowStock(Medication medication) {
+        return lowStock().containsKey(medication.getName());
+    }
+
+    /**
+     * Retrieves the medications whose stock is below their alert threshold.
+     *
+     * @return a list of the medications below their alert threshold, those with the smallest
+     *     share of their threshold left first
+     */
+    public List<Medication> getLowStockMedications() {
+        lowStock();
+        List<Medication> result = new ArrayList<>(lowStock.size());
+        for (LowStock entry : lowStock) {
+            result.add(medications.get(entry.name()));
+        }
+        return result;
+    }
+
+    /**
+     * Registers a listener to be told whenever a medication falls below its alert threshold or
+     * rises back to it.
+     *
+     * @param listener the listener
+     */
+    public void addStockAlertListener(StockAlertListener listener) {
+        if (stockAlertListeners == null) {
+            stockAlertListeners = new ArrayList<>();
+        }
+        stockAlertListeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener registered with {@link #addStockAlertListener(StockAlertListener)}.
+     *
+     * @param listener the listener
+     * @return true if the listener was registered
+     */
+    public boolean removeStockAlertListener(StockAlertListener listener) {
+        return stockAlertListeners != null && stockAlertListeners.remove(listener);
+    }
+
     /**
      * Retrieves a list of all medications in the inventory.
      *
@@ -168,7 +280,39 @@ public class Inventory implements Serializable {
      * @return an Optional containing the medication if found, or an empty Optional if not found
      */
     public Optional<Medication> getMedicationByUUID(UUID id) {
-        return this.medications.values().stream().filter(m -> m.getId().equals(id)).findFirst();
+        Medication medication = medicationsById().get(id);
+        if (medication != null && !id.equals(medication.getId())) {
+            // Given a new identifier without going through the inventory
+            medicationsById.remove(id);
+            medication = null;
+        }
+        return Optional.ofNullable(medication);
+    }
+
+    /**
+     * Gives a medication in the inventory a new unique identifier, unless another medication
+     * already has it.
+     *
+     * @param medication the medication
+     * @param id the new unique identifier
+     * @return true if the identifier was set, false if it is null or already taken
+     */
+    public boolean setMedicationId(Medication medication, UUID id) {
+        if (id == null) {
+            return false;
+        }
+        Optional<Medication> holder = getMedicationByUUID(id);
+        if (holder.isPresent() && holder.get() != medication) {
+            return false;
+        }
+        if (medicationsById != null && medication.getId() != null) {
+            medicationsById.remove(medication.getId(), medication);
+        }
+        medication.setId(id);
+        if (this.medications.get(medication.getName()) == medication) {
+            indexMedication(medication);
+        }
+        return true;
     }
 
     /**
@@ -181,4 +325,96 @@ public class Inventory implements Serializable {
     public int getMedicationStock(Medication medication) {
         return this.stock.get(medication.getName());
     }
+
+    /**
+     * Retrieves the index of identifiers, building it on first use, as it is not kept by Java
+     * serialization.
+     *
+     * @return the medications by unique identifier
+     */
+    private Map<UUID, Medication> medicationsById() {
+        if (medicationsById == null) {
+            medicationsById = new HashMap<>();
+            for (Medication medication : medications.values()) {
+                indexMedication(medication);
+            }
+        }
+        return medicationsById;
+    }
+
+    /**
+     * Retrieves the medications below their alert threshold, building them on first use, as they
+     * are not kept by Java serialization.
+     *
+     * @return the entry of each medication below its alert threshold, by name
+     */
+    private Map<String, LowStock> lowStock() {
+        if (lowStockByName == null) {
+            lowStock = new TreeSet<>();
+            lowStockByName = new HashMap<>();
+            for (String name : medications.keySet()) {
+                LowStock entry = lowStockOf(name);
+                if (entry != null) {
+                    lowStock.add(entry);
+                    lowStockByName.put(name, entry);
+                }
+            }
+        }
+        return lowStockByName;
+    }
+
+    /**
+     * Moves a medication in or out of the medications below their alert threshold after its stock
+     * or threshold changed, telling the listeners if it crossed the threshold.
+     *
+     * @param name the name of the medication
+     */
+    private void updateLowStock(String name) {
+        LowStock old = lowStock().remove(name);
+        if (old != null) {
+            lowStock.remove(old);
+        }
+        LowStock entry = lowStockOf(name);
+        if (entry != null) {
+            lowStock.add(entry);
+            lowStockByName.put(name, entry);
+        }
+
+        Medication medication = medications.get(name);
+        if ((old != null) != (entry != null) && medication != null && stockAlertListeners != null) {
+            int qty = stock.getOrDefault(name, 0);
+            int threshold = alert.getOrDefault(name, 0);
+            for (StockAlertListener listener : List.copyOf(stockAlertListeners)) {
+                listener.stockAlert(medication, qty, threshold, entry != null);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the entry of a medication if its stock is below its alert threshold.
+     *
+     * @param name the name of the medication
+     * @return the entry, or null if the medication is not in the inventory, has no threshold or is
+     *     not below it
+     */
+    private LowStock lowStockOf(String name) {
+        Integer qty = stock.get(name);
+        Integer threshold = alert.get(name);
+        if (!medications.containsKey(name) || qty == null || threshold == null) {
+            return null;
+        }
+        return qty < threshold ? new LowStock(name, qty, threshold) : null;
+    }
+
+    /**
+     * Indexes a medication by its unique identifier, giving it one if it has none.
+     *
+     * @param medication the medication
+     */
+    private void indexMedication(Medication medication) {
+        if (medication.getId() == null) {
+            medication.setId(UUID.randomUUID());
+        }
+        medicationsById().put(medication.getId(), medication);
+    }
 }
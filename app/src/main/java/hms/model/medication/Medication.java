@@ -32,6 +32,7 @@ public class Medication implements Serializable {
      * @param dosageInstructions Dosage instructions for the medication.
      */
     public Medication(String medicationName, String description, String dosageInstructions) {
+        this.id = UUID.randomUUID();
         this.name = medicationName;
         this.description = description;
         this.dosageInstructions = dosageInstructions;
@@ -50,6 +51,7 @@ public class Medication implements Serializable {
             String description,
             String dosageInstructions,
             List<MedicationSideEffect> sideEffects) {
+        this.id = UUID.randomUUID();
         this.name = medicationName;
         this.description = description;
         this.dosageInstructions = dosageInstructions;
@@ -101,7 +103,9 @@ public class Medication implements Serializable {
     }
 
     /**
-     * Sets the unique identifier for the medication.
+     * Sets the unique identifier for the medication. A medication in an inventory should be given
+     * a new identifier through {@link Inventory#setMedicationId(Medication, UUID)}, which keeps
+     * the inventory's index of identifiers up to date.
      *
      * @param medicationId The UUID to set for the medication.
      */
@@ -10,6 +10,7 @@ import java.util.Map;
  */
 public class Prescription implements Serializable {
     private static final long serialVersionUID = 1L;
+    private int appointmentId;
     private PrescriptionStatus status;
     private Map<Medication, Integer> medications;
 
@@ -61,6 +62,25 @@ public class Prescription implements Serializable {
         this.status = status;
     }
 
+    /**
+     * Retrieves the identifier of the appointment this prescription was issued in.
+     *
+     * @return the appointment identifier, or 0 if the prescription is not attached to an
+     *     appointment outcome yet.
+     */
+    public int getAppointmentId() {
+        return this.appointmentId;
+    }
+
+    /**
+     * Sets the identifier of the appointment this prescription was issued in.
+     *
+     * @param appointmentId the appointment identifier.
+     */
+    public void setAppointmentId(int appointmentId) {
+        this.appointmentId = appointmentId;
+    }
+
     /**
      * Retrieves the current status of the prescription.
      *
@@ -13,6 +13,7 @@ import hms.model.user.Pharmacist;
 public class ReplenishmentRequest implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    private int id;
     private final Medication medication;
     private final int qty;
     private ReplenishmentRequestStatus status;
@@ -37,6 +38,24 @@ public class ReplenishmentRequest implements Serializable {
         this.status = ReplenishmentRequestStatus.PENDING;
     }
 
+    /**
+     * Sets the unique identifier for the replenishment request.
+     *
+     * @param id the unique identifier for the request
+     */
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Retrieves the unique identifier for the replenishment request.
+     *
+     * @return the unique identifier for the request
+     */
+    public int getId() {
+        return this.id;
+    }
+
     /**
      * Retrieves the pharmacist who created the replenishment request.
      *
@@ -92,6 +111,15 @@ public class ReplenishmentRequest implements Serializable {
         return this.medication;
     }
 
+    /**
+     * Retrieves the date and time when the replenishment request was made.
+     *
+     * @return the date and time of the request
+     */
+    public LocalDateTime getDateTime() {
+        return this.datetime;
+    }
+
     /**
      * Retrieves the quantity of medication requested in the replenishment request.
      *
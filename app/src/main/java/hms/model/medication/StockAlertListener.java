@@ -0,0 +1,15 @@
+package hms.model.medication;
+
+/** Receives notice of the medications of an inventory whose stock crosses their alert threshold. */
+@FunctionalInterface
+public interface StockAlertListener {
+    /**
+     * Called when the stock of a medication falls below its alert threshold, or rises back to it.
+     *
+     * @param medication the medication
+     * @param stock the new stock level of the medication
+     * @param alert the alert threshold of the medication
+     * @param low true if the stock fell below the threshold, false if it rose back to it
+     */
+    void stockAlert(Medication medication, int stock, int alert, boolean low);
+}
@@ -1,21 +1,53 @@
 package hms.model.user;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
 import hms.model.appointment.Appointment;
 import hms.model.record.MedicalRecord;
+import hms.repository.RepositoryManager;
 
 /**
  * Represents a patient in the hospital management system. Manages patient operations, appointments,
  * and medical records.
+ *
+ * <p>The patient holds the IDs of its appointments, which the appointment repository keeps as
+ * appointments are added, booked, freed or removed, so that the appointments of a patient are
+ * found without walking every appointment. The appointments themselves are retrieved from the
+ * repository when needed.
  */
 public class Patient extends User {
+    /**
+     * The serialized form, in which earlier versions held the appointments themselves and later
+     * ones their IDs.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("medicalRecord", MedicalRecord.class),
+        new ObjectStreamField("appointments", List.class),
+        new ObjectStreamField("appointmentIds", List.class),
+        new ObjectStreamField("dateOfBirth", String.class),
+        new ObjectStreamField("gender", Gender.class),
+        new ObjectStreamField("bloodType", String.class)
+    };
+
+    /** The medical record, or null while it is released to {@link #medicalRecordSource}. */
     private MedicalRecord medicalRecord;
-    private List<Appointment> appointments;
+
+    /** The source loading the medical record on demand while it is released, or null. */
+    private transient Function<Patient, MedicalRecord> medicalRecordSource;
+
+    /** The IDs of the appointments of the patient, in ascending order. */
+    private transient List<Integer> appointmentIds;
+
+    /** The appointments read by Java serialization, whose IDs are only taken on first use. */
+    private transient List<Appointment> serializedAppointments;
 
     private String dateOfBirth;
     private Gender gender;
@@ -50,7 +82,7 @@ public class Patient extends User {
         super(id, username, firstName, lastName, password, email, phoneNumber, UserRole.PATIENT);
 
         this.medicalRecord = new MedicalRecord(this);
-        this.appointments = new ArrayList<>();
+        this.appointmentIds = new ArrayList<>();
     }
 
     /**
@@ -91,7 +123,18 @@ public class Patient extends User {
      * @return the medical record of the patient
      */
     public MedicalRecord getMedicalRecord() {
-        return medicalRecord;
+        return medicalRecord != null ? medicalRecord : medicalRecordSource.apply(this);
+    }
+
+    /**
+     * Releases the medical record of the patient to a source that keeps it, so that the patient
+     * no longer holds it and it is loaded from the source whenever it is retrieved.
+     *
+     * @param source the function loading the medical record of the patient
+     */
+    public void releaseMedicalRecord(Function<Patient, MedicalRecord> source) {
+        this.medicalRecordSource = source;
+        this.medicalRecord = null;
     }
 
     /**
@@ -101,25 +144,54 @@ public class Patient extends User {
      * @param email the new email address of the patient
      */
     public void updateContactInformation(String phone, String email) {
-        medicalRecord.updateContactInformation(phone, email);
+        getMedicalRecord().updateContactInformation(phone, email);
     }
 
     /**
-     * Retrieves the list of appointments of the patient.
+     * Retrieves the list of appointments of the patient from the appointment repository.
      *
-     * @return an unmodifiable list of appointments of the patient
+     * @return a list of appointments of the patient, in ID order
      */
     public List<Appointment> getAppointments() {
-        return Collections.unmodifiableList(appointments);
+        return RepositoryManager.getInstance()
+                .getAppointmentRepository()
+                .getAppointmentsByPatient(this);
+    }
+
+    /**
+     * Retrieves the IDs of the appointments of the patient.
+     *
+     * @return an unmodifiable list of the IDs, in ascending order
+     */
+    public List<Integer> getAppointmentIds() {
+        return Collections.unmodifiableList(appointmentIds());
     }
 
     /**
-     * Adds a new appointment for the patient.
+     * Records an appointment of the patient, unless it is recorded already. The appointment must
+     * already have its ID.
      *
      * @param appointment the appointment to be added
      */
     public void addAppointment(Appointment appointment) {
-        appointments.add(appointment);
+        List<Integer> ids = appointmentIds();
+        int pos = Collections.binarySearch(ids, appointment.getId());
+        if (pos < 0) {
+            ids.add(-pos - 1, appointment.getId());
+        }
+    }
+
+    /**
+     * Forgets an appointment of the patient, e.g. once it is removed or booked by another patient.
+     *
+     * @param appointment the appointment to be removed
+     */
+    public void removeAppointment(Appointment appointment) {
+        List<Integer> ids = appointmentIds();
+        int pos = Collections.binarySearch(ids, appointment.getId());
+        if (pos >= 0) {
+            ids.remove(pos);
+        }
     }
 
     /**
@@ -164,6 +236,15 @@ public class Patient extends User {
         }
     }
 
+    /**
+     * Sets the gender of the patient.
+     *
+     * @param gender the new gender of the patient
+     */
+    public void setGender(Gender gender) {
+        this.gender = gender;
+    }
+
     /**
      * Retrieves the blood type of the patient.
      *
@@ -188,8 +269,74 @@ public class Patient extends User {
      * @return a list of past appointments of the patient
      */
     public List<Appointment> getPastAppointments() {
-        return appointments.stream()
-                .filter(a -> a.getStart().isBefore(LocalDateTime.now()))
-                .collect(Collectors.toList());
+        LocalDateTime now = LocalDateTime.now();
+        List<Appointment> past = new ArrayList<>();
+        for (Appointment ap : getAppointments()) {
+            if (ap.getStart() != null && ap.getStart().isBefore(now)) {
+                past.add(ap);
+            }
+        }
+        return past;
+    }
+
+    /**
+     * Retrieves the IDs of the appointments of the patient, taking them from the appointments read
+     * by Java serialization if needed.
+     *
+     * @return the IDs of the appointments, in ascending order
+     */
+    private List<Integer> appointmentIds() {
+        if (appointmentIds == null) {
+            appointmentIds = new ArrayList<>();
+            if (serializedAppointments != null) {
+                for (Appointment ap : serializedAppointments) {
+                    appointmentIds.add(ap.getId());
+                }
+                appointmentIds.sort(null);
+                serializedAppointments = null;
+            }
+        }
+        return appointmentIds;
+    }
+
+    /**
+     * Writes the patient together with its medical record, which is loaded if it is released, as
+     * the source it is released to is not serialized, and with the IDs of its appointments.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the patient cannot be written
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("medicalRecord", getMedicalRecord());
+        fields.put("appointmentIds", new ArrayList<>(appointmentIds()));
+        fields.put("dateOfBirth", dateOfBirth);
+        fields.put("gender", gender);
+        fields.put("bloodType", bloodType);
+        out.writeFields();
+    }
+
+    /**
+     * Reads a patient written with the IDs of its appointments, or with the appointments
+     * themselves by earlier versions. Those appointments may not be fully read yet when this is
+     * called, so their IDs are only taken on first use.
+     *
+     * @param in the stream to read from
+     * @throws IOException if the patient cannot be read
+     * @throws ClassNotFoundException if the class of a field cannot be found
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        medicalRecord = (MedicalRecord) fields.get("medicalRecord", null);
+        List<Integer> ids = (List<Integer>) fields.get("appointmentIds", null);
+        if (ids != null) {
+            appointmentIds = new ArrayList<>(ids);
+        } else {
+            serializedAppointments = (List<Appointment>) fields.get("appointments", null);
+        }
+        dateOfBirth = (String) fields.get("dateOfBirth", null);
+        gender = (Gender) fields.get("gender", null);
+        bloodType = (String) fields.get("bloodType", null);
     }
 }
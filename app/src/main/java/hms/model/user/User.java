@@ -43,7 +43,8 @@ public abstract class User implements Serializable {
      * @param username Username chosen by the user.
      * @param firstName First name of the user.
      * @param lastName Last name of the user.
-     * @param password Password chosen by the user, which will be hashed.
+     * @param password Password chosen by the user, which will be hashed. May be {@code null} when
+     *     the hash is restored separately through {@link #setHashedPassword(String)}.
      * @param email Email address of the user.
      * @param phoneNumber Phone number of the user.
      * @param role Role of the user within the system.
@@ -64,7 +65,9 @@ public abstract class User implements Serializable {
         this.email = email;
         this.phoneNumber = phoneNumber;
         this.role = role;
-        this.setPassword(password);
+        if (password != null) {
+            this.setPassword(password);
+        }
     }
 
     /**
@@ -85,6 +88,16 @@ public abstract class User implements Serializable {
         return username;
     }
 
+    /**
+     * Sets the username of the user. A user in a repository should be renamed through {@link
+     * hms.repository.UserRepository#renameUser(User, String)}, which keeps usernames unique.
+     *
+     * @param username New username for the user.
+     */
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
     /**
      * Sets the first name of the user.
      *
@@ -167,6 +180,24 @@ public abstract class User implements Serializable {
         this.hashedPassword = BCrypt.hashpw(password, BCrypt.gensalt());
     }
 
+    /**
+     * Returns the stored password hash, e.g. so that it can be persisted.
+     *
+     * @return The user's hashed password.
+     */
+    public String getHashedPassword() {
+        return hashedPassword;
+    }
+
+    /**
+     * Restores a previously computed password hash without hashing it again.
+     *
+     * @param hashedPassword Hashed password for the user.
+     */
+    public void setHashedPassword(String hashedPassword) {
+        this.hashedPassword = hashedPassword;
+    }
+
     /**
      * Verifies if the provided password matches the stored hashed password.
      *
@@ -0,0 +1,387 @@
+package hms.repository;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import hms.model.appointment.Appointment;
+import hms.model.user.Doctor;
+import hms.model.user.Patient;
+import hms.repository.codec.CompactInput;
+import hms.repository.codec.CompactOutput;
+import hms.repository.codec.EntityCodec;
+import hms.repository.journal.RecordFrame;
+
+/**
+ * An append-only archive of appointments that are over and no longer change, i.e. completed or
+ * cancelled ones, next to the segment files, e.g. {@code database.archive} for {@code
+ * database.bin}. Moving them out of the {@link AppointmentRepository} keeps it, and every query
+ * walking it, small, while their history can still be read from the archive on demand.
+ *
+ * <pre>
+ * [magic]
+ * [block: [count][[id][doctor][patient]...][deflated appointment records]]...
+ * </pre>
+ *
+ * <p>Blocks are framed by {@link RecordFrame}, so a block torn by a crash is discarded. Opening the
+ * archive only reads the header of each block into an index by appointment, doctor and patient,
+ * and a block is only inflated when an appointment in it is read. Appointments read from the
+ * archive are copies, and changes made to them are not saved.
+ */
+public class AppointmentArchive {
+    private static final int MAGIC = 0x484d5341; // "HMSA"
+    private static final int HEADER_SIZE = Integer.BYTES;
+
+    /** The maximum number of appointments in a block. */
+    private static final int BLOCK_APPOINTMENTS = 256;
+
+    private final Path path;
+    private final RepositoryManager rm;
+
+    /** The offset of the block holding each appointment, by ID, or null until opened. */
+    private Map<Integer, Long> blocks;
+
+    private final Map<String, List<Integer>> idsByDoctor = new HashMap<>();
+    private final Map<String, List<Integer>> idsByPatient = new HashMap<>();
+    private final Map<String, Set<String>> patientIdsByDoctor = new HashMap<>();
+
+    /** The highest ID of any archived appointment, or 0 if there is none. */
+    private int maxId;
+
+    /** The number of bytes of intact blocks, including the header, or 0 if there is no file. */
+    private long length;
+
+    /** The last block inflated, as reading a history mostly hits the same blocks. */
+    private long cachedOffset = -1;
+
+    private Map<Integer, Appointment> cachedBlock;
+
+    /**
+     * Constructs an archive backed by the given file, which is not read until first used.
+     *
+     * @param path the path of the archive file
+     * @param rm the repository manager whose users and inventory archived appointments are
+     *     resolved against
+     */
+    AppointmentArchive(Path path, RepositoryManager rm) {
+        this.path = path;
+        this.rm = rm;
+    }
+
+    /**
+     * Counts the appointments in the archive.
+     *
+     * @return the number of archived appointments
+     */
+    public int size() {
+        return index().size();
+    }
+
+    /**
+     * Retrieves the highest ID of any archived appointment, without reading the appointments.
+     *
+     * @return the highest ID, or 0 if the archive is empty
+     * @throws UncheckedIOException if the archive cannot be read
+     */
+    public int getMaxId() {
+        index();
+        return maxId;
+    }
+
+    /**
+     * Checks whether an appointment is archived, without reading it.
+     *
+     * @param id the ID of the appointment
+     * @return true if the appointment is archived
+     */
+    public boolean contains(int id) {
+        return index().containsKey(id);
+    }
+
+    /**
+     * Reads an archived appointment.
+     *
+     * @param id the ID of the appointment
+     * @return the appointment, or an empty Optional if it is not archived
+     * @throws UncheckedIOException if the archive cannot be read
+     */
+    public Optional<Appointment> getAppointmentById(int id) {
+        Long offset = index().get(id);
+        return offset != null ? Optional.ofNullable(block(offset).get(id)) : Optional.empty();
+    }
+
+    /**
+     * Reads the archived appointments of a doctor.
+     *
+     * @param doctor the doctor
+     * @return the appointments of the doctor, in ID order
+     * @throws UncheckedIOException if the archive cannot be read
+     */
+    public List<Appointment> getAppointmentsByDoctor(Doctor doctor) {
+        index();
+        return read(idsByDoctor.getOrDefault(doctor.getId(), List.of()));
+    }
+
+    /**
+     * Retrieves the IDs of the patients with an archived appointment with a doctor, without
+     * reading the appointments.
+     *
+     * @param doctor the doctor
+     * @return the IDs of the patients, in no particular order
+     * @throws UncheckedIOException if the archive cannot be read
+     */
+    public List<String> getPatientIdsByDoctor(Doctor doctor) {
+        index();
+        return new ArrayList<>(patientIdsByDoctor.getOrDefault(doctor.getId(), Set.of()));
+    }
+
+    /**
+     * Reads the archived appointments of a patient.
+     *
+     * @param patient the patient
+     * @return the appointments of the patient, in ID order
+     * @throws UncheckedIOException if the archive cannot be read
+     */
+    public List<Appointment> getAppointmentsByPatient(Patient patient) {
+        index();
+        return read(idsByPatient.getOrDefault(patient.getId(), List.of()));
+    }
+
+    /**
+     * Reads every archived appointment, inflating the whole archive.
+     *
+     * @return all archived appointments, in ID order
+     * @throws UncheckedIOException if the archive cannot be read
+     */
+    public List<Appointment> getAllAppointments() {
+        return read(new ArrayList<>(index().keySet()));
+    }
+
+    /**
+     * Appends appointments to the archive and forces them to disk. An appointment archived again
+     * supersedes its earlier copy.
+     *
+     * @param appointments the appointments to archive
+     * @throws IOException if the appointments cannot be written, in which case none of the blocks
+     *     not yet written are archived
+     */
+    void append(List<Appointment> appointments) throws IOException {
+        index();
+        for (int from = 0; from < appointments.size(); from += BLOCK_APPOINTMENTS) {
+            List<Appointment> block =
+                    appointments.subList(
+                            from, Math.min(from + BLOCK_APPOINTMENTS, appointments.size()));
+            long offset = write(encode(block));
+            for (Appointment ap : block) {
+                addToIndex(
+                        ap.getId(),
+                        offset,
+                        ap.getDoctor() != null ? ap.getDoctor().getId() : null,
+                        ap.getPatient() != null ? ap.getPatient().getId() : null);
+            }
+        }
+    }
+
+    /**
+     * Encodes a block of appointments.
+     *
+     * @param appointments the appointments of the block
+     * @return the framed block
+     * @throws IOException if an appointment cannot be written
+     */
+    private static byte[] encode(List<Appointment> appointments) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflated = new DeflaterOutputStream(records)) {
+            CompactOutput out = new CompactOutput(deflated);
+            for (Appointment ap : appointments) {
+                EntityCodec.writeAppointment(out, ap);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompactOutput out = new CompactOutput(bytes);
+        out.writeVarInt(appointments.size());
+        for (Appointment ap : appointments) {
+            out.writeVarInt(ap.getId());
+            out.writeString(ap.getDoctor() != null ? ap.getDoctor().getId() : null);
+            out.writeString(ap.getPatient() != null ? ap.getPatient().getId() : null);
+        }
+        out.writeBytes(records.toByteArray());
+        return RecordFrame.encode(bytes.toByteArray());
+    }
+
+    /**
+     * Writes a block after the last intact one and forces it to disk, creating the file if needed.
+     *
+     * @param block the framed block
+     * @return the offset of the block
+     * @throws IOException if the block cannot be written
+     */
+    private long write(byte[] block) throws IOException {
+        boolean created = length == 0;
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+            if (created) {
+                raf.setLength(0);
+                raf.writeInt(MAGIC);
+                length = HEADER_SIZE;
+            } else {
+                // Drop a block torn by an earlier crash
+                raf.setLength(length);
+                raf.seek(length);
+            }
+            raf.write(block);
+            raf.getChannel().force(false);
+        }
+        if (created) {
+            SnapshotStore.forceDirectory(path);
+        }
+        long offset = length;
+        length += block.length;
+        return offset;
+    }
+
+    /**
+     * Reads archived appointments in ID order, inflating each block they are in once.
+     *
+     * @param ids the IDs of the appointments
+     * @return the appointments, in ID order
+     */
+    private List<Appointment> read(List<Integer> ids) {
+        ids = new ArrayList<>(ids);
+        ids.sort(null);
+        List<Appointment> appointments = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            Appointment ap = block(blocks.get(id)).get(id);
+            if (ap != null) {
+                appointments.add(ap);
+            }
+        }
+        return appointments;
+    }
+
+    /**
+     * Inflates the block at the given offset, unless it is the last block inflated.
+     *
+     * @param offset the offset of the block
+     * @return the appointments of the block, by ID
+     * @throws UncheckedIOException if the block cannot be read
+     */
+    private Map<Integer, Appointment> block(long offset) {
+        if (offset == cachedOffset) {
+            return cachedBlock;
+        }
+
+        Map<Integer, Appointment> appointments = new HashMap<>();
+        try (FileInputStream file = new FileInputStream(path.toFile())) {
+            file.getChannel().position(offset);
+            byte[] frame =
+                    RecordFrame.read(
+                            new DataInputStream(new BufferedInputStream(file)), length - offset);
+            if (frame == null) {
+                throw new IOException("damaged archive block at " + offset + ": " + path);
+            }
+
+            CompactInput header = new CompactInput(new ByteArrayInputStream(frame));
+            int count = header.readVarInt();
+            for (int i = 0; i < count; i++) {
+                header.readVarInt();
+                header.readString();
+                header.readString();
+            }
+            CompactInput records =
+                    new CompactInput(
+                            new InflaterInputStream(new ByteArrayInputStream(header.readBytes())));
+            for (int i = 0; i < count; i++) {
+                Appointment ap = EntityCodec.readAppointment(records, rm);
+                appointments.put(ap.getId(), ap);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        cachedOffset = offset;
+        cachedBlock = appointments;
+        return appointments;
+    }
+
+    /**
+     * Retrieves the index of the archive, reading the header of every block on first use.
+     *
+     * @return the offset of the block holding each appointment, by ID
+     * @throws UncheckedIOException if the archive cannot be read or is not an archive
+     */
+    private Map<Integer, Long> index() {
+        if (blocks != null) {
+            return blocks;
+        }
+        blocks = new HashMap<>();
+        long fileLength = path.toFile().length();
+        if (!Files.exists(path) || fileLength == 0) {
+            return blocks;
+        }
+
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(path.toFile())))) {
+            if (fileLength < HEADER_SIZE || in.readInt() != MAGIC) {
+                throw new IOException("not an archive file: " + path);
+            }
+
+            long offset = HEADER_SIZE;
+            byte[] frame;
+            while ((frame = RecordFrame.read(in, fileLength - offset)) != null) {
+                CompactInput header = new CompactInput(new ByteArrayInputStream(frame));
+                int count = header.readVarInt();
+                for (int i = 0; i < count; i++) {
+                    addToIndex(
+                            header.readVarInt(), offset, header.readString(), header.readString());
+                }
+                offset += RecordFrame.OVERHEAD + frame.length;
+            }
+            length = offset;
+        } catch (IOException e) {
+            blocks = null;
+            throw new UncheckedIOException(e);
+        }
+        return blocks;
+    }
+
+    /**
+     * Adds an archived appointment to the index, superseding any earlier copy.
+     *
+     * @param id the ID of the appointment
+     * @param offset the offset of the block holding it
+     * @param doctorId the ID of its doctor, may be null
+     * @param patientId the ID of its patient, may be null
+     */
+    private void addToIndex(int id, long offset, String doctorId, String patientId) {
+        if (blocks.put(id, offset) != null) {
+            return;
+        }
+        maxId = Math.max(maxId, id);
+        if (doctorId != null) {
+            idsByDoctor.computeIfAbsent(doctorId, k -> new ArrayList<>()).add(id);
+        }
+        if (patientId != null) {
+            idsByPatient.computeIfAbsent(patientId, k -> new ArrayList<>()).add(id);
+        }
+        if (doctorId != null && patientId != null) {
+            patientIdsByDoctor.computeIfAbsent(doctorId, k -> new HashSet<>()).add(patientId);
+        }
+    }
+}
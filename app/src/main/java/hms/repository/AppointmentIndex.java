@@ -0,0 +1,386 @@
+package hms.repository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+
+import hms.model.appointment.Appointment;
+import hms.model.appointment.AppointmentStatus;
+import hms.model.medication.Prescription;
+
+/**
+ * Indexes the appointments of an {@link AppointmentRepository} by doctor and status, so
+ * that looking them up costs the size of the result rather than that of the repository. The
+ * appointments of every doctor, and all appointments, are also ordered by start, so that the
+ * appointments starting within a range are found without walking the others. The appointments
+ * whose prescription is pending are queued in order of issue, so that the worklist of pharmacists
+ * costs the number of pending prescriptions. The free slots of every doctor are kept in a {@link
+ * FreeSlotIndex}, which only flips a bit as a slot is booked or freed. The patients booked with
+ * every doctor are counted, so that the patients of a doctor are found without walking the
+ * appointments.
+ *
+ * <p>The index holds appointment IDs only, so it does not keep appointments of a mapped store
+ * materialized. It remembers the keys each appointment was indexed under, so that an appointment
+ * whose status has changed is moved when it is indexed again. Appointments are not indexed by
+ * patient, as each patient holds the IDs of its own.
+ */
+class AppointmentIndex {
+    private final Map<Integer, Key> keys = new HashMap<>();
+    private final TreeSet<TimeKey> byStart = new TreeSet<>();
+    private final Map<String, TreeSet<TimeKey>> byDoctor = new HashMap<>();
+    private final TreeSet<TimeKey> pendingPrescriptions = new TreeSet<>();
+    private final FreeSlotIndex freeSlots = new FreeSlotIndex();
+    private final Map<String, Map<String, Integer>> patientsByDoctor = new HashMap<>();
+    private final Map<AppointmentStatus, TreeSet<Integer>> byStatus =
+            new EnumMap<>(AppointmentStatus.class);
+
+    /**
+     * The keys an appointment is indexed under.
+     *
+     * @param doctorId the ID of the doctor, may be null
+     * @param patientId the ID of the patient, may be null
+     * @param status the status
+     * @param start the start, may be null
+     * @param issued when the prescription of the appointment was issued if it is pending, or null
+     *     if the appointment has no pending prescription
+     */
+    private record Key(
+            String doctorId,
+            String patientId,
+            AppointmentStatus status,
+            LocalDateTime start,
+            LocalDateTime issued) {
+        /**
+         * Retrieves the current keys of an appointment.
+         *
+         * @param ap the appointment
+         * @return the keys of the appointment
+         */
+        static Key of(Appointment ap) {
+            return new Key(
+                    ap.getDoctor() != null ? ap.getDoctor().getId() : null,
+                    ap.getPatient() != null ? ap.getPatient().getId() : null,
+                    ap.getStatus(),
+                    ap.getStart(),
+                    hasPendingPrescription(ap) ? issued(ap) : null);
+        }
+
+        /**
+         * Checks whether an appointment has a prescription waiting to be dispensed.
+         *
+         * @param ap the appointment
+         * @return true if the prescription of the appointment is pending
+         */
+        private static boolean hasPendingPrescription(Appointment ap) {
+            return ap.getOutcome() != null
+                    && ap.getOutcome().getPrescription().map(Prescription::isPending).orElse(false);
+        }
+
+        /**
+         * Retrieves when the prescription of an appointment was issued, taken as the end of the
+         * appointment, as prescriptions are issued at the end of the consultation. Falls back on
+         * the start, then on the earliest time, for appointments restored without them.
+         *
+         * @param ap the appointment
+         * @return when the prescription was issued
+         */
+        private static LocalDateTime issued(Appointment ap) {
+            if (ap.getEnd() != null) {
+                return ap.getEnd();
+            }
+            return ap.getStart() != null ? ap.getStart() : LocalDateTime.MIN;
+        }
+    }
+
+    /**
+     * The position of an appointment in an index ordered by a time, usually its start, then by ID.
+     * Appointments without that time come first.
+     *
+     * @param start the time of the appointment, may be null
+     * @param id the ID of the appointment
+     */
+    private record TimeKey(LocalDateTime start, int id) implements Comparable<TimeKey> {
+        private static final Comparator<TimeKey> ORDER =
+                Comparator.comparing(
+                                TimeKey::start, Comparator.nullsFirst(Comparator.naturalOrder()))
+                        .thenComparingInt(TimeKey::id);
+
+        /**
+         * Compares the position of two appointments.
+         *
+         * @param other the other position
+         * @return a negative number, zero or a positive number if this position comes first, is
+         *     the same or comes last
+         */
+        @Override
+        public int compareTo(TimeKey other) {
+            return ORDER.compare(this, other);
+        }
+
+        /**
+         * Retrieves the position before every appointment starting at or after a time.
+         *
+         * @param time the time
+         * @return the position
+         */
+        static TimeKey before(LocalDateTime time) {
+            return new TimeKey(time, Integer.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Indexes an appointment under its current keys, moving it if it was indexed under others.
+     *
+     * @param ap the appointment
+     */
+    void put(Appointment ap) {
+        Key key = Key.of(ap);
+        Key old = keys.put(ap.getId(), key);
+        if (key.equals(old)) {
+            return;
+        }
+        if (old != null) {
+            unindex(ap.getId(), old);
+            if (!Objects.equals(old.doctorId(), key.doctorId())
+                    || !Objects.equals(old.start(), key.start())) {
+                unslot(ap.getId(), old);
+            }
+        }
+        if (key.doctorId() != null && key.start() != null) {
+            boolean isFree = key.status() == AppointmentStatus.FREE;
+            freeSlots.put(key.doctorId(), key.start(), ap.getId(), isFree);
+        }
+        TimeKey timeKey = new TimeKey(key.start(), ap.getId());
+        byStart.add(timeKey);
+        if (key.doctorId() != null) {
+            byDoctor.computeIfAbsent(key.doctorId(), k -> new TreeSet<>()).add(timeKey);
+        }
+        byStatus.computeIfAbsent(key.status(), k -> new TreeSet<>()).add(ap.getId());
+        if (key.issued() != null) {
+            pendingPrescriptions.add(new TimeKey(key.issued(), ap.getId()));
+        }
+        if (key.doctorId() != null && key.patientId() != null) {
+            patientsByDoctor
+                    .computeIfAbsent(key.doctorId(), k -> new HashMap<>())
+                    .merge(key.patientId(), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Retrieves the ID of the patient an appointment is indexed under.
+     *
+     * @param id the ID of the appointment
+     * @return the ID of the patient, or null if the appointment has none or is not indexed
+     */
+    String getPatientId(int id) {
+        Key key = keys.get(id);
+        return key != null ? key.patientId() : null;
+    }
+
+    /**
+     * Indexes an appointment under its current keys if it is indexed already.
+     *
+     * @param ap the appointment
+     */
+    void update(Appointment ap) {
+        if (keys.containsKey(ap.getId())) {
+            put(ap);
+        }
+    }
+
+    /**
+     * Removes an appointment from the index.
+     *
+     * @param id the ID of the appointment
+     */
+    void remove(int id) {
+        Key old = keys.remove(id);
+        if (old != null) {
+            unindex(id, old);
+            unslot(id, old);
+        }
+    }
+
+    /**
+     * Retrieves the IDs of the appointments of a doctor.
+     *
+     * @param doctorId the ID of the doctor
+     * @return the IDs, in order of start
+     */
+    List<Integer> getIdsByDoctor(String doctorId) {
+        TreeSet<TimeKey> timeKeys = byDoctor.get(doctorId);
+        return timeKeys != null ? idsByStart(timeKeys) : new ArrayList<>();
+    }
+
+    /**
+     * Retrieves the IDs of the appointments starting within a range.
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @return the IDs, in order of start
+     */
+    List<Integer> getIdsBetween(LocalDateTime from, LocalDateTime to) {
+        return between(byStart, from, to);
+    }
+
+    /**
+     * Retrieves the IDs of the appointments of a doctor starting within a range.
+     *
+     * @param doctorId the ID of the doctor
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @return the IDs, in order of start
+     */
+    List<Integer> getIdsBetween(String doctorId, LocalDateTime from, LocalDateTime to) {
+        TreeSet<TimeKey> timeKeys = byDoctor.get(doctorId);
+        return timeKeys != null ? between(timeKeys, from, to) : new ArrayList<>();
+    }
+
+    /**
+     * Retrieves the IDs of the appointments with a status.
+     *
+     * @param status the status
+     * @return the IDs, in ascending order
+     */
+    List<Integer> getIdsByStatus(AppointmentStatus status) {
+        return ids(byStatus.get(status));
+    }
+
+    /**
+     * Retrieves the IDs of the appointments whose prescription is pending.
+     *
+     * @return the IDs, in order of issue of the prescriptions
+     */
+    List<Integer> getIdsWithPendingPrescription() {
+        return idsByStart(pendingPrescriptions);
+    }
+
+    /**
+     * Retrieves the IDs of the patients with an appointment with a doctor.
+     *
+     * @param doctorId the ID of the doctor
+     * @return the IDs of the patients, in no particular order
+     */
+    List<String> getPatientIdsByDoctor(String doctorId) {
+        Map<String, Integer> patients = patientsByDoctor.get(doctorId);
+        return patients != null ? new ArrayList<>(patients.keySet()) : new ArrayList<>();
+    }
+
+    /**
+     * Retrieves the IDs of the free slots of a doctor.
+     *
+     * @param doctorId the ID of the doctor
+     * @return the IDs, in order of start
+     */
+    List<Integer> getFreeIdsByDoctor(String doctorId) {
+        return freeSlots.getFreeIds(doctorId);
+    }
+
+    /**
+     * Retrieves the ID of the first free slot of a doctor starting at or after a time.
+     *
+     * @param doctorId the ID of the doctor
+     * @param from the time
+     * @return the ID, or {@link FreeSlotIndex#NONE} if the doctor has no free slot from then
+     */
+    int getFirstFreeId(String doctorId, LocalDateTime from) {
+        return freeSlots.getFirstFreeId(doctorId, from);
+    }
+
+    /**
+     * Removes an appointment from the sets of the keys it was indexed under.
+     *
+     * @param id the ID of the appointment
+     * @param key the keys it was indexed under
+     */
+    private void unindex(int id, Key key) {
+        TimeKey timeKey = new TimeKey(key.start(), id);
+        byStart.remove(timeKey);
+        remove(byDoctor, key.doctorId(), timeKey);
+        remove(byStatus, key.status(), id);
+        if (key.issued() != null) {
+            pendingPrescriptions.remove(new TimeKey(key.issued(), id));
+        }
+        Map<String, Integer> patients =
+                key.doctorId() != null ? patientsByDoctor.get(key.doctorId()) : null;
+        if (patients != null && key.patientId() != null) {
+            patients.computeIfPresent(key.patientId(), (k, n) -> n > 1 ? n - 1 : null);
+            if (patients.isEmpty()) {
+                patientsByDoctor.remove(key.doctorId());
+            }
+        }
+    }
+
+    /**
+     * Removes the slot of an appointment from the free slots, whatever its status.
+     *
+     * @param id the ID of the appointment
+     * @param key the keys it was indexed under
+     */
+    private void unslot(int id, Key key) {
+        if (key.doctorId() != null && key.start() != null) {
+            freeSlots.remove(key.doctorId(), key.start(), id);
+        }
+    }
+
+    /**
+     * Removes an ID from the set of a key, dropping the set once empty.
+     *
+     * @param index the index holding the set
+     * @param key the key, may be null
+     * @param id the ID, or position, to remove
+     */
+    private static <K, V> void remove(Map<K, TreeSet<V>> index, K key, V id) {
+        TreeSet<V> ids = key != null ? index.get(key) : null;
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * Retrieves the IDs of the appointments of a set ordered by start that start within a range.
+     *
+     * @param timeKeys the set
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @return the IDs, in order of start
+     */
+    private static List<Integer> between(
+            TreeSet<TimeKey> timeKeys, LocalDateTime from, LocalDateTime to) {
+        if (!from.isBefore(to)) {
+            return new ArrayList<>();
+        }
+        return idsByStart(timeKeys.subSet(TimeKey.before(from), true, TimeKey.before(to), false));
+    }
+
+    /**
+     * Retrieves the IDs of positions in a set ordered by start.
+     *
+     * @param timeKeys the positions
+     * @return the IDs, in order of start
+     */
+    private static List<Integer> idsByStart(Collection<TimeKey> timeKeys) {
+        List<Integer> ids = new ArrayList<>(timeKeys.size());
+        for (TimeKey timeKey : timeKeys) {
+            ids.add(timeKey.id());
+        }
+        return ids;
+    }
+
+    /**
+     * Copies a set of IDs.
+     *
+     * @param ids the set, or null if there is none
+     * @return the IDs, in ascending order
+     */
+    private static List<Integer> ids(TreeSet<Integer> ids) {
+        return ids != null ? new ArrayList<>(ids) : new ArrayList<>();
+    }
+}
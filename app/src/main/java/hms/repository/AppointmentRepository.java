@@ -1,20 +1,60 @@
 package hms.repository;
 
+import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 import hms.model.appointment.Appointment;
+import hms.model.appointment.AppointmentStatus;
+import hms.model.user.Doctor;
+import hms.model.user.Patient;
+import hms.repository.codec.EntityCodec;
+import hms.repository.journal.Journal;
+import hms.repository.journal.JournalRecordType;
 
-/** This class extends the {@link BaseRepository} and manages appointments. */
+/**
+ * This class extends the {@link BaseRepository} and manages appointments.
+ *
+ * <p>Appointments are kept on the heap by default. They can instead be kept in a {@link
+ * MappedAppointmentStore}, which only materializes an appointment when it is accessed, so that the
+ * number of appointments is not bounded by the heap.
+ *
+ * <p>Appointments are indexed by doctor and status, and ordered by start, so that looking up those
+ * of a doctor, or those within a time range, does not walk every appointment. The index follows
+ * changes of state as appointments are updated, and keeps the free slots of every doctor in a
+ * bitmap per day, so that they are found without resolving the others. Each patient holds the IDs
+ * of its own appointments, which are recorded as appointments are added or booked, and forgotten
+ * as they are removed, or found booked by another patient or freed when read.
+ *
+ * <p>New appointments take their IDs from a sequence that only moves forward, so an ID is not
+ * handed out again once its appointment is removed or archived. The sequence is persisted through
+ * the IDs it has handed out: it resumes past every appointment loaded, and past every archived
+ * one.
+ */
 public class AppointmentRepository extends BaseRepository {
     private Map<Integer, Appointment> appointments;
 
+    /** The store holding the appointments, backed by {@link #appointments} unless replaced. */
+    private transient AppointmentStore store;
+
+    /** The index of the appointments, which is not kept by Java serialization either. */
+    private transient AppointmentIndex index;
+
+    /** The next ID of the sequence, or 0 until it is resumed from the appointments in the store. */
+    private transient int nextId;
+
+    /** The users holding the patients of the appointments, set by the repository manager. */
+    private transient UserRepository users;
+
     /** Constructs a new AppointmentRepository with an empty map of appointments. */
     public AppointmentRepository() {
         appointments = new HashMap<>();
+        index = new AppointmentIndex();
     }
 
     /**
@@ -23,9 +63,10 @@ public class AppointmentRepository extends BaseRepository {
      * @return The next ID.
      */
     public int getNextId() {
-        return appointments.isEmpty()
-                ? 1
-                : (int) appointments.keySet().stream().max(Integer::compareTo).get() + 1;
+        if (nextId == 0) {
+            nextId = store().getMaxId() + 1;
+        }
+        return nextId;
     }
 
     /**
@@ -34,9 +75,62 @@ public class AppointmentRepository extends BaseRepository {
      * @param appointment The appointment to add.
      */
     public void addAppointment(Appointment appointment) {
-        int idx = getNextId();
-        appointment.setId(idx);
-        appointments.put(idx, appointment);
+        addAppointments(List.of(appointment));
+    }
+
+    /**
+     * Adds new appointments to the repository in one pass. They are given a block of consecutive
+     * IDs, in order, and their records are appended to the journal in one write.
+     *
+     * @param appointments The appointments to add.
+     */
+    public void addAppointments(List<Appointment> appointments) {
+        int id = reserveIds(appointments.size());
+        Map<Integer, Journal.RecordWriter> writers = new LinkedHashMap<>();
+        for (Appointment appointment : appointments) {
+            appointment.setId(id++);
+            store().put(appointment);
+            index().put(appointment);
+            link(appointment);
+            writers.put(
+                    appointment.getId(), out -> EntityCodec.writeAppointment(out, appointment));
+        }
+        logAll(JournalRecordType.PUT_APPOINTMENT, writers);
+    }
+
+    /**
+     * Adds an appointment to the repository under the identifier it already has, e.g. when
+     * restoring it from storage.
+     *
+     * @param appointment The appointment to add.
+     */
+    public void putAppointment(Appointment appointment) {
+        reserveIdsThrough(appointment.getId());
+        store().put(appointment);
+        unlinkFormerPatient(appointment, appointment.getPatient());
+        index().put(appointment);
+        link(appointment);
+        log(
+                JournalRecordType.PUT_APPOINTMENT,
+                appointment.getId(),
+                out -> EntityCodec.writeAppointment(out, appointment));
+    }
+
+    /**
+     * Records changes made to an appointment already in the repository, such as a change of state,
+     * patient or outcome, so that they are persisted.
+     *
+     * @param appointment The appointment that was changed.
+     */
+    public void updateAppointment(Appointment appointment) {
+        store().update(appointment);
+        unlinkFormerPatient(appointment, appointment.getPatient());
+        index().update(appointment);
+        link(appointment);
+        log(
+                JournalRecordType.PUT_APPOINTMENT,
+                appointment.getId(),
+                out -> EntityCodec.writeAppointment(out, appointment));
     }
 
     /**
@@ -46,7 +140,19 @@ public class AppointmentRepository extends BaseRepository {
      * @return {@code true} if the appointment was removed, {@code false} otherwise.
      */
     public boolean removeAppointment(Appointment appointment) {
-        return appointments.remove(appointment.getId(), appointment);
+        if (!store().remove(appointment)) {
+            return false;
+        }
+        unlinkFormerPatient(appointment, null);
+        index().remove(appointment.getId());
+        if (appointment.getPatient() != null) {
+            appointment.getPatient().removeAppointment(appointment);
+        }
+        log(
+                JournalRecordType.REMOVE_APPOINTMENT,
+                appointment.getId(),
+                out -> EntityCodec.writeAppointmentRemoval(out, appointment));
+        return true;
     }
 
     /**
@@ -55,7 +161,17 @@ public class AppointmentRepository extends BaseRepository {
      * @return A list of all appointments.
      */
     public List<Appointment> getAllAppointments() {
-        return new ArrayList<>(appointments.values());
+        return store().getAll();
+    }
+
+    /**
+     * Retrieves the identifiers of all appointments in ascending order, without retrieving the
+     * appointments themselves.
+     *
+     * @return The IDs of all appointments.
+     */
+    public List<Integer> getAppointmentIds() {
+        return store().getIds();
     }
 
     /**
@@ -65,6 +181,310 @@ public class AppointmentRepository extends BaseRepository {
      * @return An Optional containing the appointment if found, or an empty Optional if not found.
      */
     public Optional<Appointment> getAppointmentById(int id) {
-        return Optional.ofNullable(appointments.get(id));
+        return store().get(id);
+    }
+
+    /**
+     * Retrieves the appointments of a doctor.
+     *
+     * @param doctor The doctor.
+     * @return The appointments of the doctor, in order of start.
+     */
+    public List<Appointment> getAppointmentsByDoctor(Doctor doctor) {
+        return resolve(index().getIdsByDoctor(doctor.getId()));
+    }
+
+    /**
+     * Retrieves the appointments of a patient from the IDs the patient holds. Those IDs are kept
+     * as appointments are booked, freed, removed and archived, so an ID that does not resolve to
+     * an appointment of the patient is an inconsistency, which is logged and skipped.
+     *
+     * @param patient The patient.
+     * @return The appointments of the patient, in ID order.
+     */
+    public List<Appointment> getAppointmentsByPatient(Patient patient) {
+        List<Integer> ids = patient.getAppointmentIds();
+        List<Appointment> result = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            Appointment ap = store().get(id).orElse(null);
+            if (ap != null
+                    && ap.getPatient() != null
+                    && ap.getPatient().getId().equals(patient.getId())) {
+                result.add(ap);
+            } else {
+                System.err.println(
+                        "appointment " + id + " does not belong to patient " + patient.getId());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the appointments with a status.
+     *
+     * @param status The status.
+     * @return The appointments with the status, in ID order.
+     */
+    public List<Appointment> getAppointmentsByStatus(AppointmentStatus status) {
+        return resolve(index().getIdsByStatus(status));
+    }
+
+    /**
+     * Retrieves the appointments whose prescription is waiting to be dispensed. The queue is kept
+     * as appointments are updated, so an appointment must be updated once its prescription is
+     * dispensed or cancelled to leave it.
+     *
+     * @return The appointments with a pending prescription, in order of issue.
+     */
+    public List<Appointment> getAppointmentsWithPendingPrescription() {
+        return resolve(index().getIdsWithPendingPrescription());
+    }
+
+    /**
+     * Retrieves the IDs of the patients with an appointment with a doctor, without walking the
+     * appointments.
+     *
+     * @param doctor The doctor.
+     * @return The IDs of the patients, in no particular order.
+     */
+    public List<String> getPatientIdsByDoctor(Doctor doctor) {
+        return index().getPatientIdsByDoctor(doctor.getId());
+    }
+
+    /**
+     * Retrieves the free slots of a doctor.
+     *
+     * @param doctor The doctor.
+     * @return The free appointments of the doctor, in order of start.
+     */
+    public List<Appointment> getFreeAppointmentsByDoctor(Doctor doctor) {
+        return resolve(index().getFreeIdsByDoctor(doctor.getId()));
+    }
+
+    /**
+     * Retrieves the first free slot of a doctor starting at or after a time.
+     *
+     * @param doctor The doctor.
+     * @param from The time.
+     * @return The free appointment starting first from then, or an empty Optional if there is
+     *     none.
+     */
+    public Optional<Appointment> getFirstFreeAppointment(Doctor doctor, LocalDateTime from) {
+        int id = index().getFirstFreeId(doctor.getId(), from);
+        return id != FreeSlotIndex.NONE ? store().get(id) : Optional.empty();
+    }
+
+    /**
+     * Retrieves the appointments starting within a time range.
+     *
+     * @param from The start of the range, inclusive.
+     * @param to The end of the range, exclusive.
+     * @return The appointments starting within the range, in order of start.
+     */
+    public List<Appointment> getAppointmentsBetween(LocalDateTime from, LocalDateTime to) {
+        return resolve(index().getIdsBetween(from, to));
+    }
+
+    /**
+     * Retrieves the appointments of a doctor starting within a time range.
+     *
+     * @param doctor The doctor.
+     * @param from The start of the range, inclusive.
+     * @param to The end of the range, exclusive.
+     * @return The appointments of the doctor starting within the range, in order of start.
+     */
+    public List<Appointment> getAppointmentsBetween(
+            Doctor doctor, LocalDateTime from, LocalDateTime to) {
+        return resolve(index().getIdsBetween(doctor.getId(), from, to));
+    }
+
+    /**
+     * Retrieves a record of every appointment in ID order, so that schedules are rebuilt in the
+     * order slots were added.
+     *
+     * @param type The type of the records putting appointments.
+     * @return The records of all appointments.
+     */
+    @Override
+    List<EntityRecord> getAllRecords(JournalRecordType type) {
+        List<Integer> ids = store().getIds();
+        List<EntityRecord> records = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            // Resolved as the record is written, so that a mapped store materializes one at a time
+            records.add(
+                    new EntityRecord(
+                            JournalRecordType.PUT_APPOINTMENT,
+                            out ->
+                                    EntityCodec.writeAppointment(
+                                            out, store().get(id).orElseThrow())));
+        }
+        return records;
+    }
+
+    /**
+     * Counts the appointments in the repository.
+     *
+     * @param type The type of the records putting appointments.
+     * @return The number of appointments.
+     */
+    @Override
+    int getEntityCount(JournalRecordType type) {
+        return store().size();
+    }
+
+    /**
+     * Replaces the store holding the appointments, moving every appointment into the new store.
+     * The old store is closed.
+     *
+     * @param store The new store, which should be empty.
+     * @throws IOException If the old store cannot be closed.
+     */
+    void setStore(AppointmentStore store) throws IOException {
+        AppointmentStore old = store();
+        for (int id : old.getIds()) {
+            old.get(id).ifPresent(store::put);
+        }
+        this.store = store;
+        if (old instanceof HeapAppointmentStore) {
+            appointments.clear();
+        }
+        old.close();
+    }
+
+    /**
+     * Records every appointment with its patient, e.g. as patients read from a snapshot written by
+     * an earlier version do not hold the IDs of their appointments.
+     */
+    void linkPatients() {
+        for (int id : store().getIds()) {
+            store().get(id).ifPresent(this::link);
+        }
+    }
+
+    /**
+     * Points the prescription of every appointment at the appointment, as prescriptions read from
+     * a snapshot written by an earlier version do not hold the ID of their appointment.
+     */
+    void linkPrescriptions() {
+        for (int id : store().getIds()) {
+            store().get(id)
+                    .filter(ap -> ap.getOutcome() != null)
+                    .flatMap(ap -> ap.getOutcome().getPrescription())
+                    .ifPresent(pr -> pr.setAppointmentId(id));
+        }
+    }
+
+    /**
+     * Closes the store holding the appointments, releasing the files of a mapped store.
+     *
+     * @throws IOException If the store cannot be closed.
+     */
+    void close() throws IOException {
+        store().close();
+    }
+
+    /**
+     * Moves the sequence past an ID, so that it is not handed out, e.g. as it was handed out to an
+     * appointment that has since been archived.
+     *
+     * @param id The ID.
+     */
+    void reserveIdsThrough(int id) {
+        if (id >= getNextId()) {
+            nextId = id + 1;
+        }
+    }
+
+    /**
+     * Reserves a block of IDs from the sequence.
+     *
+     * @param count The number of IDs.
+     * @return The first ID of the block.
+     */
+    private int reserveIds(int count) {
+        int first = getNextId();
+        nextId = first + count;
+        return first;
+    }
+
+    /**
+     * Sets the users holding the patients of the appointments, so that an appointment leaving a
+     * patient is forgotten by that patient.
+     *
+     * @param users The user repository.
+     */
+    void setUserRepository(UserRepository users) {
+        this.users = users;
+    }
+
+    /**
+     * Forgets an appointment on the patient it was indexed with, unless it still belongs to that
+     * patient, e.g. as it was freed, booked by another patient or removed.
+     *
+     * @param appointment The appointment, before it is indexed again or removed from the index.
+     * @param patient The patient the appointment now belongs to, or null if none.
+     */
+    private void unlinkFormerPatient(Appointment appointment, Patient patient) {
+        String former = index().getPatientId(appointment.getId());
+        if (former == null || users == null || patient != null && former.equals(patient.getId())) {
+            return;
+        }
+        users.getUserById(former)
+                .filter(Patient.class::isInstance)
+                .map(Patient.class::cast)
+                .ifPresent(p -> p.removeAppointment(appointment));
+    }
+
+    /**
+     * Records an appointment with its patient, if it has one.
+     *
+     * @param appointment The appointment.
+     */
+    private void link(Appointment appointment) {
+        if (appointment.getPatient() != null) {
+            appointment.getPatient().addAppointment(appointment);
+        }
+    }
+
+    /**
+     * Retrieves the appointments with the given IDs.
+     *
+     * @param ids The IDs of the appointments.
+     * @return The appointments, in the order of their IDs.
+     */
+    private List<Appointment> resolve(List<Integer> ids) {
+        List<Appointment> result = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            store().get(id).ifPresent(result::add);
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the index of the appointments, building it if the repository was read by Java
+     * serialization.
+     *
+     * @return The index.
+     */
+    private AppointmentIndex index() {
+        if (index == null) {
+            index = new AppointmentIndex();
+            for (int id : store().getIds()) {
+                store().get(id).ifPresent(index::put);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Retrieves the store holding the appointments, which is not kept by Java serialization.
+     *
+     * @return The store.
+     */
+    private AppointmentStore store() {
+        if (store == null) {
+            store = new HeapAppointmentStore(appointments);
+        }
+        return store;
     }
 }
@@ -0,0 +1,72 @@
+package hms.repository;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Optional;
+
+import hms.model.appointment.Appointment;
+
+/**
+ * Holds the appointments of an {@link AppointmentRepository} by ID. The repository keeps them in a
+ * {@link HeapAppointmentStore} unless configured to keep them in a {@link MappedAppointmentStore}.
+ */
+interface AppointmentStore extends Closeable {
+    /**
+     * Retrieves an appointment by its ID.
+     *
+     * @param id the ID of the appointment
+     * @return the appointment, or an empty Optional if there is none with that ID
+     */
+    Optional<Appointment> get(int id);
+
+    /**
+     * Stores the current state of an appointment under its ID, replacing any appointment stored
+     * under it.
+     *
+     * @param appointment the appointment to store
+     */
+    void put(Appointment appointment);
+
+    /**
+     * Stores the changes made to an appointment, if it is still in the store.
+     *
+     * @param appointment the appointment that was changed
+     */
+    void update(Appointment appointment);
+
+    /**
+     * Removes an appointment, if it is the one stored under its ID.
+     *
+     * @param appointment the appointment to remove
+     * @return true if the appointment was removed
+     */
+    boolean remove(Appointment appointment);
+
+    /**
+     * Retrieves the IDs of every appointment, in ascending order.
+     *
+     * @return the IDs of all appointments
+     */
+    List<Integer> getIds();
+
+    /**
+     * Retrieves every appointment.
+     *
+     * @return all appointments, in no particular order
+     */
+    List<Appointment> getAll();
+
+    /**
+     * Counts the appointments in the store.
+     *
+     * @return the number of appointments
+     */
+    int size();
+
+    /**
+     * Retrieves the highest ID of any appointment in the store.
+     *
+     * @return the highest ID, or 0 if the store is empty
+     */
+    int getMaxId();
+}
@@ -1,10 +1,21 @@
 package hms.repository;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hms.repository.journal.Journal;
+import hms.repository.journal.JournalRecordType;
 
 /**
  * Represents a base repository that provides a common structure for all repository classes. This
  * class implements the {@link Serializable} interface, allowing instances to be serialized.
+ *
+ * <p>Every change to an entity of the repository is logged, which appends it to the journal and
+ * marks the entity as dirty until the next save. Saving then only writes the dirty entities to
+ * the segment file of the repository.
  */
 public abstract class BaseRepository implements Serializable {
 
@@ -14,4 +25,137 @@ public abstract class BaseRepository implements Serializable {
      * have loaded classes for that object that are compatible with respect to serialization.
      */
     private static final long serialVersionUID = 1L;
+
+    /** The journal that changes to this repository are appended to, if journaling is enabled. */
+    private transient Journal journal;
+
+    /** The latest change to each entity changed since the last save, by entity key. */
+    private transient Map<Object, EntityRecord> dirty;
+
+    /** Whether entities are being loaded from storage, and so are not changes to be saved. */
+    private transient boolean loading;
+
+    /**
+     * A record of the state of an entity, written when the repository is saved.
+     *
+     * @param type the type of the record
+     * @param writer the writer producing the payload of the record from the current state of the
+     *     entity
+     */
+    record EntityRecord(JournalRecordType type, Journal.RecordWriter writer) {}
+
+    /**
+     * Sets the journal that changes to this repository are appended to.
+     *
+     * @param journal the journal, or null to stop journaling
+     */
+    void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Marks an entity as dirty and appends a record of the change to the journal, if journaling is
+     * enabled.
+     *
+     * @param type the type of the record
+     * @param key the key of the changed entity, unique within this repository
+     * @param writer the writer producing the payload of the record
+     */
+    protected void log(JournalRecordType type, Object key, Journal.RecordWriter writer) {
+        if (loading) {
+            return;
+        }
+        Map<Object, EntityRecord> dirty = dirty();
+        // Keep entities in the order of their last change, so that references resolve on load
+        dirty.remove(key);
+        dirty.put(key, new EntityRecord(type, writer));
+        if (journal != null) {
+            journal.append(type, writer);
+        }
+    }
+
+    /**
+     * Marks entities as dirty and appends a record of each change to the journal in one write, if
+     * journaling is enabled, e.g. when adding many entities at once.
+     *
+     * @param type the type of the records
+     * @param writers the writer producing the payload of the record of each changed entity, by
+     *     entity key, in the order of the changes
+     */
+    protected void logAll(JournalRecordType type, Map<?, Journal.RecordWriter> writers) {
+        if (loading) {
+            return;
+        }
+        Map<Object, EntityRecord> dirty = dirty();
+        for (Map.Entry<?, Journal.RecordWriter> entry : writers.entrySet()) {
+            dirty.remove(entry.getKey());
+            dirty.put(entry.getKey(), new EntityRecord(type, entry.getValue()));
+        }
+        if (journal != null) {
+            journal.appendAll(type, new ArrayList<>(writers.values()));
+        }
+    }
+
+    /**
+     * Retrieves a record of every entity changed since the last save, in the order of their last
+     * change.
+     *
+     * @return the records of the dirty entities
+     */
+    List<EntityRecord> getDirtyRecords() {
+        return new ArrayList<>(dirty().values());
+    }
+
+    /**
+     * Sets whether entities are being loaded from storage, in which case changes are neither
+     * journaled nor marked as dirty.
+     *
+     * @param loading true while loading
+     */
+    void setLoading(boolean loading) {
+        this.loading = loading;
+    }
+
+    /**
+     * Checks whether entities are being loaded from storage.
+     *
+     * @return true while loading
+     */
+    boolean isLoading() {
+        return loading;
+    }
+
+    /** Marks every entity as saved. */
+    void markClean() {
+        dirty().clear();
+    }
+
+    /**
+     * Retrieves a record of every entity of a kind in the repository, in an order they can be read
+     * back in.
+     *
+     * @param type the type of the records putting entities of that kind
+     * @return the records of all entities of that kind
+     */
+    abstract List<EntityRecord> getAllRecords(JournalRecordType type);
+
+    /**
+     * Counts the entities of a kind in the repository.
+     *
+     * @param type the type of the records putting entities of that kind
+     * @return the number of entities of that kind
+     */
+    abstract int getEntityCount(JournalRecordType type);
+
+    /**
+     * Retrieves the dirty entities, which are not kept by Java serialization.
+     *
+     * @return the latest change to each dirty entity
+     */
+    private Map<Object, EntityRecord> dirty() {
+        if (dirty == null) {
+            dirty = new LinkedHashMap<>();
+        }
+        return dirty;
+    }
 }
@@ -0,0 +1,42 @@
+package hms.repository;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically checkpoints a {@link RepositoryManager} on a background daemon thread, so that the
+ * journal stays short without interactive sessions ever waiting for a snapshot to be written.
+ */
+class Checkpointer {
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Constructs a checkpointer and schedules its first checkpoint after one interval.
+     *
+     * @param rm the repository manager to checkpoint
+     * @param interval the time between the end of a checkpoint and the start of the next one
+     */
+    Checkpointer(RepositoryManager rm, Duration interval) {
+        this.executor =
+                Executors.newSingleThreadScheduledExecutor(
+                        r -> {
+                            Thread thread = new Thread(r, "checkpointer");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        long millis = Math.max(1, interval.toMillis());
+        executor.scheduleWithFixedDelay(rm::checkpoint, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops checkpointing, waiting for a checkpoint in progress to finish. */
+    void stop() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package hms.repository;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A bitmap of the free appointment slots of every doctor, per day, so that the free slots of a
+ * doctor, or the first one from a time, are found by scanning bits rather than appointments.
+ *
+ * <p>The slots of a doctor on a day are kept in order of start, whatever their status, with one
+ * bit per slot set while it is free. Booking, confirming or freeing a slot only flips its bit, and
+ * the slots of a day are only moved when a slot is added, removed or moved to another time.
+ * Scanning allocates nothing but the list of results.
+ */
+class FreeSlotIndex {
+    /** The ID returned when no slot is found. */
+    static final int NONE = -1;
+
+    /** The slots of each doctor by day, by doctor ID. */
+    private final Map<String, TreeMap<LocalDate, Day>> byDoctor = new HashMap<>();
+
+    /** The slots of a doctor on a day, in order of start then ID, and which of them are free. */
+    private static final class Day {
+        private long[] starts = new long[8];
+        private int[] ids = new int[8];
+        private long[] free = new long[1];
+        private int size;
+
+        /**
+         * Finds the position of a slot, or where it would be inserted.
+         *
+         * @param start the start of the slot, in nanoseconds of the day
+         * @param id the ID of the appointment
+         * @return the position of the slot if present, or {@code -(insertion point) - 1}
+         */
+        int find(long start, int id) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int c = Long.compare(starts[mid], start);
+                if (c == 0) {
+                    c = Integer.compare(ids[mid], id);
+                }
+                if (c < 0) {
+                    low = mid + 1;
+                } else if (c > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        /**
+         * Inserts a slot at a position, moving the slots after it up by one.
+         *
+         * @param pos the position
+         * @param start the start of the slot, in nanoseconds of the day
+         * @param id the ID of the appointment
+         */
+        void insert(int pos, long start, int id) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            if ((size >>> 6) == free.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+            }
+            System.arraycopy(starts, pos, starts, pos + 1, size - pos);
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            starts[pos] = start;
+            ids[pos] = id;
+
+            // Shift the bits from the position up by one, carrying the top bit of each word
+            int word = pos >>> 6;
+            for (int w = size >>> 6; w > word; w--) {
+                free[w] = (free[w] << 1) | (free[w - 1] >>> 63);
+            }
+            long below = (1L << (pos & 63)) - 1;
+            free[word] = (free[word] & below) | ((free[word] & ~below) << 1);
+            size++;
+        }
+
+        /**
+         * Deletes the slot at a position, moving the slots after it down by one.
+         *
+         * @param pos the position
+         */
+        void delete(int pos) {
+            System.arraycopy(starts, pos + 1, starts, pos, size - pos - 1);
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            size--;
+
+            // Shift the bits after the position down by one, carrying the bottom bit of each word
+            int word = pos >>> 6;
+            long below = (1L << (pos & 63)) - 1;
+            free[word] = (free[word] & below) | ((free[word] >>> 1) & ~below);
+            for (int w = word + 1; w < free.length; w++) {
+                free[w - 1] |= free[w] << 63;
+                free[w] >>>= 1;
+            }
+        }
+
+        /**
+         * Marks the slot at a position free or not.
+         *
+         * @param pos the position
+         * @param isFree true if the slot is free
+         */
+        void setFree(int pos, boolean isFree) {
+            if (isFree) {
+                free[pos >>> 6] |= 1L << pos;
+            } else {
+                free[pos >>> 6] &= ~(1L << pos);
+            }
+        }
+
+        /**
+         * Finds the first free slot at or after a position.
+         *
+         * @param from the position
+         * @return the position of the free slot, or {@link #NONE} if there is none
+         */
+        int nextFree(int from) {
+            if (from >= size) {
+                return NONE;
+            }
+            int word = from >>> 6;
+            long bits = free[word] & (-1L << from);
+            while (true) {
+                if (bits != 0) {
+                    return (word << 6) + Long.numberOfTrailingZeros(bits);
+                }
+                if (++word > (size - 1) >>> 6) {
+                    return NONE;
+                }
+                bits = free[word];
+            }
+        }
+    }
+
+    /**
+     * Indexes a slot, or marks it free or not if it is indexed already.
+     *
+     * @param doctorId the ID of the doctor
+     * @param start the start of the slot
+     * @param id the ID of the appointment
+     * @param isFree true if the slot is free
+     */
+    void put(String doctorId, LocalDateTime start, int id, boolean isFree) {
+        Day day =
+                byDoctor.computeIfAbsent(doctorId, k -> new TreeMap<>())
+                        .computeIfAbsent(start.toLocalDate(), k -> new Day());
+        long time = start.toLocalTime().toNanoOfDay();
+        int pos = day.find(time, id);
+        if (pos < 0) {
+            pos = -pos - 1;
+            day.insert(pos, time, id);
+        }
+        day.setFree(pos, isFree);
+    }
+
+    /**
+     * Removes a slot from the index.
+     *
+     * @param doctorId the ID of the doctor
+     * @param start the start of the slot
+     * @param id the ID of the appointment
+     */
+    void remove(String doctorId, LocalDateTime start, int id) {
+        TreeMap<LocalDate, Day> days = byDoctor.get(doctorId);
+        Day day = days != null ? days.get(start.toLocalDate()) : null;
+        int pos = day != null ? day.find(start.toLocalTime().toNanoOfDay(), id) : -1;
+        if (pos < 0) {
+            return;
+        }
+        day.delete(pos);
+        if (day.size == 0) {
+            days.remove(start.toLocalDate());
+            if (days.isEmpty()) {
+                byDoctor.remove(doctorId);
+            }
+        }
+    }
+
+    /**
+     * Finds the first free slot of a doctor starting at or after a time.
+     *
+     * @param doctorId the ID of the doctor
+     * @param from the time
+     * @return the ID of the appointment of the slot, or {@link #NONE} if there is none
+     */
+    int getFirstFreeId(String doctorId, LocalDateTime from) {
+        TreeMap<LocalDate, Day> days = byDoctor.get(doctorId);
+        if (days == null) {
+            return NONE;
+        }
+        LocalDate first = from.toLocalDate();
+        for (LocalDate date = days.ceilingKey(first); date != null; date = days.higherKey(date)) {
+            Day day = days.get(date);
+            int pos = 0;
+            if (date.equals(first)) {
+                pos = day.find(from.toLocalTime().toNanoOfDay(), Integer.MIN_VALUE);
+                pos = pos < 0 ? -pos - 1 : pos;
+            }
+            pos = day.nextFree(pos);
+            if (pos != NONE) {
+                return day.ids[pos];
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Retrieves the IDs of the free slots of a doctor.
+     *
+     * @param doctorId the ID of the doctor
+     * @return the IDs of the appointments of the slots, in order of start
+     */
+    List<Integer> getFreeIds(String doctorId) {
+        List<Integer> ids = new ArrayList<>();
+        TreeMap<LocalDate, Day> days = byDoctor.get(doctorId);
+        if (days == null) {
+            return ids;
+        }
+        for (Day day : days.values()) {
+            for (int pos = day.nextFree(0); pos != NONE; pos = day.nextFree(pos + 1)) {
+                ids.add(day.ids[pos]);
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,108 @@
+package hms.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import hms.model.appointment.Appointment;
+
+/** Keeps appointments as objects on the heap, in a map by ID. */
+class HeapAppointmentStore implements AppointmentStore {
+    private final Map<Integer, Appointment> appointments;
+
+    /**
+     * Constructs a store backed by the given map, which it keeps up to date.
+     *
+     * @param appointments the map of appointments by ID
+     */
+    HeapAppointmentStore(Map<Integer, Appointment> appointments) {
+        this.appointments = appointments;
+    }
+
+    /**
+     * Retrieves an appointment by its ID.
+     *
+     * @param id the ID of the appointment
+     * @return the appointment, or an empty Optional if there is none with that ID
+     */
+    @Override
+    public Optional<Appointment> get(int id) {
+        return Optional.ofNullable(appointments.get(id));
+    }
+
+    /**
+     * Stores an appointment under its ID.
+     *
+     * @param appointment the appointment to store
+     */
+    @Override
+    public void put(Appointment appointment) {
+        appointments.put(appointment.getId(), appointment);
+    }
+
+    /**
+     * Does nothing, as the changes made to an appointment are made to the object in the store.
+     *
+     * @param appointment the appointment that was changed
+     */
+    @Override
+    public void update(Appointment appointment) {}
+
+    /**
+     * Removes an appointment, if it is the one stored under its ID.
+     *
+     * @param appointment the appointment to remove
+     * @return true if the appointment was removed
+     */
+    @Override
+    public boolean remove(Appointment appointment) {
+        return appointments.remove(appointment.getId(), appointment);
+    }
+
+    /**
+     * Retrieves the IDs of every appointment, in ascending order.
+     *
+     * @return the IDs of all appointments
+     */
+    @Override
+    public List<Integer> getIds() {
+        List<Integer> ids = new ArrayList<>(appointments.keySet());
+        ids.sort(null);
+        return ids;
+    }
+
+    /**
+     * Retrieves every appointment.
+     *
+     * @return all appointments, in no particular order
+     */
+    @Override
+    public List<Appointment> getAll() {
+        return new ArrayList<>(appointments.values());
+    }
+
+    /**
+     * Counts the appointments in the store.
+     *
+     * @return the number of appointments
+     */
+    @Override
+    public int size() {
+        return appointments.size();
+    }
+
+    /**
+     * Retrieves the highest ID of any appointment in the store.
+     *
+     * @return the highest ID, or 0 if the store is empty
+     */
+    @Override
+    public int getMaxId() {
+        return appointments.keySet().stream().max(Integer::compareTo).orElse(0);
+    }
+
+    /** Does nothing, as the store holds no resources. */
+    @Override
+    public void close() {}
+}
@@ -1,11 +1,19 @@
 package hms.repository;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 
 import hms.model.medication.Inventory;
+import hms.model.medication.Medication;
 import hms.model.medication.ReplenishmentRequest;
+import hms.model.medication.ReplenishmentRequestStatus;
+import hms.repository.codec.EntityCodec;
+import hms.repository.journal.JournalRecordType;
 
 /**
  * This class extends the {@link BaseRepository} and manages an inventory of medications and related
@@ -18,6 +26,12 @@ public class InventoryRepository extends BaseRepository {
     /** A set of replenishment requests for medications. */
     private Set<ReplenishmentRequest> replenishmentRequest;
 
+    /** The identifier to be given to the next replenishment request. */
+    private int nextReplenishmentRequestId;
+
+    /** The replenishment requests by ID, and queued by status in order of request. */
+    private transient ReplenishmentRequestIndex requestIndex;
+
     /**
      * Constructs an instance of {@link InventoryRepository} with an empty inventory and an empty
      * set of replenishment requests.
@@ -25,6 +39,8 @@ public class InventoryRepository extends BaseRepository {
     public InventoryRepository() {
         this.inventory = new Inventory();
         this.replenishmentRequest = new HashSet<>();
+        this.nextReplenishmentRequestId = 1;
+        this.requestIndex = new ReplenishmentRequestIndex();
     }
 
     /**
@@ -37,23 +53,122 @@ public class InventoryRepository extends BaseRepository {
     }
 
     /**
-     * Retrieves a list of all replenishment requests.
+     * Records the current state of a medication, including its stock level and alert line, so that
+     * it is persisted. If the medication is no longer in the inventory, its removal is recorded
+     * instead.
      *
-     * <p>The list is a copy of the internal set of replenishment requests.
+     * @param medication the medication that was changed
+     */
+    public void updateMedication(Medication medication) {
+        if (this.inventory.getMedicationByName(medication.getName()).orElse(null) != medication) {
+            log(
+                    JournalRecordType.REMOVE_MEDICATION,
+                    medication.getName(),
+                    out -> EntityCodec.writeMedicationRemoval(out, medication));
+            return;
+        }
+        log(
+                JournalRecordType.PUT_MEDICATION,
+                medication.getName(),
+                out -> EntityCodec.writeMedication(out, medication, this.inventory));
+    }
+
+    /**
+     * Retrieves a list of all replenishment requests: the pending ones, then the approved ones,
+     * each oldest first.
      *
      * @return a list of all replenishment requests
      */
     public List<ReplenishmentRequest> getReplenishmentRequests() {
-        return List.copyOf(this.replenishmentRequest);
+        List<ReplenishmentRequest> requests = new ArrayList<>(this.replenishmentRequest.size());
+        for (ReplenishmentRequestStatus status : ReplenishmentRequestStatus.values()) {
+            requests.addAll(requestIndex().getByStatus(status, 0, Integer.MAX_VALUE));
+        }
+        return requests;
+    }
+
+    /**
+     * Retrieves the replenishment requests with a status.
+     *
+     * @param status the status
+     * @return the requests with the status, oldest first
+     */
+    public List<ReplenishmentRequest> getReplenishmentRequestsByStatus(
+            ReplenishmentRequestStatus status) {
+        return requestIndex().getByStatus(status, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Retrieves a page of the replenishment requests with a status, e.g. of the history of
+     * approved requests.
+     *
+     * @param status the status
+     * @param offset the number of requests to skip
+     * @param limit the maximum number of requests to retrieve
+     * @return the requests of the page, oldest first
+     */
+    public List<ReplenishmentRequest> getReplenishmentRequestsByStatus(
+            ReplenishmentRequestStatus status, int offset, int limit) {
+        return requestIndex().getByStatus(status, offset, limit);
+    }
+
+    /**
+     * Counts the replenishment requests with a status.
+     *
+     * @param status the status
+     * @return the number of requests with the status
+     */
+    public int countReplenishmentRequests(ReplenishmentRequestStatus status) {
+        return requestIndex().countByStatus(status);
+    }
+
+    /**
+     * Retrieves a replenishment request by its unique identifier.
+     *
+     * @param id the identifier of the replenishment request
+     * @return an Optional containing the request if found, or an empty Optional if not found
+     */
+    public Optional<ReplenishmentRequest> getReplenishmentRequestById(int id) {
+        return Optional.ofNullable(requestIndex().get(id));
     }
 
     /**
-     * Adds a new replenishment request to the set of replenishment requests.
+     * Adds a new replenishment request to the set of replenishment requests, giving it an
+     * identifier if it does not have one yet.
      *
      * @param rr the replenishment request to add
+     * @throws IllegalStateException if another request has the same identifier
      */
     public void addReplenishmentRequest(ReplenishmentRequest rr) {
-        this.replenishmentRequest.add(rr);
+        if (rr.getId() == 0) {
+            rr.setId(this.nextReplenishmentRequestId);
+        }
+
+        if (!this.replenishmentRequest.contains(rr)) {
+            // Indexed first, so that a request with a taken identifier is not added at all
+            requestIndex().put(rr);
+            this.replenishmentRequest.add(rr);
+            this.nextReplenishmentRequestId =
+                    Math.max(this.nextReplenishmentRequestId, rr.getId() + 1);
+            log(
+                    JournalRecordType.PUT_REPLENISHMENT_REQUEST,
+                    rr.getId(),
+                    out -> EntityCodec.writeReplenishmentRequest(out, rr));
+        }
+    }
+
+    /**
+     * Records changes made to a replenishment request, such as its approval, so that they are
+     * persisted.
+     *
+     * @param rr the replenishment request that was changed
+     */
+    public void updateReplenishmentRequest(ReplenishmentRequest rr) {
+        requestIndex().update(rr);
+        log(
+                JournalRecordType.PUT_REPLENISHMENT_REQUEST,
+                rr.getId(),
+                out -> EntityCodec.writeReplenishmentRequest(out, rr));
     }
 
     /**
@@ -62,6 +177,104 @@ public class InventoryRepository extends BaseRepository {
      * @param rr the replenishment request to remove
      */
     public void removeReplenishmentRequest(ReplenishmentRequest rr) {
-        this.replenishmentRequest.remove(rr);
+        if (this.replenishmentRequest.remove(rr)) {
+            requestIndex().remove(rr);
+            log(
+                    JournalRecordType.REMOVE_REPLENISHMENT_REQUEST,
+                    rr.getId(),
+                    out -> EntityCodec.writeReplenishmentRequestRemoval(out, rr));
+        }
+    }
+
+    /**
+     * Gives an identifier to every replenishment request without one, in order of request, and
+     * moves the next identifier past them all, as requests read from a snapshot written by an
+     * earlier version have none.
+     */
+    void numberReplenishmentRequests() {
+        List<ReplenishmentRequest> requests = new ArrayList<>(this.replenishmentRequest);
+        requests.sort(
+                Comparator.comparing(
+                        ReplenishmentRequest::getDateTime,
+                        Comparator.nullsFirst(Comparator.<LocalDateTime>naturalOrder())));
+        int next = 1;
+        for (ReplenishmentRequest rr : requests) {
+            next = Math.max(next, rr.getId() + 1);
+        }
+        for (ReplenishmentRequest rr : requests) {
+            if (rr.getId() == 0) {
+                rr.setId(next++);
+            }
+        }
+        this.nextReplenishmentRequestId = Math.max(this.nextReplenishmentRequestId, next);
+        this.requestIndex = null;
+    }
+
+    /**
+     * Retrieves a record of every medication or of every replenishment request. Medications are
+     * keyed by name and requests by ID, so their keys never collide.
+     *
+     * @param type the type of the records putting medications or replenishment requests
+     * @return the records of all medications or all replenishment requests
+     * @throws IllegalArgumentException if the type does not put entities of this repository
+     */
+    @Override
+    List<EntityRecord> getAllRecords(JournalRecordType type) {
+        List<EntityRecord> records = new ArrayList<>();
+        switch (type) {
+            case PUT_MEDICATION -> {
+                for (Medication medication : this.inventory.getMedications()) {
+                    records.add(
+                            new EntityRecord(
+                                    type,
+                                    out ->
+                                            EntityCodec.writeMedication(
+                                                    out, medication, this.inventory)));
+                }
+            }
+            case PUT_REPLENISHMENT_REQUEST -> {
+                List<ReplenishmentRequest> requests = new ArrayList<>(this.replenishmentRequest);
+                requests.sort(Comparator.comparingInt(ReplenishmentRequest::getId));
+                for (ReplenishmentRequest rr : requests) {
+                    records.add(
+                            new EntityRecord(
+                                    type, out -> EntityCodec.writeReplenishmentRequest(out, rr)));
+                }
+            }
+            default -> throw new IllegalArgumentException("not an inventory record: " + type);
+        }
+        return records;
+    }
+
+    /**
+     * Counts the medications or the replenishment requests in the repository.
+     *
+     * @param type the type of the records putting medications or replenishment requests
+     * @return the number of medications or replenishment requests
+     * @throws IllegalArgumentException if the type does not put entities of this repository
+     */
+    @Override
+    int getEntityCount(JournalRecordType type) {
+        return switch (type) {
+            case PUT_MEDICATION -> this.inventory.getMedications().size();
+            case PUT_REPLENISHMENT_REQUEST -> this.replenishmentRequest.size();
+            default -> throw new IllegalArgumentException("not an inventory record: " + type);
+        };
+    }
+
+    /**
+     * Retrieves the index of replenishment requests, building it from the requests on first use,
+     * as it is not kept by Java serialization.
+     *
+     * @return the index of replenishment requests
+     */
+    private ReplenishmentRequestIndex requestIndex() {
+        if (this.requestIndex == null) {
+            this.requestIndex = new ReplenishmentRequestIndex();
+            for (ReplenishmentRequest rr : this.replenishmentRequest) {
+                this.requestIndex.put(rr);
+            }
+        }
+        return this.requestIndex;
     }
 }
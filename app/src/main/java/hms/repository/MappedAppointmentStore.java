@@ -0,0 +1,523 @@
+package hms.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import hms.model.appointment.Appointment;
+import hms.model.appointment.AppointmentOutcome;
+import hms.model.appointment.AppointmentStatus;
+import hms.model.user.Doctor;
+import hms.model.user.Patient;
+import hms.model.user.User;
+import hms.repository.codec.CompactInput;
+import hms.repository.codec.CompactOutput;
+import hms.repository.codec.EntityCodec;
+
+/**
+ * Keeps appointments in fixed-width records of a memory-mapped file rather than as objects on the
+ * heap. The record of an appointment is found from its ID alone, and an {@link Appointment} is
+ * only materialized from it when accessed. Materialized appointments are cached weakly, so an
+ * appointment stays the same object for as long as it is referenced, and is reclaimed otherwise.
+ *
+ * <pre>
+ * [flags][status][doctor][patient][start][end][outcome offset][outcome length]
+ * </pre>
+ *
+ * <p>Users are referred to by an index into a table of user IDs. Outcomes are of variable length,
+ * so they are encoded by {@link EntityCodec} into a second file that the record points into. Both
+ * files are working storage, deleted when the store is closed: appointments are persisted by the
+ * segments and the journal like any other entity.
+ *
+ * <p>Changes made to a materialized appointment only reach its record when it is put again, which
+ * the repository does whenever an appointment is updated.
+ */
+class MappedAppointmentStore implements AppointmentStore {
+    /** The size of the record of an appointment, in bytes. */
+    private static final int RECORD_SIZE = 64;
+
+    private static final int FLAGS = 0;
+    private static final int STATUS = 1;
+    private static final int DOCTOR = 4;
+    private static final int PATIENT = 8;
+    private static final int START = 12;
+    private static final int END = 24;
+    private static final int OUTCOME_OFFSET = 36;
+    private static final int OUTCOME_LENGTH = 44;
+
+    private static final byte PRESENT = 1;
+    private static final byte HAS_START = 2;
+    private static final byte HAS_END = 4;
+
+    /** The number of records in each mapped region of the file, 4 MiB worth. */
+    private static final int REGION_RECORDS = 1 << 16;
+
+    private final RepositoryManager rm;
+    private final FileChannel records;
+    private final FileChannel outcomes;
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+    private long outcomesLength;
+
+    /** The IDs of the users referred to by records, whose index plus one is stored. */
+    private final List<String> userIds = new ArrayList<>();
+
+    private final Map<String, Integer> userIndexes = new HashMap<>();
+
+    /** The appointments materialized and still referenced, by ID. */
+    private final Map<Integer, CachedAppointment> cache = new HashMap<>();
+
+    private final ReferenceQueue<Appointment> collected = new ReferenceQueue<>();
+    private int size;
+    private int maxId;
+
+    /** A weak reference to a materialized appointment, remembering its ID once cleared. */
+    private static final class CachedAppointment extends WeakReference<Appointment> {
+        private final int id;
+
+        /**
+         * Constructs a weak reference to an appointment.
+         *
+         * @param ap the appointment
+         * @param queue the queue the reference is enqueued on once cleared
+         */
+        CachedAppointment(Appointment ap, ReferenceQueue<Appointment> queue) {
+            super(ap, queue);
+            this.id = ap.getId();
+        }
+    }
+
+    /**
+     * Constructs an empty store in new files under the given directory.
+     *
+     * @param directory the directory to create the files in
+     * @param rm the repository manager whose users and inventory records are resolved against
+     * @throws IOException if the files cannot be created
+     */
+    MappedAppointmentStore(Path directory, RepositoryManager rm) throws IOException {
+        this.rm = rm;
+        Files.createDirectories(directory);
+        this.records = open(Files.createTempFile(directory, "appointments", ".map"));
+        this.outcomes = open(Files.createTempFile(directory, "outcomes", ".map"));
+    }
+
+    /**
+     * Retrieves an appointment by its ID, materializing it from its record unless it is still
+     * referenced.
+     *
+     * @param id the ID of the appointment
+     * @return the appointment, or an empty Optional if there is none with that ID
+     */
+    @Override
+    public Optional<Appointment> get(int id) {
+        expunge();
+        if (id < 1 || id > maxId) {
+            return Optional.empty();
+        }
+        CachedAppointment cached = cache.get(id);
+        Appointment ap = cached != null ? cached.get() : null;
+        if (ap != null) {
+            return Optional.of(ap);
+        }
+
+        ByteBuffer region = region(id);
+        int base = base(id);
+        if ((region.get(base + FLAGS) & PRESENT) == 0) {
+            return Optional.empty();
+        }
+        ap = materialize(id, region, base);
+        cache.put(id, new CachedAppointment(ap, collected));
+        return Optional.of(ap);
+    }
+
+    /**
+     * Writes the current state of an appointment to its record, which becomes the appointment
+     * returned for its ID while it is referenced.
+     *
+     * @param appointment the appointment to store
+     * @throws IllegalArgumentException if the appointment has no ID
+     */
+    @Override
+    public void put(Appointment appointment) {
+        expunge();
+        int id = appointment.getId();
+        if (id < 1) {
+            throw new IllegalArgumentException("appointment has no ID: " + id);
+        }
+        grow(id);
+        ByteBuffer region = region(id);
+        int base = base(id);
+        boolean present = (region.get(base + FLAGS) & PRESENT) != 0;
+
+        LocalDateTime start = appointment.getStart();
+        LocalDateTime end = appointment.getEnd();
+        region.put(
+                base + FLAGS,
+                (byte) (PRESENT | (start != null ? HAS_START : 0) | (end != null ? HAS_END : 0)));
+        region.put(base + STATUS, (byte) appointment.getStatus().ordinal());
+        region.putInt(base + DOCTOR, userIndex(appointment.getDoctor()));
+        region.putInt(base + PATIENT, userIndex(appointment.getPatient()));
+        putDateTime(region, base + START, start);
+        putDateTime(region, base + END, end);
+        writeOutcome(region, base, present, appointment.getOutcome());
+
+        cache.put(id, new CachedAppointment(appointment, collected));
+        if (!present) {
+            size++;
+            maxId = Math.max(maxId, id);
+        }
+    }
+
+    /**
+     * Writes the current state of an appointment to its record, if it is still in the store.
+     *
+     * @param appointment the appointment that was changed
+     */
+    @Override
+    public void update(Appointment appointment) {
+        int id = appointment.getId();
+        if (id >= 1 && id <= maxId && (region(id).get(base(id) + FLAGS) & PRESENT) != 0) {
+            put(appointment);
+        }
+    }
+
+    /**
+     * Removes an appointment, unless a different appointment with its ID is still referenced.
+     *
+     * @param appointment the appointment to remove
+     * @return true if the appointment was removed
+     */
+    @Override
+    public boolean remove(Appointment appointment) {
+        expunge();
+        int id = appointment.getId();
+        if (id < 1 || id > maxId) {
+            return false;
+        }
+        CachedAppointment cached = cache.get(id);
+        Appointment current = cached != null ? cached.get() : null;
+        ByteBuffer region = region(id);
+        int base = base(id);
+        if ((region.get(base + FLAGS) & PRESENT) == 0
+                || (current != null && current != appointment)) {
+            return false;
+        }
+
+        region.put(base + FLAGS, (byte) 0);
+        cache.remove(id);
+        size--;
+        while (maxId > 0 && (region(maxId).get(base(maxId) + FLAGS) & PRESENT) == 0) {
+            maxId--;
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves the IDs of every appointment, in ascending order, without materializing them.
+     *
+     * @return the IDs of all appointments
+     */
+    @Override
+    public List<Integer> getIds() {
+        List<Integer> ids = new ArrayList<>(size);
+        for (int id = 1; id <= maxId; id++) {
+            if ((region(id).get(base(id) + FLAGS) & PRESENT) != 0) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Retrieves every appointment, materializing those that are not referenced.
+     *
+     * @return all appointments, in ID order
+     */
+    @Override
+    public List<Appointment> getAll() {
+        List<Appointment> appointments = new ArrayList<>(size);
+        for (int id : getIds()) {
+            get(id).ifPresent(appointments::add);
+        }
+        return appointments;
+    }
+
+    /**
+     * Counts the appointments in the store.
+     *
+     * @return the number of appointments
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Retrieves the highest ID of any appointment in the store.
+     *
+     * @return the highest ID, or 0 if the store is empty
+     */
+    @Override
+    public int getMaxId() {
+        return maxId;
+    }
+
+    /**
+     * Closes and deletes the files of the store. Appointments materialized before remain usable.
+     *
+     * @throws IOException if a file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        regions.clear();
+        cache.clear();
+        size = 0;
+        maxId = 0;
+        try (outcomes) {
+            records.close();
+        }
+    }
+
+    /**
+     * Creates an appointment from its record.
+     *
+     * @param id the ID of the appointment
+     * @param region the region holding the record
+     * @param base the offset of the record in the region
+     * @return the appointment
+     */
+    private Appointment materialize(int id, ByteBuffer region, int base) {
+        byte flags = region.get(base + FLAGS);
+        Appointment ap =
+                new Appointment(
+                        user(region.getInt(base + DOCTOR), Doctor.class),
+                        (flags & HAS_START) != 0 ? getDateTime(region, base + START) : null,
+                        (flags & HAS_END) != 0 ? getDateTime(region, base + END) : null);
+        ap.setId(id);
+        ap.setPatient(user(region.getInt(base + PATIENT), Patient.class));
+        ap.setState(EntityCodec.stateOf(AppointmentStatus.values()[region.get(base + STATUS)]));
+
+        int length = region.getInt(base + OUTCOME_LENGTH);
+        if (length > 0) {
+            byte[] bytes = readOutcome(region.getLong(base + OUTCOME_OFFSET), length);
+            try {
+                CompactInput in = new CompactInput(new ByteArrayInputStream(bytes));
+                ap.setOutcome(EntityCodec.readOutcome(in, ap, rm));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return ap;
+    }
+
+    /**
+     * Writes the outcome of an appointment to the outcome file and points its record at it. An
+     * outcome that has not changed is not written again.
+     *
+     * @param region the region holding the record
+     * @param base the offset of the record in the region
+     * @param present whether the record already held the appointment
+     * @param outcome the outcome, or null if there is none
+     */
+    private void writeOutcome(
+            ByteBuffer region, int base, boolean present, AppointmentOutcome outcome) {
+        if (outcome == null) {
+            region.putLong(base + OUTCOME_OFFSET, 0);
+            region.putInt(base + OUTCOME_LENGTH, 0);
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            EntityCodec.writeOutcome(new CompactOutput(bytes), outcome);
+        } catch (IOException e) {
+            // Writing to a byte array cannot fail
+            throw new AssertionError(e);
+        }
+        byte[] encoded = bytes.toByteArray();
+
+        long offset = region.getLong(base + OUTCOME_OFFSET);
+        int length = region.getInt(base + OUTCOME_LENGTH);
+        if (present
+                && length == encoded.length
+                && Arrays.equals(readOutcome(offset, length), encoded)) {
+            return;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(encoded);
+            while (buffer.hasRemaining()) {
+                outcomesLength += outcomes.write(buffer, outcomesLength);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        region.putLong(base + OUTCOME_OFFSET, outcomesLength - encoded.length);
+        region.putInt(base + OUTCOME_LENGTH, encoded.length);
+    }
+
+    /**
+     * Reads an encoded outcome from the outcome file.
+     *
+     * @param offset the offset of the outcome in the file
+     * @param length the length of the outcome
+     * @return the encoded outcome
+     */
+    private byte[] readOutcome(long offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (outcomes.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("outcome file is truncated");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Maps the regions of the file needed to hold the record of an appointment.
+     *
+     * @param id the ID of the appointment
+     */
+    private void grow(int id) {
+        int region = (id - 1) / REGION_RECORDS;
+        long regionSize = (long) REGION_RECORDS * RECORD_SIZE;
+        try {
+            while (regions.size() <= region) {
+                // Mapping past the end of the file extends it with zeroes, i.e. absent records
+                regions.add(
+                        records.map(
+                                FileChannel.MapMode.READ_WRITE,
+                                regions.size() * regionSize,
+                                regionSize));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Retrieves the mapped region holding the record of an appointment, which must be mapped.
+     *
+     * @param id the ID of the appointment
+     * @return the region
+     */
+    private ByteBuffer region(int id) {
+        return regions.get((id - 1) / REGION_RECORDS);
+    }
+
+    /**
+     * Computes the offset of the record of an appointment in its region.
+     *
+     * @param id the ID of the appointment
+     * @return the offset of the record
+     */
+    private static int base(int id) {
+        return (id - 1) % REGION_RECORDS * RECORD_SIZE;
+    }
+
+    /** Drops the cache entries of appointments that have been reclaimed. */
+    private void expunge() {
+        Reference<? extends Appointment> ref;
+        while ((ref = collected.poll()) != null) {
+            int id = ((CachedAppointment) ref).id;
+            cache.remove(id, ref);
+        }
+    }
+
+    /**
+     * Retrieves the index of a user in the table of user IDs, adding the user if needed.
+     *
+     * @param user the user, or null
+     * @return the index plus one, or 0 for null
+     */
+    private int userIndex(User user) {
+        if (user == null) {
+            return 0;
+        }
+        return userIndexes.computeIfAbsent(
+                user.getId(),
+                userId -> {
+                    userIds.add(userId);
+                    return userIds.size();
+                });
+    }
+
+    /**
+     * Resolves a user from its index in the table of user IDs.
+     *
+     * @param index the index plus one, or 0 for null
+     * @param type the class of the user
+     * @return the user, or null if there is none or it is not of that type
+     */
+    private <T extends User> T user(int index, Class<T> type) {
+        if (index == 0) {
+            return null;
+        }
+        return rm.getUserRepository()
+                .getUserById(userIds.get(index - 1))
+                .filter(type::isInstance)
+                .map(type::cast)
+                .orElse(null);
+    }
+
+    /**
+     * Writes a date and time as its epoch second and nanosecond.
+     *
+     * @param region the region to write to
+     * @param offset the offset to write at
+     * @param dt the date and time, or null
+     */
+    private static void putDateTime(ByteBuffer region, int offset, LocalDateTime dt) {
+        region.putLong(offset, dt != null ? dt.toEpochSecond(ZoneOffset.UTC) : 0);
+        region.putInt(offset + Long.BYTES, dt != null ? dt.getNano() : 0);
+    }
+
+    /**
+     * Reads a date and time written by {@link #putDateTime(ByteBuffer, int, LocalDateTime)}.
+     *
+     * @param region the region to read from
+     * @param offset the offset to read at
+     * @return the date and time
+     */
+    private static LocalDateTime getDateTime(ByteBuffer region, int offset) {
+        return LocalDateTime.ofEpochSecond(
+                region.getLong(offset), region.getInt(offset + Long.BYTES), ZoneOffset.UTC);
+    }
+
+    /**
+     * Opens a file of the store, to be deleted once closed.
+     *
+     * @param path the path of the file
+     * @return the channel
+     * @throws IOException if the file cannot be opened
+     */
+    private static FileChannel open(Path path) throws IOException {
+        path.toFile().deleteOnExit();
+        return FileChannel.open(
+                path,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+}
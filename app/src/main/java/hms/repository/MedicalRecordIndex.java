@@ -0,0 +1,310 @@
+package hms.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An inverted index over the diagnoses and treatments of medical records, so that searching them
+ * across patients costs the number of matches rather than the number of records.
+ *
+ * <p>Every diagnosis and treatment is an entry, split into lowercase terms of letters and digits.
+ * Each term maps to the positions it occurs at, as pairs of entry and position within the entry,
+ * which answers term, prefix and phrase queries. A phrase only matches within a single entry.
+ *
+ * <p>Diagnoses and treatments are append-only, so indexing a medical record again only indexes
+ * the entries added since. The entries of a removed patient are only dropped from the results,
+ * as patients are rarely removed.
+ */
+class MedicalRecordIndex {
+    /** The positions of each term, by term in order, so that prefixes are ranges. */
+    private final TreeMap<String, Postings> postings = new TreeMap<>();
+
+    /** The ID of the patient of each entry, by entry, or null once the patient is removed. */
+    private final List<String> patientIds = new ArrayList<>();
+
+    /** What is indexed of the medical record of each patient, by patient ID. */
+    private final Map<String, Indexed> indexed = new HashMap<>();
+
+    /**
+     * The entries indexed for a patient. The medical record itself is not kept, so that it can be
+     * read on demand from a {@link MedicalRecordStore}, and indexed from its encoded form.
+     */
+    private static final class Indexed {
+        private final List<Integer> entries = new ArrayList<>();
+        private int diagnoses;
+        private int treatments;
+    }
+
+    /**
+     * The positions a term occurs at, as pairs of entry and position in ascending order, since
+     * entries are numbered as they are indexed.
+     */
+    private static final class Postings {
+        private int[] pairs = new int[4];
+        private int size;
+
+        /**
+         * Adds a position, which comes after every position already added.
+         *
+         * @param entry the entry the term occurs in
+         * @param position the position of the term in the entry
+         */
+        void add(int entry, int position) {
+            if (size + 2 > pairs.length) {
+                pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            }
+            pairs[size++] = entry;
+            pairs[size++] = position;
+        }
+
+        /**
+         * Checks whether the term occurs at a position.
+         *
+         * @param entry the entry
+         * @param position the position in the entry
+         * @return true if the term occurs at the position
+         */
+        boolean contains(int entry, int position) {
+            int low = 0;
+            int high = size / 2 - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int c = Integer.compare(pairs[2 * mid], entry);
+                if (c == 0) {
+                    c = Integer.compare(pairs[2 * mid + 1], position);
+                }
+                if (c < 0) {
+                    low = mid + 1;
+                } else if (c > 0) {
+                    high = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Counts the positions.
+         *
+         * @return the number of positions
+         */
+        int count() {
+            return size / 2;
+        }
+    }
+
+    /**
+     * Indexes the entries of a medical record added since it was last indexed. A medical record
+     * with fewer entries than were indexed replaces them.
+     *
+     * @param patientId the ID of the patient
+     * @param diagnoses every diagnosis of the medical record of the patient
+     * @param treatments every treatment of the medical record of the patient
+     */
+    void index(String patientId, List<String> diagnoses, List<String> treatments) {
+        Indexed done = indexed.get(patientId);
+        if (done != null
+                && (done.diagnoses > diagnoses.size() || done.treatments > treatments.size())) {
+            remove(patientId);
+            done = null;
+        }
+        if (done == null) {
+            done = new Indexed();
+            indexed.put(patientId, done);
+        }
+
+        for (; done.diagnoses < diagnoses.size(); done.diagnoses++) {
+            done.entries.add(add(patientId, diagnoses.get(done.diagnoses)));
+        }
+        for (; done.treatments < treatments.size(); done.treatments++) {
+            done.entries.add(add(patientId, treatments.get(done.treatments)));
+        }
+    }
+
+    /**
+     * Removes the medical record of a patient from the results.
+     *
+     * @param patientId the ID of the patient
+     */
+    void remove(String patientId) {
+        Indexed done = indexed.remove(patientId);
+        if (done != null) {
+            for (int entry : done.entries) {
+                patientIds.set(entry, null);
+            }
+        }
+    }
+
+    /**
+     * Searches the medical records. A query is a list of clauses that must all match: a word
+     * matches entries with that term, a word ending with {@code *} entries with a term starting
+     * with it, and words in double quotes entries with those terms in a row.
+     *
+     * @param query the query
+     * @return the IDs of the patients whose medical record matches, in order
+     */
+    Set<String> search(String query) {
+        Set<String> result = null;
+        String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++) {
+            List<Set<String>> clauses = new ArrayList<>();
+            if (i % 2 == 1) {
+                // Inside quotes
+                if (!tokenize(parts[i]).isEmpty()) {
+                    clauses.add(searchPhrase(parts[i]));
+                }
+            } else {
+                for (String word : parts[i].trim().split("\\s+")) {
+                    if (word.length() > 1 && word.endsWith("*")) {
+                        clauses.add(searchPrefix(word.substring(0, word.length() - 1)));
+                    } else if (!tokenize(word).isEmpty()) {
+                        clauses.add(searchPhrase(word));
+                    }
+                }
+            }
+            for (Set<String> clause : clauses) {
+                if (result == null) {
+                    result = clause;
+                } else {
+                    result.retainAll(clause);
+                }
+            }
+        }
+        return result != null ? result : new TreeSet<>();
+    }
+
+    /**
+     * Searches the medical records for a term.
+     *
+     * @param term the term, in any case
+     * @return the IDs of the patients with an entry holding the term, in order
+     */
+    Set<String> searchTerm(String term) {
+        Set<String> result = new TreeSet<>();
+        addPatients(postings.get(term.toLowerCase(Locale.ROOT)), result);
+        return result;
+    }
+
+    /**
+     * Searches the medical records for terms starting with a prefix.
+     *
+     * @param prefix the prefix, in any case
+     * @return the IDs of the patients with an entry holding a term with the prefix, in order
+     */
+    Set<String> searchPrefix(String prefix) {
+        String from = prefix.toLowerCase(Locale.ROOT);
+        Set<String> result = new TreeSet<>();
+        for (Postings p : postings.subMap(from, true, from + Character.MAX_VALUE, true).values()) {
+            addPatients(p, result);
+        }
+        return result;
+    }
+
+    /**
+     * Searches the medical records for terms in a row within an entry.
+     *
+     * @param phrase the phrase, which is split into terms like entries are
+     * @return the IDs of the patients with an entry holding the phrase, in order
+     */
+    Set<String> searchPhrase(String phrase) {
+        List<String> terms = tokenize(phrase);
+        Set<String> result = new TreeSet<>();
+        if (terms.isEmpty()) {
+            return result;
+        }
+
+        // Walk the positions of the rarest term, checking the others around each
+        Postings[] lists = new Postings[terms.size()];
+        int anchor = 0;
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = postings.get(terms.get(i));
+            if (lists[i] == null) {
+                return result;
+            }
+            if (lists[i].count() < lists[anchor].count()) {
+                anchor = i;
+            }
+        }
+
+        Postings rarest = lists[anchor];
+        for (int k = 0; k < rarest.size; k += 2) {
+            int entry = rarest.pairs[k];
+            int start = rarest.pairs[k + 1] - anchor;
+            String patientId = patientIds.get(entry);
+            if (start < 0 || patientId == null || result.contains(patientId)) {
+                continue;
+            }
+            boolean match = true;
+            for (int i = 0; i < lists.length && match; i++) {
+                match = i == anchor || lists[i].contains(entry, start + i);
+            }
+            if (match) {
+                result.add(patientId);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits a text into lowercase terms of letters and digits.
+     *
+     * @param text the text, may be null
+     * @return the terms, in order
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        for (String term : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Indexes a new entry.
+     *
+     * @param patientId the ID of the patient of the entry
+     * @param text the text of the entry
+     * @return the number of the entry
+     */
+    private int add(String patientId, String text) {
+        int entry = patientIds.size();
+        patientIds.add(patientId);
+        List<String> terms = tokenize(text);
+        for (int position = 0; position < terms.size(); position++) {
+            postings.computeIfAbsent(terms.get(position), t -> new Postings())
+                    .add(entry, position);
+        }
+        return entry;
+    }
+
+    /**
+     * Adds the patients of the entries a term occurs in to a set.
+     *
+     * @param p the positions of the term, may be null
+     * @param result the set to add the IDs of the patients to
+     */
+    private void addPatients(Postings p, Set<String> result) {
+        if (p == null) {
+            return;
+        }
+        for (int k = 0; k < p.size; k += 2) {
+            String patientId = patientIds.get(p.pairs[k]);
+            if (patientId != null) {
+                result.add(patientId);
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package hms.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+import hms.model.record.MedicalRecord;
+import hms.model.user.Patient;
+import hms.repository.codec.CompactInput;
+import hms.repository.codec.EntityCodec;
+import hms.repository.codec.EntityCodec.MedicalRecordDetails;
+import hms.repository.journal.Journal;
+import hms.repository.journal.JournalRecordType;
+
+/**
+ * Reads the medical records of patients on demand from their keyed {@link Segment}, e.g. {@code
+ * database.records.seg} for {@code database.bin}, so that a patient only holds its medical record
+ * while it is in use. Loading only locates the latest record of each patient, and a {@link
+ * MedicalRecord} is decoded when first retrieved. The most recently used ones are kept in a
+ * bounded cache, and retrieved ones are also referenced weakly, so a medical record stays the same
+ * object for as long as it is referenced.
+ *
+ * <p>The store never writes. A medical record is saved like any other entity once {@link
+ * UserRepository#updateMedicalRecord(Patient)} journals it and marks it dirty, which also keeps it
+ * referenced until the next save, and the segment then reports where it put it. Superseded records
+ * are dropped when the segment is rewritten.
+ */
+class MedicalRecordStore implements Segment.Locator {
+    private final Segment segment;
+    private final RepositoryManager rm;
+    private final int capacity;
+
+    /**
+     * Where the latest record of each medical record is in the segment, by patient ID. Records
+     * copied to the segment by a background checkpoint are reported from its thread.
+     */
+    private final Map<String, Segment.Extent> extents = new ConcurrentHashMap<>();
+
+    /** The most recently used medical records, by patient ID, in access order. */
+    private final LinkedHashMap<String, MedicalRecord> recent;
+
+    /** The medical records retrieved and still referenced, by patient ID. */
+    private final Map<String, CachedRecord> referenced = new HashMap<>();
+
+    private final ReferenceQueue<MedicalRecord> collected = new ReferenceQueue<>();
+
+    /** A weak reference to a retrieved medical record, remembering its patient once cleared. */
+    private static final class CachedRecord extends WeakReference<MedicalRecord> {
+        private final String patientId;
+
+        /**
+         * Constructs a weak reference to a medical record.
+         *
+         * @param patientId the ID of the patient of the medical record
+         * @param record the medical record
+         * @param queue the queue the reference is enqueued on once cleared
+         */
+        CachedRecord(
+                String patientId, MedicalRecord record, ReferenceQueue<MedicalRecord> queue) {
+            super(record, queue);
+            this.patientId = patientId;
+        }
+    }
+
+    /**
+     * Constructs a store reading from the given segment, which holds no medical record until the
+     * segment reports where they are.
+     *
+     * @param segment the keyed segment of the medical records
+     * @param capacity the number of medical records kept in the cache
+     * @param rm the repository manager whose doctors medical records are resolved against
+     */
+    MedicalRecordStore(Segment segment, int capacity, RepositoryManager rm) {
+        this.segment = segment;
+        this.rm = rm;
+        this.capacity = Math.max(capacity, 1);
+        this.recent =
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, MedicalRecord> eldest) {
+                        return size() > MedicalRecordStore.this.capacity;
+                    }
+                };
+    }
+
+    /**
+     * Records where the latest record of a medical record is in the segment, or that it was
+     * dropped.
+     *
+     * @param type the type of the record
+     * @param key the ID of the patient
+     * @param extent where the record is
+     */
+    @Override
+    public void locate(JournalRecordType type, String key, Segment.Extent extent) {
+        if (type == JournalRecordType.PUT_MEDICAL_RECORD) {
+            extents.put(key, extent);
+        } else {
+            extents.remove(key);
+        }
+    }
+
+    /**
+     * Checks whether the store holds the medical record of a patient, saved or in use.
+     *
+     * @param patientId the ID of the patient
+     * @return true if the store holds the medical record
+     */
+    boolean contains(String patientId) {
+        expunge();
+        return extents.containsKey(patientId) || inUse(patientId) != null;
+    }
+
+    /**
+     * Retrieves the medical record of a patient, decoding it from the segment unless it is still
+     * referenced. A patient with no medical record in the store is given an empty one.
+     *
+     * @param patient the patient
+     * @return the medical record of the patient
+     * @throws UncheckedIOException if the medical record cannot be read
+     */
+    MedicalRecord get(Patient patient) {
+        expunge();
+        String id = patient.getId();
+        MedicalRecord mr = recent.get(id);
+        if (mr == null) {
+            mr = inUse(id);
+        }
+        if (mr == null) {
+            mr = new MedicalRecord(patient);
+            Segment.Extent extent = extents.get(id);
+            if (extent != null) {
+                try {
+                    read(extent).applyTo(mr, rm);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        cache(id, mr);
+        return mr;
+    }
+
+    /**
+     * Holds the medical record of a patient that is not saved yet, replacing any held for the
+     * patient. The record must stay referenced until it is saved, e.g. by a dirty entity record.
+     *
+     * @param patient the patient
+     * @param mr the medical record of the patient
+     */
+    void put(Patient patient, MedicalRecord mr) {
+        expunge();
+        cache(patient.getId(), mr);
+    }
+
+    /**
+     * Removes the medical record of a patient.
+     *
+     * @param patientId the ID of the patient
+     */
+    void remove(String patientId) {
+        expunge();
+        recent.remove(patientId);
+        referenced.remove(patientId);
+        extents.remove(patientId);
+    }
+
+    /**
+     * Counts the medical records held in the cache.
+     *
+     * @return the number of cached medical records
+     */
+    int getCachedCount() {
+        return recent.size();
+    }
+
+    /**
+     * Retrieves a writer of the medical record of a patient, taking it as it is if it is in use,
+     * and otherwise copying it from the segment without loading it, e.g. to rewrite the segment.
+     *
+     * @param patient the patient
+     * @return the writer of the medical record
+     */
+    Journal.RecordWriter writer(Patient patient) {
+        expunge();
+        String id = patient.getId();
+        MedicalRecord mr = inUse(id);
+        Segment.Extent extent = extents.get(id);
+        if (mr == null && extent != null) {
+            return out -> EntityCodec.writeMedicalRecord(out, id, read(extent));
+        }
+        MedicalRecord record = mr != null ? mr : new MedicalRecord(patient);
+        return out -> EntityCodec.writeMedicalRecord(out, id, record);
+    }
+
+    /**
+     * Reads the details of every medical record in one pass over the segment, e.g. to index them,
+     * taking those in use as they are and decoding the others without loading them.
+     *
+     * @param action the action receiving the ID of each patient and the details of its medical
+     *     record
+     * @throws UncheckedIOException if the segment cannot be read
+     */
+    void forEachDetails(BiConsumer<String, MedicalRecordDetails> action) {
+        expunge();
+        Set<String> inUse = new HashSet<>();
+        for (CachedRecord cached : new ArrayList<>(referenced.values())) {
+            MedicalRecord mr = cached.get();
+            if (mr != null) {
+                inUse.add(cached.patientId);
+                action.accept(cached.patientId, MedicalRecordDetails.of(mr));
+            }
+        }
+
+        try {
+            segment.walk(
+                    (record, extent) -> {
+                        CompactInput in = new CompactInput(new ByteArrayInputStream(record));
+                        if (JournalRecordType.values()[in.readByte()]
+                                != JournalRecordType.PUT_MEDICAL_RECORD) {
+                            return;
+                        }
+                        // Only the latest record of a medical record not in use counts
+                        String patientId = in.readString();
+                        if (!inUse.contains(patientId)
+                                && extent.equals(extents.get(patientId))) {
+                            action.accept(patientId, EntityCodec.readMedicalRecordDetails(in));
+                        }
+                    });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Retrieves the medical record of a patient if it is still referenced, without making it the
+     * most recently used.
+     *
+     * @param patientId the ID of the patient
+     * @return the medical record, or null if it is not in use
+     */
+    private MedicalRecord inUse(String patientId) {
+        CachedRecord cached = referenced.get(patientId);
+        return cached != null ? cached.get() : null;
+    }
+
+    /**
+     * Puts a medical record in the cache, where it is the most recently used, and references it.
+     *
+     * @param patientId the ID of the patient
+     * @param mr the medical record
+     */
+    private void cache(String patientId, MedicalRecord mr) {
+        recent.put(patientId, mr);
+        if (inUse(patientId) != mr) {
+            referenced.put(patientId, new CachedRecord(patientId, mr, collected));
+        }
+    }
+
+    /**
+     * Decodes the details of a medical record from the segment.
+     *
+     * @param extent where the record of the medical record is
+     * @return the details of the medical record
+     * @throws IOException if the medical record cannot be read
+     */
+    private MedicalRecordDetails read(Segment.Extent extent) throws IOException {
+        CompactInput in = new CompactInput(new ByteArrayInputStream(segment.read(extent)));
+        // Skip the type and patient ID, which the extent was located by
+        in.readByte();
+        in.readString();
+        return EntityCodec.readMedicalRecordDetails(in);
+    }
+
+    /** Drops the references to medical records that have been reclaimed. */
+    private void expunge() {
+        Reference<? extends MedicalRecord> ref;
+        while ((ref = collected.poll()) != null) {
+            referenced.remove(((CachedRecord) ref).patientId, ref);
+        }
+    }
+}
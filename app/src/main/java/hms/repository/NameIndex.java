@@ -0,0 +1,326 @@
+package hms.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import hms.model.user.User;
+
+/**
+ * A trigram index over the names and IDs of users, so that users are found by part of their name
+ * or ID, or by a misspelling of it, without walking every user.
+ *
+ * <p>The name and the ID of a user are lowercased, padded with a space at each end, and split into
+ * every run of three characters. A substring of either has its trigrams among them, so only the
+ * users holding the rarest trigram of a query are checked for it. A misspelled query still shares
+ * many of its trigrams with the name it was meant for, so users holding enough of the trigrams of
+ * the query also match, ranked by the share of them they hold.
+ *
+ * <p>Each user is indexed under a slot, and slots are numbered as users are indexed, so the slots
+ * of a trigram are kept in ascending order in an array. A user removed or renamed leaves its slot
+ * empty, and the index is rebuilt once most slots are empty.
+ */
+class NameIndex {
+    /** The least share of the trigrams of a misspelled query a user must hold to match it. */
+    private static final double MIN_SIMILARITY = 0.3;
+
+    /** The fewest empty slots worth rebuilding the index for. */
+    private static final int MIN_COMPACTION = 1024;
+
+    /** The slots of the users holding each trigram. */
+    private final Map<String, Slots> postings = new HashMap<>();
+
+    /** The user indexed under each slot, or null if the slot is empty. */
+    private final List<Slot> slots = new ArrayList<>();
+
+    /** The slot of each user, by ID. */
+    private final Map<String, Integer> slotsById = new HashMap<>();
+
+    private int emptySlots;
+
+    /**
+     * A user and the names it was indexed under, to tell when it has been renamed.
+     *
+     * @param user the user
+     * @param firstName the first name the user was indexed under
+     * @param lastName the last name the user was indexed under
+     * @param trigrams the number of distinct trigrams of the user
+     */
+    private record Slot(User user, String firstName, String lastName, int trigrams) {}
+
+    /**
+     * A user found by a search, and how well it matches.
+     *
+     * @param user the user
+     * @param rank 0 if its name or ID is the query, 1 if either starts with it, 2 if either
+     *     contains it, and 3 if it only matches a misspelling of it
+     * @param score the share of the trigrams of the query the user holds
+     * @param similarity the share of the trigrams of the query and of the user they have in
+     *     common, which favours shorter names among users holding as many trigrams
+     */
+    private record Match(User user, int rank, double score, double similarity) {
+        private static final Comparator<Match> ORDER =
+                Comparator.comparingInt(Match::rank)
+                        .thenComparing(Comparator.comparingDouble(Match::score).reversed())
+                        .thenComparing(Comparator.comparingDouble(Match::similarity).reversed())
+                        .thenComparing(m -> m.user().getId());
+    }
+
+    /** The slots holding a trigram, in ascending order. */
+    private static final class Slots {
+        private int[] slots = new int[2];
+        private int size;
+
+        /**
+         * Adds a slot, which comes after every slot already added.
+         *
+         * @param slot the slot
+         */
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+    }
+
+    /**
+     * Indexes a user under its current names, unless it is indexed under them already.
+     *
+     * @param user the user
+     */
+    void put(User user) {
+        Integer slot = slotsById.get(user.getId());
+        if (slot != null) {
+            Slot indexed = slots.get(slot);
+            if (indexed.user() == user
+                    && Objects.equals(indexed.firstName(), user.getFirstName())
+                    && Objects.equals(indexed.lastName(), user.getLastName())) {
+                return;
+            }
+            remove(user.getId());
+        }
+
+        Set<String> trigrams = trigrams(user);
+        int newSlot = slots.size();
+        slots.add(new Slot(user, user.getFirstName(), user.getLastName(), trigrams.size()));
+        slotsById.put(user.getId(), newSlot);
+        for (String trigram : trigrams) {
+            postings.computeIfAbsent(trigram, t -> new Slots()).add(newSlot);
+        }
+    }
+
+    /**
+     * Removes a user from the index.
+     *
+     * @param id the ID of the user
+     */
+    void remove(String id) {
+        Integer slot = slotsById.remove(id);
+        if (slot == null) {
+            return;
+        }
+        slots.set(slot, null);
+        emptySlots++;
+        if (emptySlots >= MIN_COMPACTION && emptySlots > slots.size() / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Searches the users whose name or ID contains a query, or is close to it, ignoring case.
+     *
+     * @param query the query
+     * @param filter the users to consider
+     * @param limit the maximum number of users to find
+     * @return the users found, best matches first: those whose name or ID is the query, then those
+     *     where a word starts with it, then those that contain it, then those that only hold enough
+     *     of its trigrams, by share of them held
+     */
+    List<User> search(String query, Predicate<User> filter, int limit) {
+        String q = normalize(query);
+        if (q.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        Map<Integer, Match> matches = new HashMap<>();
+        for (int slot : substringCandidates(q)) {
+            Slot s = slots.get(slot);
+            if (s != null && !matches.containsKey(slot) && filter.test(s.user())) {
+                User user = s.user();
+                int rank =
+                        Math.min(rank(normalizedName(user), q), rank(normalize(user.getId()), q));
+                if (rank < 3) {
+                    matches.put(slot, new Match(user, rank, 1, 1));
+                }
+            }
+        }
+
+        // Count the trigrams each user has in common with the padded query
+        Set<String> queryTrigrams = new HashSet<>();
+        addTrigrams(" " + q + " ", queryTrigrams);
+        Map<Integer, Integer> common = new HashMap<>();
+        for (String trigram : queryTrigrams) {
+            Slots p = postings.get(trigram);
+            if (p != null) {
+                for (int i = 0; i < p.size; i++) {
+                    common.merge(p.slots[i], 1, Integer::sum);
+                }
+            }
+        }
+        for (Map.Entry<Integer, Integer> entry : common.entrySet()) {
+            Slot s = slots.get(entry.getKey());
+            if (s == null || matches.containsKey(entry.getKey())) {
+                continue;
+            }
+            int shared = entry.getValue();
+            double score = (double) shared / queryTrigrams.size();
+            double similarity = (double) shared / (queryTrigrams.size() + s.trigrams() - shared);
+            if (score >= MIN_SIMILARITY && filter.test(s.user())) {
+                matches.put(entry.getKey(), new Match(s.user(), 3, score, similarity));
+            }
+        }
+
+        List<Match> ranked = new ArrayList<>(matches.values());
+        ranked.sort(Match.ORDER);
+        List<User> users = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            users.add(ranked.get(i).user());
+        }
+        return users;
+    }
+
+    /**
+     * Finds the slots of the users that may contain a query, i.e. that hold every trigram of it,
+     * or for a query too short for trigrams, a trigram containing it.
+     *
+     * @param q the normalized query
+     * @return the candidate slots
+     */
+    private Set<Integer> substringCandidates(String q) {
+        Set<Integer> candidates = new HashSet<>();
+        if (q.length() < 3) {
+            for (Map.Entry<String, Slots> entry : postings.entrySet()) {
+                if (entry.getKey().contains(q)) {
+                    Slots p = entry.getValue();
+                    for (int i = 0; i < p.size; i++) {
+                        candidates.add(p.slots[i]);
+                    }
+                }
+            }
+            return candidates;
+        }
+
+        // Every candidate holds the rarest trigram, and is checked for the query itself later
+        Slots rarest = null;
+        Set<String> trigrams = new HashSet<>();
+        addTrigrams(q, trigrams);
+        for (String trigram : trigrams) {
+            Slots p = postings.get(trigram);
+            if (p == null) {
+                return candidates;
+            }
+            if (rarest == null || p.size < rarest.size) {
+                rarest = p;
+            }
+        }
+        for (int i = 0; i < rarest.size; i++) {
+            candidates.add(rarest.slots[i]);
+        }
+        return candidates;
+    }
+
+    /** Rebuilds the index without its empty slots. */
+    private void compact() {
+        List<Slot> live = new ArrayList<>(slotsById.size());
+        for (Slot slot : slots) {
+            if (slot != null) {
+                live.add(slot);
+            }
+        }
+        postings.clear();
+        slots.clear();
+        slotsById.clear();
+        emptySlots = 0;
+        for (Slot slot : live) {
+            put(slot.user());
+        }
+    }
+
+    /**
+     * Ranks how a name or ID matches a query.
+     *
+     * @param text the normalized name or ID
+     * @param q the normalized query
+     * @return 0 if the text is the query, 1 if it or one of its words starts with it, 2 if it
+     *     contains it, or 3 otherwise
+     */
+    private static int rank(String text, String q) {
+        if (text.equals(q)) {
+            return 0;
+        }
+        int at = text.indexOf(q);
+        if (at < 0) {
+            return 3;
+        }
+        return at == 0 || text.charAt(at - 1) == ' ' ? 1 : 2;
+    }
+
+    /**
+     * Retrieves the distinct trigrams of the padded name and ID of a user.
+     *
+     * @param user the user
+     * @return the trigrams
+     */
+    private static Set<String> trigrams(User user) {
+        Set<String> trigrams = new HashSet<>();
+        addTrigrams(" " + normalizedName(user) + " ", trigrams);
+        addTrigrams(" " + normalize(user.getId()) + " ", trigrams);
+        return trigrams;
+    }
+
+    /**
+     * Adds every run of three characters of a text to a set.
+     *
+     * @param text the text
+     * @param trigrams the set to add the trigrams to
+     */
+    private static void addTrigrams(String text, Set<String> trigrams) {
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            trigrams.add(text.substring(i, i + 3));
+        }
+    }
+
+    /**
+     * Retrieves the normalized full name of a user.
+     *
+     * @param user the user
+     * @return the first and last names, normalized
+     */
+    private static String normalizedName(User user) {
+        String first = user.getFirstName() != null ? user.getFirstName() : "";
+        String last = user.getLastName() != null ? user.getLastName() : "";
+        return normalize(first + " " + last);
+    }
+
+    /**
+     * Lowercases a text and collapses its whitespace, to compare names regardless of case.
+     *
+     * @param text the text, may be null
+     * @return the normalized text
+     */
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,148 @@
+package hms.repository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import hms.model.medication.ReplenishmentRequest;
+import hms.model.medication.ReplenishmentRequestStatus;
+
+/**
+ * Indexes the replenishment requests of an {@link InventoryRepository} by ID, and queues them by
+ * status in order of request, so that the oldest pending requests are found without walking the
+ * approved ones, and the approved ones are paged without walking the others.
+ *
+ * <p>The index remembers the status each request was queued under, so that a request approved
+ * since is moved to the queue of its new status when it is indexed again.
+ */
+class ReplenishmentRequestIndex {
+    /** The order of requests within a queue: by date and time of request, then by ID. */
+    private static final Comparator<ReplenishmentRequest> ORDER =
+            Comparator.comparing(
+                            ReplenishmentRequest::getDateTime,
+                            Comparator.nullsFirst(Comparator.<LocalDateTime>naturalOrder()))
+                    .thenComparingInt(ReplenishmentRequest::getId);
+
+    /** The requests, by ID. */
+    private final Map<Integer, ReplenishmentRequest> byId = new HashMap<>();
+
+    /** The status each request was queued under, by ID. */
+    private final Map<Integer, ReplenishmentRequestStatus> statuses = new HashMap<>();
+
+    /** The requests of each status, oldest first. */
+    private final Map<ReplenishmentRequestStatus, TreeSet<ReplenishmentRequest>> byStatus =
+            new EnumMap<>(ReplenishmentRequestStatus.class);
+
+    /**
+     * Indexes a request under its current status, moving it if it was queued under another.
+     *
+     * @param rr the request
+     * @throws IllegalStateException if another request is indexed under the same ID
+     */
+    void put(ReplenishmentRequest rr) {
+        ReplenishmentRequest indexed = byId.get(rr.getId());
+        if (indexed != null && indexed != rr) {
+            throw new IllegalStateException(
+                    "replenishment request ID is already taken: " + rr.getId());
+        }
+        byId.put(rr.getId(), rr);
+        ReplenishmentRequestStatus old = statuses.put(rr.getId(), rr.getStatus());
+        if (indexed == rr && old == rr.getStatus()) {
+            return;
+        }
+        if (indexed != null) {
+            unqueue(indexed, old);
+        }
+        byStatus.computeIfAbsent(rr.getStatus(), k -> new TreeSet<>(ORDER)).add(rr);
+    }
+
+    /**
+     * Indexes a request under its current status if it is indexed already.
+     *
+     * @param rr the request
+     */
+    void update(ReplenishmentRequest rr) {
+        if (byId.get(rr.getId()) == rr) {
+            put(rr);
+        }
+    }
+
+    /**
+     * Removes a request from the index.
+     *
+     * @param rr the request
+     */
+    void remove(ReplenishmentRequest rr) {
+        if (byId.get(rr.getId()) != rr) {
+            return;
+        }
+        byId.remove(rr.getId());
+        unqueue(rr, statuses.remove(rr.getId()));
+    }
+
+    /**
+     * Retrieves a request by ID.
+     *
+     * @param id the ID of the request
+     * @return the request, or null if there is none
+     */
+    ReplenishmentRequest get(int id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Retrieves a page of the requests with a status.
+     *
+     * @param status the status
+     * @param offset the number of requests to skip
+     * @param limit the maximum number of requests to retrieve
+     * @return the requests, oldest first
+     */
+    List<ReplenishmentRequest> getByStatus(
+            ReplenishmentRequestStatus status, int offset, int limit) {
+        List<ReplenishmentRequest> page = new ArrayList<>();
+        TreeSet<ReplenishmentRequest> queue = byStatus.get(status);
+        if (queue == null || offset >= queue.size() || limit <= 0) {
+            return page;
+        }
+        Iterator<ReplenishmentRequest> it = queue.iterator();
+        for (int i = 0; i < offset; i++) {
+            it.next();
+        }
+        while (it.hasNext() && page.size() < limit) {
+            page.add(it.next());
+        }
+        return page;
+    }
+
+    /**
+     * Counts the requests with a status.
+     *
+     * @param status the status
+     * @return the number of requests
+     */
+    int countByStatus(ReplenishmentRequestStatus status) {
+        TreeSet<ReplenishmentRequest> queue = byStatus.get(status);
+        return queue != null ? queue.size() : 0;
+    }
+
+    /**
+     * Removes a request from the queue of the status it was queued under, dropping the queue once
+     * empty.
+     *
+     * @param rr the request
+     * @param status the status it was queued under, may be null
+     */
+    private void unqueue(ReplenishmentRequest rr, ReplenishmentRequestStatus status) {
+        TreeSet<ReplenishmentRequest> queue = status != null ? byStatus.get(status) : null;
+        if (queue != null && queue.remove(rr) && queue.isEmpty()) {
+            byStatus.remove(status);
+        }
+    }
+}
@@ -1,29 +1,108 @@
 package hms.repository;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hms.model.appointment.Appointment;
+import hms.model.appointment.AppointmentStatus;
+import hms.model.appointment.Schedule;
+import hms.repository.codec.EntityCodec;
+import hms.repository.codec.SnapshotCodec;
+import hms.repository.journal.CommitMetrics;
+import hms.repository.journal.Journal;
+import hms.repository.journal.JournalPosition;
 
 /**
  * This class manages the repositories for the Hospital Management System. It handles the
  * serialization and deserialization of the repositories to and from a file.
+ *
+ * <p>Snapshots are written in the compact format of {@link SnapshotCodec}. Snapshots written by
+ * earlier versions with Java serialization can still be loaded, and are converted on the next
+ * save.
+ *
+ * <p>In journal mode, every change made to the repositories is also appended to a {@link Journal}
+ * as it happens. Loading replays the journal on top of the last snapshot, so no change is lost if
+ * the application exits without saving. Concurrent changes are made durable together in group
+ * commits, whose window can be tuned with {@link #openJournal(String, Duration, int)} and
+ * monitored through {@link #getCommitMetrics()}.
+ *
+ * <p>Saving writes each kind of entity to a segment file of its own through {@link SegmentStore},
+ * appending only the entities changed since the previous save. Loading decodes the segments in
+ * parallel. Checkpoints can be taken periodically on a background thread with {@link
+ * #startCheckpointing(Duration)}, copying the new journal records to the segments. The segments
+ * record the journal position they cover, and the journal is compacted once they are durable.
+ * Medical records are saved apart from their patient, and once loaded from their segment only the
+ * most recently used ones stay in memory, see {@link #setMedicalRecordCacheSize(int)}.
+ * Single-file snapshots written by {@link #serialize(String)} or by earlier versions can still be
+ * loaded.
+ *
+ * <p>Completed and cancelled appointments older than a retention window can be moved to an {@link
+ * AppointmentArchive} with {@link #archiveAppointments(Duration)}, which keeps the appointment
+ * repository small while their history stays available on demand.
+ *
+ * <p>Appointments can be kept in memory-mapped files rather than on the heap, by calling {@link
+ * #setAppointmentMapDirectory(String)} before the instance is created or loaded.
  */
 public class RepositoryManager implements Serializable {
+    private static final String DATABASE_PATH = "database.bin";
+    private static final String JOURNAL_PATH = "database.journal";
+    private static final int DEFAULT_SNAPSHOT_GENERATIONS = 2;
+
+    /** Serializes writing snapshots, whether by saving or by background checkpoints. */
+    private static final Object CHECKPOINT_LOCK = new Object();
+
     private static RepositoryManager instance;
 
+    /** The directory appointments are mapped under, or null to keep them on the heap. */
+    private static volatile String appointmentMapDirectory;
+
+    /** The number of medical records cached by default once they are read on demand. */
+    private static final int DEFAULT_MEDICAL_RECORD_CACHE_SIZE = 1024;
+
+    /** The number of medical records cached once they are read on demand. */
+    private static volatile int medicalRecordCacheSize = DEFAULT_MEDICAL_RECORD_CACHE_SIZE;
+
+    /** Whether usernames are matched regardless of case. */
+    private static volatile boolean ignoreUsernameCase;
+
     private UserRepository userRepository;
     private AppointmentRepository appointmentRepository;
     private InventoryRepository inventoryRepository;
 
+    /** The journal position covered by the snapshot this instance was last loaded or saved as. */
+    private transient JournalPosition snapshotPosition;
+
+    private transient Journal journal;
+    private transient SegmentStore segments;
+    private transient AppointmentArchive archive;
+    private transient Checkpointer checkpointer;
+
     /** Private constructor to prevent instantiation. Initializes the repositories. */
     private RepositoryManager() {
         // Dynamically initialize repositories
         this.userRepository = new UserRepository();
         this.appointmentRepository = new AppointmentRepository();
+        this.appointmentRepository.setUserRepository(this.userRepository);
         this.inventoryRepository = new InventoryRepository();
+        this.snapshotPosition = JournalPosition.EMPTY;
+        this.userRepository.setIgnoreUsernameCase(ignoreUsernameCase);
+        mapAppointments();
     }
 
     /**
@@ -46,35 +125,53 @@ public class RepositoryManager implements Serializable {
     public static void destroyInstance() {
         if (instance != null) {
             synchronized (RepositoryManager.class) {
+                if (instance != null) {
+                    instance.closeJournal();
+                    try {
+                        instance.appointmentRepository.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
                 instance = null;
             }
         }
     }
 
     /**
-     * Serializes the RepositoryManager instance to a file.
+     * Serializes the RepositoryManager instance to a file in the compact snapshot format. The file
+     * is replaced atomically, so it holds either the previous or the new snapshot even if the
+     * application dies while writing.
      *
      * @param filePath The path to the file where the RepositoryManager instance will be serialized.
      * @throws IOException If an I/O error occurs during serialization.
      */
     public void serialize(String filePath) throws IOException {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filePath))) {
-            out.writeObject(instance);
-        }
+        new SnapshotStore(filePath, 0)
+                .write(this, this.journal != null ? this.journal.position() : null);
     }
 
     /**
-     * Saves the current state of the RepositoryManager to a file named "database.bin".
+     * Saves the changes made to the RepositoryManager since the last save to the segment files
+     * next to the snapshot path it was loaded from, "database.bin" by default. In journal mode,
+     * the records covered by the saved changes are dropped from the journal afterwards.
      *
      * @return true if the operation was successful, false otherwise.
      */
     public boolean save() {
-        try {
-            this.serialize("database.bin");
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
+        synchronized (CHECKPOINT_LOCK) {
+            try {
+                JournalPosition position = this.journal != null ? this.journal.position() : null;
+                segments().save(this, position);
+                this.snapshotPosition = position;
+                if (this.journal != null) {
+                    this.journal.compact(position);
+                }
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
         }
     }
 
@@ -88,7 +185,60 @@ public class RepositoryManager implements Serializable {
     }
 
     /**
-     * Deserializes the RepositoryManager instance from a file.
+     * Saves the changes made since the last save or checkpoint without touching the live
+     * repositories, so that it can run on a background thread while the repositories are in use.
+     * The journal records written since are copied to the segment files, and then dropped from
+     * the journal like {@link #save()} does. Does nothing unless in journal mode.
+     *
+     * @return true if the changes were saved or there were none, false otherwise.
+     */
+    public boolean checkpoint() {
+        synchronized (CHECKPOINT_LOCK) {
+            Journal journal = this.journal;
+            if (journal == null) {
+                return false;
+            }
+
+            try {
+                JournalPosition base = this.snapshotPosition;
+                JournalPosition target = journal.position();
+                if (target.equals(base)) {
+                    return true;
+                }
+
+                segments().checkpoint(journal, base, target);
+                this.snapshotPosition = target;
+                journal.compact(target);
+                return true;
+            } catch (IOException | RuntimeException e) {
+                System.out.println("failed to checkpoint database: " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Starts writing a checkpoint on a background thread at a fixed interval, replacing any
+     * checkpointing already running. Requires journal mode.
+     *
+     * @param interval The time between the end of a checkpoint and the start of the next one.
+     */
+    public void startCheckpointing(Duration interval) {
+        stopCheckpointing();
+        this.checkpointer = new Checkpointer(this, interval);
+    }
+
+    /** Stops background checkpointing, waiting for a checkpoint in progress to finish. */
+    public void stopCheckpointing() {
+        if (this.checkpointer != null) {
+            this.checkpointer.stop();
+            this.checkpointer = null;
+        }
+    }
+
+    /**
+     * Deserializes the RepositoryManager instance from a file, either in the compact snapshot
+     * format or in the Java serialization format used by earlier versions.
      *
      * @param filePath The path to the file from which the RepositoryManager instance will be
      *     deserialized.
@@ -96,30 +246,424 @@ public class RepositoryManager implements Serializable {
      * @throws ClassNotFoundException If the class of the serialized object cannot be found.
      */
     public static void deserialize(String filePath) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(filePath))) {
-            instance = (RepositoryManager) in.readObject();
+        instance = readSnapshot(filePath);
+    }
+
+    /**
+     * Reads a RepositoryManager from a snapshot file, without making it the singleton instance.
+     *
+     * @param filePath The path to the snapshot file.
+     * @return The RepositoryManager read from the file.
+     * @throws IOException If an I/O error occurs during deserialization.
+     * @throws ClassNotFoundException If the class of the serialized object cannot be found.
+     */
+    private static RepositoryManager readSnapshot(String filePath)
+            throws IOException, ClassNotFoundException {
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(filePath))) {
+            in.mark(Integer.BYTES);
+            int magic = new DataInputStream(in).readInt();
+            in.reset();
+
+            if (magic != SnapshotCodec.MAGIC) {
+                // Written by Java serialization, without a journal position
+                RepositoryManager rm = (RepositoryManager) new ObjectInputStream(in).readObject();
+                rm.userRepository.setIgnoreUsernameCase(ignoreUsernameCase);
+                rm.appointmentRepository.setUserRepository(rm.userRepository);
+                rm.appointmentRepository.linkPatients();
+                rm.appointmentRepository.linkPrescriptions();
+                rm.inventoryRepository.numberReplenishmentRequests();
+                rm.mapAppointments();
+                return rm;
+            }
+
+            RepositoryManager rm = new RepositoryManager();
+            rm.snapshotPosition = SnapshotCodec.read(in, rm);
+            return rm;
         }
     }
 
     /**
-     * Loads the RepositoryManager instance from a file named "database.bin". Logs an error message
-     * if the file does not exist or if an error occurs during deserialization.
+     * Loads the RepositoryManager instance from the segment files named after "database.bin" and
+     * replays the journal named "database.journal" on top of it, leaving the instance in journal
+     * mode. Logs an error message if the files do not exist or if an error occurs during
+     * deserialization.
      */
     public static void load() {
-        java.io.File file = new java.io.File("database.bin");
-        if (!file.exists()) {
+        load(DATABASE_PATH, JOURNAL_PATH);
+    }
+
+    /**
+     * Loads the RepositoryManager instance from the segment files named after a snapshot path and
+     * replays a journal on top of it, leaving the instance in journal mode. Damaged segment files
+     * are replaced by their previous generations. If there are no segment files yet, a
+     * single-file snapshot at the path, or failing that one of its previous generations, is
+     * loaded and saved as segment files, as are segment files missing a segment added since. The
+     * medical records are then read on demand from their segment. Logs an error message if no
+     * database exists or if an error occurs during deserialization.
+     *
+     * @param filePath The path to the snapshot file the segment files are named after.
+     * @param journalPath The path to the journal file.
+     */
+    public static void load(String filePath, String journalPath) {
+        SegmentStore segments = new SegmentStore(filePath);
+        boolean migrate = false;
+        if (segments.exists()) {
+            int generation = loadSegments(segments);
+            if (generation != 0 || !segments.isComplete()) {
+                // Saving rewrites every segment rather than appending to damaged or missing ones
+                segments = new SegmentStore(filePath);
+                migrate = generation >= 0;
+            }
+        } else {
+            migrate = loadSnapshot(filePath);
+        }
+
+        RepositoryManager rm = getInstance();
+        rm.segments = segments;
+        rm.archive = rm.openArchive(filePath);
+        rm.openJournal(journalPath);
+        if (migrate && rm.save()) {
+            rm.releaseMedicalRecords();
+        }
+    }
+
+    /**
+     * Loads the RepositoryManager instance from segment files, trying the previous generations in
+     * turn if the current ones are damaged.
+     *
+     * @param segments The segment store to load.
+     * @return The generation loaded, 0 for the current files, or -1 if none could be loaded.
+     */
+    private static int loadSegments(SegmentStore segments) {
+        for (int g = 0; g <= segments.getGenerations(); g++) {
+            if (g > 0 && !segments.hasGeneration(g)) {
+                continue;
+            }
+            try {
+                RepositoryManager rm = new RepositoryManager();
+                rm.snapshotPosition = (g == 0 ? segments : segments.generation(g)).load(rm);
+                instance = rm;
+                System.out.println(
+                        g == 0 ? "loaded database!" : "loaded generation " + g + " of database!");
+                return g;
+            } catch (IOException | RuntimeException e) {
+                System.out.println("failed to deserialise database: incompatible database format");
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Loads the RepositoryManager instance from a single-file snapshot, trying the previous
+     * generations in turn if it is missing or damaged.
+     *
+     * @param filePath The path to the snapshot file.
+     * @return true if a snapshot was loaded, false otherwise.
+     */
+    private static boolean loadSnapshot(String filePath) {
+        SnapshotStore store = new SnapshotStore(filePath, DEFAULT_SNAPSHOT_GENERATIONS);
+        boolean found = false;
+        boolean fallback = false;
+        for (String candidate : store.candidates()) {
+            if (!new File(candidate).exists()) {
+                continue;
+            }
+            found = true;
+            try {
+                deserialize(candidate);
+                System.out.println(fallback ? "loaded " + candidate + "!" : "loaded database!");
+                return true;
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                System.out.println("failed to deserialise database: incompatible database format");
+                fallback = true;
+            }
+        }
+        if (!found) {
             System.err.println("no database found!");
+        }
+        return false;
+    }
+
+    /**
+     * Replays the journal at the given path onto the repositories and appends every subsequent
+     * change to it, using the default group commit window. A journal left behind by a different
+     * snapshot is discarded.
+     *
+     * @param journalPath The path to the journal file.
+     */
+    public void openJournal(String journalPath) {
+        openJournal(journalPath, Journal.DEFAULT_COMMIT_WINDOW, Journal.DEFAULT_COMMIT_BATCH_SIZE);
+    }
+
+    /**
+     * Replays the journal at the given path onto the repositories and appends every subsequent
+     * change to it. A journal left behind by a different snapshot is discarded.
+     *
+     * @param journalPath The path to the journal file.
+     * @param commitWindow How long a commit waits for concurrent changes before forcing the
+     *     journal to disk. A longer window trades latency for fewer, larger commits.
+     * @param commitBatchSize The number of changes after which a commit no longer waits.
+     */
+    public void openJournal(String journalPath, Duration commitWindow, int commitBatchSize) {
+        closeJournal();
+
+        Journal journal = new Journal(journalPath, commitWindow, commitBatchSize);
+        JournalPosition from = this.snapshotPosition;
+        AtomicInteger replayed = new AtomicInteger();
+        try {
+            this.snapshotPosition =
+                    journal.recover(
+                            from,
+                            (type, in) -> {
+                                EntityCodec.apply(type, in, this);
+                                replayed.incrementAndGet();
+                            });
+            if (replayed.get() > 0) {
+                System.out.println("replayed " + replayed + " journal records!");
+            }
+        } catch (IOException e) {
+            System.out.println("failed to open journal: " + e.getMessage());
+            return;
+        }
+
+        this.journal = journal;
+        this.userRepository.setJournal(journal);
+        this.appointmentRepository.setJournal(journal);
+        this.inventoryRepository.setJournal(journal);
+
+        if (from != JournalPosition.EMPTY && !this.snapshotPosition.equals(from)) {
+            // The journal was discarded, so the snapshot must be brought in line with the new one
+            save();
+        }
+    }
+
+    /** Stops checkpointing and journaling and closes the journal, if one is open. */
+    public void closeJournal() {
+        stopCheckpointing();
+        if (this.journal == null) {
+            return;
+        }
+
+        this.userRepository.setJournal(null);
+        this.appointmentRepository.setJournal(null);
+        this.inventoryRepository.setJournal(null);
+        try {
+            this.journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.journal = null;
+    }
+
+    /**
+     * Retrieves the segment store used when saving, defaulting to the one of "database.bin".
+     *
+     * @return The segment store.
+     */
+    private SegmentStore segments() {
+        if (this.segments == null) {
+            this.segments = new SegmentStore(DATABASE_PATH);
+        }
+        return this.segments;
+    }
+
+    /**
+     * Sets the directory under which repository managers created from now on keep their
+     * appointments, in memory-mapped files that only hold each appointment as an object while it
+     * is in use. This allows more appointments than fit on the heap. The files are working storage
+     * and are deleted on exit, as appointments are still saved to the segment files.
+     *
+     * @param directory The directory to create the files in, or null to keep appointments on the
+     *     heap.
+     */
+    public static void setAppointmentMapDirectory(String directory) {
+        appointmentMapDirectory = directory;
+    }
+
+    /**
+     * Moves the appointments into memory-mapped files if a directory is set for them. Logs an
+     * error message and keeps them on the heap if the files cannot be created.
+     */
+    private void mapAppointments() {
+        String directory = appointmentMapDirectory;
+        if (directory == null) {
             return;
         }
+        try {
+            this.appointmentRepository.setStore(
+                    new MappedAppointmentStore(Path.of(directory), this));
+        } catch (IOException e) {
+            System.err.println("failed to map appointments: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sets the number of medical records that repository managers loaded from now on keep cached.
+     * Once loaded from their segment, medical records are only read into memory when first
+     * retrieved from their patient, and only the most recently used ones stay cached, which cuts
+     * the memory held by patients who are not seen.
+     *
+     * @param cacheSize The number of medical records kept cached.
+     */
+    public static void setMedicalRecordCacheSize(int cacheSize) {
+        medicalRecordCacheSize = cacheSize;
+    }
+
+    /**
+     * Retrieves the number of medical records kept cached once they are read on demand.
+     *
+     * @return The number of medical records kept cached.
+     */
+    static int getMedicalRecordCacheSize() {
+        return medicalRecordCacheSize;
+    }
+
+    /**
+     * Sets whether repository managers created from now on match usernames regardless of case, so
+     * that logging in as "Alice" finds the user "alice" and the two cannot both be registered.
+     *
+     * @param ignoreCase True to match usernames regardless of case.
+     */
+    public static void setIgnoreUsernameCase(boolean ignoreCase) {
+        ignoreUsernameCase = ignoreCase;
+    }
 
+    /**
+     * Reads the medical records of patients on demand from their segment, once they are saved.
+     * Logs an error message and keeps them with their patient if the segment cannot be read.
+     */
+    private void releaseMedicalRecords() {
         try {
-            deserialize("database.bin");
-            System.out.println("loaded database!");
-        } catch (IOException | ClassNotFoundException e) {
-            System.out.println("failed to deserialise database: incompatible database format");
+            segments().openMedicalRecords(this);
+        } catch (IOException e) {
+            System.err.println("failed to release medical records: " + e.getMessage());
         }
     }
 
+    /**
+     * Moves the completed and cancelled appointments that ended more than a retention window ago
+     * to the appointment archive.
+     *
+     * @param retention How long appointments stay in the appointment repository once over.
+     * @return The number of appointments archived.
+     */
+    public int archiveAppointments(Duration retention) {
+        return archiveAppointments(LocalDateTime.now().minus(retention));
+    }
+
+    /**
+     * Moves the completed and cancelled appointments that ended before a given time to the
+     * appointment archive, unless their prescription is still pending. The appointments are
+     * forced to the archive before they are removed from the appointment repository and from the
+     * schedule of their doctor, so a crash in between leaves them in both, to be archived again.
+     *
+     * @param before The time before which appointments must have ended.
+     * @return The number of appointments archived, or 0 if the archive cannot be written.
+     */
+    public int archiveAppointments(LocalDateTime before) {
+        List<Appointment> archived = new ArrayList<>();
+        for (AppointmentStatus status :
+                List.of(AppointmentStatus.COMPLETED, AppointmentStatus.CANCELLED)) {
+            for (Appointment ap : this.appointmentRepository.getAppointmentsByStatus(status)) {
+                if (isArchivable(ap, before)) {
+                    archived.add(ap);
+                }
+            }
+        }
+        if (archived.isEmpty()) {
+            return 0;
+        }
+        archived.sort(Comparator.comparingInt(Appointment::getId));
+
+        try {
+            getAppointmentArchive().append(archived);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        // Each schedule is detached from in one pass, however many of its appointments go
+        Map<Schedule, List<Appointment>> bySchedule = new IdentityHashMap<>();
+        for (Appointment ap : archived) {
+            this.appointmentRepository.removeAppointment(ap);
+            if (ap.getDoctor() != null) {
+                bySchedule
+                        .computeIfAbsent(ap.getDoctor().getSchedule(), k -> new ArrayList<>())
+                        .add(ap);
+            }
+        }
+        bySchedule.forEach(Schedule::detachAppointments);
+        return archived.size();
+    }
+
+    /**
+     * Checks whether an appointment is over and can no longer change, and so can be archived.
+     *
+     * @param ap The appointment.
+     * @param before The time before which the appointment must have ended.
+     * @return true if the appointment can be archived.
+     */
+    private static boolean isArchivable(Appointment ap, LocalDateTime before) {
+        if (!(ap.isCompleted() || ap.isCancelled())
+                || ap.getEnd() == null
+                || !ap.getEnd().isBefore(before)) {
+            return false;
+        }
+        // The pharmacist still has to dispense a pending prescription
+        return ap.getOutcome() == null
+                || ap.getOutcome().getPrescription().map(pr -> !pr.isPending()).orElse(true);
+    }
+
+    /**
+     * Retrieves the archive of completed and cancelled appointments, defaulting to the one next
+     * to "database.bin".
+     *
+     * @return The appointment archive.
+     */
+    public AppointmentArchive getAppointmentArchive() {
+        if (this.archive == null) {
+            this.archive = openArchive(DATABASE_PATH);
+        }
+        return this.archive;
+    }
+
+    /**
+     * Opens the appointment archive named after a snapshot path, and moves the appointment ID
+     * sequence past the archived appointments, which keep their IDs. Logs an error and leaves the
+     * sequence as is if the archive cannot be read.
+     *
+     * @param filePath The path of the snapshot.
+     * @return The appointment archive.
+     */
+    private AppointmentArchive openArchive(String filePath) {
+        AppointmentArchive archive = new AppointmentArchive(archivePath(filePath), this);
+        try {
+            this.appointmentRepository.reserveIdsThrough(archive.getMaxId());
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+        }
+        return archive;
+    }
+
+    /**
+     * Names the appointment archive after a snapshot path.
+     *
+     * @param filePath The path of the snapshot.
+     * @return The path of the appointment archive.
+     */
+    private static Path archivePath(String filePath) {
+        return Path.of(SegmentStore.baseName(filePath) + ".archive");
+    }
+
+    /**
+     * Retrieves the group commit metrics of the journal, such as the batch size and the commit
+     * latency.
+     *
+     * @return The commit metrics, or an empty Optional if journaling is disabled.
+     */
+    public Optional<CommitMetrics> getCommitMetrics() {
+        return Optional.ofNullable(this.journal).map(Journal::getCommitMetrics);
+    }
+
     /**
      * Retrieves the UserRepository managed by this RepositoryManager.
      *
@@ -0,0 +1,663 @@
+package hms.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import hms.repository.BaseRepository.EntityRecord;
+import hms.repository.codec.CompactInput;
+import hms.repository.codec.CompactOutput;
+import hms.repository.codec.EntityCodec;
+import hms.repository.codec.SnapshotCodec;
+import hms.repository.journal.JournalPosition;
+import hms.repository.journal.JournalRecordType;
+import hms.repository.journal.RecordFrame;
+
+/**
+ * An append-only file holding the records of a single repository. Each save appends a frame with
+ * the records of the entities changed since the previous save, so the cost of a save grows with
+ * the number of changes rather than with the size of the repository. Once superseded records make
+ * up most of the file, it is rewritten with a single record per entity. As rewriting is the only
+ * write that drops records, the file it replaces is kept as a numbered generation, e.g. {@code
+ * database.users.seg.1} for the one before the current {@code database.users.seg}.
+ *
+ * <pre>
+ * [magic]
+ * [frame: [journal position][raw][count][records...]]...
+ * </pre>
+ *
+ * <p>Frames are framed by {@link RecordFrame}, so a frame torn by a crash is discarded on load.
+ * The records of a frame share its string table, except in raw frames, which hold records copied
+ * from the journal as they were written.
+ *
+ * <p>A keyed segment only has raw frames, and each of its records starts with the key of its
+ * entity, so that loading can locate the records without decoding them and read them one by one
+ * later. Where every record written or read is goes to a {@link Locator}.
+ */
+class Segment {
+    private static final int MAGIC = 0x484d5347; // "HMSG"
+    private static final int HEADER_SIZE = Integer.BYTES;
+
+    /** The maximum number of records in a frame written by a rewrite. */
+    private static final int FRAME_RECORDS = 1024;
+
+    /** The number of superseded records tolerated in any segment before it is rewritten. */
+    private static final int MIN_GARBAGE = 256;
+
+    private final Path path;
+
+    /** The number of previous files kept when the segment is rewritten. */
+    private final int generations;
+
+    /** Whether every record has a string table of its own and starts with its key. */
+    private final boolean keyed;
+
+    /** Where the records of a keyed segment are reported to as they are read or written. */
+    private Locator locator;
+
+    /** The number of bytes of intact frames, including the header, or 0 if there is no file. */
+    private long length;
+
+    /** The number of records in the file, including superseded ones. */
+    private int recordCount;
+
+    /** Whether the file holds any frame. */
+    private boolean hasFrames;
+
+    /** The journal position covered by the last frame. */
+    private JournalPosition position;
+
+    /**
+     * Where a record is in a segment file.
+     *
+     * @param offset the offset of the record, which starts with its type
+     * @param length the length of the record
+     */
+    record Extent(long offset, int length) {}
+
+    /** Receives where the records of a keyed segment are, in the order they were written. */
+    @FunctionalInterface
+    interface Locator {
+        /**
+         * Receives where a record is, superseding the earlier records of its entity.
+         *
+         * @param type the type of the record
+         * @param key the key of the entity of the record
+         * @param extent where the record is
+         */
+        void locate(JournalRecordType type, String key, Extent extent);
+    }
+
+    /** Receives the records of a keyed segment as they are read. */
+    @FunctionalInterface
+    interface RecordVisitor {
+        /**
+         * Receives a record.
+         *
+         * @param record the record, starting with its type
+         * @param extent where the record is
+         * @throws IOException if the record cannot be handled
+         */
+        void visit(byte[] record, Extent extent) throws IOException;
+    }
+
+    /** Receives the intact frames of a segment file as they are read. */
+    @FunctionalInterface
+    private interface FrameVisitor {
+        /**
+         * Receives a frame.
+         *
+         * @param frame the frame, without its framing
+         * @param offset the offset of the frame, including its framing
+         * @throws IOException if the frame cannot be handled
+         */
+        void visit(byte[] frame, long offset) throws IOException;
+    }
+
+    /**
+     * A record written to a keyed segment, to be reported to the locator once durable.
+     *
+     * @param type the type of the record
+     * @param key the key of the entity of the record
+     * @param extent where the record is
+     */
+    private record Located(JournalRecordType type, String key, Extent extent) {}
+
+    /**
+     * Constructs a segment backed by the given file, which is not read until {@link
+     * #readFrames()} is called.
+     *
+     * @param path the path of the segment file
+     * @param generations the number of previous files to keep when the segment is rewritten
+     */
+    Segment(Path path, int generations) {
+        this(path, generations, false);
+    }
+
+    /**
+     * Constructs a segment backed by the given file, which is not read until {@link
+     * #readFrames()}, or {@link #scan()} for a keyed segment, is called.
+     *
+     * @param path the path of the segment file
+     * @param generations the number of previous files to keep when the segment is rewritten
+     * @param keyed whether the records are written one by one, each starting with its key
+     */
+    Segment(Path path, int generations, boolean keyed) {
+        this.path = path;
+        this.generations = generations;
+        this.keyed = keyed;
+    }
+
+    /**
+     * Retrieves the path of a previous file of a segment.
+     *
+     * @param path the path of the segment file
+     * @param g the generation, 1 being the file replaced by the most recent rewrite
+     * @return the path of the generation
+     */
+    static Path generation(Path path, int g) {
+        return path.resolveSibling(path.getFileName() + "." + g);
+    }
+
+    /**
+     * Retrieves the path of the segment file.
+     *
+     * @return the path of the segment file
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Checks whether the records of the segment are written one by one, each starting with its
+     * key.
+     *
+     * @return true if the segment is keyed
+     */
+    boolean isKeyed() {
+        return keyed;
+    }
+
+    /**
+     * Sets where the records of a keyed segment are reported to as they are read or written.
+     *
+     * @param locator the locator, or null to stop reporting
+     */
+    void setLocator(Locator locator) {
+        this.locator = locator;
+    }
+
+    /**
+     * Checks whether the segment file exists.
+     *
+     * @return true if the segment file exists
+     */
+    boolean exists() {
+        return Files.exists(path);
+    }
+
+    /**
+     * Checks whether the segment holds any frame, i.e. whether it has been saved at least once.
+     *
+     * @return true if the segment holds a frame
+     */
+    boolean hasFrames() {
+        return hasFrames;
+    }
+
+    /**
+     * Retrieves the journal position covered by the segment.
+     *
+     * @return the position of the last frame, or null if there is none or it has no position
+     */
+    JournalPosition getPosition() {
+        return position;
+    }
+
+    /**
+     * Checks whether the segment should be rewritten rather than appended to, because it has not
+     * been written yet or mostly holds superseded records.
+     *
+     * @param entityCount the number of entities in the repository
+     * @return true if the segment should be rewritten
+     */
+    boolean needsRewrite(int entityCount) {
+        return !hasFrames || recordCount - entityCount > Math.max(MIN_GARBAGE, entityCount);
+    }
+
+    /**
+     * Reads every intact frame of the segment file without decoding it, so that frames can be
+     * decoded concurrently with {@link #decode(byte[])}. A torn frame at the tail is ignored, and
+     * overwritten by the next append. Once the frames are applied, {@link #restore(List)} must be
+     * called before the segment is written to.
+     *
+     * @return the frames, in the order they were written
+     * @throws IOException if the segment file cannot be read or is not a segment file
+     */
+    List<byte[]> readFrames() throws IOException {
+        length = 0;
+        recordCount = 0;
+        hasFrames = false;
+        position = null;
+
+        List<byte[]> frames = new ArrayList<>();
+        length = readFrames(path, (frame, offset) -> frames.add(frame));
+        return frames;
+    }
+
+    /**
+     * Reads every intact frame of a keyed segment file without decoding its records, reporting
+     * where each record is to the locator, and restores the state of the segment. This replaces
+     * {@link #readFrames()} and {@link #restore(List)} for a keyed segment. A torn frame at the
+     * tail is ignored, and overwritten by the next append.
+     *
+     * @throws IOException if the segment file cannot be read or is not a keyed segment file
+     */
+    void scan() throws IOException {
+        length = 0;
+        recordCount = 0;
+        hasFrames = false;
+        position = null;
+
+        RecordVisitor visitor =
+                (record, extent) -> {
+                    recordCount++;
+                    if (locator != null) {
+                        report(List.of(locate(record, extent)));
+                    }
+                };
+        length =
+                readFrames(
+                        path,
+                        (frame, offset) -> {
+                            position = readRecords(frame, offset, visitor);
+                            hasFrames = true;
+                        });
+    }
+
+    /**
+     * Reads every record of a keyed segment file in order, without touching the state of the
+     * segment, e.g. to index the latest record of each entity without keeping them all.
+     *
+     * @param visitor the visitor receiving each record
+     * @throws IOException if the segment file cannot be read or is not a keyed segment file
+     */
+    void walk(RecordVisitor visitor) throws IOException {
+        readFrames(path, (frame, offset) -> readRecords(frame, offset, visitor));
+    }
+
+    /**
+     * Reads a record of a keyed segment file.
+     *
+     * @param extent where the record is, as reported to the locator
+     * @return the record, starting with its type
+     * @throws IOException if the record cannot be read
+     */
+    byte[] read(Extent extent) throws IOException {
+        byte[] record = new byte[extent.length()];
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "r")) {
+            raf.seek(extent.offset());
+            raf.readFully(record);
+        }
+        return record;
+    }
+
+    /**
+     * Decodes the records of a frame, without applying them to any repository.
+     *
+     * @param frame a frame read by {@link #readFrames()}
+     * @return the decoded frame
+     * @throws IOException if the frame cannot be decoded
+     */
+    static Frame decode(byte[] frame) throws IOException {
+        CompactInput records = new CompactInput(new ByteArrayInputStream(frame));
+        JournalPosition position = SnapshotCodec.readPosition(records);
+        boolean raw = records.readBoolean();
+        int count = records.readVarInt();
+
+        List<EntityCodec.DecodedRecord> decoded = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // A raw record has a string table of its own
+            CompactInput record =
+                    raw ? new CompactInput(new ByteArrayInputStream(records.readBytes())) : records;
+            decoded.add(
+                    EntityCodec.decode(JournalRecordType.values()[record.readByte()], record));
+        }
+        return new Frame(position, decoded);
+    }
+
+    /**
+     * Restores the state of the segment from its frames, once they are loaded.
+     *
+     * @param frames every frame of the segment, in order
+     */
+    void restore(List<Frame> frames) {
+        for (Frame frame : frames) {
+            recordCount += frame.records().size();
+            hasFrames = true;
+            position = frame.position();
+        }
+    }
+
+    /**
+     * A decoded frame.
+     *
+     * @param position the journal position covered once the frame is applied
+     * @param records the records of the frame, to be applied in order
+     */
+    record Frame(JournalPosition position, List<EntityCodec.DecodedRecord> records) {}
+
+    /**
+     * Appends a frame holding the current state of the given entities, sharing a string table.
+     *
+     * @param position the journal position covered once the frame is written
+     * @param records the records of the changed entities
+     * @throws IOException if the frame cannot be written
+     */
+    void append(JournalPosition position, List<EntityRecord> records) throws IOException {
+        if (keyed) {
+            appendRaw(position, encodeEach(records));
+            return;
+        }
+        write(encode(position, records));
+        recordCount += records.size();
+        hasFrames = true;
+        this.position = position;
+    }
+
+    /**
+     * Appends a frame holding records copied from the journal, and reports where they are to
+     * the locator once they are durable.
+     *
+     * @param position the journal position covered once the frame is written
+     * @param records the records, each starting with its type
+     * @throws IOException if the frame cannot be written
+     */
+    void appendRaw(JournalPosition position, List<byte[]> records) throws IOException {
+        int[] offsets = new int[records.size()];
+        byte[] frame = encodeRaw(position, records, offsets);
+        write(frame);
+        recordCount += records.size();
+        hasFrames = true;
+        this.position = position;
+
+        if (locator != null) {
+            report(locate(records, length - frame.length, offsets));
+        }
+    }
+
+    /**
+     * Replaces the segment file with one holding every entity. The new file is written aside and
+     * renamed over the old one, so a crash leaves either of them intact, and the old one is kept
+     * as the most recent generation. The entities are split into frames of a bounded size, so
+     * that a large segment is decoded on several threads. Where the records of a keyed segment
+     * are is only reported to the locator once the new file replaces the old one.
+     *
+     * @param position the journal position covered by the new file
+     * @param records the records of every entity of the repository
+     * @throws IOException if the file cannot be written, in which case the old one is untouched
+     */
+    void rewrite(JournalPosition position, List<EntityRecord> records) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        long written = HEADER_SIZE;
+        List<Located> located = new ArrayList<>();
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            // Even an empty repository gets a frame, to record the position
+            int from = 0;
+            do {
+                int to = Math.min(from + FRAME_RECORDS, records.size());
+                byte[] frame;
+                if (keyed) {
+                    List<byte[]> encoded = encodeEach(records.subList(from, to));
+                    int[] offsets = new int[encoded.size()];
+                    frame = encodeRaw(position, encoded, offsets);
+                    if (locator != null) {
+                        located.addAll(locate(encoded, written, offsets));
+                    }
+                } else {
+                    frame = encode(position, records.subList(from, to));
+                }
+                out.write(frame);
+                written += frame.length;
+                from = to;
+            } while (from < records.size());
+            out.flush();
+            file.getChannel().force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        // Keep the file being replaced, copied so that the segment is never missing
+        if (generations > 0 && Files.exists(path)) {
+            for (int g = generations; g >= 2; g--) {
+                Path from = generation(path, g - 1);
+                if (Files.exists(from)) {
+                    Files.move(from, generation(path, g), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.copy(path, generation(path, 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        SnapshotStore.forceDirectory(path);
+
+        length = written;
+        recordCount = records.size();
+        hasFrames = true;
+        this.position = position;
+        report(located);
+    }
+
+    /**
+     * Encodes a frame holding the current state of the given entities.
+     *
+     * @param position the journal position covered by the frame
+     * @param records the records of the entities
+     * @return the frame
+     * @throws IOException if a record cannot be written
+     */
+    private static byte[] encode(JournalPosition position, List<EntityRecord> records)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompactOutput out = new CompactOutput(bytes);
+        SnapshotCodec.writePosition(out, position);
+        out.writeBoolean(false);
+        out.writeVarInt(records.size());
+        for (EntityRecord record : records) {
+            out.writeByte(record.type().ordinal());
+            record.writer().write(out);
+        }
+        return RecordFrame.encode(bytes.toByteArray());
+    }
+
+    /**
+     * Encodes each record with a string table of its own, so that it can be read on its own.
+     *
+     * @param records the records of the entities
+     * @return the records, each starting with its type
+     * @throws IOException if a record cannot be written
+     */
+    private static List<byte[]> encodeEach(List<EntityRecord> records) throws IOException {
+        List<byte[]> encoded = new ArrayList<>(records.size());
+        for (EntityRecord record : records) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            CompactOutput out = new CompactOutput(bytes);
+            out.writeByte(record.type().ordinal());
+            record.writer().write(out);
+            encoded.add(bytes.toByteArray());
+        }
+        return encoded;
+    }
+
+    /**
+     * Encodes a raw frame holding records that each have a string table of their own.
+     *
+     * @param position the journal position covered by the frame
+     * @param records the records, each starting with its type
+     * @param offsets receives the offset of each record within the frame, after its framing
+     * @return the frame
+     * @throws IOException if a record cannot be written
+     */
+    private static byte[] encodeRaw(JournalPosition position, List<byte[]> records, int[] offsets)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompactOutput out = new CompactOutput(bytes);
+        SnapshotCodec.writePosition(out, position);
+        out.writeBoolean(true);
+        out.writeVarInt(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            out.writeBytes(records.get(i));
+            offsets[i] = bytes.size() - records.get(i).length;
+        }
+        return RecordFrame.encode(bytes.toByteArray());
+    }
+
+    /**
+     * Reads the records of a raw frame of a keyed segment, without decoding them.
+     *
+     * @param frame the frame, without its framing
+     * @param offset the offset of the frame in the file, including its framing
+     * @param visitor the visitor receiving each record
+     * @return the journal position covered by the frame
+     * @throws IOException if the frame is not raw or a record cannot be handled
+     */
+    private static JournalPosition readRecords(byte[] frame, long offset, RecordVisitor visitor)
+            throws IOException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(frame);
+        CompactInput in = new CompactInput(bytes);
+        JournalPosition position = SnapshotCodec.readPosition(in);
+        if (!in.readBoolean()) {
+            throw new IOException("keyed segment holds a shared frame at " + offset);
+        }
+        int count = in.readVarInt();
+        for (int i = 0; i < count; i++) {
+            byte[] record = in.readBytes();
+            // The record ends where the unread part of the frame starts
+            long end = offset + Integer.BYTES + frame.length - bytes.available();
+            visitor.visit(record, new Extent(end - record.length, record.length));
+        }
+        return position;
+    }
+
+    /**
+     * Reads the type and key of records written to a keyed segment.
+     *
+     * @param records the records, each starting with its type
+     * @param frameOffset the offset of their frame in the file, including its framing
+     * @param offsets the offset of each record within the frame, after its framing
+     * @return where each record is
+     * @throws IOException if a record has no key
+     */
+    private static List<Located> locate(List<byte[]> records, long frameOffset, int[] offsets)
+            throws IOException {
+        List<Located> located = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            byte[] record = records.get(i);
+            located.add(
+                    locate(
+                            record,
+                            new Extent(
+                                    frameOffset + Integer.BYTES + offsets[i], record.length)));
+        }
+        return located;
+    }
+
+    /**
+     * Reads the type and key of a record of a keyed segment.
+     *
+     * @param record the record, starting with its type
+     * @param extent where the record is
+     * @return where the record is
+     * @throws IOException if the record has no key
+     */
+    private static Located locate(byte[] record, Extent extent) throws IOException {
+        CompactInput in = new CompactInput(new ByteArrayInputStream(record));
+        JournalRecordType type = JournalRecordType.values()[in.readByte()];
+        return new Located(type, in.readString(), extent);
+    }
+
+    /**
+     * Reports where records are to the locator, if any.
+     *
+     * @param located where each record is, in the order they were written
+     */
+    private void report(List<Located> located) {
+        if (locator != null) {
+            for (Located l : located) {
+                locator.locate(l.type(), l.key(), l.extent());
+            }
+        }
+    }
+
+    /**
+     * Reads every intact frame of a segment file, stopping at a torn frame.
+     *
+     * @param path the path of the segment file
+     * @param visitor the visitor receiving each frame
+     * @return the number of bytes of intact frames, including the header, or 0 if the file is
+     *     missing or empty
+     * @throws IOException if the segment file cannot be read or is not a segment file
+     */
+    private static long readFrames(Path path, FrameVisitor visitor) throws IOException {
+        long fileLength = path.toFile().length();
+        if (fileLength == 0) {
+            return 0;
+        }
+
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(path.toFile())))) {
+            if (fileLength < HEADER_SIZE || in.readInt() != MAGIC) {
+                throw new IOException("not a segment file: " + path);
+            }
+
+            long offset = HEADER_SIZE;
+            byte[] frame;
+            while ((frame = RecordFrame.read(in, fileLength - offset)) != null) {
+                visitor.visit(frame, offset);
+                offset += RecordFrame.OVERHEAD + frame.length;
+            }
+            return offset;
+        }
+    }
+
+    /**
+     * Writes a frame after the last intact one and forces it to disk, creating the file if needed.
+     *
+     * @param frame the frame to write
+     * @throws IOException if the frame cannot be written
+     */
+    private void write(byte[] frame) throws IOException {
+        boolean created = length == 0;
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+            if (created) {
+                raf.setLength(0);
+                raf.writeInt(MAGIC);
+                length = HEADER_SIZE;
+            } else {
+                // Drop a frame torn by an earlier crash
+                raf.setLength(length);
+                raf.seek(length);
+            }
+            raf.write(frame);
+            raf.getChannel().force(false);
+        }
+        length += frame.length;
+        if (created) {
+            SnapshotStore.forceDirectory(path);
+        }
+    }
+}
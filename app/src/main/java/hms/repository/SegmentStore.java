@@ -0,0 +1,392 @@
+package hms.repository;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import hms.repository.codec.EntityCodec;
+import hms.repository.journal.Journal;
+import hms.repository.journal.JournalPosition;
+import hms.repository.journal.JournalRecordType;
+
+/**
+ * Stores the repositories in one {@link Segment} file per kind of entity, next to the snapshot
+ * path they are named after, e.g. {@code database.users.seg} for {@code database.bin}. Saving only
+ * writes the entities marked as dirty by their repository, and a checkpoint only copies the
+ * journal records written since the last one.
+ *
+ * <p>Entities refer to each other by ID only, so loading decodes the frames of every segment
+ * concurrently on a pool, and a linking pass then applies them in the order users, medications,
+ * replenishment requests, appointments, resolving every reference against entities applied
+ * before it.
+ *
+ * <p>Medical records are kept apart from their patient, in a keyed segment such as {@code
+ * database.records.seg}. Loading does not decode it, and only locates the latest record of each
+ * medical record for a {@link MedicalRecordStore} to read it on demand.
+ *
+ * <p>Each segment keeps the files replaced by its last rewrites as numbered generations. If the
+ * current segments cannot be loaded, {@link #generation(int)} reads the previous ones instead.
+ */
+class SegmentStore {
+    /** The number of previous files kept for each segment. */
+    static final int DEFAULT_GENERATIONS = 2;
+
+    private final String filePath;
+    private final int generations;
+    private final List<Part> parts;
+    private final Map<JournalRecordType, Part> partsByType;
+
+    /** The keyed segment of the medical records. */
+    private final Segment records;
+
+    /**
+     * A segment and the kind of entity it stores.
+     *
+     * @param segment the segment
+     * @param put the type of the records putting entities of that kind
+     * @param remove the type of the records removing entities of that kind
+     * @param repository the function retrieving the repository holding entities of that kind
+     */
+    private record Part(
+            Segment segment,
+            JournalRecordType put,
+            JournalRecordType remove,
+            Function<RepositoryManager, BaseRepository> repository) {}
+
+    /**
+     * Constructs a segment store named after a snapshot path, keeping the default number of
+     * previous files for each segment.
+     *
+     * @param filePath the path of the snapshot, whose extension is replaced by that of each
+     *     segment
+     */
+    SegmentStore(String filePath) {
+        this(filePath, DEFAULT_GENERATIONS, 0);
+    }
+
+    /**
+     * Constructs a segment store named after a snapshot path, reading the current segment files
+     * or previous ones.
+     *
+     * @param filePath the path of the snapshot, whose extension is replaced by that of each
+     *     segment
+     * @param generations the number of previous files to keep for each segment
+     * @param generation the generation to read, 0 for the current files
+     */
+    private SegmentStore(String filePath, int generations, int generation) {
+        this.filePath = filePath;
+        this.generations = generations;
+        String base = baseName(filePath);
+        this.parts =
+                List.of(
+                        new Part(
+                                segment(base + ".users.seg", generation, false),
+                                JournalRecordType.PUT_USER,
+                                JournalRecordType.REMOVE_USER,
+                                RepositoryManager::getUserRepository),
+                        new Part(
+                                segment(base + ".records.seg", generation, true),
+                                JournalRecordType.PUT_MEDICAL_RECORD,
+                                JournalRecordType.REMOVE_MEDICAL_RECORD,
+                                RepositoryManager::getUserRepository),
+                        new Part(
+                                segment(base + ".inventory.seg", generation, false),
+                                JournalRecordType.PUT_MEDICATION,
+                                JournalRecordType.REMOVE_MEDICATION,
+                                RepositoryManager::getInventoryRepository),
+                        new Part(
+                                segment(base + ".requests.seg", generation, false),
+                                JournalRecordType.PUT_REPLENISHMENT_REQUEST,
+                                JournalRecordType.REMOVE_REPLENISHMENT_REQUEST,
+                                RepositoryManager::getInventoryRepository),
+                        new Part(
+                                segment(base + ".appointments.seg", generation, false),
+                                JournalRecordType.PUT_APPOINTMENT,
+                                JournalRecordType.REMOVE_APPOINTMENT,
+                                RepositoryManager::getAppointmentRepository));
+
+        this.partsByType = new EnumMap<>(JournalRecordType.class);
+        for (Part part : parts) {
+            partsByType.put(part.put(), part);
+            partsByType.put(part.remove(), part);
+        }
+        // Patients are put apart from their medical record, in the segment of the users
+        partsByType.put(JournalRecordType.PUT_PATIENT, parts.get(0));
+        this.records = parts.get(1).segment();
+    }
+
+    /**
+     * Retrieves a store reading the previous files of the segments, to load them when the current
+     * ones are damaged. A segment rewritten fewer times than the generation is read from its
+     * oldest file, as it was never rewritten since. The store keeps no previous files itself.
+     *
+     * @param g the generation, 1 being the files replaced by the most recent rewrites
+     * @return the store reading the generation
+     */
+    SegmentStore generation(int g) {
+        return new SegmentStore(filePath, 0, g);
+    }
+
+    /**
+     * Retrieves the number of previous files kept for each segment.
+     *
+     * @return the number of generations
+     */
+    int getGenerations() {
+        return generations;
+    }
+
+    /**
+     * Checks whether any segment has a previous file of the given generation.
+     *
+     * @param g the generation
+     * @return true if a segment file of that generation exists
+     */
+    boolean hasGeneration(int g) {
+        return parts.stream()
+                .anyMatch(part -> Files.exists(Segment.generation(part.segment().getPath(), g)));
+    }
+
+    /**
+     * Creates the segment of a generation, reading the newest file of a segment that is at least
+     * that old.
+     *
+     * @param path the path of the current segment file
+     * @param generation the generation to read, 0 for the current file
+     * @param keyed whether the segment is keyed
+     * @return the segment
+     */
+    private Segment segment(String path, int generation, boolean keyed) {
+        Path current = Path.of(path);
+        for (int g = generation; g > 0; g--) {
+            Path previous = Segment.generation(current, g);
+            if (Files.exists(previous)) {
+                return new Segment(previous, 0, keyed);
+            }
+        }
+        return new Segment(current, generations, keyed);
+    }
+
+    /**
+     * Strips the extension of a snapshot path, to name the files stored next to it.
+     *
+     * @param filePath the path of the snapshot
+     * @return the path without its ".bin" extension
+     */
+    static String baseName(String filePath) {
+        return filePath.endsWith(".bin")
+                ? filePath.substring(0, filePath.length() - ".bin".length())
+                : filePath;
+    }
+
+    /**
+     * Checks whether any segment file exists.
+     *
+     * @return true if a segment file exists
+     */
+    boolean exists() {
+        return parts.stream().anyMatch(part -> part.segment().exists());
+    }
+
+    /**
+     * Checks whether every segment holds a frame, as segments written before one was added do
+     * not, and must be saved in full before they can be loaded.
+     *
+     * @return true if every segment holds a frame
+     */
+    boolean isComplete() {
+        return parts.stream().allMatch(part -> part.segment().hasFrames());
+    }
+
+    /**
+     * Reads every segment into the repositories of the given manager, which should be empty. The
+     * entities read are not dirty afterwards. The medical records are not read, but located for
+     * the user repository to read them on demand.
+     *
+     * @param rm the repository manager to read into
+     * @return the journal position covered by every segment, or null if the segments do not refer
+     *     to the same journal
+     * @throws IOException if a segment cannot be read
+     */
+    JournalPosition load(RepositoryManager rm) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        try (ExecutorService pool = Executors.newFixedThreadPool(threads)) {
+            // Decode every frame on the pool while the next segments are read
+            List<List<Future<Segment.Frame>>> decoding = new ArrayList<>();
+            for (Part part : parts) {
+                List<Future<Segment.Frame>> frames = new ArrayList<>();
+                if (part.segment().isKeyed()) {
+                    decoding.add(frames);
+                    continue;
+                }
+                for (byte[] frame : part.segment().readFrames()) {
+                    frames.add(pool.submit(() -> Segment.decode(frame)));
+                }
+                decoding.add(frames);
+            }
+
+            // Link the frames in order as they become available, patients finding their medical
+            // record located beforehand
+            openMedicalRecords(rm);
+            setLoading(rm, true);
+            try {
+                for (int i = 0; i < parts.size(); i++) {
+                    if (parts.get(i).segment().isKeyed()) {
+                        continue;
+                    }
+                    List<Segment.Frame> frames = new ArrayList<>();
+                    for (Future<Segment.Frame> future : decoding.get(i)) {
+                        Segment.Frame frame = future.get();
+                        for (EntityCodec.DecodedRecord record : frame.records()) {
+                            record.apply(rm);
+                        }
+                        frames.add(frame);
+                    }
+                    parts.get(i).segment().restore(frames);
+                }
+            } finally {
+                setLoading(rm, false);
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException("failed to decode segment", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while loading segments");
+        }
+
+        // A crash while saving leaves some segments ahead of the others, so the journal is
+        // replayed from the oldest position, and records are upserts that can be reapplied
+        JournalPosition position = JournalPosition.EMPTY;
+        boolean first = true;
+        for (Part part : parts) {
+            Segment segment = part.segment();
+            if (!segment.hasFrames()) {
+                continue;
+            }
+            JournalPosition p = segment.getPosition();
+            if (first) {
+                position = p;
+                first = false;
+            } else if (position == null
+                    || p == null
+                    || p.getJournalId() != position.getJournalId()) {
+                position = null;
+            } else if (p.getOffset() < position.getOffset()) {
+                position = p;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Locates the saved medical records and has the user repository read them on demand from
+     * then on, unless none were saved yet.
+     *
+     * @param rm the repository manager whose user repository reads the medical records
+     * @throws IOException if the segment of the medical records cannot be read
+     */
+    void openMedicalRecords(RepositoryManager rm) throws IOException {
+        MedicalRecordStore store =
+                new MedicalRecordStore(records, RepositoryManager.getMedicalRecordCacheSize(), rm);
+        records.setLocator(store);
+        records.scan();
+        if (records.hasFrames()) {
+            rm.getUserRepository().setMedicalRecordStore(store);
+        } else {
+            records.setLocator(null);
+        }
+    }
+
+    /**
+     * Writes the entities marked as dirty in each repository, or every entity of a kind whose
+     * segment needs rewriting, and marks them as saved.
+     *
+     * @param rm the repository manager to save
+     * @param position the journal position covered by the repositories, or null if changes are
+     *     not journaled
+     * @throws IOException if a segment cannot be written, in which case the entities stay dirty
+     */
+    void save(RepositoryManager rm, JournalPosition position) throws IOException {
+        for (Part part : parts) {
+            Segment segment = part.segment();
+            BaseRepository repository = part.repository().apply(rm);
+            if (segment.needsRewrite(repository.getEntityCount(part.put()))) {
+                segment.rewrite(position, repository.getAllRecords(part.put()));
+                continue;
+            }
+
+            List<BaseRepository.EntityRecord> dirty = new ArrayList<>();
+            for (BaseRepository.EntityRecord record : repository.getDirtyRecords()) {
+                if (partsByType.get(record.type()) == part) {
+                    dirty.add(record);
+                }
+            }
+            if (!dirty.isEmpty() || !Objects.equals(position, segment.getPosition())) {
+                // An empty frame still moves the segment up to the position
+                segment.append(position, dirty);
+            }
+        }
+
+        for (Part part : parts) {
+            part.repository().apply(rm).markClean();
+        }
+    }
+
+    /**
+     * Copies the journal records between two positions to the segments of their entities, without
+     * touching the repositories themselves.
+     *
+     * @param journal the journal to copy from
+     * @param from the position covered by the segments
+     * @param to the position to copy up to
+     * @throws IOException if the records cannot be read or a segment cannot be written
+     */
+    void checkpoint(Journal journal, JournalPosition from, JournalPosition to) throws IOException {
+        Map<Part, List<byte[]>> records = new HashMap<>();
+        for (Part part : parts) {
+            if (!part.segment().hasFrames() && from.getOffset() != 0) {
+                // Only a journal holding every change ever made can start a segment
+                throw new IOException("segment has not been saved: " + part.segment().getPath());
+            }
+            records.put(part, new ArrayList<>());
+        }
+
+        journal.replay(
+                from,
+                to,
+                record -> {
+                    JournalRecordType type = JournalRecordType.values()[record[0]];
+                    records.get(partsByType.get(type)).add(record);
+                });
+        for (Part part : parts) {
+            part.segment().appendRaw(to, records.get(part));
+        }
+    }
+
+    /**
+     * Sets whether entities are being loaded into every repository of a manager.
+     *
+     * @param rm the repository manager
+     * @param loading true while loading
+     */
+    private static void setLoading(RepositoryManager rm, boolean loading) {
+        rm.getUserRepository().setLoading(loading);
+        rm.getInventoryRepository().setLoading(loading);
+        rm.getAppointmentRepository().setLoading(loading);
+    }
+}
@@ -0,0 +1,123 @@
+package hms.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import hms.repository.codec.SnapshotCodec;
+import hms.repository.journal.JournalPosition;
+
+/**
+ * Stores snapshots of the repositories crash-safely. A snapshot is written to a temporary file,
+ * forced to disk and only then renamed over the current snapshot, so a crash mid-write never
+ * damages the last good copy. The previous snapshots are kept as numbered generations, e.g.
+ * {@code database.bin.1} for the one before the current {@code database.bin}.
+ */
+class SnapshotStore {
+    private final Path path;
+    private final int generations;
+
+    /**
+     * Constructs a snapshot store.
+     *
+     * @param filePath the path of the current snapshot
+     * @param generations the number of previous snapshots to keep
+     */
+    SnapshotStore(String filePath, int generations) {
+        this.path = Path.of(filePath);
+        this.generations = generations;
+    }
+
+    /**
+     * Retrieves the path of the current snapshot.
+     *
+     * @return the path of the current snapshot
+     */
+    String getFilePath() {
+        return path.toString();
+    }
+
+    /**
+     * Writes a snapshot of the repositories of the given manager and makes it the current one.
+     * When this returns, the snapshot is durable.
+     *
+     * @param rm the repository manager to write
+     * @param position the journal position covered by the snapshot, or null if changes are not
+     *     journaled
+     * @throws IOException if the snapshot cannot be written, in which case the current snapshot
+     *     is left untouched
+     */
+    void write(RepositoryManager rm, JournalPosition position) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+                OutputStream out = new BufferedOutputStream(file)) {
+            SnapshotCodec.write(out, rm, position);
+            out.flush();
+            file.getChannel().force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        // Shift the older generations, dropping the oldest
+        for (int g = generations; g >= 1; g--) {
+            Path from = g == 1 ? path : generation(g - 1);
+            if (Files.exists(from)) {
+                Files.move(from, generation(g), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        // If we crash between the shift and here, loading falls back to generation 1
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory(path);
+    }
+
+    /**
+     * Lists the snapshot files to try when loading, from the current snapshot to the oldest
+     * generation.
+     *
+     * @return the paths of the snapshot files, whether they exist or not
+     */
+    List<String> candidates() {
+        List<String> candidates = new ArrayList<>();
+        candidates.add(path.toString());
+        for (int g = 1; g <= generations; g++) {
+            candidates.add(generation(g).toString());
+        }
+        return candidates;
+    }
+
+    /**
+     * Retrieves the path of a previous generation.
+     *
+     * @param g the generation, 1 being the most recent previous snapshot
+     * @return the path of the generation
+     */
+    private Path generation(int g) {
+        return path.resolveSibling(path.getFileName() + "." + g);
+    }
+
+    /**
+     * Forces the renames and new files in the directory of a file to disk, where supported.
+     *
+     * @param path the file whose directory to force
+     * @throws IOException if the directory cannot be forced
+     */
+    static void forceDirectory(Path path) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (UnsupportedOperationException | AccessDeniedException e) {
+            // Directories cannot be opened on every platform, e.g. Windows
+        }
+    }
+}
@@ -1,35 +1,144 @@
 package hms.repository;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
+import hms.model.record.MedicalRecord;
 import hms.model.user.Administrator;
 import hms.model.user.Doctor;
 import hms.model.user.Patient;
 import hms.model.user.Pharmacist;
 import hms.model.user.User;
 import hms.model.user.UserRole;
+import hms.repository.codec.EntityCodec;
+import hms.repository.codec.EntityCodec.MedicalRecordDetails;
+import hms.repository.journal.JournalRecordType;
 
-/** This class extends the {@link BaseRepository} and manages user data. */
+/**
+ * This class extends the {@link BaseRepository} and manages user data.
+ *
+ * <p>Users are also indexed by username, so that logging in and checking that a username is free
+ * do not walk every user. Usernames can be matched regardless of case.
+ *
+ * <p>Users are also partitioned by role, and each partition can be viewed without copying it, so
+ * that listing the doctors does not touch every patient. The diagnoses and treatments of patients
+ * are indexed by term as medical records are updated, so that medical records can be searched,
+ * and the names and IDs of users by trigram, so that users can be searched by name.
+ *
+ * <p>Medical records are journaled and saved apart from their patient, through {@link
+ * #updateMedicalRecord(Patient)}. Once loaded from their segment, they are read on demand from a
+ * {@link MedicalRecordStore}, and indexed from their encoded form rather than loaded.
+ */
 public class UserRepository extends BaseRepository {
 
     private final Map<String, User> users;
 
+    /** The store medical records are read from on demand, or null while patients hold them. */
+    private transient MedicalRecordStore medicalRecords;
+
+    /** The users of each role by ID, or null until first needed. */
+    private transient Map<UserRole, Map<String, User>> usersByRole;
+
+    /** The users by normalized username, or null until first needed. */
+    private transient Map<String, User> usersByUsername;
+
+    /** Whether usernames are matched regardless of case. */
+    private transient boolean ignoreUsernameCase;
+
+    /** The index of the diagnoses and treatments of patients, or null until first needed. */
+    private transient MedicalRecordIndex recordIndex;
+
+    /** The index of the names and IDs of users, or null until first needed. */
+    private transient NameIndex nameIndex;
+
+    /** The IDs of the patients whose medical record names each doctor, or null until needed. */
+    private transient Map<String, Set<String>> patientsByRecordDoctor;
+
+    /** The ID of the doctor named by the medical record of each patient, by patient ID. */
+    private transient Map<String, String> recordDoctors;
+
+    /**
+     * The key of the medical record of a patient among the dirty entities, apart from the patient.
+     *
+     * @param patientId the ID of the patient
+     */
+    private record MedicalRecordKey(String patientId) {}
+
     /** Constructs a new UserRepository instance. */
     public UserRepository() {
         users = new HashMap<>();
     }
 
     /**
-     * Adds a user to the repository.
+     * Adds a user to the repository. A new patient brings its medical record along, while a
+     * patient being loaded finds it in the store medical records are read from.
      *
      * @param user the user to be added
      */
     public void addUser(User user) {
-        users.put(user.getId(), user);
+        User old = users.put(user.getId(), user);
+        if (old != null) {
+            unindexUsername(old);
+            usersOfRole(old.getRole()).remove(old.getId());
+            nameIndex().remove(old.getId());
+        }
+        indexUsername(user);
+        nameIndex().put(user);
+        usersOfRole(user.getRole()).put(user.getId(), user);
+        if (old instanceof Patient) {
+            unindexMedicalRecord(old.getId());
+            if (medicalRecords != null && old != user) {
+                medicalRecords.remove(old.getId());
+            }
+        }
+        logUser(user);
+        if (user instanceof Patient patient) {
+            if (medicalRecords != null) {
+                release(patient, medicalRecords);
+            }
+            if (!isLoading()) {
+                updateMedicalRecord(patient);
+            }
+        }
+    }
+
+    /**
+     * Records changes made to a user already in the repository, so that they are persisted. The
+     * medical record of a patient is not, see {@link #updateMedicalRecord(Patient)}.
+     *
+     * @param user the user that was changed
+     */
+    public void updateUser(User user) {
+        indexUsername(user);
+        nameIndex().put(user);
+        logUser(user);
+    }
+
+    /**
+     * Records changes made to the medical record of a patient already in the repository, so that
+     * they are persisted and searchable.
+     *
+     * @param patient the patient whose medical record was changed
+     */
+    public void updateMedicalRecord(Patient patient) {
+        String id = patient.getId();
+        MedicalRecord mr = patient.getMedicalRecord();
+        indexMedicalRecord(id, MedicalRecordDetails.of(mr));
+        // The dirty record keeps the medical record referenced until it is saved
+        log(
+                JournalRecordType.PUT_MEDICAL_RECORD,
+                new MedicalRecordKey(id),
+                out -> EntityCodec.writeMedicalRecord(out, id, mr));
     }
 
     /**
@@ -39,7 +148,28 @@ public class UserRepository extends BaseRepository {
      * @return true if the user was successfully removed, false otherwise
      */
     public boolean removeUser(User user) {
-        return users.remove(user.getId(), user);
+        if (!users.remove(user.getId(), user)) {
+            return false;
+        }
+        unindexUsername(user);
+        usersOfRole(user.getRole()).remove(user.getId());
+        nameIndex().remove(user.getId());
+        log(
+                JournalRecordType.REMOVE_USER,
+                user.getId(),
+                out -> EntityCodec.writeUserRemoval(out, user));
+        if (user instanceof Patient) {
+            String id = user.getId();
+            unindexMedicalRecord(id);
+            if (medicalRecords != null) {
+                medicalRecords.remove(id);
+            }
+            log(
+                    JournalRecordType.REMOVE_MEDICAL_RECORD,
+                    new MedicalRecordKey(id),
+                    out -> EntityCodec.writeMedicalRecordRemoval(out, id));
+        }
+        return true;
     }
 
     /**
@@ -55,6 +185,108 @@ public class UserRepository extends BaseRepository {
         return result;
     }
 
+    /**
+     * Retrieves a view of the users with a role, without copying them. The view reflects users
+     * added or removed later, so it should be copied to change the repository while walking it.
+     *
+     * @param role the role of the users
+     * @return an unmodifiable view of the users with the role
+     */
+    public Collection<User> getUsersByRole(UserRole role) {
+        return Collections.unmodifiableCollection(usersOfRole(role).values());
+    }
+
+    /**
+     * Retrieves a view of the patients, without copying them.
+     *
+     * @return an unmodifiable view of the patients
+     * @see #getUsersByRole(UserRole)
+     */
+    public Collection<Patient> getPatients() {
+        return view(UserRole.PATIENT);
+    }
+
+    /**
+     * Retrieves a view of the doctors, without copying them.
+     *
+     * @return an unmodifiable view of the doctors
+     * @see #getUsersByRole(UserRole)
+     */
+    public Collection<Doctor> getDoctors() {
+        return view(UserRole.DOCTOR);
+    }
+
+    /**
+     * Retrieves a view of the pharmacists, without copying them.
+     *
+     * @return an unmodifiable view of the pharmacists
+     * @see #getUsersByRole(UserRole)
+     */
+    public Collection<Pharmacist> getPharmacists() {
+        return view(UserRole.PHARMACIST);
+    }
+
+    /**
+     * Retrieves a view of the administrators, without copying them.
+     *
+     * @return an unmodifiable view of the administrators
+     * @see #getUsersByRole(UserRole)
+     */
+    public Collection<Administrator> getAdministrators() {
+        return view(UserRole.ADMINISTRATOR);
+    }
+
+    /**
+     * Searches users by name or ID, ignoring case and tolerating misspellings.
+     *
+     * @param query part of the name or ID of the users, possibly misspelled
+     * @param roles the roles of the users to search
+     * @param limit the maximum number of users to find
+     * @return the users found, best matches first: those whose name or ID is the query, then those
+     *     where a word starts with it, then those containing it, then those close to it
+     */
+    public List<User> searchUsers(String query, Set<UserRole> roles, int limit) {
+        if (query == null) {
+            return new ArrayList<>();
+        }
+        return nameIndex().search(query, user -> roles.contains(user.getRole()), limit);
+    }
+
+    /**
+     * Searches the diagnoses and treatments of every patient. A query is a list of clauses that
+     * must all match a medical record, in any case: a word matches records with that word, a word
+     * ending with {@code *} records with a word starting with it, and words in double quotes
+     * records with a diagnosis or treatment holding those words in a row, e.g. {@code "type 2"
+     * diabet*}.
+     *
+     * @param query the query
+     * @return the patients whose medical record matches, in ID order
+     */
+    public List<Patient> searchMedicalRecords(String query) {
+        List<Patient> patients = new ArrayList<>();
+        if (query == null) {
+            return patients;
+        }
+        for (String id : recordIndex().search(query)) {
+            if (users.get(id) instanceof Patient patient) {
+                patients.add(patient);
+            }
+        }
+        return patients;
+    }
+
+    /**
+     * Retrieves the IDs of the patients whose medical record names a doctor as responsible for
+     * them, without walking the patients.
+     *
+     * @param doctor the doctor
+     * @return the IDs of the patients, in no particular order
+     */
+    public List<String> getPatientIdsByRecordDoctor(Doctor doctor) {
+        return new ArrayList<>(
+                patientsByRecordDoctor().getOrDefault(doctor.getId(), Collections.emptySet()));
+    }
+
     /**
      * Retrieves a user by their ID.
      *
@@ -72,10 +304,359 @@ public class UserRepository extends BaseRepository {
      * @return an optional containing the user if found, or an empty optional if not found
      */
     public Optional<User> getUserByUsername(String username) {
-        return users.values().stream()
-                .filter(user -> user.getUsername().equals(username))
-                .map(UserRepository::castToAppropriateType)
-                .findFirst();
+        if (username == null) {
+            return Optional.empty();
+        }
+        String key = normalizeUsername(username);
+        User user = usersByUsername().get(key);
+        if (user != null && !key.equals(normalizeUsername(user.getUsername()))) {
+            // Renamed without going through the repository
+            usersByUsername.remove(key);
+            user = null;
+        }
+        return Optional.ofNullable(castToAppropriateType(user));
+    }
+
+    /**
+     * Renames a user in the repository, unless another user already has the username.
+     *
+     * @param user the user to be renamed
+     * @param username the new username
+     * @return true if the user was renamed, false if the user is not in the repository or the
+     *     username is taken
+     */
+    public boolean renameUser(User user, String username) {
+        if (username == null || users.get(user.getId()) != user) {
+            return false;
+        }
+        Optional<User> holder = getUserByUsername(username);
+        if (holder.isPresent() && holder.get() != user) {
+            return false;
+        }
+
+        unindexUsername(user);
+        user.setUsername(username);
+        indexUsername(user);
+        logUser(user);
+        return true;
+    }
+
+    /**
+     * Sets whether usernames are matched regardless of case. Of users whose usernames then only
+     * differ by case, the one added first is found.
+     *
+     * @param ignoreCase true to match usernames regardless of case
+     */
+    public void setIgnoreUsernameCase(boolean ignoreCase) {
+        if (ignoreCase != ignoreUsernameCase) {
+            ignoreUsernameCase = ignoreCase;
+            usersByUsername = null;
+        }
+    }
+
+    /**
+     * Retrieves a record of every user, or of the medical record of every patient. Users are
+     * keyed by ID and medical records by {@link MedicalRecordKey}, so their keys never collide.
+     *
+     * @param type the type of the records putting users or medical records
+     * @return the records of all users or all medical records
+     * @throws IllegalArgumentException if the type does not put entities of this repository
+     */
+    @Override
+    List<EntityRecord> getAllRecords(JournalRecordType type) {
+        List<EntityRecord> records = new ArrayList<>();
+        switch (type) {
+            case PUT_USER -> {
+                for (User user : users.values()) {
+                    records.add(
+                            user instanceof Patient patient
+                                    ? new EntityRecord(
+                                            JournalRecordType.PUT_PATIENT,
+                                            out -> EntityCodec.writePatient(out, patient))
+                                    : new EntityRecord(
+                                            type, out -> EntityCodec.writeUser(out, user)));
+                }
+            }
+            case PUT_MEDICAL_RECORD -> {
+                for (Patient patient : getPatients()) {
+                    if (medicalRecords != null) {
+                        records.add(new EntityRecord(type, medicalRecords.writer(patient)));
+                        continue;
+                    }
+                    String id = patient.getId();
+                    MedicalRecord mr = patient.getMedicalRecord();
+                    records.add(
+                            new EntityRecord(
+                                    type, out -> EntityCodec.writeMedicalRecord(out, id, mr)));
+                }
+            }
+            default -> throw new IllegalArgumentException("not a user record: " + type);
+        }
+        return records;
+    }
+
+    /**
+     * Counts the users or the medical records in the repository.
+     *
+     * @param type the type of the records putting users or medical records
+     * @return the number of users or medical records
+     * @throws IllegalArgumentException if the type does not put entities of this repository
+     */
+    @Override
+    int getEntityCount(JournalRecordType type) {
+        return switch (type) {
+            case PUT_USER -> users.size();
+            case PUT_MEDICAL_RECORD -> usersOfRole(UserRole.PATIENT).size();
+            default -> throw new IllegalArgumentException("not a user record: " + type);
+        };
+    }
+
+    /**
+     * Releases the medical record of every patient to a store, from which it is read on demand,
+     * and does the same for patients added from now on.
+     *
+     * @param store the store to release medical records to
+     */
+    void setMedicalRecordStore(MedicalRecordStore store) {
+        for (User user : usersOfRole(UserRole.PATIENT).values()) {
+            release((Patient) user, store);
+        }
+        this.medicalRecords = store;
+    }
+
+    /**
+     * Retrieves the users of a role, partitioning the users on first use, as the partitions are
+     * not kept by Java serialization.
+     *
+     * @param role the role
+     * @return the users with the role, by ID
+     */
+    private Map<String, User> usersOfRole(UserRole role) {
+        if (usersByRole == null) {
+            Map<UserRole, Map<String, User>> partitions = new EnumMap<>(UserRole.class);
+            for (UserRole r : UserRole.values()) {
+                partitions.put(r, new HashMap<>());
+            }
+            for (User user : users.values()) {
+                partitions.get(user.getRole()).put(user.getId(), user);
+            }
+            usersByRole = partitions;
+        }
+        return usersByRole.get(role);
+    }
+
+    /**
+     * Retrieves a view of the users of a role as the type of that role. Every user with a role is
+     * of its type, as {@link #castToAppropriateType(User)} relies on.
+     *
+     * @param role the role
+     * @return an unmodifiable view of the users with the role
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends User> Collection<T> view(UserRole role) {
+        return (Collection<T>) getUsersByRole(role);
+    }
+
+    /**
+     * Retrieves the index of medical records, building it on first use, as it is not kept by Java
+     * serialization.
+     *
+     * @return the index of medical records
+     */
+    private MedicalRecordIndex recordIndex() {
+        if (recordIndex == null) {
+            indexMedicalRecords();
+        }
+        return recordIndex;
+    }
+
+    /**
+     * Retrieves the index of names, building it from the users on first use, as it is not kept by
+     * Java serialization.
+     *
+     * @return the index of names
+     */
+    private NameIndex nameIndex() {
+        if (nameIndex == null) {
+            nameIndex = new NameIndex();
+            for (User user : users.values()) {
+                nameIndex.put(user);
+            }
+        }
+        return nameIndex;
+    }
+
+    /**
+     * Retrieves the patients by the doctor named by their medical record, building it on first
+     * use, as it is not kept by Java serialization.
+     *
+     * @return the IDs of the patients by doctor ID
+     */
+    private Map<String, Set<String>> patientsByRecordDoctor() {
+        if (patientsByRecordDoctor == null) {
+            indexMedicalRecords();
+        }
+        return patientsByRecordDoctor;
+    }
+
+    /**
+     * Builds the index of medical records and the patients by the doctor named by their medical
+     * record. Medical records in a store are indexed from their encoded form, in one pass over
+     * their segment, rather than loaded.
+     */
+    private void indexMedicalRecords() {
+        recordIndex = new MedicalRecordIndex();
+        patientsByRecordDoctor = new HashMap<>();
+        recordDoctors = new HashMap<>();
+        if (medicalRecords != null) {
+            medicalRecords.forEachDetails(
+                    (patientId, details) -> {
+                        if (users.get(patientId) instanceof Patient) {
+                            indexMedicalRecord(patientId, details);
+                        }
+                    });
+            return;
+        }
+        for (User user : usersOfRole(UserRole.PATIENT).values()) {
+            MedicalRecord mr = ((Patient) user).getMedicalRecord();
+            indexMedicalRecord(user.getId(), MedicalRecordDetails.of(mr));
+        }
+    }
+
+    /**
+     * Indexes the medical record of a patient, and moves the patient under the doctor it names,
+     * unless the indexes are not built yet.
+     *
+     * @param patientId the ID of the patient
+     * @param details the details of the medical record
+     */
+    private void indexMedicalRecord(String patientId, MedicalRecordDetails details) {
+        if (recordIndex == null) {
+            return;
+        }
+        recordIndex.index(patientId, details.diagnoses(), details.treatments());
+
+        String doctorId = details.doctorId();
+        String old =
+                doctorId != null
+                        ? recordDoctors.put(patientId, doctorId)
+                        : recordDoctors.remove(patientId);
+        if (Objects.equals(old, doctorId)) {
+            return;
+        }
+        unlistRecordDoctor(old, patientId);
+        if (doctorId != null) {
+            patientsByRecordDoctor
+                    .computeIfAbsent(doctorId, k -> new HashSet<>())
+                    .add(patientId);
+        }
+    }
+
+    /**
+     * Removes the medical record of a patient from the indexes, if they are built.
+     *
+     * @param patientId the ID of the patient
+     */
+    private void unindexMedicalRecord(String patientId) {
+        if (recordIndex != null) {
+            recordIndex.remove(patientId);
+            unlistRecordDoctor(recordDoctors.remove(patientId), patientId);
+        }
+    }
+
+    /**
+     * Removes a patient from the patients of a doctor, dropping the set once empty.
+     *
+     * @param doctorId the ID of the doctor, may be null
+     * @param patientId the ID of the patient
+     */
+    private void unlistRecordDoctor(String doctorId, String patientId) {
+        Set<String> patients = doctorId != null ? patientsByRecordDoctor.get(doctorId) : null;
+        if (patients != null && patients.remove(patientId) && patients.isEmpty()) {
+            patientsByRecordDoctor.remove(doctorId);
+        }
+    }
+
+    /**
+     * Retrieves the username index, building it from the users on first use, as it is not kept by
+     * Java serialization.
+     *
+     * @return the users by normalized username
+     */
+    private Map<String, User> usersByUsername() {
+        if (usersByUsername == null) {
+            usersByUsername = new HashMap<>();
+            for (User user : users.values()) {
+                indexUsername(user);
+            }
+        }
+        return usersByUsername;
+    }
+
+    /**
+     * Indexes a user under its username, unless another user already has it.
+     *
+     * @param user the user
+     */
+    private void indexUsername(User user) {
+        if (user.getUsername() != null) {
+            usersByUsername().putIfAbsent(normalizeUsername(user.getUsername()), user);
+        }
+    }
+
+    /**
+     * Removes a user from the username index.
+     *
+     * @param user the user
+     */
+    private void unindexUsername(User user) {
+        if (user.getUsername() != null && usersByUsername != null) {
+            usersByUsername.remove(normalizeUsername(user.getUsername()), user);
+        }
+    }
+
+    /**
+     * Normalizes a username into its key in the username index.
+     *
+     * @param username the username, may be null
+     * @return the key, or null if the username is null
+     */
+    private String normalizeUsername(String username) {
+        if (username == null || !ignoreUsernameCase) {
+            return username;
+        }
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Releases the medical record of a patient to a store, handing it the medical record unless
+     * the store already holds one for the patient, e.g. saved to its segment.
+     *
+     * @param patient the patient
+     * @param store the store to release the medical record to
+     */
+    private static void release(Patient patient, MedicalRecordStore store) {
+        if (!store.contains(patient.getId())) {
+            store.put(patient, patient.getMedicalRecord());
+        }
+        patient.releaseMedicalRecord(store::get);
+    }
+
+    /**
+     * Marks a user as dirty and journals it, without the medical record of a patient, which is
+     * logged on its own.
+     *
+     * @param user the user
+     */
+    private void logUser(User user) {
+        if (user instanceof Patient patient) {
+            log(
+                    JournalRecordType.PUT_PATIENT,
+                    user.getId(),
+                    out -> EntityCodec.writePatient(out, patient));
+        } else {
+            log(JournalRecordType.PUT_USER, user.getId(), out -> EntityCodec.writeUser(out, user));
+        }
     }
 
     /**
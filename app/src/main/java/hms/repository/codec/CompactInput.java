@@ -0,0 +1,208 @@
+package hms.repository.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reads primitive values written by a {@link CompactOutput}, rebuilding its string table and
+ * tracking the last date and time as values are read.
+ */
+public class CompactInput {
+    private final InputStream in;
+    private final List<String> strings;
+
+    /** The epoch minute of the last date and time read, which the next one is relative to. */
+    private long lastEpochMinute;
+
+    /**
+     * Constructs a compact input reading from the given stream. The stream should be buffered.
+     *
+     * @param in the stream to read from
+     */
+    public CompactInput(InputStream in) {
+        this.in = in;
+        this.strings = new ArrayList<>();
+    }
+
+    /**
+     * Reads a single unsigned byte.
+     *
+     * @return the byte, between 0 and 255
+     * @throws IOException if the byte cannot be read
+     */
+    public int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    /**
+     * Reads a boolean.
+     *
+     * @return the boolean
+     * @throws IOException if the boolean cannot be read
+     */
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    /**
+     * Reads a fixed-width 32-bit integer.
+     *
+     * @return the integer
+     * @throws IOException if the integer cannot be read
+     */
+    public int readInt() throws IOException {
+        return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+    }
+
+    /**
+     * Reads a fixed-width 64-bit integer.
+     *
+     * @return the integer
+     * @throws IOException if the integer cannot be read
+     */
+    public long readLong() throws IOException {
+        return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+    }
+
+    /**
+     * Reads an integer written as a variable-length quantity.
+     *
+     * @return the integer
+     * @throws IOException if the integer cannot be read
+     */
+    public int readVarInt() throws IOException {
+        return (int) readVarLong();
+    }
+
+    /**
+     * Reads a long written as a variable-length quantity.
+     *
+     * @return the long
+     * @throws IOException if the long cannot be read or is malformed
+     */
+    public long readVarLong() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = readByte();
+            v |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("malformed variable-length quantity");
+    }
+
+    /**
+     * Reads a long written as a zigzag-encoded variable-length quantity.
+     *
+     * @return the long
+     * @throws IOException if the long cannot be read
+     */
+    public long readSignedVarLong() throws IOException {
+        long v = readVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Reads a byte array preceded by its length.
+     *
+     * @return the byte array
+     * @throws IOException if the byte array cannot be read
+     */
+    public byte[] readBytes() throws IOException {
+        int length = readVarInt();
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException();
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads a string that may be null, through the string table.
+     *
+     * @return the string
+     * @throws IOException if the string cannot be read or refers to an unknown table entry
+     */
+    public String readString() throws IOException {
+        int tag = readVarInt();
+        if (tag == CompactOutput.NULL) {
+            return null;
+        }
+        if (tag != CompactOutput.NEW_STRING) {
+            int index = tag - CompactOutput.STRING_REF;
+            if (index < 0 || index >= strings.size()) {
+                throw new IOException("unknown string table entry " + index);
+            }
+            return strings.get(index);
+        }
+
+        int length = readVarInt();
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException();
+        }
+        String s = new String(bytes, StandardCharsets.UTF_8);
+        strings.add(s);
+        return s;
+    }
+
+    /**
+     * Reads an enum constant that may be null by its ordinal.
+     *
+     * @param values the constants of the enum
+     * @return the enum constant
+     * @throws IOException if the constant cannot be read or is out of range
+     */
+    public <E extends Enum<E>> E readEnum(E[] values) throws IOException {
+        int tag = readVarInt();
+        if (tag == CompactOutput.NULL) {
+            return null;
+        }
+        if (tag > values.length) {
+            throw new IOException("unknown enum ordinal " + (tag - 1));
+        }
+        return values[tag - 1];
+    }
+
+    /**
+     * Reads a date and time that may be null.
+     *
+     * @return the date and time
+     * @throws IOException if the date and time cannot be read
+     */
+    public LocalDateTime readDateTime() throws IOException {
+        long tag = readVarLong();
+        if (tag == CompactOutput.NULL) {
+            return null;
+        }
+
+        long withinMinute = tag - 1;
+        lastEpochMinute += readSignedVarLong();
+        return LocalDateTime.ofEpochSecond(
+                lastEpochMinute * 60 + withinMinute / 1_000_000_000L,
+                (int) (withinMinute % 1_000_000_000L),
+                ZoneOffset.UTC);
+    }
+
+    /**
+     * Reads a UUID that may be null.
+     *
+     * @return the UUID
+     * @throws IOException if the UUID cannot be read
+     */
+    public UUID readUuid() throws IOException {
+        return readBoolean() ? new UUID(readLong(), readLong()) : null;
+    }
+}
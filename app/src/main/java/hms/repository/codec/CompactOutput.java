@@ -0,0 +1,213 @@
+package hms.repository.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Writes primitive values in a compact binary encoding, read back by {@link CompactInput}.
+ *
+ * <ul>
+ *   <li>Integers are written as variable-length quantities, so small identifiers, counts and
+ *       quantities take a single byte.
+ *   <li>Enum constants are written by ordinal.
+ *   <li>Date and times are written as the number of minutes since the previously written date
+ *       and time, preceded by the rarely used remainder within the minute. Consecutive slots of a
+ *       schedule, or the end of a slot after its start, take two bytes.
+ *   <li>Strings are written once and referred to by their index in a string table afterwards, so
+ *       repeated names, identifiers and descriptions cost one or two bytes each.
+ * </ul>
+ *
+ * <p>The string table and the last date and time depend on everything written before, so a stream
+ * must be read back from its start with a single {@link CompactInput}.
+ */
+public class CompactOutput {
+    /** Tag written for a null string or date and time. */
+    static final int NULL = 0;
+
+    /** Tag written before a string that is not in the string table yet. */
+    static final int NEW_STRING = 1;
+
+    /** The offset added to an index into the string table. */
+    static final int STRING_REF = 2;
+
+    private final OutputStream out;
+    private final Map<String, Integer> strings;
+
+    /** The epoch minute of the last date and time written, which the next one is relative to. */
+    private long lastEpochMinute;
+
+    /**
+     * Constructs a compact output writing to the given stream. The stream should be buffered.
+     *
+     * @param out the stream to write to
+     */
+    public CompactOutput(OutputStream out) {
+        this.out = out;
+        this.strings = new HashMap<>();
+    }
+
+    /**
+     * Writes a single byte.
+     *
+     * @param b the byte to write, only the low eight bits are written
+     * @throws IOException if the byte cannot be written
+     */
+    public void writeByte(int b) throws IOException {
+        out.write(b);
+    }
+
+    /**
+     * Writes a boolean as a single byte.
+     *
+     * @param b the boolean to write
+     * @throws IOException if the boolean cannot be written
+     */
+    public void writeBoolean(boolean b) throws IOException {
+        out.write(b ? 1 : 0);
+    }
+
+    /**
+     * Writes a fixed-width 32-bit integer.
+     *
+     * @param v the integer to write
+     * @throws IOException if the integer cannot be written
+     */
+    public void writeInt(int v) throws IOException {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    /**
+     * Writes a fixed-width 64-bit integer.
+     *
+     * @param v the integer to write
+     * @throws IOException if the integer cannot be written
+     */
+    public void writeLong(long v) throws IOException {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    /**
+     * Writes a non-negative integer as a variable-length quantity of one to five bytes.
+     *
+     * @param v the integer to write
+     * @throws IOException if the integer cannot be written
+     */
+    public void writeVarInt(int v) throws IOException {
+        writeVarLong(v & 0xffffffffL);
+    }
+
+    /**
+     * Writes a non-negative long as a variable-length quantity, seven bits per byte.
+     *
+     * @param v the long to write
+     * @throws IOException if the long cannot be written
+     */
+    public void writeVarLong(long v) throws IOException {
+        while ((v & ~0x7fL) != 0) {
+            out.write((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    /**
+     * Writes a long that may be negative as a zigzag-encoded variable-length quantity, so that
+     * values close to zero take few bytes regardless of their sign.
+     *
+     * @param v the long to write
+     * @throws IOException if the long cannot be written
+     */
+    public void writeSignedVarLong(long v) throws IOException {
+        writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    /**
+     * Writes a byte array preceded by its length, bypassing the string table.
+     *
+     * @param bytes the byte array to write
+     * @throws IOException if the byte array cannot be written
+     */
+    public void writeBytes(byte[] bytes) throws IOException {
+        writeVarInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a string that may be null, through the string table.
+     *
+     * @param s the string to write
+     * @throws IOException if the string cannot be written
+     */
+    public void writeString(String s) throws IOException {
+        if (s == null) {
+            writeVarInt(NULL);
+            return;
+        }
+
+        Integer index = strings.get(s);
+        if (index != null) {
+            writeVarInt(STRING_REF + index);
+            return;
+        }
+
+        strings.put(s, strings.size());
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(NEW_STRING);
+        writeVarInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes an enum constant that may be null by its ordinal.
+     *
+     * @param e the enum constant to write
+     * @throws IOException if the constant cannot be written
+     */
+    public void writeEnum(Enum<?> e) throws IOException {
+        writeVarInt(e != null ? e.ordinal() + 1 : NULL);
+    }
+
+    /**
+     * Writes a date and time that may be null.
+     *
+     * @param dt the date and time to write
+     * @throws IOException if the date and time cannot be written
+     */
+    public void writeDateTime(LocalDateTime dt) throws IOException {
+        if (dt == null) {
+            writeVarLong(NULL);
+            return;
+        }
+
+        long seconds = dt.toEpochSecond(ZoneOffset.UTC);
+        long epochMinute = Math.floorDiv(seconds, 60);
+        long withinMinute = Math.floorMod(seconds, 60) * 1_000_000_000L + dt.getNano();
+        writeVarLong(withinMinute + 1);
+        writeSignedVarLong(epochMinute - lastEpochMinute);
+        lastEpochMinute = epochMinute;
+    }
+
+    /**
+     * Writes a UUID that may be null.
+     *
+     * @param id the UUID to write
+     * @throws IOException if the UUID cannot be written
+     */
+    public void writeUuid(UUID id) throws IOException {
+        writeBoolean(id != null);
+        if (id != null) {
+            writeLong(id.getMostSignificantBits());
+            writeLong(id.getLeastSignificantBits());
+        }
+    }
+}
@@ -0,0 +1,977 @@
+package hms.repository.codec;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+import hms.model.appointment.Appointment;
+import hms.model.appointment.AppointmentOutcome;
+import hms.model.appointment.AppointmentStatus;
+import hms.model.appointment.state.CancelledState;
+import hms.model.appointment.state.CompletedState;
+import hms.model.appointment.state.ConfirmedState;
+import hms.model.appointment.state.FreeState;
+import hms.model.appointment.state.IAppointmentState;
+import hms.model.appointment.state.PendingState;
+import hms.model.medication.Inventory;
+import hms.model.medication.Medication;
+import hms.model.medication.MedicationSideEffect;
+import hms.model.medication.Prescription;
+import hms.model.medication.PrescriptionStatus;
+import hms.model.medication.ReplenishmentRequest;
+import hms.model.medication.ReplenishmentRequestStatus;
+import hms.model.record.MedicalRecord;
+import hms.model.user.Administrator;
+import hms.model.user.Doctor;
+import hms.model.user.Patient;
+import hms.model.user.Pharmacist;
+import hms.model.user.User;
+import hms.model.user.UserRole;
+import hms.repository.AppointmentRepository;
+import hms.repository.InventoryRepository;
+import hms.repository.RepositoryManager;
+import hms.repository.UserRepository;
+import hms.repository.journal.JournalRecordType;
+
+/**
+ * Encodes entities as flat records and applies those records back onto the repositories. The same
+ * records make up both the journal and the snapshot. Entities refer to each other by identifier
+ * only, so a record never drags the rest of the object graph along with it.
+ */
+public final class EntityCodec {
+    /** Private constructor to prevent instantiation. */
+    private EntityCodec() {}
+
+    /**
+     * Applies a decoded record to the repositories of a manager, resolving the entities it refers
+     * to by ID at that point.
+     */
+    @FunctionalInterface
+    public interface DecodedRecord {
+        /**
+         * Applies the record. The entity changed by the record is marked as dirty in its
+         * repository, so that the change is kept by the next save.
+         *
+         * @param rm the repository manager to apply the record to
+         */
+        void apply(RepositoryManager rm);
+    }
+
+    /**
+     * Applies a journal record to the repositories of the given manager. The entity changed by the
+     * record is marked as dirty in its repository, so that the change is kept by the next save.
+     *
+     * @param type the type of the record
+     * @param in the input holding the payload of the record
+     * @param rm the repository manager to apply the record to
+     * @throws IOException if the payload cannot be read
+     */
+    public static void apply(JournalRecordType type, CompactInput in, RepositoryManager rm)
+            throws IOException {
+        decode(type, in).apply(rm);
+    }
+
+    /**
+     * Decodes a journal record without touching any repository, so that records can be decoded
+     * concurrently and applied in order afterwards.
+     *
+     * @param type the type of the record
+     * @param in the input holding the payload of the record
+     * @return the decoded record
+     * @throws IOException if the payload cannot be read
+     */
+    public static DecodedRecord decode(JournalRecordType type, CompactInput in)
+            throws IOException {
+        return switch (type) {
+            case PUT_USER -> decodeUser(in, true);
+            case PUT_PATIENT -> decodeUser(in, false);
+            case REMOVE_USER -> {
+                String id = in.readString();
+                yield rm -> {
+                    UserRepository ur = rm.getUserRepository();
+                    ur.getUserById(id).ifPresent(ur::removeUser);
+                };
+            }
+            case PUT_APPOINTMENT -> decodeAppointment(in);
+            case REMOVE_APPOINTMENT -> {
+                int id = in.readVarInt();
+                yield rm -> {
+                    AppointmentRepository ar = rm.getAppointmentRepository();
+                    ar.getAppointmentById(id)
+                            .ifPresent(
+                                    ap -> {
+                                        ar.removeAppointment(ap);
+                                        if (ap.getDoctor() != null) {
+                                            ap.getDoctor().getSchedule().detachAppointment(ap);
+                                        }
+                                    });
+                };
+            }
+            case PUT_MEDICATION -> decodeMedication(in);
+            case REMOVE_MEDICATION -> {
+                String name = in.readString();
+                yield rm -> {
+                    InventoryRepository ir = rm.getInventoryRepository();
+                    Inventory inventory = ir.getInventory();
+                    inventory
+                            .getMedicationByName(name)
+                            .ifPresent(
+                                    medication -> {
+                                        inventory.removeMedication(medication);
+                                        ir.updateMedication(medication);
+                                    });
+                };
+            }
+            case PUT_REPLENISHMENT_REQUEST -> decodeReplenishmentRequest(in);
+            case REMOVE_REPLENISHMENT_REQUEST -> {
+                int id = in.readVarInt();
+                yield rm -> {
+                    InventoryRepository ir = rm.getInventoryRepository();
+                    ir.getReplenishmentRequestById(id).ifPresent(ir::removeReplenishmentRequest);
+                };
+            }
+            case PUT_MEDICAL_RECORD -> {
+                String patientId = in.readString();
+                MedicalRecordDetails details = readMedicalRecordDetails(in);
+                yield rm -> {
+                    Patient patient = findUser(rm, patientId, Patient.class);
+                    if (patient != null) {
+                        details.applyTo(patient.getMedicalRecord(), rm);
+                        rm.getUserRepository().updateMedicalRecord(patient);
+                    }
+                };
+            }
+            case REMOVE_MEDICAL_RECORD -> {
+                in.readString();
+                // Dropped together with the patient by REMOVE_USER
+                yield rm -> {};
+            }
+        };
+    }
+
+    /**
+     * Writes a user, including the medical record of a patient, as snapshots hold it.
+     *
+     * @param out the output to write to
+     * @param user the user to write
+     * @throws IOException if the user cannot be written
+     */
+    public static void writeUser(CompactOutput out, User user) throws IOException {
+        writeUserFields(out, user);
+        if (user instanceof Patient patient) {
+            writeMedicalRecordFields(out, MedicalRecordDetails.of(patient.getMedicalRecord()));
+        }
+    }
+
+    /**
+     * Writes a patient without its medical record, which is written on its own by {@link
+     * #writeMedicalRecord(CompactOutput, String, MedicalRecord)}, so that it can be read on
+     * demand.
+     *
+     * @param out the output to write to
+     * @param patient the patient to write
+     * @throws IOException if the patient cannot be written
+     */
+    public static void writePatient(CompactOutput out, Patient patient) throws IOException {
+        writeUserFields(out, patient);
+    }
+
+    /**
+     * Writes the medical record of a patient.
+     *
+     * @param out the output to write to
+     * @param patientId the ID of the patient
+     * @param mr the medical record to write
+     * @throws IOException if the medical record cannot be written
+     */
+    public static void writeMedicalRecord(CompactOutput out, String patientId, MedicalRecord mr)
+            throws IOException {
+        writeMedicalRecord(out, patientId, MedicalRecordDetails.of(mr));
+    }
+
+    /**
+     * Writes the medical record of a patient from its details, e.g. to copy it without loading
+     * it.
+     *
+     * @param out the output to write to
+     * @param patientId the ID of the patient
+     * @param details the details of the medical record
+     * @throws IOException if the medical record cannot be written
+     */
+    public static void writeMedicalRecord(
+            CompactOutput out, String patientId, MedicalRecordDetails details) throws IOException {
+        out.writeString(patientId);
+        writeMedicalRecordFields(out, details);
+    }
+
+    /**
+     * Writes the removal of the medical record of a patient.
+     *
+     * @param out the output to write to
+     * @param patientId the ID of the patient
+     * @throws IOException if the record cannot be written
+     */
+    public static void writeMedicalRecordRemoval(CompactOutput out, String patientId)
+            throws IOException {
+        out.writeString(patientId);
+    }
+
+    /**
+     * Writes the removal of a user.
+     *
+     * @param out the output to write to
+     * @param user the user that was removed
+     * @throws IOException if the record cannot be written
+     */
+    public static void writeUserRemoval(CompactOutput out, User user) throws IOException {
+        out.writeString(user.getId());
+    }
+
+    /**
+     * Writes an appointment together with its outcome and prescription.
+     *
+     * @param out the output to write to
+     * @param ap the appointment to write
+     * @throws IOException if the appointment cannot be written
+     */
+    public static void writeAppointment(CompactOutput out, Appointment ap) throws IOException {
+        out.writeVarInt(ap.getId());
+        out.writeString(ap.getDoctor() != null ? ap.getDoctor().getId() : null);
+        out.writeDateTime(ap.getStart());
+        out.writeDateTime(ap.getEnd());
+        out.writeEnum(ap.getStatus());
+        out.writeString(ap.getPatient() != null ? ap.getPatient().getId() : null);
+
+        AppointmentOutcome outcome = ap.getOutcome();
+        out.writeBoolean(outcome != null);
+        if (outcome != null) {
+            writeOutcome(out, outcome);
+        }
+    }
+
+    /**
+     * Writes the outcome of an appointment together with its prescription.
+     *
+     * @param out the output to write to
+     * @param outcome the outcome to write
+     * @throws IOException if the outcome cannot be written
+     */
+    public static void writeOutcome(CompactOutput out, AppointmentOutcome outcome)
+            throws IOException {
+        out.writeString(outcome.getDescription());
+
+        Prescription pr = outcome.getPrescription().orElse(null);
+        out.writeBoolean(pr != null);
+        if (pr == null) {
+            return;
+        }
+        out.writeEnum(pr.getPrescriptionStatus());
+
+        Map<Medication, Integer> medications = pr.getMedications();
+        out.writeVarInt(medications != null ? medications.size() + 1 : 0);
+        if (medications != null) {
+            for (Map.Entry<Medication, Integer> entry : medications.entrySet()) {
+                out.writeString(entry.getKey().getName());
+                out.writeString(entry.getKey().getDescription());
+                out.writeString(entry.getKey().getDosageInstructions());
+                out.writeVarInt(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes the removal of an appointment.
+     *
+     * @param out the output to write to
+     * @param ap the appointment that was removed
+     * @throws IOException if the record cannot be written
+     */
+    public static void writeAppointmentRemoval(CompactOutput out, Appointment ap)
+            throws IOException {
+        out.writeVarInt(ap.getId());
+    }
+
+    /**
+     * Writes a medication together with its stock level and alert line.
+     *
+     * @param out the output to write to
+     * @param medication the medication to write
+     * @param inventory the inventory holding the medication
+     * @throws IOException if the medication cannot be written
+     */
+    public static void writeMedication(
+            CompactOutput out, Medication medication, Inventory inventory) throws IOException {
+        out.writeString(medication.getName());
+        out.writeUuid(medication.getId());
+        out.writeString(medication.getDescription());
+        out.writeString(medication.getDosageInstructions());
+
+        List<MedicationSideEffect> sideEffects = medication.getSideEffects();
+        out.writeVarInt(sideEffects != null ? sideEffects.size() + 1 : 0);
+        if (sideEffects != null) {
+            for (MedicationSideEffect sideEffect : sideEffects) {
+                out.writeEnum(sideEffect);
+            }
+        }
+        out.writeEnum(medication.getStatus());
+
+        out.writeVarInt(inventory.getMedicationStock(medication));
+        out.writeVarInt(
+                inventory.hasMedicationStockAlert(medication)
+                        ? inventory.getMedicationStockAlert(medication)
+                        : 0);
+    }
+
+    /**
+     * Writes the removal of a medication from the inventory.
+     *
+     * @param out the output to write to
+     * @param medication the medication that was removed
+     * @throws IOException if the record cannot be written
+     */
+    public static void writeMedicationRemoval(CompactOutput out, Medication medication)
+            throws IOException {
+        out.writeString(medication.getName());
+    }
+
+    /**
+     * Writes a replenishment request.
+     *
+     * @param out the output to write to
+     * @param rr the replenishment request to write
+     * @throws IOException if the request cannot be written
+     */
+    public static void writeReplenishmentRequest(CompactOutput out, ReplenishmentRequest rr)
+            throws IOException {
+        out.writeVarInt(rr.getId());
+        out.writeString(rr.getMedication().getName());
+        out.writeVarInt(rr.getRequestedQuantity());
+        out.writeEnum(rr.getStatus());
+        out.writeDateTime(rr.getDateTime());
+        out.writeString(rr.getPharmacist() != null ? rr.getPharmacist().getId() : null);
+    }
+
+    /**
+     * Writes the removal of a replenishment request.
+     *
+     * @param out the output to write to
+     * @param rr the replenishment request that was removed
+     * @throws IOException if the record cannot be written
+     */
+    public static void writeReplenishmentRequestRemoval(CompactOutput out, ReplenishmentRequest rr)
+            throws IOException {
+        out.writeVarInt(rr.getId());
+    }
+
+    /**
+     * Decodes a user, which is added to, or updated in, the user repository when applied.
+     *
+     * @param in the input to read from
+     * @param withMedicalRecord whether a patient is followed by its medical record
+     * @return the decoded user
+     * @throws IOException if the user cannot be read
+     */
+    private static DecodedRecord decodeUser(CompactInput in, boolean withMedicalRecord)
+            throws IOException {
+        UserRole role = in.readEnum(UserRole.values());
+        String id = in.readString();
+        String username = in.readString();
+        String firstName = in.readString();
+        String lastName = in.readString();
+        String hashedPassword = in.readString();
+        String email = in.readString();
+        String phoneNumber = in.readString();
+        PatientDetails details =
+                role == UserRole.PATIENT ? decodePatientDetails(in, withMedicalRecord) : null;
+
+        return rm -> {
+            UserRepository ur = rm.getUserRepository();
+            User user = ur.getUserById(id).orElse(null);
+            if (user == null || user.getRole() != role) {
+                // Passwords are restored from their hash below, so none is given here
+                user =
+                        switch (role) {
+                            case PATIENT ->
+                                    new Patient(
+                                            id,
+                                            username,
+                                            firstName,
+                                            lastName,
+                                            null,
+                                            email,
+                                            phoneNumber);
+                            case DOCTOR ->
+                                    new Doctor(
+                                            id,
+                                            username,
+                                            firstName,
+                                            lastName,
+                                            null,
+                                            email,
+                                            phoneNumber);
+                            case PHARMACIST ->
+                                    new Pharmacist(
+                                            id,
+                                            username,
+                                            firstName,
+                                            lastName,
+                                            null,
+                                            email,
+                                            phoneNumber);
+                            case ADMINISTRATOR ->
+                                    new Administrator(
+                                            id,
+                                            username,
+                                            firstName,
+                                            lastName,
+                                            null,
+                                            email,
+                                            phoneNumber);
+                        };
+                ur.addUser(user);
+            } else if (!Objects.equals(user.getUsername(), username)) {
+                ur.renameUser(user, username);
+            }
+            user.setFirstName(firstName);
+            user.setLastName(lastName);
+            user.setHashedPassword(hashedPassword);
+            user.setEmail(email);
+            user.setPhoneNumber(phoneNumber);
+
+            if (user instanceof Patient patient && details != null) {
+                details.applyTo(patient, rm);
+            }
+            ur.updateUser(user);
+            if (user instanceof Patient patient
+                    && details != null
+                    && details.medicalRecord() != null) {
+                ur.updateMedicalRecord(patient);
+            }
+        };
+    }
+
+    /**
+     * Decodes the details of a patient, and its medical record if the record holds it.
+     *
+     * @param in the input to read from
+     * @param withMedicalRecord whether the details are followed by the medical record
+     * @return the details of the patient
+     * @throws IOException if the details cannot be read
+     */
+    private static PatientDetails decodePatientDetails(CompactInput in, boolean withMedicalRecord)
+            throws IOException {
+        return new PatientDetails(
+                in.readString(),
+                in.readEnum(Patient.Gender.values()),
+                in.readString(),
+                withMedicalRecord ? readMedicalRecordDetails(in) : null);
+    }
+
+    /**
+     * The details of a patient, as decoded from a user record.
+     *
+     * @param dateOfBirth the date of birth of the patient
+     * @param gender the gender of the patient
+     * @param bloodType the blood type of the patient
+     * @param medicalRecord the medical record of the patient, or null if it is written on its own
+     */
+    private record PatientDetails(
+            String dateOfBirth,
+            Patient.Gender gender,
+            String bloodType,
+            MedicalRecordDetails medicalRecord) {
+        /**
+         * Applies the details to a patient.
+         *
+         * @param patient the patient to update
+         * @param rm the repository manager holding the doctor of the medical record
+         */
+        void applyTo(Patient patient, RepositoryManager rm) {
+            patient.setDateOfBirth(dateOfBirth);
+            patient.setGender(gender);
+            patient.setBloodType(bloodType);
+            if (medicalRecord != null) {
+                medicalRecord.applyTo(patient.getMedicalRecord(), rm);
+            }
+        }
+    }
+
+    /**
+     * A medical record as written, with its doctor by ID, so that it can be indexed or copied
+     * without loading it.
+     *
+     * @param contactPhone the contact phone of the medical record
+     * @param emailAddress the email address of the medical record
+     * @param diagnoses every diagnosis of the medical record
+     * @param treatments every treatment of the medical record
+     * @param doctorId the ID of the doctor of the medical record, may be null
+     */
+    public record MedicalRecordDetails(
+            String contactPhone,
+            String emailAddress,
+            List<String> diagnoses,
+            List<String> treatments,
+            String doctorId) {
+        /**
+         * Retrieves the details of a medical record.
+         *
+         * @param mr the medical record
+         * @return the details of the medical record
+         */
+        public static MedicalRecordDetails of(MedicalRecord mr) {
+            return new MedicalRecordDetails(
+                    mr.getContactPhone(),
+                    mr.getEmailAddress(),
+                    mr.getPastDiagnoses(),
+                    mr.getTreatments(),
+                    mr.getDoctor() != null ? mr.getDoctor().getId() : null);
+        }
+
+        /**
+         * Applies the details to a medical record.
+         *
+         * @param mr the medical record to update
+         * @param rm the repository manager holding the doctor of the medical record
+         */
+        public void applyTo(MedicalRecord mr, RepositoryManager rm) {
+            mr.setContactPhone(contactPhone);
+            mr.setEmailAddress(emailAddress);
+
+            // Diagnoses and treatments are append-only, so only the tail is new
+            for (int i = mr.getPastDiagnoses().size(); i < diagnoses.size(); i++) {
+                mr.addDiagnosis(diagnoses.get(i));
+            }
+            for (int i = mr.getTreatments().size(); i < treatments.size(); i++) {
+                mr.addTreatment(treatments.get(i));
+            }
+            mr.setDoctor(findUser(rm, doctorId, Doctor.class));
+        }
+    }
+
+    /**
+     * Decodes an appointment, which is added to, or updated in, the appointment repository and the
+     * schedule of its doctor when applied.
+     *
+     * @param in the input to read from
+     * @return the decoded appointment
+     * @throws IOException if the appointment cannot be read
+     */
+    private static DecodedRecord decodeAppointment(CompactInput in) throws IOException {
+        AppointmentDetails details = decodeAppointmentDetails(in);
+        return rm -> {
+            Doctor doctor = findUser(rm, details.doctorId(), Doctor.class);
+            if (doctor == null) {
+                // The doctor has since been removed, so there is no schedule to restore into
+                return;
+            }
+
+            AppointmentRepository ar = rm.getAppointmentRepository();
+            Appointment ap = ar.getAppointmentById(details.id()).orElse(null);
+            if (ap == null) {
+                ap = new Appointment(doctor, details.start(), details.end());
+                ap.setId(details.id());
+                ar.putAppointment(ap);
+                doctor.getSchedule().restoreAppointment(ap);
+            }
+            details.applyTo(ap, rm);
+            ar.updateAppointment(ap);
+        };
+    }
+
+    /**
+     * Reads an appointment written by {@link #writeAppointment(CompactOutput, Appointment)} as an
+     * object of its own, without adding it to the repositories, e.g. to read it from an archive.
+     *
+     * @param in the input to read from
+     * @param rm the repository manager holding the users and the inventory
+     * @return the appointment
+     * @throws IOException if the appointment cannot be read
+     */
+    public static Appointment readAppointment(CompactInput in, RepositoryManager rm)
+            throws IOException {
+        AppointmentDetails details = decodeAppointmentDetails(in);
+        Appointment ap =
+                new Appointment(
+                        findUser(rm, details.doctorId(), Doctor.class),
+                        details.start(),
+                        details.end());
+        ap.setId(details.id());
+        details.applyTo(ap, rm);
+        return ap;
+    }
+
+    /**
+     * Decodes the fields of an appointment, whose users and medications are resolved when applied.
+     *
+     * @param in the input to read from
+     * @return the decoded fields
+     * @throws IOException if the appointment cannot be read
+     */
+    private static AppointmentDetails decodeAppointmentDetails(CompactInput in)
+            throws IOException {
+        int id = in.readVarInt();
+        String doctorId = in.readString();
+        LocalDateTime start = in.readDateTime();
+        LocalDateTime end = in.readDateTime();
+        AppointmentStatus status = in.readEnum(AppointmentStatus.values());
+        String patientId = in.readString();
+
+        boolean hasOutcome = in.readBoolean();
+        String description = hasOutcome ? in.readString() : null;
+        PrescriptionDetails prescription =
+                hasOutcome && in.readBoolean() ? decodePrescription(in) : null;
+        return new AppointmentDetails(
+                id, doctorId, start, end, status, patientId, hasOutcome, description, prescription);
+    }
+
+    /**
+     * The fields of an appointment, as decoded from an appointment record.
+     *
+     * @param id the ID of the appointment
+     * @param doctorId the ID of the doctor, may be null
+     * @param start the start of the appointment
+     * @param end the end of the appointment
+     * @param status the status of the appointment
+     * @param patientId the ID of the patient, may be null
+     * @param hasOutcome whether the appointment has an outcome
+     * @param description the description of the outcome, if any
+     * @param prescription the prescription of the outcome, or null if there is none
+     */
+    private record AppointmentDetails(
+            int id,
+            String doctorId,
+            LocalDateTime start,
+            LocalDateTime end,
+            AppointmentStatus status,
+            String patientId,
+            boolean hasOutcome,
+            String description,
+            PrescriptionDetails prescription) {
+        /**
+         * Applies the fields to an appointment with the same ID.
+         *
+         * @param ap the appointment to update
+         * @param rm the repository manager holding the patient and the inventory
+         */
+        void applyTo(Appointment ap, RepositoryManager rm) {
+            ap.setStart(start);
+            ap.setEnd(end);
+            ap.setPatient(findUser(rm, patientId, Patient.class));
+            ap.setState(stateOf(status));
+            ap.setOutcome(
+                    hasOutcome
+                            ? new AppointmentOutcome(
+                                    ap,
+                                    description,
+                                    prescription != null ? prescription.toPrescription(rm) : null)
+                            : null);
+        }
+    }
+
+    /**
+     * Reads the outcome of an appointment written by {@link #writeOutcome(CompactOutput,
+     * AppointmentOutcome)}, resolving its prescribed medications against the inventory.
+     *
+     * @param in the input to read from
+     * @param ap the appointment the outcome belongs to
+     * @param rm the repository manager holding the inventory
+     * @return the outcome
+     * @throws IOException if the outcome cannot be read
+     */
+    public static AppointmentOutcome readOutcome(
+            CompactInput in, Appointment ap, RepositoryManager rm) throws IOException {
+        String description = in.readString();
+        PrescriptionDetails prescription = in.readBoolean() ? decodePrescription(in) : null;
+        return new AppointmentOutcome(
+                ap, description, prescription != null ? prescription.toPrescription(rm) : null);
+    }
+
+    /**
+     * Reads the details of a medical record written by {@link #writeMedicalRecord(CompactOutput,
+     * String, MedicalRecord)}, once its patient ID is read, without resolving its doctor.
+     *
+     * @param in the input to read from
+     * @return the details of the medical record
+     * @throws IOException if the medical record cannot be read
+     */
+    public static MedicalRecordDetails readMedicalRecordDetails(CompactInput in)
+            throws IOException {
+        return new MedicalRecordDetails(
+                in.readString(),
+                in.readString(),
+                readStrings(in),
+                readStrings(in),
+                in.readString());
+    }
+
+    /**
+     * Decodes a prescription, whose medications are resolved by name when it is applied.
+     *
+     * @param in the input to read from
+     * @return the decoded prescription
+     * @throws IOException if the prescription cannot be read
+     */
+    private static PrescriptionDetails decodePrescription(CompactInput in) throws IOException {
+        PrescriptionStatus status = in.readEnum(PrescriptionStatus.values());
+        int count = in.readVarInt() - 1;
+        if (count < 0) {
+            return new PrescriptionDetails(status, null);
+        }
+
+        List<PrescribedMedication> medications = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            medications.add(
+                    new PrescribedMedication(
+                            in.readString(), in.readString(), in.readString(), in.readVarInt()));
+        }
+        return new PrescriptionDetails(status, medications);
+    }
+
+    /**
+     * A prescription, as decoded from an appointment record.
+     *
+     * @param status the status of the prescription
+     * @param medications the prescribed medications, or null if there are none
+     */
+    private record PrescriptionDetails(
+            PrescriptionStatus status, List<PrescribedMedication> medications) {
+        /**
+         * Creates the prescription, resolving its medications against the inventory by name.
+         *
+         * @param rm the repository manager holding the inventory
+         * @return the prescription
+         */
+        Prescription toPrescription(RepositoryManager rm) {
+            if (medications == null) {
+                return new Prescription(null, status);
+            }
+
+            Inventory inventory = rm.getInventoryRepository().getInventory();
+            Map<Medication, Integer> resolved = new HashMap<>();
+            for (PrescribedMedication pm : medications) {
+                Medication medication =
+                        inventory
+                                .getMedicationByName(pm.name())
+                                .orElseGet(
+                                        () ->
+                                                new Medication(
+                                                        pm.name(),
+                                                        pm.description(),
+                                                        pm.dosageInstructions()));
+                resolved.put(medication, pm.quantity());
+            }
+            return new Prescription(resolved, status);
+        }
+    }
+
+    /**
+     * A medication of a prescription, as decoded from an appointment record.
+     *
+     * @param name the name of the medication
+     * @param description the description of the medication
+     * @param dosageInstructions the dosage instructions of the medication
+     * @param quantity the prescribed quantity
+     */
+    private record PrescribedMedication(
+            String name, String description, String dosageInstructions, int quantity) {}
+
+    /**
+     * Decodes a medication, which is added to, or updated in, the inventory when applied.
+     *
+     * @param in the input to read from
+     * @return the decoded medication
+     * @throws IOException if the medication cannot be read
+     */
+    private static DecodedRecord decodeMedication(CompactInput in) throws IOException {
+        String name = in.readString();
+        UUID id = in.readUuid();
+        String description = in.readString();
+        String dosageInstructions = in.readString();
+
+        List<MedicationSideEffect> sideEffects = null;
+        int count = in.readVarInt() - 1;
+        if (count >= 0) {
+            sideEffects = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                sideEffects.add(in.readEnum(MedicationSideEffect.values()));
+            }
+        }
+        List<MedicationSideEffect> decodedSideEffects = sideEffects;
+        Medication.MedicationStatus status = in.readEnum(Medication.MedicationStatus.values());
+        int stock = in.readVarInt();
+        int alert = in.readVarInt();
+
+        return rm -> {
+            Inventory inventory = rm.getInventoryRepository().getInventory();
+            Medication medication = inventory.getMedicationByName(name).orElse(null);
+            if (medication == null) {
+                medication = new Medication(name, description, dosageInstructions);
+                inventory.addMedication(medication);
+            }
+            inventory.setMedicationId(medication, id);
+            medication.setDescription(description);
+            medication.setDosageInstructions(dosageInstructions);
+            medication.setSideEffects(decodedSideEffects);
+            medication.setStatus(status);
+
+            inventory.setMedicationStock(medication, stock);
+            if (alert > 0) {
+                inventory.setMedicationStockAlert(medication, alert);
+            }
+            rm.getInventoryRepository().updateMedication(medication);
+        };
+    }
+
+    /**
+     * Decodes a replenishment request, which is added to, or updated in, the inventory repository
+     * when applied.
+     *
+     * @param in the input to read from
+     * @return the decoded request
+     * @throws IOException if the request cannot be read
+     */
+    private static DecodedRecord decodeReplenishmentRequest(CompactInput in) throws IOException {
+        int id = in.readVarInt();
+        String medicationName = in.readString();
+        int qty = in.readVarInt();
+        ReplenishmentRequestStatus status = in.readEnum(ReplenishmentRequestStatus.values());
+        LocalDateTime datetime = in.readDateTime();
+        String pharmacistId = in.readString();
+
+        return rm -> {
+            InventoryRepository ir = rm.getInventoryRepository();
+            ReplenishmentRequest rr = ir.getReplenishmentRequestById(id).orElse(null);
+            if (rr == null) {
+                Medication medication =
+                        ir.getInventory().getMedicationByName(medicationName).orElse(null);
+                if (medication == null) {
+                    // The medication has since been removed from the inventory
+                    return;
+                }
+                rr =
+                        new ReplenishmentRequest(
+                                medication,
+                                qty,
+                                datetime,
+                                findUser(rm, pharmacistId, Pharmacist.class));
+                rr.setId(id);
+                ir.addReplenishmentRequest(rr);
+            }
+            switch (status) {
+                case PENDING -> rr.setPending();
+                case APPROVED -> rr.setApproved();
+            }
+            ir.updateReplenishmentRequest(rr);
+        };
+    }
+
+    /**
+     * Writes the fields of a user, and the details of a patient, without its medical record.
+     *
+     * @param out the output to write to
+     * @param user the user to write
+     * @throws IOException if the user cannot be written
+     */
+    private static void writeUserFields(CompactOutput out, User user) throws IOException {
+        out.writeEnum(user.getRole());
+        out.writeString(user.getId());
+        out.writeString(user.getUsername());
+        out.writeString(user.getFirstName());
+        out.writeString(user.getLastName());
+        out.writeString(user.getHashedPassword());
+        out.writeString(user.getEmail());
+        out.writeString(user.getPhoneNumber());
+
+        if (user instanceof Patient patient) {
+            out.writeString(patient.getDateOfBirth());
+            out.writeEnum(patient.getGender());
+            out.writeString(patient.getBloodType());
+        }
+    }
+
+    /**
+     * Writes the details of a medical record, without its patient.
+     *
+     * @param out the output to write to
+     * @param details the details of the medical record
+     * @throws IOException if the medical record cannot be written
+     */
+    private static void writeMedicalRecordFields(CompactOutput out, MedicalRecordDetails details)
+            throws IOException {
+        out.writeString(details.contactPhone());
+        out.writeString(details.emailAddress());
+        writeStrings(out, details.diagnoses());
+        writeStrings(out, details.treatments());
+        out.writeString(details.doctorId());
+    }
+
+    /**
+     * Writes a list of strings.
+     *
+     * @param out the output to write to
+     * @param strings the strings to write
+     * @throws IOException if the strings cannot be written
+     */
+    private static void writeStrings(CompactOutput out, List<String> strings) throws IOException {
+        out.writeVarInt(strings.size());
+        for (String s : strings) {
+            out.writeString(s);
+        }
+    }
+
+    /**
+     * Reads a list of strings.
+     *
+     * @param in the input to read from
+     * @return the strings
+     * @throws IOException if the strings cannot be read
+     */
+    private static List<String> readStrings(CompactInput in) throws IOException {
+        int count = in.readVarInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readString());
+        }
+        return strings;
+    }
+
+    /**
+     * Looks up a user of a specific type by ID.
+     *
+     * @param rm the repository manager holding the users
+     * @param id the ID of the user, may be null
+     * @param type the expected type of the user
+     * @return the user, or null if there is no such user of that type
+     */
+    private static <T extends User> T findUser(RepositoryManager rm, String id, Class<T> type) {
+        if (id == null) {
+            return null;
+        }
+        return rm.getUserRepository()
+                .getUserById(id)
+                .filter(type::isInstance)
+                .map(type::cast)
+                .orElse(null);
+    }
+
+    /**
+     * Creates the appointment state matching an appointment status.
+     *
+     * @param status the appointment status
+     * @return a new state object for that status
+     */
+    public static IAppointmentState stateOf(AppointmentStatus status) {
+        return switch (status) {
+            case FREE -> new FreeState();
+            case PENDING -> new PendingState();
+            case CONFIRMED -> new ConfirmedState();
+            case CANCELLED -> new CancelledState();
+            case COMPLETED -> new CompletedState();
+        };
+    }
+}
@@ -0,0 +1,166 @@
+package hms.repository.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import hms.model.appointment.Appointment;
+import hms.model.medication.Inventory;
+import hms.model.medication.Medication;
+import hms.model.medication.ReplenishmentRequest;
+import hms.model.user.Patient;
+import hms.model.user.User;
+import hms.repository.AppointmentRepository;
+import hms.repository.RepositoryManager;
+import hms.repository.journal.JournalPosition;
+import hms.repository.journal.JournalRecordType;
+
+/**
+ * Reads and writes snapshots of the repositories in the compact format. A snapshot is a header
+ * followed by one section of {@link EntityCodec} records per kind of entity, all sharing a single
+ * string table:
+ *
+ * <pre>
+ * [magic][version][journal position]
+ * [count][medications...]
+ * [count][users...]
+ * [count][appointments...]
+ * [count][replenishment requests...]
+ * </pre>
+ *
+ * <p>Sections are ordered so that every record only refers to entities read before it. Entities
+ * refer to each other by ID rather than by nesting, so both writing and reading walk the
+ * repositories one entity at a time: the stack depth does not grow with the object graph, and
+ * appointments are looked up as they are written rather than all held in memory at once.
+ */
+public final class SnapshotCodec {
+    /** The magic number at the start of every compact snapshot, "HMSB". */
+    public static final int MAGIC = 0x484d5342;
+
+    private static final int VERSION = 1;
+
+    /** Private constructor to prevent instantiation. */
+    private SnapshotCodec() {}
+
+    /**
+     * Writes a snapshot of the repositories of the given manager.
+     *
+     * @param os the stream to write to, which should be buffered
+     * @param rm the repository manager to write
+     * @param position the journal position covered by the snapshot, or null if changes are not
+     *     journaled
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(OutputStream os, RepositoryManager rm, JournalPosition position)
+            throws IOException {
+        CompactOutput out = new CompactOutput(os);
+        out.writeInt(MAGIC);
+        out.writeVarInt(VERSION);
+        writePosition(out, position);
+
+        Inventory inventory = rm.getInventoryRepository().getInventory();
+        List<Medication> medications = inventory.getMedications();
+        out.writeVarInt(medications.size());
+        for (Medication medication : medications) {
+            EntityCodec.writeMedication(out, medication, inventory);
+        }
+
+        // Staff before patients, as medical records refer to their doctor
+        List<User> users = new ArrayList<>(rm.getUserRepository().getAllUsers());
+        users.sort(Comparator.comparing(u -> u instanceof Patient));
+        out.writeVarInt(users.size());
+        for (User user : users) {
+            EntityCodec.writeUser(out, user);
+        }
+
+        // In ID order, so that schedules are rebuilt in the order slots were added
+        AppointmentRepository ar = rm.getAppointmentRepository();
+        List<Integer> appointmentIds = ar.getAppointmentIds();
+        out.writeVarInt(appointmentIds.size());
+        for (int id : appointmentIds) {
+            Appointment ap =
+                    ar.getAppointmentById(id)
+                            .orElseThrow(() -> new IOException("appointment vanished: " + id));
+            EntityCodec.writeAppointment(out, ap);
+        }
+
+        List<ReplenishmentRequest> requests =
+                rm.getInventoryRepository().getReplenishmentRequests();
+        out.writeVarInt(requests.size());
+        for (ReplenishmentRequest rr : requests) {
+            EntityCodec.writeReplenishmentRequest(out, rr);
+        }
+    }
+
+    /**
+     * Reads a snapshot into the repositories of the given manager, which should be empty.
+     *
+     * @param is the stream to read from, which should be buffered
+     * @param rm the repository manager to read into
+     * @return the journal position covered by the snapshot, or null if it has none
+     * @throws IOException if the snapshot cannot be read or is not a compact snapshot
+     */
+    public static JournalPosition read(InputStream is, RepositoryManager rm) throws IOException {
+        CompactInput in = new CompactInput(is);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a compact snapshot");
+        }
+        int version = in.readVarInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported snapshot version " + version);
+        }
+        JournalPosition position = readPosition(in);
+
+        readSection(in, rm, JournalRecordType.PUT_MEDICATION);
+        readSection(in, rm, JournalRecordType.PUT_USER);
+        readSection(in, rm, JournalRecordType.PUT_APPOINTMENT);
+        readSection(in, rm, JournalRecordType.PUT_REPLENISHMENT_REQUEST);
+        return position;
+    }
+
+    /**
+     * Writes a journal position that may be null.
+     *
+     * @param out the output to write to
+     * @param position the position to write
+     * @throws IOException if the position cannot be written
+     */
+    public static void writePosition(CompactOutput out, JournalPosition position)
+            throws IOException {
+        out.writeBoolean(position != null);
+        if (position != null) {
+            out.writeLong(position.getJournalId());
+            out.writeVarLong(position.getOffset());
+        }
+    }
+
+    /**
+     * Reads a journal position that may be null.
+     *
+     * @param in the input to read from
+     * @return the position
+     * @throws IOException if the position cannot be read
+     */
+    public static JournalPosition readPosition(CompactInput in) throws IOException {
+        return in.readBoolean() ? new JournalPosition(in.readLong(), in.readVarLong()) : null;
+    }
+
+    /**
+     * Reads a section of records of the same type and applies them to the repositories.
+     *
+     * @param in the input to read from
+     * @param rm the repository manager to apply the records to
+     * @param type the type of the records in the section
+     * @throws IOException if the section cannot be read
+     */
+    private static void readSection(CompactInput in, RepositoryManager rm, JournalRecordType type)
+            throws IOException {
+        int count = in.readVarInt();
+        for (int i = 0; i < count; i++) {
+            EntityCodec.apply(type, in, rm);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package hms.repository.journal;
+
+import java.time.Duration;
+
+/**
+ * Statistics about the group commits performed by a {@link GroupCommitter}, used to tune the
+ * commit window between throughput and latency. Instances returned to callers are snapshots and do
+ * not change afterwards.
+ */
+public class CommitMetrics {
+    private long commitCount;
+    private long recordCount;
+    private int maxBatchSize;
+    private int lastBatchSize;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+    private long lastLatencyNanos;
+
+    /** Constructs empty metrics. */
+    CommitMetrics() {}
+
+    /**
+     * Constructs a snapshot of the given metrics.
+     *
+     * @param other the metrics to copy
+     */
+    CommitMetrics(CommitMetrics other) {
+        this.commitCount = other.commitCount;
+        this.recordCount = other.recordCount;
+        this.maxBatchSize = other.maxBatchSize;
+        this.lastBatchSize = other.lastBatchSize;
+        this.totalLatencyNanos = other.totalLatencyNanos;
+        this.maxLatencyNanos = other.maxLatencyNanos;
+        this.lastLatencyNanos = other.lastLatencyNanos;
+    }
+
+    /**
+     * Records a completed commit.
+     *
+     * @param batchSize the number of records made durable by the commit
+     * @param latencyNanos the time from the start of the commit window until the callers were
+     *     acknowledged, in nanoseconds
+     */
+    void record(int batchSize, long latencyNanos) {
+        this.commitCount++;
+        this.recordCount += batchSize;
+        this.maxBatchSize = Math.max(this.maxBatchSize, batchSize);
+        this.lastBatchSize = batchSize;
+        this.totalLatencyNanos += latencyNanos;
+        this.maxLatencyNanos = Math.max(this.maxLatencyNanos, latencyNanos);
+        this.lastLatencyNanos = latencyNanos;
+    }
+
+    /**
+     * Retrieves the number of commits, i.e. calls to {@code FileChannel.force}, performed.
+     *
+     * @return the number of commits
+     */
+    public long getCommitCount() {
+        return commitCount;
+    }
+
+    /**
+     * Retrieves the number of records made durable across all commits.
+     *
+     * @return the number of records committed
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Retrieves the average number of records made durable per commit.
+     *
+     * @return the average batch size, or 0 if nothing was committed yet
+     */
+    public double getAverageBatchSize() {
+        return commitCount == 0 ? 0 : (double) recordCount / commitCount;
+    }
+
+    /**
+     * Retrieves the largest number of records made durable by a single commit.
+     *
+     * @return the largest batch size
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Retrieves the number of records made durable by the most recent commit.
+     *
+     * @return the last batch size
+     */
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * Retrieves the average time callers waited for their commit to be acknowledged.
+     *
+     * @return the average commit latency
+     */
+    public Duration getAverageCommitLatency() {
+        return Duration.ofNanos(commitCount == 0 ? 0 : totalLatencyNanos / commitCount);
+    }
+
+    /**
+     * Retrieves the longest time callers waited for a commit to be acknowledged.
+     *
+     * @return the largest commit latency
+     */
+    public Duration getMaxCommitLatency() {
+        return Duration.ofNanos(maxLatencyNanos);
+    }
+
+    /**
+     * Retrieves the time callers waited for the most recent commit to be acknowledged.
+     *
+     * @return the last commit latency
+     */
+    public Duration getLastCommitLatency() {
+        return Duration.ofNanos(lastLatencyNanos);
+    }
+
+    /**
+     * Returns a one-line summary of the metrics.
+     *
+     * @return a summary of the metrics
+     */
+    @Override
+    public String toString() {
+        return String.format(
+                "%d commits, %d records, batch avg %.1f max %d, latency avg %.3f ms max %.3f ms",
+                commitCount,
+                recordCount,
+                getAverageBatchSize(),
+                maxBatchSize,
+                getAverageCommitLatency().toNanos() / 1e6,
+                maxLatencyNanos / 1e6);
+    }
+}
@@ -0,0 +1,174 @@
+package hms.repository.journal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes journal writes durable in batches. Rather than forcing the file to disk after every
+ * record, the first caller waiting for durability becomes the leader of a batch: it waits until
+ * the commit window elapses or enough records have been written, forces the file once, and then
+ * acknowledges every caller whose record was part of the batch.
+ *
+ * <p>Records are identified by a sequence number handed out by {@link #written()}, and a caller
+ * is acknowledged once every record up to and including its own is durable.
+ */
+public class GroupCommitter {
+    /** Forces written data to the underlying storage device. */
+    @FunctionalInterface
+    public interface Syncer {
+        /**
+         * Forces everything written so far to the storage device.
+         *
+         * @throws IOException if the data cannot be forced
+         */
+        void sync() throws IOException;
+    }
+
+    private final Syncer syncer;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final CommitMetrics metrics;
+
+    /** The sequence number of the last record written. */
+    private long written;
+
+    /** The sequence number of the last record known to be durable. */
+    private long durable;
+
+    /** Whether a leader is currently collecting or committing a batch. */
+    private boolean committing;
+
+    /**
+     * Constructs a group committer.
+     *
+     * @param syncer the syncer forcing written records to disk
+     * @param window how long a leader waits for more records before committing
+     * @param maxBatchSize the number of records after which a batch is committed without waiting
+     *     for the rest of the window
+     * @throws IllegalArgumentException if the window is negative or the batch size is not positive
+     */
+    public GroupCommitter(Syncer syncer, Duration window, int maxBatchSize) {
+        if (window.isNegative() || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("invalid commit window or batch size");
+        }
+        this.syncer = syncer;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.metrics = new CommitMetrics();
+    }
+
+    /**
+     * Registers that a record has been written, but not yet made durable.
+     *
+     * @return the sequence number of the record, to be passed to {@link #awaitDurable(long)}
+     */
+    public synchronized long written() {
+        written++;
+        if (written - durable >= maxBatchSize) {
+            // Wake the leader, the batch is full
+            notifyAll();
+        }
+        return written;
+    }
+
+    /**
+     * Blocks until the record with the given sequence number, and every record before it, is
+     * durable. The caller either joins the batch being collected, or leads the next one.
+     *
+     * @param sequence the sequence number of the record
+     * @throws IOException if the records cannot be forced to disk
+     */
+    public void awaitDurable(long sequence) throws IOException {
+        long start = System.nanoTime();
+        synchronized (this) {
+            while (durable < sequence && committing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while awaiting commit");
+                }
+            }
+            if (durable >= sequence) {
+                return;
+            }
+            committing = true;
+
+            // Collect more records until the window elapses or the batch is full
+            long remaining;
+            while (written - durable < maxBatchSize
+                    && (remaining = start + windowNanos - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    // Commit what has been collected so far
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        commit(start);
+    }
+
+    /**
+     * Immediately makes every record written so far durable, waiting for any batch in progress.
+     *
+     * @throws IOException if the records cannot be forced to disk
+     */
+    public void sync() throws IOException {
+        long start = System.nanoTime();
+        synchronized (this) {
+            while (committing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while awaiting commit");
+                }
+            }
+            committing = true;
+        }
+        commit(start);
+    }
+
+    /**
+     * Retrieves a snapshot of the commit metrics.
+     *
+     * @return the commit metrics
+     */
+    public synchronized CommitMetrics getMetrics() {
+        return new CommitMetrics(metrics);
+    }
+
+    /**
+     * Forces every record written so far to disk and acknowledges the waiting callers. Must only
+     * be called by the leader, i.e. after setting {@code committing}.
+     *
+     * @param start the time at which the batch was started, as given by {@link System#nanoTime()}
+     * @throws IOException if the records cannot be forced to disk
+     */
+    private void commit(long start) throws IOException {
+        long target;
+        synchronized (this) {
+            target = written;
+        }
+
+        boolean synced = false;
+        try {
+            syncer.sync();
+            synced = true;
+        } finally {
+            synchronized (this) {
+                if (synced && target > durable) {
+                    metrics.record((int) (target - durable), System.nanoTime() - start);
+                    durable = target;
+                }
+                // On failure, the next waiter leads another attempt
+                committing = false;
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package hms.repository.journal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import hms.repository.codec.CompactInput;
+import hms.repository.codec.CompactOutput;
+
+/**
+ * Append-only write-ahead log of repository mutations. Every record has a {@link JournalPosition},
+ * and a snapshot remembers the position it covers, so loading replays only the records after it.
+ * Once a snapshot is durable, the records it covers can be dropped with {@link
+ * #compact(JournalPosition)}.
+ *
+ * <p>Each record is framed by {@link RecordFrame} as {@code [length][type][payload][crc32]}, so a
+ * record that was only partially written when the process died is detected and discarded on
+ * recovery instead of corrupting the load.
+ *
+ * <p>Appending a record returns once the record is durable. Concurrent appends are made durable
+ * together by a {@link GroupCommitter}, so that a single {@code FileChannel.force} covers a whole
+ * batch of records.
+ */
+public class Journal implements Closeable {
+    private static final int MAGIC = 0x484d534a; // "HMSJ"
+    private static final int HEADER_SIZE = Integer.BYTES + 2 * Long.BYTES;
+
+    /** The default time a commit waits for more records before forcing the journal to disk. */
+    public static final Duration DEFAULT_COMMIT_WINDOW = Duration.ofMillis(2);
+
+    /** The default number of records after which a commit no longer waits for more records. */
+    public static final int DEFAULT_COMMIT_BATCH_SIZE = 64;
+
+    private final File file;
+    private final GroupCommitter committer;
+    private volatile RandomAccessFile raf;
+
+    /** The random ID of the journal, which changes whenever a stale journal is discarded. */
+    private long id;
+
+    /** The offset of the first record in the file, i.e. the number of bytes compacted away. */
+    private long start;
+
+    /** The number of bytes of records in the file. */
+    private long length;
+
+    /** Writes the payload of a single journal record. */
+    @FunctionalInterface
+    public interface RecordWriter {
+        /**
+         * Writes the payload of a record.
+         *
+         * @param out the output to write the payload to
+         * @throws IOException if the payload cannot be written
+         */
+        void write(CompactOutput out) throws IOException;
+    }
+
+    /** Receives a single journal record as it was written, starting with its type. */
+    @FunctionalInterface
+    public interface RawRecordReader {
+        /**
+         * Receives a record.
+         *
+         * @param record the type of the record followed by its payload, which can be read with
+         *     a {@link CompactInput} of its own
+         * @throws IOException if the record cannot be handled
+         */
+        void read(byte[] record) throws IOException;
+    }
+
+    /** Applies a single journal record read back during recovery. */
+    @FunctionalInterface
+    public interface RecordReader {
+        /**
+         * Reads and applies the payload of a record.
+         *
+         * @param type the type of the record
+         * @param in the input holding the payload of the record
+         * @throws IOException if the payload cannot be read
+         */
+        void read(JournalRecordType type, CompactInput in) throws IOException;
+    }
+
+    /**
+     * Constructs a journal backed by the given file, using the default commit window. The journal
+     * must be recovered with {@link #recover(JournalPosition, RecordReader)} before records can be
+     * appended.
+     *
+     * @param filePath the path of the journal file
+     */
+    public Journal(String filePath) {
+        this(filePath, DEFAULT_COMMIT_WINDOW, DEFAULT_COMMIT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs a journal backed by the given file. The journal must be recovered with {@link
+     * #recover(JournalPosition, RecordReader)} before records can be appended.
+     *
+     * @param filePath the path of the journal file
+     * @param commitWindow how long a commit waits for more records before forcing the journal to
+     *     disk
+     * @param commitBatchSize the number of records after which a commit no longer waits
+     */
+    public Journal(String filePath, Duration commitWindow, int commitBatchSize) {
+        this.file = new File(filePath);
+        this.committer = new GroupCommitter(this::force, commitWindow, commitBatchSize);
+    }
+
+    /**
+     * Replays the intact records after the given position and opens the journal for appending. A
+     * torn record at the tail is truncated away. A journal that does not hold the records after
+     * the position, because it was written for a different snapshot or has been compacted past
+     * it, is stale and is discarded in favour of a new, empty journal.
+     *
+     * @param from the position covered by the snapshot that was just loaded, {@link
+     *     JournalPosition#EMPTY} if there was no snapshot, or null if the snapshot does not
+     *     refer to a journal
+     * @param reader the reader applying each record
+     * @return the position the replay started from, i.e. the position of the loaded snapshot in
+     *     this journal
+     * @throws IOException if the journal cannot be read or opened
+     */
+    public synchronized JournalPosition recover(JournalPosition from, RecordReader reader)
+            throws IOException {
+        close();
+
+        boolean recovered = false;
+        long fileLength = file.length();
+        if (from != null && fileLength >= HEADER_SIZE) {
+            try (DataInputStream in =
+                    new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                long fileId = in.readInt() == MAGIC ? in.readLong() : 0;
+                long fileStart = in.readLong();
+                boolean sameJournal =
+                        fileId != 0
+                                && (from.getJournalId() == 0
+                                        ? fileStart == 0
+                                        : from.getJournalId() == fileId);
+                if (sameJournal && fileStart <= from.getOffset()) {
+                    // Only replay once the position of the snapshot has been reached
+                    long offset = fileStart;
+                    boolean reached = offset == from.getOffset();
+                    long end = fileStart + fileLength - HEADER_SIZE;
+                    byte[] frame;
+                    while ((frame = RecordFrame.read(in, end - offset)) != null) {
+                        if (reached) {
+                            apply(frame, reader);
+                        }
+                        offset += RecordFrame.OVERHEAD + frame.length;
+                        reached |= offset == from.getOffset();
+                    }
+
+                    if (reached) {
+                        this.id = fileId;
+                        this.start = fileStart;
+                        this.length = offset - fileStart;
+                        recovered = true;
+                    }
+                }
+            }
+        }
+
+        raf = new RandomAccessFile(file, "rw");
+        if (!recovered) {
+            // Missing, foreign or stale journal
+            this.id = newId();
+            this.start = 0;
+            this.length = 0;
+            raf.setLength(0);
+            writeHeader(raf, id, start);
+            committer.sync();
+            return new JournalPosition(id, 0);
+        }
+
+        // Drop whatever follows the last intact record
+        raf.setLength(HEADER_SIZE + length);
+        raf.seek(HEADER_SIZE + length);
+        return new JournalPosition(id, from.getOffset());
+    }
+
+    /**
+     * Retrieves the current position of the journal, i.e. the position after the last record
+     * appended.
+     *
+     * @return the current position
+     * @throws IllegalStateException if the journal has not been recovered yet
+     */
+    public synchronized JournalPosition position() {
+        if (raf == null) {
+            throw new IllegalStateException("Journal has not been recovered");
+        }
+        return new JournalPosition(id, start + length);
+    }
+
+    /**
+     * Reads the records between two positions as they were written, without affecting appends,
+     * e.g. to copy them into the segment files of the repositories. Must not be called
+     * concurrently with {@link #compact(JournalPosition)}.
+     *
+     * @param from the position to start reading from
+     * @param to the position to stop reading at
+     * @param reader the reader receiving each record
+     * @return the number of records read
+     * @throws IOException if the journal cannot be read or no longer holds those records
+     */
+    public int replay(JournalPosition from, JournalPosition to, RawRecordReader reader)
+            throws IOException {
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC
+                    || in.readLong() != from.getJournalId()
+                    || to.getJournalId() != from.getJournalId()) {
+                throw new IOException("journal does not match position " + from);
+            }
+            long offset = in.readLong();
+            if (offset > from.getOffset()) {
+                throw new IOException("journal has been compacted past " + from);
+            }
+            in.skipNBytes(from.getOffset() - offset);
+
+            int replayed = 0;
+            for (offset = from.getOffset(); offset < to.getOffset(); replayed++) {
+                byte[] frame = RecordFrame.read(in, to.getOffset() - offset);
+                if (frame == null) {
+                    throw new IOException("journal ends before " + to);
+                }
+                reader.read(frame);
+                offset += RecordFrame.OVERHEAD + frame.length;
+            }
+            return replayed;
+        }
+    }
+
+    /**
+     * Appends a record to the journal, returning once the record is durable.
+     *
+     * @param type the type of the record
+     * @param writer the writer producing the payload of the record
+     * @throws IllegalStateException if the journal has not been recovered yet
+     * @throws UncheckedIOException if the record cannot be written
+     */
+    public void append(JournalRecordType type, RecordWriter writer) {
+        appendAll(type, List.of(writer));
+    }
+
+    /**
+     * Appends records of the same type to the journal in one write, returning once they are all
+     * durable, so that they are forced to disk together rather than one by one.
+     *
+     * @param type the type of the records
+     * @param writers the writers producing the payload of each record, in order
+     * @throws IllegalStateException if the journal has not been recovered yet
+     * @throws UncheckedIOException if the records cannot be written
+     */
+    public void appendAll(JournalRecordType type, List<RecordWriter> writers) {
+        if (writers.isEmpty()) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream frames = new ByteArrayOutputStream();
+            for (RecordWriter writer : writers) {
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                CompactOutput out = new CompactOutput(payload);
+                out.writeByte(type.ordinal());
+                writer.write(out);
+                frames.write(RecordFrame.encode(payload.toByteArray()));
+            }
+
+            long sequence = 0;
+            synchronized (this) {
+                if (raf == null) {
+                    throw new IllegalStateException("Journal has not been recovered");
+                }
+                byte[] bytes = frames.toByteArray();
+                raf.write(bytes);
+                length += bytes.length;
+                for (int i = 0; i < writers.size(); i++) {
+                    sequence = committer.written();
+                }
+            }
+            // Wait outside the lock so that other records can join the batch
+            committer.awaitDurable(sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to append to journal", e);
+        }
+    }
+
+    /**
+     * Retrieves a snapshot of the group commit metrics of this journal.
+     *
+     * @return the commit metrics
+     */
+    public CommitMetrics getCommitMetrics() {
+        return committer.getMetrics();
+    }
+
+    /**
+     * Drops the records before the given position from the journal, once a snapshot covering them
+     * is durable. The remaining records are copied to a new file, which atomically replaces the
+     * journal. Until that happens, the old journal still holds every record after the position.
+     *
+     * @param upTo the position covered by the durable snapshot
+     * @throws IOException if the journal cannot be compacted
+     */
+    public synchronized void compact(JournalPosition upTo) throws IOException {
+        if (raf == null
+                || upTo.getJournalId() != id
+                || upTo.getOffset() <= start
+                || upTo.getOffset() > start + length) {
+            return;
+        }
+        committer.sync();
+
+        byte[] tail = new byte[(int) (start + length - upTo.getOffset())];
+        raf.seek(HEADER_SIZE + upTo.getOffset() - start);
+        raf.readFully(tail);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+            out.setLength(0);
+            writeHeader(out, id, upTo.getOffset());
+            out.write(tail);
+            out.getChannel().force(true);
+        }
+
+        raf.close();
+        try {
+            Files.move(
+                    tmp.toPath(),
+                    file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            this.start = upTo.getOffset();
+            this.length = tail.length;
+        } finally {
+            raf = new RandomAccessFile(file, "rw");
+            raf.seek(HEADER_SIZE + length);
+        }
+    }
+
+    /**
+     * Makes every record appended so far durable and closes the journal file.
+     *
+     * @throws IOException if the file cannot be forced or closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            try {
+                committer.sync();
+            } finally {
+                raf.close();
+                raf = null;
+            }
+        }
+    }
+
+    /**
+     * Forces the journal file to disk. Called by the group committer without holding the lock of
+     * the journal, so that records can keep being appended in the meantime.
+     *
+     * @throws IOException if the file cannot be forced
+     */
+    private void force() throws IOException {
+        RandomAccessFile raf = this.raf;
+        if (raf != null) {
+            raf.getChannel().force(false);
+        }
+    }
+
+    /**
+     * Writes the header of a journal file at the current position of the file.
+     *
+     * @param raf the journal file
+     * @param id the ID of the journal
+     * @param start the offset of the first record in the file
+     * @throws IOException if the header cannot be written
+     */
+    private static void writeHeader(RandomAccessFile raf, long id, long start) throws IOException {
+        raf.writeInt(MAGIC);
+        raf.writeLong(id);
+        raf.writeLong(start);
+    }
+
+    /**
+     * Generates a random, non-zero journal ID.
+     *
+     * @return the new journal ID
+     */
+    private static long newId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /**
+     * Applies the record held in a frame.
+     *
+     * @param frame the type and payload of the record
+     * @param reader the reader applying the record
+     * @throws IOException if the record cannot be read
+     */
+    private static void apply(byte[] frame, RecordReader reader) throws IOException {
+        CompactInput record = new CompactInput(new ByteArrayInputStream(frame));
+        reader.read(JournalRecordType.values()[record.readByte()], record);
+    }
+}
@@ -0,0 +1,81 @@
+package hms.repository.journal;
+
+import java.util.Objects;
+
+/**
+ * Identifies a position in a journal: the journal itself, by its random ID, and the number of
+ * bytes of records written to it before that position. A snapshot stores the position it covers,
+ * so that only the records after it are replayed on load.
+ *
+ * <p>Offsets keep counting across compactions, so a position stays valid as long as the records
+ * after it are still in the journal.
+ */
+public final class JournalPosition {
+    /** The position of an empty repository, matching the start of any journal never compacted. */
+    public static final JournalPosition EMPTY = new JournalPosition(0, 0);
+
+    private final long journalId;
+    private final long offset;
+
+    /**
+     * Constructs a journal position.
+     *
+     * @param journalId the ID of the journal
+     * @param offset the number of bytes of records written to the journal before the position
+     */
+    public JournalPosition(long journalId, long offset) {
+        this.journalId = journalId;
+        this.offset = offset;
+    }
+
+    /**
+     * Retrieves the ID of the journal.
+     *
+     * @return the ID of the journal
+     */
+    public long getJournalId() {
+        return journalId;
+    }
+
+    /**
+     * Retrieves the number of bytes of records written to the journal before the position.
+     *
+     * @return the offset of the position
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Checks whether this position is the same as another.
+     *
+     * @param o the other object
+     * @return true if the other object is a position in the same journal at the same offset
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof JournalPosition other
+                && journalId == other.journalId
+                && offset == other.offset;
+    }
+
+    /**
+     * Computes the hash code of this position.
+     *
+     * @return the hash code
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(journalId, offset);
+    }
+
+    /**
+     * Returns a textual representation of this position.
+     *
+     * @return the position as {@code journalId@offset}
+     */
+    @Override
+    public String toString() {
+        return Long.toHexString(journalId) + "@" + offset;
+    }
+}
@@ -0,0 +1,43 @@
+package hms.repository.journal;
+
+/**
+ * Enumerates the kinds of records stored in the {@link Journal}. Records are upserts and removals
+ * of whole entities keyed by their identifier, so replaying a record more than once is harmless.
+ */
+public enum JournalRecordType {
+    /**
+     * A user was added or changed, including the medical record of a patient. Snapshots write
+     * patients this way, while the journal and segments write them as {@link #PUT_PATIENT}.
+     */
+    PUT_USER,
+
+    /** A user was removed. */
+    REMOVE_USER,
+
+    /** An appointment was added or changed, including its outcome and prescription. */
+    PUT_APPOINTMENT,
+
+    /** An appointment was removed. */
+    REMOVE_APPOINTMENT,
+
+    /** A medication was added to the inventory or its details, stock or alert line changed. */
+    PUT_MEDICATION,
+
+    /** A medication was removed from the inventory. */
+    REMOVE_MEDICATION,
+
+    /** A replenishment request was submitted or changed. */
+    PUT_REPLENISHMENT_REQUEST,
+
+    /** A replenishment request was removed. */
+    REMOVE_REPLENISHMENT_REQUEST,
+
+    /** A patient was added or changed, without their medical record. */
+    PUT_PATIENT,
+
+    /** The medical record of a patient was added or changed. */
+    PUT_MEDICAL_RECORD,
+
+    /** The medical record of a patient was dropped, as the patient was removed. */
+    REMOVE_MEDICAL_RECORD
+}
@@ -0,0 +1,69 @@
+package hms.repository.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Frames records as {@code [length][record][crc32]}, so that a record that was only partially
+ * written when the process died is detected when read back. Used by the {@link Journal} and by the
+ * segment files of the repositories.
+ */
+public final class RecordFrame {
+    /** The number of bytes a frame adds to its record. */
+    public static final int OVERHEAD = Integer.BYTES + Long.BYTES;
+
+    /** Private constructor to prevent instantiation. */
+    private RecordFrame() {}
+
+    /**
+     * Frames a record.
+     *
+     * @param record the record to frame
+     * @return the framed record
+     */
+    public static byte[] encode(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(OVERHEAD + record.length);
+        try (DataOutputStream out = new DataOutputStream(frame)) {
+            out.writeInt(record.length);
+            out.write(record);
+            out.writeLong(crc.getValue());
+        } catch (IOException e) {
+            // Writing to a byte array cannot fail
+            throw new AssertionError(e);
+        }
+        return frame.toByteArray();
+    }
+
+    /**
+     * Reads the next frame, verifying its checksum.
+     *
+     * @param in the input positioned at the start of a frame
+     * @param remaining the number of bytes left in the file
+     * @return the record held in the frame, or null at the end of the intact frames
+     * @throws IOException if the file cannot be read
+     */
+    public static byte[] read(DataInputStream in, long remaining) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > remaining - OVERHEAD) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            long checksum = in.readLong();
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            return crc.getValue() == checksum ? bytes : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+}
@@ -5,7 +5,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
-import java.util.stream.Collectors;
 
 import hms.controller.AdministratorController;
 import hms.model.appointment.Appointment;
@@ -18,7 +17,6 @@ import hms.model.user.Pharmacist;
 import hms.model.user.Staff;
 import hms.model.user.User;
 import hms.model.user.UserRole;
-import hms.repository.RepositoryManager;
 
 /**
  * Represents the view for an administrator in the hospital management system. It displays various
@@ -26,6 +24,8 @@ import hms.repository.RepositoryManager;
  * inventory.
  */
 public class AdministratorView {
+    private static final int REQUEST_HISTORY_PAGE = 10;
+
     private Administrator administrator;
     private AdministratorController ac;
 
@@ -58,6 +58,7 @@ public class AdministratorView {
                     case 2 -> viewAppointmentDetails();
                     case 3 -> viewAndManageMedicationInventory(sc);
                     case 4 -> approveReplenishmentRequests(sc);
+                    case 5 -> viewReplenishmentHistory(sc);
                     case 0 -> {
                         System.out.println("Logging out...");
                         return;
@@ -68,9 +69,6 @@ public class AdministratorView {
                 System.out.println("An error occurred: " + e.getMessage());
                 System.out.println("Please try again.");
             }
-
-            // Save after every option return
-            RepositoryManager.getInstance().save();
         }
     }
 
@@ -81,6 +79,7 @@ public class AdministratorView {
         System.out.println("2. View Appointments Details");
         System.out.println("3. View and Manage Medication Inventory");
         System.out.println("4. Approve Replenishment Requests");
+        System.out.println("5. View Replenishment History");
         System.out.println("0. Logout");
     }
 
@@ -214,15 +213,11 @@ public class AdministratorView {
 
         System.out.print("Enter new first name (or press Enter to keep current): ");
         String firstName = sc.nextLine();
-        if (!firstName.isEmpty()) {
-            staff.setFirstName(firstName);
-        }
 
         System.out.print("Enter new last name (or press Enter to keep current): ");
         String lastName = sc.nextLine();
-        if (!lastName.isEmpty()) {
-            staff.setLastName(lastName);
-        }
+
+        ac.updateStaffName(staff, firstName, lastName);
 
         System.out.println("Staff member updated successfully!");
     }
@@ -286,10 +281,7 @@ public class AdministratorView {
             case 2 -> {
                 System.out.print("Enter name to search: ");
                 String name = sc.nextLine();
-                filteredList =
-                        ac.getStaffs().stream()
-                                .filter(s -> s.getName().contains(name))
-                                .collect(Collectors.toList());
+                filteredList = ac.searchStaffs(name);
             }
             default -> {
                 System.out.println("Invalid option!");
@@ -399,6 +391,14 @@ public class AdministratorView {
                     "%-23s %-15d %d%n",
                     med.getName(), ac.getMedicationStock(med), ac.getMedicationStockAlert(med));
         }
+
+        List<Medication> lowStock = ac.getLowStockMedications();
+        if (!lowStock.isEmpty()) {
+            System.out.println("\nBelow Low Stock Alert Level:");
+            for (Medication med : lowStock) {
+                System.out.printf("%-23s %d%n", med.getName(), ac.getMedicationStock(med));
+            }
+        }
     }
 
     /**
@@ -527,4 +527,50 @@ public class AdministratorView {
 
         System.out.println("Request approved successfully! Stock level updated.");
     }
+
+    /**
+     * Displays the history of approved replenishment requests, a page at a time, oldest first.
+     *
+     * @param sc A Scanner object for reading user input.
+     */
+    private void viewReplenishmentHistory(Scanner sc) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+        int offset = 0;
+        while (true) {
+            List<ReplenishmentRequest> page =
+                    ac.getApprovedReplenishmentRequests(offset, REQUEST_HISTORY_PAGE);
+            if (page.isEmpty()) {
+                System.out.println(
+                        offset == 0
+                                ? "No approved replenishment requests."
+                                : "No more approved replenishment requests.");
+                return;
+            }
+
+            System.out.println("\nApproved Replenishment Requests:");
+            System.out.println(
+                    "Requested At\t\tMedication\t\tRequested Amount\tRequested By");
+            System.out.println(
+                    "-------------------------------------------------------------------------");
+            for (ReplenishmentRequest request : page) {
+                System.out.printf(
+                        "%-23s %-23s %-23d %s%n",
+                        request.getDateTime() != null
+                                ? request.getDateTime().format(formatter)
+                                : "-",
+                        request.getMedication().getName(),
+                        request.getRequestedQuantity(),
+                        request.getPharmacist().getName());
+            }
+            offset += page.size();
+            if (page.size() < REQUEST_HISTORY_PAGE) {
+                return;
+            }
+
+            System.out.print("\nShow the next page? (y/n): ");
+            if (!sc.nextLine().trim().equalsIgnoreCase("y")) {
+                return;
+            }
+        }
+    }
 }
@@ -22,6 +22,8 @@ import hms.repository.RepositoryManager;
  * system.
  */
 public class DoctorView {
+    private static final int PATIENT_RESULTS = 20;
+
     private final DoctorController dc;
 
     /**
@@ -78,15 +80,15 @@ public class DoctorView {
                 }
                 default -> System.out.println("Invalid option! Please try again.");
             }
-
-            // Save after every option return
-            RepositoryManager.getInstance().save();
         }
     }
 
-    /** Prints the list of patients associated with the doctor. */
-    void printPatients() {
-        List<Patient> patients = dc.getPatients();
+    /**
+     * Prints a list of patients.
+     *
+     * @param patients The patients to print.
+     */
+    void printPatients(List<Patient> patients) {
         System.out.println("Patients");
         System.out.println("========");
         for (Patient patient : patients) {
@@ -108,7 +110,10 @@ public class DoctorView {
      * @return The Patient identified by the user or null if not found.
      */
     Patient getPatientChoice(Scanner sc) {
-        printPatients();
+        System.out.print("Search patients by name or ID (blank to list your patients): ");
+        String query = sc.nextLine();
+        printPatients(
+                query.isBlank() ? dc.getPatients() : dc.searchPatients(query, PATIENT_RESULTS));
         System.out.print("Choose a patient ID: ");
         String patientId = sc.nextLine();
         Patient patient =
@@ -155,17 +160,17 @@ public class DoctorView {
                 case 1 -> {
                     System.out.print("Enter new date of birth (YYYY-MM-DD): ");
                     String newDateOfBirth = sc.nextLine();
-                    patient.setDateOfBirth(newDateOfBirth);
+                    dc.updatePatientDateOfBirth(patient, newDateOfBirth);
                 }
                 case 2 -> {
                     System.out.print("Enter new gender (M/F/Other): ");
                     String newGender = sc.nextLine();
-                    patient.setGender(newGender);
+                    dc.updatePatientGender(patient, newGender);
                 }
                 case 3 -> {
                     System.out.print("Enter new blood type: ");
                     String newBloodType = sc.nextLine();
-                    patient.setBloodType(newBloodType);
+                    dc.updatePatientBloodType(patient, newBloodType);
                 }
                 case 4 -> {
                     System.out.println(
@@ -177,11 +182,10 @@ public class DoctorView {
 
                     System.out.println("Add diagnosis:");
                     String diagnosis = sc.nextLine();
-                    patient.getMedicalRecord().addDiagnosis(diagnosis);
 
                     System.out.println("Add treatment plan:");
                     String treatment = sc.nextLine();
-                    patient.getMedicalRecord().addTreatment(treatment);
+                    dc.updatePatientMedicalRecord(patient, diagnosis, treatment);
                 }
                 case 0 -> {
                     return;
@@ -316,10 +320,10 @@ public class DoctorView {
                 System.out.print("Accept (A) or Decline (D): ");
                 String decision = sc.nextLine();
                 if (decision.equalsIgnoreCase("A")) {
-                    request.confirm();
+                    dc.acceptAppointment(request);
                     System.out.println("Appointment accepted.");
                 } else if (decision.equalsIgnoreCase("D")) {
-                    request.cancel();
+                    dc.declineAppointment(request);
                     System.out.println("Appointment declined.");
                 } else {
                     System.out.println("Invalid choice. Please try again.");
@@ -336,7 +340,7 @@ public class DoctorView {
      * @param sc The Scanner instance for capturing user input.
      */
     void viewUpcomingAppointments(Scanner sc) {
-        List<Appointment> appointments = dc.getConfirmedAppointments();
+        List<Appointment> appointments = dc.getUpcomingAppointments();
         System.out.println("Upcoming Appointments:");
         for (Appointment appointment : appointments) {
             System.out.println(appointment);
@@ -413,7 +417,6 @@ public class DoctorView {
                         dc.addAppointmentOutcome(appointment, desc, pres);
                     }
 
-                    RepositoryManager.getInstance().save();
                     System.out.println("Outcome recorded successfully.");
                 } else {
                     System.out.println("Outcome for this appointment has already been recorded.");
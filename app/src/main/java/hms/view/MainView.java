@@ -2,6 +2,7 @@ package hms.view;
 
 import java.util.Scanner;
 
+import hms.controller.UserController;
 import hms.model.user.Administrator;
 import hms.model.user.Doctor;
 import hms.model.user.Patient;
@@ -148,7 +149,9 @@ public class MainView {
 
             if (newPassword.equals(confirmPassword)) {
                 if (isValidPassword(newPassword)) {
-                    user.setPassword(newPassword);
+                    UserController uc = new UserController();
+                    uc.setUser(user);
+                    uc.changePassword(DEFAULT_PASSWORD, newPassword);
                     System.out.println("Password successfully changed!\n");
                     break;
                 } else {
@@ -161,9 +164,6 @@ public class MainView {
                 System.out.println("\nPasswords do not match. Please try again.");
             }
         }
-
-        // Save after credential change
-        RepositoryManager.getInstance().save();
     }
 
     /**
@@ -272,7 +272,6 @@ public class MainView {
                                     phoneNumber);
                     RepositoryManager.getInstance().getUserRepository().addUser(newPatient);
                     System.out.println("Registration successful. Please log in to continue.\n");
-                    RepositoryManager.getInstance().save();
                     return;
                 } else {
                     System.out.println(
@@ -13,7 +13,6 @@ import hms.model.medication.Medication;
 import hms.model.record.MedicalRecord;
 import hms.model.user.Doctor;
 import hms.model.user.Patient;
-import hms.repository.RepositoryManager;
 
 /**
  * The PatientView class interacts with the user interface for a patient, providing methods to
@@ -68,9 +67,6 @@ public class PatientView {
                 }
                 default -> System.out.println("Invalid option. Please try again.");
             }
-
-            // Save after every option return
-            RepositoryManager.getInstance().save();
         }
     }
 
@@ -56,9 +56,6 @@ public class PharmacistView {
             } catch (NumberFormatException e) {
                 System.out.println("Please enter a valid number.");
             }
-
-            // Save after every option return
-            RepositoryManager.getInstance().save();
         }
     }
 
@@ -119,49 +116,38 @@ public class PharmacistView {
     void updatePrescriptionStatus(Scanner sc) {
         System.out.println("\n=== Update Prescription Status ===");
 
-        // First show all pending prescriptions
-        List<AppointmentOutcome> outcomes = pharmacistController.getAppointmentOutcomes();
-        boolean hasPendingPrescriptions = false;
+        // First show all pending prescriptions, oldest first
+        List<Prescription> prescriptions = pharmacistController.getPendingPrescriptions();
 
         System.out.println("Pending Prescriptions\n===============");
-        for (AppointmentOutcome outcome : outcomes) {
-            if (outcome.getPrescription() != null) {
-                Optional<Prescription> prescriptionOpt = outcome.getPrescription();
-                if (!prescriptionOpt.isPresent()) {
-                    continue;
-                }
-
-                Prescription prescription = prescriptionOpt.get();
-                if (prescription.getPrescriptionStatus() == PrescriptionStatus.PENDING
-                        && prescription.getMedications() != null) {
-                    hasPendingPrescriptions = true;
-                    System.out.println("Appointment ID: " + outcome.getAppointment().getId());
-                    int i = 1;
-                    for (Medication m : prescription.getMedications().keySet()) {
-                        System.out.println(
-                                "Medication "
-                                        + (i++)
-                                        + ":"
-                                        + "\nID: "
-                                        + m.getId()
-                                        + "\n"
-                                        + "Name: "
-                                        + m.getName()
-                                        + "\n"
-                                        + "Reason: "
-                                        + m.getDescription()
-                                        + "\n"
-                                        + "Quantity: "
-                                        + prescription.getMedications().get(m)
-                                        + "\n---------");
-                    }
-                    System.out.println("Current Status: " + prescription.getPrescriptionStatus());
-                    System.out.println("------------------------");
+        for (Prescription prescription : prescriptions) {
+            if (prescription.getMedications() != null) {
+                System.out.println("Appointment ID: " + prescription.getAppointmentId());
+                int i = 1;
+                for (Medication m : prescription.getMedications().keySet()) {
+                    System.out.println(
+                            "Medication "
+                                    + (i++)
+                                    + ":"
+                                    + "\nID: "
+                                    + m.getId()
+                                    + "\n"
+                                    + "Name: "
+                                    + m.getName()
+                                    + "\n"
+                                    + "Reason: "
+                                    + m.getDescription()
+                                    + "\n"
+                                    + "Quantity: "
+                                    + prescription.getMedications().get(m)
+                                    + "\n---------");
                 }
+                System.out.println("Current Status: " + prescription.getPrescriptionStatus());
+                System.out.println("------------------------");
             }
         }
 
-        if (!hasPendingPrescriptions) {
+        if (prescriptions.isEmpty()) {
             System.out.println("No pending prescriptions found.");
             return;
         }
@@ -170,19 +156,12 @@ public class PharmacistView {
         int appointmentId = sc.nextInt();
         sc.nextLine();
 
-        Optional<AppointmentOutcome> outcomeOpt =
-                outcomes.stream()
-                        .filter(o -> o.getAppointment().getId() == appointmentId)
+        Optional<Prescription> prescriptionOpt =
+                prescriptions.stream()
+                        .filter(ps -> ps.getAppointmentId() == appointmentId)
                         .findFirst();
 
-        if (outcomeOpt.isPresent()) {
-            AppointmentOutcome outcome = outcomeOpt.get();
-            Optional<Prescription> prescriptionOpt = outcome.getPrescription();
-            if (!prescriptionOpt.isPresent()) {
-                System.out.println("No prescription required.");
-                return;
-            }
-
+        if (prescriptionOpt.isPresent()) {
             Prescription prescription = prescriptionOpt.get();
             if (prescription.getPrescriptionStatus() == PrescriptionStatus.PENDING) {
                 int i = 1;
@@ -244,6 +223,19 @@ public class PharmacistView {
                             + pharmacistController.getMedicationStockAlert(medication));
             System.out.println("------------------------");
         }
+
+        List<Medication> lowStock = pharmacistController.getLowStockMedications();
+        if (!lowStock.isEmpty()) {
+            System.out.println("\nBelow Low Stock Alert Line:");
+            for (Medication medication : lowStock) {
+                System.out.println(
+                        "- "
+                                + medication.getName()
+                                + " ("
+                                + pharmacistController.getMedicationStock(medication)
+                                + " left)");
+            }
+        }
     }
 
     /**
@@ -288,10 +280,7 @@ public class PharmacistView {
                     return;
                 }
 
-                ReplenishmentRequest request =
-                        pharmacistController.createReplenishmentRequest(selectedMed, quantity);
-
-                repositoryManager.getInventoryRepository().addReplenishmentRequest(request);
+                pharmacistController.createReplenishmentRequest(selectedMed, quantity);
                 System.out.println("Replenishment request submitted successfully.");
             } else {
                 System.out.println("Invalid medication number.");
@@ -3,10 +3,13 @@ package hms;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -27,6 +30,10 @@ import hms.model.user.Administrator;
 import hms.model.user.Doctor;
 import hms.model.user.Patient;
 import hms.model.user.Pharmacist;
+import hms.model.user.Staff;
+import hms.model.user.UserRole;
+import hms.repository.RepositoryManager;
+import hms.repository.UserRepository;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 class AdministratorActionsTest {
@@ -167,4 +174,109 @@ class AdministratorActionsTest {
         var pendingRequests = adminController.getPendingReplenishmentRequests();
         assertNotNull(pendingRequests);
     }
+
+    @Test
+    @DisplayName("Test: List Users by Role")
+    void testListUsersByRole() {
+        assertEquals(List.of(testDoctor), adminController.getDoctors());
+        assertEquals(List.of(testPharmacist), adminController.getPharmacists());
+        assertEquals(List.of(testPatient), adminController.getPatients());
+        assertEquals(2, adminController.getStaffs().size());
+        assertEquals(List.of(testDoctor), patientController.getAllDoctors());
+
+        // The views follow users added and removed, whatever their role
+        UserRepository ur = RepositoryManager.getInstance().getUserRepository();
+        Collection<Doctor> doctors = ur.getDoctors();
+        Doctor other = TestUtils.createTestDoctor();
+        assertEquals(2, doctors.size());
+        assertTrue(adminController.removeUser(testDoctor));
+        assertEquals(List.of(other), List.copyOf(doctors));
+        assertEquals(1, ur.getUsersByRole(UserRole.PATIENT).size());
+        assertEquals(List.of(testAdmin), List.copyOf(ur.getAdministrators()));
+    }
+
+    @Test
+    @DisplayName("Test: Search Staff by Name")
+    void testSearchStaffByName() {
+        Doctor john = namedDoctor("John", "Smith");
+        Doctor johnny = namedDoctor("Johnny", "Smithers");
+        Doctor goldsmith = namedDoctor("Ann", "Goldsmith");
+        Doctor smyth = namedDoctor("Bob", "Smyth");
+
+        // Exact matches, then word starts, then substrings, then misspellings
+        List<Staff> found = adminController.searchStaffs("SMITH");
+        assertEquals(4, found.size());
+        assertEquals(Set.of(john, johnny), Set.copyOf(found.subList(0, 2)));
+        assertEquals(goldsmith, found.get(2));
+        assertEquals(smyth, found.get(3));
+        assertEquals(john, adminController.searchStaffs("john smith").get(0));
+        assertEquals(List.of(john), adminController.searchStaffs("Jon Smtih"));
+        assertEquals(List.of(john), adminController.searchStaffs(john.getId()));
+        assertTrue(adminController.searchStaffs("ohn").containsAll(List.of(john, johnny)));
+
+        // Only staff are searched by administrators, and only patients by doctors
+        assertFalse(adminController.searchStaffs("Test Patient").contains(testPatient));
+        assertEquals(List.of(testPatient), doctorController.searchPatients("test patien", 10));
+        assertTrue(doctorController.searchPatients("smith", 10).isEmpty());
+
+        // Renamed and removed staff are searched under their current names only
+        adminController.updateStaffName(john, "Jane", "Doe");
+        assertFalse(adminController.searchStaffs("smith").contains(john));
+        assertEquals(john, adminController.searchStaffs("jane doe").get(0));
+        assertTrue(adminController.removeUser(johnny));
+        assertFalse(adminController.searchStaffs("smith").contains(johnny));
+    }
+
+    @Test
+    @DisplayName("Test: Replenishment Requests Queued by Status")
+    void testReplenishmentRequestQueues() {
+        Medication medication = TestUtils.createTestMedication();
+        LocalDateTime now = LocalDateTime.of(2024, 11, 21, 9, 0);
+        ReplenishmentRequest late = request(medication, 10, now.plusHours(2));
+        ReplenishmentRequest early = request(medication, 20, now);
+        ReplenishmentRequest middle = request(medication, 30, now.plusHours(1));
+
+        // Pending requests come oldest first, whatever the order they were made in
+        assertEquals(
+                List.of(early, middle, late), adminController.getPendingReplenishmentRequests());
+
+        // Approved requests move to the history, which is paged oldest first
+        adminController.approveReplenishmentRequest(late);
+        adminController.approveReplenishmentRequest(early);
+        assertEquals(List.of(middle), adminController.getPendingReplenishmentRequests());
+        assertEquals(List.of(early, late), adminController.getApprovedReplenishmentRequests(0, 10));
+        assertEquals(List.of(late), adminController.getApprovedReplenishmentRequests(1, 1));
+        assertTrue(adminController.getApprovedReplenishmentRequests(2, 10).isEmpty());
+        assertEquals(130, adminController.getMedicationStock(medication));
+
+        // Requests are found by ID, and removed ones are gone from their queue
+        var ir = RepositoryManager.getInstance().getInventoryRepository();
+        assertEquals(middle, ir.getReplenishmentRequestById(middle.getId()).get());
+        ir.removeReplenishmentRequest(middle);
+        assertTrue(ir.getReplenishmentRequestById(middle.getId()).isEmpty());
+        assertTrue(adminController.getPendingReplenishmentRequests().isEmpty());
+        assertEquals(List.of(early, late), ir.getReplenishmentRequests());
+
+        // A different request cannot take the ID of one that is already there
+        ReplenishmentRequest clash = new ReplenishmentRequest(medication, 40, now, testPharmacist);
+        clash.setId(late.getId());
+        assertThrows(IllegalStateException.class, () -> ir.addReplenishmentRequest(clash));
+        assertEquals(List.of(early, late), ir.getReplenishmentRequests());
+        assertEquals(late, ir.getReplenishmentRequestById(late.getId()).get());
+    }
+
+    // Creates a test doctor with the given name
+    private Doctor namedDoctor(String firstName, String lastName) {
+        Doctor doctor = TestUtils.createTestDoctor();
+        adminController.updateStaffName(doctor, firstName, lastName);
+        return doctor;
+    }
+
+    // Adds a pending replenishment request made at the given time
+    private ReplenishmentRequest request(Medication medication, int qty, LocalDateTime datetime) {
+        ReplenishmentRequest rr =
+                new ReplenishmentRequest(medication, qty, datetime, testPharmacist);
+        RepositoryManager.getInstance().getInventoryRepository().addReplenishmentRequest(rr);
+        return rr;
+    }
 }
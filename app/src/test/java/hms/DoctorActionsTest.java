@@ -3,9 +3,12 @@ package hms;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -15,10 +18,12 @@ import org.junit.jupiter.api.TestInstance;
 import hms.controller.DoctorController;
 import hms.controller.PatientController;
 import hms.model.appointment.Appointment;
+import hms.model.appointment.Schedule;
 import hms.model.medication.Medication;
 import hms.model.medication.Prescription;
 import hms.model.user.Doctor;
 import hms.model.user.Patient;
+import hms.repository.RepositoryManager;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 class DoctorActionsTest {
@@ -154,4 +159,116 @@ class DoctorActionsTest {
         Appointment ap = schedule.getAppointments().get(0);
         assertEquals(startTime.plusHours(1), ap.getEnd());
     }
+
+    @Test
+    @DisplayName("Test: Reject Overlapping Availability")
+    void testOverlappingAvailability() {
+        LocalDateTime start = LocalDateTime.of(2030, 1, 1, 9, 0);
+        Schedule schedule = testDoctor.getSchedule();
+        Appointment slot = doctorController.addAppointment(start, start.plusHours(1));
+        assertFalse(schedule.isFree(start.plusMinutes(30), start.plusMinutes(90)));
+        assertTrue(schedule.isFree(start.plusHours(1), start.plusHours(2)));
+
+        // Duplicate and overlapping slots are rejected, adjacent ones are not
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> doctorController.addAppointment(start, start.plusHours(1)));
+        LocalDateTime earlier = start.minusMinutes(30);
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> doctorController.addAppointment(earlier, start.plusMinutes(30)));
+        assertNotNull(doctorController.addAppointment(start.minusHours(1), start));
+
+        // A batch with an overlap adds none of its slots
+        int count = schedule.getAppointments().size();
+        LocalDateTime end = start.plusHours(4);
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> doctorController.addAppointmentHourly(start.plusMinutes(30), end));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> doctorController.addAppointmentHourly(start.minusHours(3), end));
+        assertEquals(count, schedule.getAppointments().size());
+        assertTrue(schedule.isFree(start.plusHours(1), end));
+
+        // Archiving a slot frees its time
+        schedule.detachAppointment(slot);
+        assertTrue(schedule.isFree(start, start.plusHours(1)));
+        assertNotNull(doctorController.addAppointment(start, start.plusHours(1)));
+    }
+
+    @Test
+    @DisplayName("Test: Detach Archived Appointments")
+    void testDetachAppointments() {
+        LocalDateTime start = LocalDateTime.of(2031, 1, 1, 8, 0);
+        Schedule schedule = testDoctor.getSchedule();
+        List<Appointment> slots = doctorController.addAppointmentHourly(start, start.plusHours(6));
+        Appointment earlier = doctorController.addAppointment(start.minusHours(1), start);
+
+        // Slots are detached together, and the others stay in ID order
+        schedule.detachAppointments(List.of(slots.get(4), slots.get(0), slots.get(2)));
+        assertEquals(
+                List.of(slots.get(1), slots.get(3), slots.get(5), earlier),
+                schedule.getAppointments());
+        assertTrue(schedule.isFree(start, start.plusHours(1)));
+        assertFalse(schedule.isFree(start.plusHours(1), start.plusHours(2)));
+
+        // A restored slot goes back in ID order
+        schedule.restoreAppointment(slots.get(2));
+        assertEquals(
+                List.of(slots.get(1), slots.get(2), slots.get(3), slots.get(5), earlier),
+                schedule.getAppointments());
+    }
+
+    @Test
+    @DisplayName("Test: Search Medical Records")
+    void testSearchMedicalRecords() {
+        Patient other = TestUtils.createTestPatient();
+        doctorController.updatePatientMedicalRecord(testPatient, "Type 2 diabetes", "Metformin");
+        doctorController.updatePatientMedicalRecord(other, "Diabetic neuropathy", "Type 1 insulin");
+
+        assertEquals(List.of(testPatient), doctorController.searchMedicalRecords("METFORMIN"));
+        assertEquals(2, doctorController.searchMedicalRecords("diabet*").size());
+        assertEquals(List.of(testPatient), doctorController.searchMedicalRecords("\"type 2\""));
+        assertEquals(
+                List.of(other), doctorController.searchMedicalRecords("diabet* \"type 1\""));
+
+        // Phrases do not span entries, and records are searched as they grow
+        assertTrue(doctorController.searchMedicalRecords("\"diabetes metformin\"").isEmpty());
+        doctorController.updatePatientMedicalRecord(other, "Hypertension", "Metformin");
+        assertEquals(2, doctorController.searchMedicalRecords("metformin").size());
+    }
+
+    @Test
+    @DisplayName("Test: List Patients of Doctor")
+    void testPatientsOfDoctor() {
+        Patient other = TestUtils.createTestPatient();
+        PatientController otherController = new PatientController(other);
+        Doctor otherDoctor = TestUtils.createTestDoctor();
+        assertTrue(doctorController.getPatients().isEmpty());
+
+        // Patients become the doctor's as they book with the doctor
+        Appointment ap = TestUtils.createTestAppointment(testDoctor);
+        patientController.scheduleAppointment(ap);
+        Appointment booked = TestUtils.createTestAppointment(testDoctor);
+        otherController.scheduleAppointment(booked);
+        assertEquals(
+                List.of(testPatient, other).stream()
+                        .sorted(Comparator.comparing(Patient::getId))
+                        .toList(),
+                doctorController.getPatients());
+        assertTrue(new DoctorController(otherDoctor).getPatients().isEmpty());
+
+        // A patient moving their only appointment to another doctor moves with it
+        Appointment moved = TestUtils.createTestAppointment(otherDoctor);
+        assertTrue(otherController.rescheduleAppointment(booked, moved));
+        assertEquals(List.of(testPatient), doctorController.getPatients());
+        assertEquals(List.of(other), new DoctorController(otherDoctor).getPatients());
+
+        // Recording an outcome keeps the patient through the medical record
+        doctorController.acceptAppointment(ap);
+        doctorController.addAppointmentOutcome(ap, "Checkup", null);
+        RepositoryManager.getInstance().getAppointmentRepository().removeAppointment(ap);
+        assertEquals(List.of(testPatient), doctorController.getPatients());
+    }
 }
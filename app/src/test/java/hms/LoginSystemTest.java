@@ -1,6 +1,7 @@
 package hms;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -15,6 +16,8 @@ import hms.controller.UserController;
 import hms.model.user.Doctor;
 import hms.model.user.Patient;
 import hms.model.user.User;
+import hms.repository.RepositoryManager;
+import hms.repository.UserRepository;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 class LoginSystemTest {
@@ -74,4 +77,25 @@ class LoginSystemTest {
         User emptyLogin = userController.login("", "").orElse(null);
         assertNull(emptyLogin);
     }
+
+    @Test
+    @DisplayName("Test: Login by Username After Rename")
+    void testLoginByUsername() {
+        UserRepository ur = RepositoryManager.getInstance().getUserRepository();
+        assertTrue(ur.renameUser(testDoctor, "drwho"));
+        assertEquals(testDoctor, userController.login("drwho", "password").orElse(null));
+        assertNull(userController.login("TestDoctor", "password").orElse(null));
+
+        // Usernames stay unique, and only match in the same case unless asked otherwise
+        assertFalse(ur.renameUser(testPatient, "drwho"));
+        assertNull(userController.login("DrWho", "password").orElse(null));
+        ur.setIgnoreUsernameCase(true);
+        assertEquals(testDoctor, userController.login("DrWho", "password").orElse(null));
+        assertFalse(ur.renameUser(testPatient, "DRWHO"));
+
+        assertTrue(ur.removeUser(testDoctor));
+        assertNull(userController.login("drwho", "password").orElse(null));
+        assertTrue(ur.renameUser(testPatient, "DRWHO"));
+        assertEquals(testPatient, userController.login("drwho", "password").orElse(null));
+    }
 }
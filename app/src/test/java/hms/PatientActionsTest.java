@@ -7,6 +7,8 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -15,10 +17,12 @@ import org.junit.jupiter.api.TestInstance;
 
 import hms.controller.DoctorController;
 import hms.controller.PatientController;
+import hms.model.appointment.Appointment;
 import hms.model.appointment.state.ConfirmedState;
 import hms.model.appointment.state.PendingState;
 import hms.model.user.Doctor;
 import hms.model.user.Patient;
+import hms.repository.RepositoryManager;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 class PatientActionsTest {
@@ -154,4 +158,104 @@ class PatientActionsTest {
                                         outcome.getAppointment().getState()
                                                 instanceof ConfirmedState));
     }
+
+    @Test
+    @DisplayName("Test: Find Free Slots of a Doctor")
+    void testFreeSlotsOfDoctor() {
+        Doctor doctor = TestUtils.createTestDoctor();
+        DoctorController dc = new DoctorController(doctor);
+        LocalDateTime day = LocalDateTime.of(2031, 3, 10, 0, 0);
+
+        // Slots added latest first, so that each moves every later one, over two days
+        List<Appointment> slots = new ArrayList<>();
+        for (int i = 99; i >= 0; i--) {
+            LocalDateTime start = day.plusMinutes(15L * i);
+            slots.add(0, dc.addAppointment(start, start.plusMinutes(15)));
+        }
+        assertEquals(slots, dc.getFreeAppointments());
+        assertEquals(slots, patientController.getAvailableAppointmentSlotsByDoctors().get(doctor));
+        assertEquals(slots.get(0), firstFreeSlot(doctor, day.minusDays(1)));
+        assertEquals(slots.get(70), firstFreeSlot(doctor, day.plusMinutes(15 * 70)));
+        assertEquals(slots.get(71), firstFreeSlot(doctor, day.plusMinutes(15 * 70 + 1)));
+
+        // Booking a slot takes it out, and freeing it puts it back
+        patientController.scheduleAppointment(slots.get(70));
+        assertEquals(slots.get(71), firstFreeSlot(doctor, day.plusMinutes(15 * 70)));
+        for (int i = 71; i < 96; i++) {
+            patientController.scheduleAppointment(slots.get(i));
+        }
+        assertEquals(slots.get(96), firstFreeSlot(doctor, day.plusMinutes(15 * 70)));
+        assertEquals(74, dc.getFreeAppointments().size());
+        assertTrue(dc.freeAppointment(slots.get(80)));
+        assertEquals(slots.get(80), firstFreeSlot(doctor, day.plusMinutes(15 * 70)));
+
+        // Removed slots are gone, and the later ones move down
+        RepositoryManager.getInstance().getAppointmentRepository().removeAppointment(slots.get(0));
+        assertEquals(slots.get(1), firstFreeSlot(doctor, day));
+        assertEquals(slots.subList(1, 70), dc.getFreeAppointments().subList(0, 69));
+        assertEquals(slots.get(80), dc.getFreeAppointments().get(69));
+        assertFalse(
+                patientController
+                        .getFirstAvailableAppointmentSlot(doctor, day.plusDays(2))
+                        .isPresent());
+    }
+
+    @Test
+    @DisplayName("Test: Patient Keeps Its Appointments")
+    void testPatientAppointments() {
+        Doctor doctor = TestUtils.createTestDoctor();
+        DoctorController dc = new DoctorController(doctor);
+        Appointment past = dc.addAppointment(day(2020), day(2020).plusHours(1));
+        Appointment next = dc.addAppointment(day(2040), day(2040).plusHours(1));
+        Appointment later = dc.addAppointment(day(2041), day(2041).plusHours(1));
+
+        // Booking adds the slot to the patient, rescheduling moves it
+        assertTrue(patientController.scheduleAppointment(past));
+        assertTrue(patientController.scheduleAppointment(next));
+        assertEquals(List.of(past, next), testPatient.getAppointments());
+        assertTrue(patientController.rescheduleAppointment(next, later));
+        assertEquals(List.of(past, later), testPatient.getAppointments());
+        assertEquals(List.of(past.getId(), later.getId()), testPatient.getAppointmentIds());
+        assertEquals(List.of(past), testPatient.getPastAppointments());
+
+        // Cancelled appointments stay in the history, freed ones leave it
+        patientController.cancelAppointment(past);
+        assertEquals(List.of(past, later), patientController.getPersonalAppointments());
+        assertTrue(dc.freeAppointment(later));
+        assertEquals(List.of(past), testPatient.getAppointments());
+        assertEquals(List.of(past.getId()), testPatient.getAppointmentIds());
+
+        // A slot booked by another patient only belongs to that patient
+        Patient other = TestUtils.createTestPatient();
+        assertTrue(new PatientController(other).scheduleAppointment(later));
+        assertEquals(List.of(later), other.getAppointments());
+        assertEquals(List.of(past), testPatient.getAppointments());
+
+        // Rebooking a slot for another patient takes it from the patient it belonged to
+        var ar = RepositoryManager.getInstance().getAppointmentRepository();
+        Patient third = TestUtils.createTestPatient();
+        later.setPatient(third);
+        ar.updateAppointment(later);
+        assertTrue(other.getAppointmentIds().isEmpty());
+        assertEquals(List.of(later.getId()), third.getAppointmentIds());
+
+        // Reading a stale ID skips it without changing the patient
+        other.addAppointment(later);
+        assertTrue(other.getAppointments().isEmpty());
+        assertEquals(List.of(later.getId()), other.getAppointmentIds());
+
+        // Removed appointments leave the patient
+        ar.removeAppointment(past);
+        assertTrue(testPatient.getAppointmentIds().isEmpty());
+    }
+
+    // Finds the first free slot of a doctor from a time
+    private Appointment firstFreeSlot(Doctor doctor, LocalDateTime from) {
+        return patientController.getFirstAvailableAppointmentSlot(doctor, from).orElseThrow();
+    }
+
+    // Creates a time in the given year, outside the years of the random test slots
+    private static LocalDateTime day(int year) {
+        return LocalDateTime.of(year, 6, 15, 10, 0);
+    }
 }
@@ -5,7 +5,10 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -13,12 +16,15 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 
 import hms.controller.DoctorController;
+import hms.controller.InventoryController;
 import hms.controller.PatientController;
 import hms.controller.PharmacistController;
 import hms.model.appointment.Appointment;
+import hms.model.medication.Inventory;
 import hms.model.medication.Medication;
 import hms.model.medication.Prescription;
 import hms.model.medication.ReplenishmentRequest;
+import hms.model.medication.StockAlertListener;
 import hms.model.user.Doctor;
 import hms.model.user.Patient;
 import hms.model.user.Pharmacist;
@@ -113,4 +119,113 @@ class PharmacistActionsTest {
         assertEquals(medication, request.getMedication());
         assertEquals(requestQuantity, request.getRequestedQuantity());
     }
+
+    @Test
+    @DisplayName("Test: Look Up Medications by ID")
+    void testMedicationById() {
+        Inventory inventory = pharmacistController.getInventory();
+        Medication medication = new Medication("Lookup", "Looked up by ID", "Daily");
+        assertNotNull(medication.getId());
+        assertTrue(inventory.addMedication(medication));
+        assertEquals(
+                medication,
+                pharmacistController.getMedicationByUUID(medication.getId().toString()).get());
+
+        // A new ID replaces the old one, and cannot take that of another medication
+        UUID id = UUID.randomUUID();
+        UUID old = medication.getId();
+        assertTrue(inventory.setMedicationId(medication, id));
+        assertEquals(medication, inventory.getMedicationByUUID(id).get());
+        assertTrue(inventory.getMedicationByUUID(old).isEmpty());
+        assertFalse(inventory.setMedicationId(testMedication, id));
+
+        assertTrue(inventory.removeMedication(medication));
+        assertTrue(inventory.getMedicationByUUID(id).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test: Pending Prescriptions in Order of Issue")
+    void testPendingPrescriptionQueue() {
+        Prescription queued = pharmacistController.getPendingPrescriptions().get(0);
+        Prescription late = prescribe(LocalDateTime.of(2030, 1, 1, 9, 0));
+        Prescription early = prescribe(LocalDateTime.of(2020, 1, 1, 9, 0));
+        assertEquals(List.of(early, queued, late), pharmacistController.getPendingPrescriptions());
+
+        // Dispensing or cancelling a prescription takes it off the queue
+        assertTrue(pharmacistController.dispensePrescription(early));
+        assertTrue(pharmacistController.cancelPrescription(late));
+        assertEquals(List.of(queued), pharmacistController.getPendingPrescriptions());
+    }
+
+    @Test
+    @DisplayName("Test: Dispense a Prescription Read from a Released Appointment")
+    void testDispenseReleasedPrescription() {
+        // A mapped store may release an appointment while its prescription is still held, and
+        // load another copy of the appointment when the prescription is dispensed
+        Prescription issued = prescribe(LocalDateTime.of(2020, 1, 1, 9, 0));
+        Prescription copy = new Prescription(issued.getMedications());
+        copy.setAppointmentId(issued.getAppointmentId());
+
+        assertTrue(pharmacistController.dispensePrescription(copy));
+        assertTrue(issued.isDispensed());
+        assertFalse(pharmacistController.getPendingPrescriptions().contains(issued));
+    }
+
+    @Test
+    @DisplayName("Test: Track Medications Below Their Alert Level")
+    void testLowStockAlerts() {
+        InventoryController ic = new InventoryController();
+        Medication a = lowStockMedication(ic, "Low A", 20, 10);
+        Medication b = lowStockMedication(ic, "Low B", 40, 100);
+        Medication c = lowStockMedication(ic, "Low C", 5, 10);
+        assertEquals(List.of(b, c), pharmacistController.getLowStockMedications());
+
+        List<String> alerts = new ArrayList<>();
+        StockAlertListener listener =
+                (medication, stock, alert, low) ->
+                        alerts.add(medication.getName() + (low ? " low at " : " ok at ") + stock);
+        ic.getInventory().addStockAlertListener(listener);
+
+        // Crossing a threshold either way is announced, moving within it is not
+        assertTrue(ic.removeMedicationStock(a, -15));
+        assertTrue(ic.removeMedicationStock(b, -10));
+        assertTrue(ic.addMedicationStock(b, 70));
+        assertTrue(ic.setMedicationStockAlert(c, 4));
+        assertTrue(ic.setMedicationStock(c, 0));
+        assertEquals(
+                List.of("Low A low at 5", "Low B ok at 100", "Low C ok at 5", "Low C low at 0"),
+                alerts);
+
+        // Ordered by the share of the threshold left, then by name
+        assertEquals(List.of(c, a), pharmacistController.getLowStockMedications());
+        assertTrue(ic.getInventory().isLowStock(a));
+        assertFalse(ic.getInventory().isLowStock(b));
+        assertFalse(ic.getInventory().isLowStock(testMedication));
+
+        // Removed medications leave quietly, and removed listeners hear no more
+        assertTrue(ic.removeMedication(c));
+        assertTrue(ic.getInventory().removeStockAlertListener(listener));
+        assertTrue(ic.setMedicationStock(b, 0));
+        assertEquals(4, alerts.size());
+        assertEquals(List.of(b, a), pharmacistController.getLowStockMedications());
+    }
+    // Completes a new appointment of the test patient with a prescription
+    private Prescription prescribe(LocalDateTime start) {
+        Appointment appointment = doctorController.addAppointment(start, start.plusHours(1));
+        patientController.scheduleAppointment(appointment);
+        doctorController.acceptAppointment(appointment);
+        Prescription prescription = new Prescription(testMedication);
+        doctorController.addAppointmentOutcome(appointment, "follow-up", prescription);
+        return prescription;
+    }
+
+    // Adds a medication with the given stock and alert level to the inventory
+    private static Medication lowStockMedication(
+            InventoryController ic, String name, int stock, int alert) {
+        Medication medication = new Medication(name, "", "");
+        assertTrue(ic.addMedication(medication));
+        assertTrue(ic.setMedicationStock(medication, stock));
+        assertTrue(ic.setMedicationStockAlert(medication, alert));
+        return medication;
+    }
 }
@@ -1,25 +1,51 @@
 package hms;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 
 import hms.controller.AdministratorController;
+import hms.controller.AppointmentController;
 import hms.controller.DoctorController;
+import hms.controller.InventoryController;
 import hms.controller.PatientController;
 import hms.controller.PharmacistController;
 import hms.model.appointment.Appointment;
+import hms.model.appointment.AppointmentOutcome;
+import hms.model.appointment.AppointmentStatus;
 import hms.model.medication.Medication;
 import hms.model.medication.Prescription;
+import hms.model.record.MedicalRecord;
 import hms.model.user.Administrator;
 import hms.model.user.Doctor;
 import hms.model.user.Patient;
 import hms.model.user.Pharmacist;
+import hms.model.user.User;
+import hms.repository.AppointmentRepository;
 import hms.repository.RepositoryManager;
+import hms.repository.UserRepository;
+import hms.repository.journal.CommitMetrics;
+import hms.repository.journal.Journal;
+import hms.repository.journal.JournalPosition;
+import hms.repository.journal.JournalRecordType;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 class RepositoryTest {
@@ -111,4 +137,699 @@ class RepositoryTest {
         // Check prescription from pharmacist
         assertNotNull(newPharmacistController.getPendingPrescriptions().get(0));
     }
+
+    @Test
+    @DisplayName("Test: Repository Indexes Appointments By Doctor, Patient & Status")
+    void testAppointmentIndexes() {
+        AppointmentRepository ar = RepositoryManager.getInstance().getAppointmentRepository();
+        List<Appointment> slots = TestUtils.createTestAppointments(testDoctor);
+        Appointment first = slots.get(0);
+        Appointment second = slots.get(1);
+        assertEquals(slots, doctorController.getAppointments());
+        assertEquals(slots, ar.getAppointmentsByStatus(AppointmentStatus.FREE));
+
+        // Booking moves the slot to the patient and to its new status
+        assertTrue(patientController.scheduleAppointment(first));
+        assertEquals(List.of(first), patientController.getPersonalAppointments());
+        assertEquals(
+                List.of(first),
+                administratorController.getAllAppointmentsByStatus(AppointmentStatus.PENDING));
+        assertEquals(slots.size() - 1, ar.getAppointmentsByStatus(AppointmentStatus.FREE).size());
+
+        // Rescheduling frees the old slot and drops it from the patient
+        assertTrue(patientController.rescheduleAppointment(first, second));
+        assertEquals(List.of(second), patientController.getPersonalAppointments());
+        assertEquals(
+                List.of(second),
+                administratorController.getAllAppointmentsByStatus(AppointmentStatus.PENDING));
+
+        // Accepting and completing the appointment moves it twice more
+        doctorController.acceptAppointment(second);
+        assertEquals(List.of(second), ar.getAppointmentsByStatus(AppointmentStatus.CONFIRMED));
+        doctorController.addAppointmentOutcome(second, "Indexed", new Prescription(testMedication));
+        assertEquals(List.of(second), ar.getAppointmentsByStatus(AppointmentStatus.COMPLETED));
+        assertEquals(0, ar.getAppointmentsByStatus(AppointmentStatus.CONFIRMED).size());
+        assertEquals(1, AppointmentController.getAppointmentOutcomes().size());
+
+        // Removed appointments leave every index
+        ar.removeAppointment(second);
+        assertEquals(0, patientController.getPersonalAppointments().size());
+        assertEquals(slots.size() - 1, doctorController.getAppointments().size());
+        assertEquals(0, ar.getAppointmentsByStatus(AppointmentStatus.COMPLETED).size());
+    }
+
+    @Test
+    @DisplayName("Test: Repository Finds Appointments Within Time Ranges")
+    void testAppointmentRanges() {
+        AppointmentRepository ar = RepositoryManager.getInstance().getAppointmentRepository();
+        LocalDateTime day = LocalDateTime.of(2024, 11, 21, 0, 0);
+        List<Appointment> slots = TestUtils.createTestAppointments(testDoctor);
+        Doctor other = new Doctor("D400", "ranged", "Doctor", "Range", "password", "r@x", "+1");
+        RepositoryManager.getInstance().getUserRepository().addUser(other);
+        DoctorController otherController = new DoctorController(other);
+        Appointment evening = otherController.addAppointment(day.withHour(20), day.withHour(21));
+        Appointment morning =
+                otherController.addAppointment(day.withHour(8).plusMinutes(30), day.withHour(9));
+
+        // Ranges include their start and exclude their end, in order of start
+        assertEquals(
+                slots.subList(2, 5),
+                doctorController.getAppointmentsBetween(day.withHour(9), day.withHour(12)));
+        assertEquals(
+                List.of(slots.get(1), morning, slots.get(2)),
+                ar.getAppointmentsBetween(day.withHour(8), day.withHour(10)));
+        assertEquals(
+                List.of(evening),
+                ar.getAppointmentsBetween(other, day.withHour(12), day.plusDays(1)));
+        assertEquals(0, ar.getAppointmentsBetween(day.withHour(12), day.withHour(12)).size());
+        assertEquals(0, ar.getAppointmentsBetween(day.minusDays(1), day).size());
+
+        // Only confirmed appointments yet to start are upcoming
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        Appointment upcoming = doctorController.addAppointment(start, start.plusHours(1));
+        patientController.scheduleAppointment(upcoming);
+        patientController.scheduleAppointment(slots.get(0));
+        doctorController.acceptAppointment(upcoming);
+        doctorController.acceptAppointment(slots.get(0));
+        assertEquals(List.of(upcoming), doctorController.getUpcomingAppointments());
+    }
+
+    @Test
+    @DisplayName("Test: Repository Journal Replay Without Save")
+    void testJournalReplay() {
+        // Start from an empty repository that journals every change
+        new File("test.journal").delete();
+        TestUtils.setupTestRepositories();
+        RepositoryManager.getInstance().openJournal("test.journal");
+
+        Doctor doctor = TestUtils.createTestDoctor();
+        Patient patient = TestUtils.createTestPatient();
+        Medication medication = new Medication("Journal Medication", "", "");
+        InventoryController ic = new InventoryController();
+        ic.addMedication(medication);
+        ic.addMedicationStock(medication, 100);
+        DoctorController dc = new DoctorController(doctor);
+        PatientController pc = new PatientController(patient);
+
+        Appointment ap = TestUtils.createTestAppointment(doctor);
+        pc.scheduleAppointment(ap);
+        dc.acceptAppointment(ap);
+        dc.addAppointmentOutcome(ap, "Journalled", new Prescription(medication));
+        dc.updatePatientMedicalRecord(patient, "Flu", "Rest");
+        pc.setEmail("journal@example.com");
+        RepositoryManager.getInstance().getUserRepository().renameUser(doctor, "journaldoc");
+
+        // Simulate a crash: nothing was ever saved, only the journal survives
+        RepositoryManager.destroyInstance();
+        RepositoryManager.load("missing.bin", "test.journal");
+        RepositoryManager rm = RepositoryManager.getInstance();
+
+        Patient newPatient = (Patient) rm.getUserRepository().getUserById(patient.getId()).get();
+        Doctor newDoctor = (Doctor) rm.getUserRepository().getUserById(doctor.getId()).get();
+        assertEquals("journal@example.com", newPatient.getEmail());
+        assertTrue(newPatient.verifyPassword("password"));
+        assertEquals("Flu", newPatient.getMedicalRecord().getPastDiagnoses().get(0));
+        assertEquals(newDoctor, newPatient.getMedicalRecord().getDoctor());
+        assertEquals(newDoctor, rm.getUserRepository().getUserByUsername("journaldoc").get());
+
+        Appointment newAp = rm.getAppointmentRepository().getAppointmentById(ap.getId()).get();
+        assertEquals(AppointmentStatus.COMPLETED, newAp.getStatus());
+        assertEquals(newPatient, newAp.getPatient());
+        assertEquals(List.of(newAp), newPatient.getAppointments());
+        assertEquals(newAp, newDoctor.getSchedule().getAppointments().get(0));
+        assertEquals("Journalled", newAp.getOutcome().getDescription());
+        assertEquals(
+                100,
+                rm.getInventoryRepository()
+                        .getInventory()
+                        .getMedicationStock(
+                                rm.getInventoryRepository()
+                                        .getInventory()
+                                        .getMedicationByName(medication.getName())
+                                        .get()));
+
+        RepositoryManager.destroyInstance();
+        new File("test.journal").delete();
+    }
+
+    @Test
+    @DisplayName("Test: Repository Journal Group Commit")
+    void testJournalGroupCommit() throws IOException, InterruptedException {
+        new File("test.journal").delete();
+        Journal journal = new Journal("test.journal", Duration.ofMillis(200), 8);
+        journal.recover(JournalPosition.EMPTY, (type, in) -> {});
+
+        // Concurrent appends should share commits
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int id = i;
+            threads.add(
+                    Thread.startVirtualThread(
+                            () ->
+                                    journal.append(
+                                            JournalRecordType.REMOVE_USER,
+                                            out -> out.writeString("U" + id))));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        CommitMetrics metrics = journal.getCommitMetrics();
+        assertEquals(8, metrics.getRecordCount());
+        assertTrue(metrics.getCommitCount() < 8);
+        assertTrue(metrics.getMaxBatchSize() > 1);
+        journal.close();
+
+        // Every acknowledged record must be in the journal
+        AtomicInteger replayed = new AtomicInteger();
+        Journal reopened = new Journal("test.journal");
+        reopened.recover(JournalPosition.EMPTY, (type, in) -> replayed.incrementAndGet());
+        assertEquals(8, replayed.get());
+        reopened.close();
+        new File("test.journal").delete();
+    }
+
+    @Test
+    @DisplayName("Test: Repository Background Checkpoint")
+    void testCheckpoint() {
+        deleteDatabase("test-checkpoint");
+        RepositoryManager.destroyInstance();
+        RepositoryManager.load("test-checkpoint.bin", "test.journal");
+        RepositoryManager rm = RepositoryManager.getInstance();
+
+        Patient patient = createPatient(rm, "P1001");
+        PatientController pc = new PatientController(patient);
+        pc.setEmail("first@example.com");
+        assertTrue(rm.checkpoint());
+
+        // The journal only holds its header once the checkpoint is durable
+        File users = new File("test-checkpoint.users.seg");
+        assertTrue(users.exists());
+        long compacted = new File("test.journal").length();
+        long saved = users.length();
+
+        pc.setEmail("second@example.com");
+        assertTrue(new File("test.journal").length() > compacted);
+        assertTrue(rm.checkpoint());
+        assertEquals(compacted, new File("test.journal").length());
+        assertTrue(users.length() > saved);
+
+        // Changes after the last checkpoint are replayed from the journal
+        pc.setEmail("third@example.com");
+        RepositoryManager.destroyInstance();
+        RepositoryManager.load("test-checkpoint.bin", "test.journal");
+        Patient newPatient =
+                (Patient)
+                        RepositoryManager.getInstance()
+                                .getUserRepository()
+                                .getUserById(patient.getId())
+                                .get();
+        assertEquals("third@example.com", newPatient.getEmail());
+
+        RepositoryManager.destroyInstance();
+        deleteDatabase("test-checkpoint");
+    }
+
+    @Test
+    @DisplayName("Test: Damaged Segments Fall Back to Previous Generation")
+    void testSegmentGenerations() throws IOException {
+        deleteDatabase("test-generations");
+        RepositoryManager.destroyInstance();
+        RepositoryManager.load("test-generations.bin", "test.journal");
+        RepositoryManager rm = RepositoryManager.getInstance();
+
+        Patient patient = createPatient(rm, "P1001");
+        PatientController pc = new PatientController(patient);
+        assertTrue(rm.save());
+        File users = new File("test-generations.users.seg");
+        File previous = new File("test-generations.users.seg.1");
+        assertFalse(previous.exists());
+
+        // Enough superseded records make the next save rewrite the segment, keeping the old file
+        for (int i = 0; i < 300; i++) {
+            pc.setEmail("e" + i + "@example.com");
+        }
+        assertTrue(rm.checkpoint());
+        assertTrue(rm.save());
+        assertTrue(previous.exists());
+        assertFalse(new File("test-generations.appointments.seg.1").exists());
+        pc.setEmail("last@example.com");
+        assertTrue(rm.save());
+
+        // A damaged segment is read from its previous file, the others from their current ones
+        Files.write(users.toPath(), new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        RepositoryManager.destroyInstance();
+        RepositoryManager.load("test-generations.bin", "test.journal");
+        assertEquals("e299@example.com", email("P1001"));
+
+        // The recovered state is saved as the current segments
+        RepositoryManager.destroyInstance();
+        RepositoryManager.load("test-generations.bin", "test.journal");
+        assertEquals("e299@example.com", email("P1001"));
+
+        RepositoryManager.destroyInstance();
+        deleteDatabase("test-generations");
+    }
+
+    @Test
+    @DisplayName("Test: Repository Saves Only Changed Entities")
+    void testIncrementalSave() {
+        deleteDatabase("test-segments");
+        RepositoryManager.destroyInstance();
+        RepositoryManager.load("test-segments.bin", "test.journal");
+        RepositoryManager rm = RepositoryManager.getInstance();
+
+        Doctor doctor =
+                new Doctor("D100", "doctor", "Doctor", "Who", "password", "d@x.com", "+1234");
+        rm.getUserRepository().addUser(doctor);
+        List<Patient> patients = new ArrayList<>();
+        for (int p = 0; p < 50; p++) {
+            patients.add(createPatient(rm, "P" + (1000 + p)));
+        }
+        List<Appointment> slots =
+                doctor.getSchedule()
+                        .addMultipleAppointmentDays(
+                                LocalDate.of(2024, 7, 1),
+                                LocalDate.of(2024, 11, 30),
+                                LocalTime.of(8, 0),
+                                LocalTime.of(17, 0));
+        assertTrue(rm.save());
+
+        File users = new File("test-segments.users.seg");
+        File appointments = new File("test-segments.appointments.seg");
+        long usersSize = users.length();
+        long appointmentsSize = appointments.length();
+
+        // Booking a single slot only appends that appointment, whatever the database size
+        Appointment booked = slots.get(100);
+        new PatientController(patients.get(7)).scheduleAppointment(booked);
+        assertTrue(rm.save());
+        long appended = appointments.length() - appointmentsSize;
+        assertTrue(appended > 0 && appended < 100, "appended " + appended + " bytes");
+        assertTrue(users.length() - usersSize < 40);
+
+        RepositoryManager.destroyInstance();
+        RepositoryManager.load("test-segments.bin", "test.journal");
+        Appointment newBooked =
+                RepositoryManager.getInstance()
+                        .getAppointmentRepository()
+                        .getAppointmentById(booked.getId())
+                        .get();
+        assertEquals(AppointmentStatus.PENDING, newBooked.getStatus());
+        assertEquals("P1007", newBooked.getPatient().getId());
+        assertEquals(List.of(newBooked), newBooked.getPatient().getAppointments());
+        assertEquals(
+                slots.size(),
+                RepositoryManager.getInstance()
+                        .getAppointmentRepository()
+                        .getAllAppointments()
+                        .size());
+
+        // Segments are decoded in parallel but linked in order, so schedules keep their order
+        Doctor newDoctor =
+                (Doctor)
+                        RepositoryManager.getInstance()
+                                .getUserRepository()
+                                .getUserById("D100")
+                                .get();
+        List<Appointment> schedule = newDoctor.getSchedule().getAppointments();
+        assertEquals(slots.size(), schedule.size());
+        for (int i = 0; i < slots.size(); i++) {
+            assertEquals(slots.get(i).getId(), schedule.get(i).getId());
+            assertEquals(slots.get(i).getStart(), schedule.get(i).getStart());
+        }
+
+        RepositoryManager.destroyInstance();
+        deleteDatabase("test-segments");
+    }
+
+    @Test
+    @DisplayName("Test: Repository Memory-Mapped Appointments")
+    void testMappedAppointments() {
+        deleteDatabase("test-mapped");
+        RepositoryManager.destroyInstance();
+        RepositoryManager.setAppointmentMapDirectory("test-mapped");
+        try {
+            RepositoryManager.load("test-mapped.bin", "test.journal");
+            RepositoryManager rm = RepositoryManager.getInstance();
+
+            Doctor doctor =
+                    new Doctor("D200", "mapped", "Doctor", "Map", "password", "m@x.com", "+1234");
+            rm.getUserRepository().addUser(doctor);
+            Patient patient = createPatient(rm, "P2000");
+            Medication medication = new Medication("Mapped", "Mapped medication", "Daily");
+            rm.getInventoryRepository().getInventory().addMedication(medication);
+
+            int count = bookAndComplete(doctor, patient, medication);
+            assertTrue(rm.save());
+
+            // Appointments no longer referenced are reclaimed and materialized again from the file
+            for (int i = 0; i < 10; i++) {
+                System.gc();
+            }
+            checkMappedAppointments(rm, count);
+
+            // The mapped files are deleted once closed
+            RepositoryManager.destroyInstance();
+            assertEquals(0, new File("test-mapped").list().length);
+
+            RepositoryManager.load("test-mapped.bin", "test.journal");
+            checkMappedAppointments(RepositoryManager.getInstance(), count);
+        } finally {
+            RepositoryManager.setAppointmentMapDirectory(null);
+            RepositoryManager.destroyInstance();
+            deleteDatabase("test-mapped");
+            new File("test-mapped").delete();
+        }
+    }
+
+    @Test
+    @DisplayName("Test: Repository Loads Medical Records On Demand")
+    void testLazyMedicalRecords() {
+        deleteDatabase("test-records");
+        RepositoryManager.destroyInstance();
+        RepositoryManager.setMedicalRecordCacheSize(2);
+        try {
+            RepositoryManager.load("test-records.bin", "test.journal");
+            RepositoryManager rm = RepositoryManager.getInstance();
+            Doctor doctor =
+                    new Doctor("D300", "records", "Doctor", "Rec", "password", "r@x.com", "+1234");
+            rm.getUserRepository().addUser(doctor);
+            DoctorController dc = new DoctorController(doctor);
+            for (int p = 0; p < 10; p++) {
+                Patient patient = createPatient(rm, "P" + (3000 + p));
+                assertTrue(dc.updatePatientMedicalRecord(patient, "Diagnosis " + p, "Rest"));
+            }
+            assertTrue(rm.save());
+
+            // Records saved to their segment are searchable before any of them is loaded
+            RepositoryManager.destroyInstance();
+            RepositoryManager.load("test-records.bin", "test.journal");
+            rm = RepositoryManager.getInstance();
+            UserRepository ur = rm.getUserRepository();
+            doctor = (Doctor) ur.getUserById("D300").orElseThrow();
+            assertEquals(10, ur.searchMedicalRecords("rest").size());
+            assertEquals(
+                    List.of("P3003"),
+                    ur.searchMedicalRecords("\"Diagnosis 3\"").stream().map(User::getId).toList());
+
+            // A record still referenced stays the same object, and keeps changes made after
+            // every other record has been evicted from the cache
+            Patient first = (Patient) ur.getUserById("P3000").orElseThrow();
+            MedicalRecord held = first.getMedicalRecord();
+            checkMedicalRecords(rm, 10, null);
+            held.setDoctor(doctor);
+            ur.updateMedicalRecord(first);
+            assertTrue(held == first.getMedicalRecord(), "record was reloaded");
+            held = null;
+            for (int i = 0; i < 10; i++) {
+                System.gc();
+            }
+            checkMedicalRecords(rm, 10, doctor);
+            assertEquals(List.of("P3000"), ur.getPatientIdsByRecordDoctor(doctor));
+            assertTrue(rm.save());
+
+            RepositoryManager.destroyInstance();
+            RepositoryManager.load("test-records.bin", "test.journal");
+            rm = RepositoryManager.getInstance();
+            checkMedicalRecords(rm, 10, rm.getUserRepository().getUserById("D300").orElseThrow());
+        } finally {
+            RepositoryManager.setMedicalRecordCacheSize(1024);
+            RepositoryManager.destroyInstance();
+            deleteDatabase("test-records");
+        }
+    }
+
+    @Test
+    @DisplayName("Test: Repository Archives Completed Appointments")
+    void testArchiveAppointments() {
+        deleteDatabase("test-archive");
+        RepositoryManager.destroyInstance();
+        RepositoryManager.load("test-archive.bin", "test.journal");
+        RepositoryManager rm = RepositoryManager.getInstance();
+
+        Doctor doctor =
+                new Doctor("D200", "mapped", "Doctor", "Map", "password", "m@x.com", "+1234");
+        rm.getUserRepository().addUser(doctor);
+        Patient patient = createPatient(rm, "P2000");
+        Medication medication = new Medication("Mapped", "Mapped medication", "Daily");
+        rm.getInventoryRepository().getInventory().addMedication(medication);
+        int count = bookAndComplete(doctor, patient, medication);
+        Appointment completed = doctor.getSchedule().getAppointments().get(10);
+        int completedId = completed.getId();
+
+        // A pending prescription is still to be dispensed, so its appointment stays
+        assertEquals(0, rm.archiveAppointments(LocalDateTime.of(2025, 1, 1, 0, 0)));
+        completed.getOutcome().getPrescription().get().setDispensed();
+        rm.getAppointmentRepository().updateAppointment(completed);
+
+        assertEquals(0, rm.archiveAppointments(LocalDateTime.of(2024, 7, 1, 0, 0)));
+        assertEquals(1, rm.archiveAppointments(LocalDateTime.of(2025, 1, 1, 0, 0)));
+        assertEquals(count - 1, rm.getAppointmentRepository().getAllAppointments().size());
+        assertEquals(count - 1, doctor.getSchedule().getAppointments().size());
+        assertTrue(rm.getAppointmentRepository().getAppointmentById(completedId).isEmpty());
+        assertTrue(rm.save());
+
+        // The archive is indexed again on load, and history queries reach into it
+        RepositoryManager.destroyInstance();
+        RepositoryManager.load("test-archive.bin", "test.journal");
+        rm = RepositoryManager.getInstance();
+        assertEquals(count - 1, rm.getAppointmentRepository().getAllAppointments().size());
+        assertEquals(1, rm.getAppointmentArchive().size());
+
+        Patient newPatient = (Patient) rm.getUserRepository().getUserById("P2000").get();
+        List<AppointmentOutcome> outcomes =
+                new PatientController(newPatient).getPastAppointmentOutcomes();
+        assertEquals(1, outcomes.size());
+        assertEquals("Mapped outcome", outcomes.get(0).getDescription());
+        assertEquals(newPatient, outcomes.get(0).getAppointment().getPatient());
+
+        Administrator admin = TestUtils.createTestAdmin();
+        Appointment archived =
+                new AdministratorController(admin).getAppointmentById(completedId).get();
+        assertEquals(AppointmentStatus.COMPLETED, archived.getStatus());
+        assertEquals("D200", archived.getDoctor().getId());
+
+        // Listing every outcome does not inflate the archive
+        assertEquals(0, AppointmentController.getAppointmentOutcomes().size());
+
+        RepositoryManager.destroyInstance();
+        deleteDatabase("test-archive");
+    }
+
+    @Test
+    @DisplayName("Test: Repository Never Reuses Appointment IDs")
+    void testAppointmentIdSequence() {
+        deleteDatabase("test-sequence");
+        RepositoryManager.destroyInstance();
+        RepositoryManager.load("test-sequence.bin", "test.journal");
+        RepositoryManager rm = RepositoryManager.getInstance();
+        Doctor doctor =
+                new Doctor("D500", "sequence", "Doctor", "Seq", "password", "s@x.com", "+1234");
+        rm.getUserRepository().addUser(doctor);
+        Patient patient = createPatient(rm, "P5000");
+        Medication medication = new Medication("Sequenced", "Sequenced medication", "Daily");
+        rm.getInventoryRepository().getInventory().addMedication(medication);
+
+        // Archive the appointment with the highest ID
+        DoctorController dc = new DoctorController(doctor);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 9, 0);
+        List<Appointment> slots = dc.addAppointmentHourly(start, start.plusHours(2));
+        assertEquals(List.of(1, 2), slots.stream().map(Appointment::getId).toList());
+        Appointment last = slots.get(1);
+        new PatientController(patient).scheduleAppointment(last);
+        dc.acceptAppointment(last);
+        dc.addAppointmentOutcome(last, "Sequenced", new Prescription(medication));
+        last.getOutcome().getPrescription().get().setDispensed();
+        rm.getAppointmentRepository().updateAppointment(last);
+        assertEquals(1, rm.archiveAppointments(LocalDateTime.of(2025, 1, 1, 0, 0)));
+        assertTrue(rm.save());
+
+        // The sequence resumes past the archived appointment, and past removed ones
+        RepositoryManager.destroyInstance();
+        RepositoryManager.load("test-sequence.bin", "test.journal");
+        rm = RepositoryManager.getInstance();
+        doctor = (Doctor) rm.getUserRepository().getUserById("D500").get();
+        dc = new DoctorController(doctor);
+        Appointment added = dc.addAppointment(start.plusDays(1), start.plusDays(1).plusHours(1));
+        assertEquals(3, added.getId());
+        rm.getAppointmentRepository().removeAppointment(added);
+        LocalDateTime later = start.plusDays(2);
+        assertEquals(4, dc.addAppointment(later, later.plusHours(1)).getId());
+
+        RepositoryManager.destroyInstance();
+        deleteDatabase("test-sequence");
+    }
+
+    @Test
+    @DisplayName("Test: Bulk Slot Insertion Reserves Consecutive IDs")
+    void testBulkSlotInsertion() {
+        deleteDatabase("test-bulk");
+        RepositoryManager.destroyInstance();
+        RepositoryManager.load("test-bulk.bin", "test.journal");
+        RepositoryManager rm = RepositoryManager.getInstance();
+        LocalDate first = LocalDate.of(2025, 1, 1);
+        LocalTime open = LocalTime.of(8, 0);
+        LocalTime close = LocalTime.of(20, 0);
+
+        // A month of 12 hourly slots a day for each doctor, each roster taking the next IDs
+        int next = 0;
+        for (int d = 0; d < 2; d++) {
+            Doctor doctor = new Doctor("D61" + d, "bulk", "Doctor", "Bulk", "pw", "b@x", "+1");
+            rm.getUserRepository().addUser(doctor);
+            List<Appointment> slots =
+                    new DoctorController(doctor)
+                            .addMultipleAppointmentDays(first, first.plusDays(29), open, close);
+            assertEquals(30 * 12, slots.size());
+            if (d == 0) {
+                next = slots.get(0).getId();
+            }
+            for (Appointment slot : slots) {
+                assertEquals(next++, slot.getId());
+            }
+        }
+        assertEquals(2 * 30 * 12, rm.getAppointmentRepository().getAllAppointments().size());
+
+        RepositoryManager.destroyInstance();
+        deleteDatabase("test-bulk");
+    }
+
+    @Test
+    @Tag("benchmark")
+    @DisplayName("Benchmark: Bulk Slot Insertion Scales Linearly")
+    void benchmarkBulkSlotInsertion() {
+        deleteDatabase("test-bulk");
+        RepositoryManager.destroyInstance();
+        RepositoryManager.load("test-bulk.bin", "test.journal");
+        RepositoryManager rm = RepositoryManager.getInstance();
+        LocalDate first = LocalDate.of(2025, 1, 1);
+        LocalTime open = LocalTime.of(8, 0);
+        LocalTime close = LocalTime.of(20, 0);
+
+        // Rosters of 12 hourly slots a day for growing numbers of doctors, the first warming up
+        int[] doctors = {5, 5, 10, 20, 40};
+        double[] nanosPerSlot = new double[doctors.length];
+        for (int round = 0; round < doctors.length; round++) {
+            List<DoctorController> controllers = new ArrayList<>();
+            for (int d = 0; d < doctors[round]; d++) {
+                Doctor doctor =
+                        new Doctor("D6" + round + d, "bulk", "Doctor", "Bulk", "pw", "b@x", "+1");
+                rm.getUserRepository().addUser(doctor);
+                controllers.add(new DoctorController(doctor));
+            }
+
+            int slots = 0;
+            long start = System.nanoTime();
+            for (DoctorController dc : controllers) {
+                slots +=
+                        dc.addMultipleAppointmentDays(first, first.plusDays(89), open, close)
+                                .size();
+            }
+            nanosPerSlot[round] = (double) (System.nanoTime() - start) / slots;
+            System.out.printf(
+                    "%d doctors, %d slots in %d total: %.2f us per slot%n",
+                    doctors[round],
+                    slots,
+                    rm.getAppointmentRepository().getAllAppointments().size(),
+                    nanosPerSlot[round] / 1e3);
+        }
+
+        // Each insertion costs the same however many appointments there already are
+        assertTrue(
+                nanosPerSlot[doctors.length - 1] < 4 * nanosPerSlot[1],
+                "bulk insertion does not scale linearly");
+
+        RepositoryManager.destroyInstance();
+        deleteDatabase("test-bulk");
+    }
+
+    // Adds a month of slots to the doctor, books the 11th and completes it with a prescription
+    private static int bookAndComplete(Doctor doctor, Patient patient, Medication medication) {
+        List<Appointment> slots =
+                doctor.getSchedule()
+                        .addMultipleAppointmentDays(
+                                LocalDate.of(2024, 7, 1),
+                                LocalDate.of(2024, 7, 31),
+                                LocalTime.of(8, 0),
+                                LocalTime.of(17, 0));
+        Appointment booked = slots.get(10);
+        new PatientController(patient).scheduleAppointment(booked);
+        DoctorController dc = new DoctorController(doctor);
+        dc.acceptAppointment(booked);
+        dc.addAppointmentOutcome(booked, "Mapped outcome", new Prescription(medication));
+        return slots.size();
+    }
+
+    // Checks the appointments added by bookAndComplete
+    private static void checkMappedAppointments(RepositoryManager rm, int count) {
+        assertEquals(count, rm.getAppointmentRepository().getAllAppointments().size());
+        assertEquals(count + 1, rm.getAppointmentRepository().getNextId());
+
+        Doctor doctor = (Doctor) rm.getUserRepository().getUserById("D200").get();
+        List<Appointment> schedule = doctor.getSchedule().getAppointments();
+        assertEquals(count, schedule.size());
+        for (int i = 1; i < schedule.size(); i++) {
+            assertTrue(schedule.get(i - 1).getStart().isBefore(schedule.get(i).getStart()));
+        }
+
+        Appointment booked = schedule.get(10);
+        assertEquals(AppointmentStatus.COMPLETED, booked.getStatus());
+        assertEquals("P2000", booked.getPatient().getId());
+        assertEquals(doctor, booked.getDoctor());
+        assertEquals("Mapped outcome", booked.getOutcome().getDescription());
+        Prescription prescription = booked.getOutcome().getPrescription().get();
+        assertEquals("Mapped", prescription.getMedications().keySet().iterator().next().getName());
+        assertEquals(booked.getId(), prescription.getAppointmentId());
+        assertTrue(
+                rm.getAppointmentRepository().getAppointmentById(booked.getId()).get() == booked);
+    }
+
+    // Checks the medical records updated by testLazyMedicalRecords
+    private static void checkMedicalRecords(RepositoryManager rm, int count, User doctor) {
+        for (int p = 0; p < count; p++) {
+            Patient patient =
+                    (Patient) rm.getUserRepository().getUserById("P" + (3000 + p)).orElseThrow();
+            MedicalRecord mr = patient.getMedicalRecord();
+            assertEquals(List.of("Diagnosis " + p), mr.getPastDiagnoses());
+            assertEquals(List.of("Rest"), mr.getTreatments());
+            assertTrue(mr.getPatient() == patient, "record of another patient");
+            assertTrue(mr.getDoctor() == (p == 0 ? doctor : null), "wrong doctor " + p);
+        }
+    }
+
+    // Retrieves the email of a user of the current repositories
+    private static String email(String id) {
+        return RepositoryManager.getInstance().getUserRepository().getUserById(id).get().getEmail();
+    }
+
+    // Adds a patient to the given repositories
+    private static Patient createPatient(RepositoryManager rm, String id) {
+        Patient patient =
+                new Patient(
+                        id,
+                        "patient" + id,
+                        "Test",
+                        "Patient",
+                        "password",
+                        "test@example.com",
+                        "1234567890",
+                        "1 January 1990",
+                        "Male",
+                        "O");
+        rm.getUserRepository().addUser(patient);
+        return patient;
+    }
+
+    // Deletes the segment files and their generations, the archive named after the given base path
+    // and the test journal
+    private static void deleteDatabase(String base) {
+        new File("test.journal").delete();
+        new File(base + ".archive").delete();
+        for (String segment :
+                List.of("users", "records", "inventory", "requests", "appointments")) {
+            new File(base + "." + segment + ".seg").delete();
+            new File(base + "." + segment + ".seg.1").delete();
+            new File(base + "." + segment + ".seg.2").delete();
+        }
+    }
 }
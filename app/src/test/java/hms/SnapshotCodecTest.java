@@ -0,0 +1,329 @@
+package hms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import hms.controller.DoctorController;
+import hms.controller.PatientController;
+import hms.model.appointment.Appointment;
+import hms.model.appointment.AppointmentStatus;
+import hms.model.medication.Medication;
+import hms.model.medication.Prescription;
+import hms.model.medication.ReplenishmentRequest;
+import hms.model.medication.ReplenishmentRequestStatus;
+import hms.model.user.Doctor;
+import hms.model.user.Patient;
+import hms.model.user.Pharmacist;
+import hms.model.user.User;
+import hms.repository.InventoryRepository;
+import hms.repository.RepositoryManager;
+
+class SnapshotCodecTest {
+    private static final String COMPACT_PATH = "test-compact.bin";
+    private static final String LEGACY_PATH = "test-legacy.bin";
+
+    private RepositoryManager rm;
+
+    @BeforeEach
+    void setup() {
+        TestUtils.setupTestRepositories();
+        rm = RepositoryManager.getInstance();
+
+        // A month of hourly slots for a handful of doctors, a third of them booked by a pool of
+        // patients with identifiers shaped like those of the patient list
+        Medication medication = TestUtils.createTestMedication();
+        Pharmacist pharmacist = TestUtils.createTestPharmacist();
+        rm.getInventoryRepository()
+                .addReplenishmentRequest(
+                        new ReplenishmentRequest(medication, 50, LocalDateTime.now(), pharmacist));
+
+        List<Patient> patients = new ArrayList<>();
+        for (int p = 0; p < 100; p++) {
+            Patient patient =
+                    new Patient(
+                            "P" + (1000 + p),
+                            "patient" + p,
+                            "Patient",
+                            "No. " + p,
+                            "password",
+                            "patient" + p + "@example.com",
+                            "8" + (1000000 + p),
+                            "1 January 1990",
+                            "Female",
+                            "A+");
+            rm.getUserRepository().addUser(patient);
+            patients.add(patient);
+        }
+
+        for (int d = 0; d < 10; d++) {
+            Doctor doctor =
+                    new Doctor(
+                            "D" + (100 + d),
+                            "doctor" + d,
+                            "Doctor",
+                            "No. " + d,
+                            "password",
+                            "doctor" + d + "@hospital.com",
+                            "9876543210");
+            rm.getUserRepository().addUser(doctor);
+            DoctorController dc = new DoctorController(doctor);
+            List<Appointment> slots =
+                    doctor.getSchedule()
+                            .addMultipleAppointmentDays(
+                                    LocalDate.of(2024, 11, 1),
+                                    LocalDate.of(2024, 11, 30),
+                                    LocalTime.of(8, 0),
+                                    LocalTime.of(17, 0));
+
+            for (int i = 0; i < slots.size(); i += 3) {
+                Patient patient = patients.get((d * slots.size() + i) % patients.size());
+                Appointment ap = slots.get(i);
+                new PatientController(patient).scheduleAppointment(ap);
+                dc.acceptAppointment(ap);
+                if (i % 2 == 0) {
+                    dc.addAppointmentOutcome(ap, "Checkup", new Prescription(medication));
+                    dc.updatePatientMedicalRecord(patient, "Flu", "Rest");
+                }
+            }
+        }
+    }
+
+    @AfterEach
+    void cleanup() {
+        new File(COMPACT_PATH).delete();
+        new File(LEGACY_PATH).delete();
+    }
+
+    @Test
+    @DisplayName("Test: Compact Snapshot Round Trip")
+    void testRoundTrip() throws IOException, ClassNotFoundException {
+        rm.serialize(COMPACT_PATH);
+        RepositoryManager.deserialize(COMPACT_PATH);
+        RepositoryManager loaded = RepositoryManager.getInstance();
+
+        assertEquals(
+                rm.getUserRepository().getAllUsers().size(),
+                loaded.getUserRepository().getAllUsers().size());
+        assertEquals(
+                rm.getAppointmentRepository().getAllAppointments().size(),
+                loaded.getAppointmentRepository().getAllAppointments().size());
+        for (Appointment ap : rm.getAppointmentRepository().getAllAppointments()) {
+            Appointment copy =
+                    loaded.getAppointmentRepository().getAppointmentById(ap.getId()).get();
+            assertEquals(ap.getStart(), copy.getStart());
+            assertEquals(ap.getEnd(), copy.getEnd());
+            assertEquals(ap.getStatus(), copy.getStatus());
+            assertEquals(ap.getDoctor().getId(), copy.getDoctor().getId());
+            if (ap.getPatient() != null) {
+                assertEquals(ap.getPatient().getId(), copy.getPatient().getId());
+            }
+            if (ap.getStatus() == AppointmentStatus.COMPLETED) {
+                assertEquals("Checkup", copy.getOutcome().getDescription());
+                assertTrue(copy.getOutcome().getPrescription().get().isPending());
+            }
+        }
+
+        ReplenishmentRequest rr = rm.getInventoryRepository().getReplenishmentRequests().get(0);
+        ReplenishmentRequest rrCopy =
+                loaded.getInventoryRepository().getReplenishmentRequestById(rr.getId()).get();
+        assertEquals(rr.getDateTime(), rrCopy.getDateTime());
+        assertEquals(rr.getPharmacist().getId(), rrCopy.getPharmacist().getId());
+    }
+
+    @Test
+    @DisplayName("Test: Legacy Snapshot Still Loads")
+    void testLegacyFormat() throws IOException, ClassNotFoundException {
+        writeLegacy(rm, LEGACY_PATH);
+        RepositoryManager.deserialize(LEGACY_PATH);
+
+        assertEquals(
+                rm.getAppointmentRepository().getAllAppointments().size(),
+                RepositoryManager.getInstance()
+                        .getAppointmentRepository()
+                        .getAllAppointments()
+                        .size());
+    }
+
+    @Test
+    @DisplayName("Test: Legacy Snapshot Gets Identifiers")
+    void testLegacyIdentifiers() throws IOException, ClassNotFoundException {
+        // Earlier versions kept no identifiers for prescriptions and replenishment requests
+        InventoryRepository ir = rm.getInventoryRepository();
+        Medication medication = ir.getInventory().getMedications().get(0);
+        Pharmacist pharmacist = rm.getUserRepository().getPharmacists().iterator().next();
+        for (int i = 0; i < 3; i++) {
+            ir.addReplenishmentRequest(
+                    new ReplenishmentRequest(
+                            medication, 10, LocalDateTime.of(2024, 11, 1 + i, 9, 0), pharmacist));
+        }
+        for (ReplenishmentRequest rr : ir.getReplenishmentRequests()) {
+            rr.setId(0);
+        }
+        for (Appointment ap : rm.getAppointmentRepository().getAllAppointments()) {
+            if (ap.getOutcome() != null) {
+                ap.getOutcome().getPrescription().ifPresent(pr -> pr.setAppointmentId(0));
+            }
+        }
+        writeLegacy(rm, LEGACY_PATH);
+        RepositoryManager.deserialize(LEGACY_PATH);
+        RepositoryManager loaded = RepositoryManager.getInstance();
+
+        // Prescriptions point at their appointments again
+        int prescriptions = 0;
+        for (Appointment ap : loaded.getAppointmentRepository().getAllAppointments()) {
+            if (ap.getOutcome() != null && ap.getOutcome().getPrescription().isPresent()) {
+                Prescription pr = ap.getOutcome().getPrescription().get();
+                assertEquals(ap.getId(), pr.getAppointmentId());
+                prescriptions++;
+            }
+        }
+        assertTrue(prescriptions > 0);
+
+        // Requests are numbered apart, and new requests are numbered past them
+        InventoryRepository loadedIr = loaded.getInventoryRepository();
+        List<ReplenishmentRequest> requests = loadedIr.getReplenishmentRequests();
+        assertEquals(4, requests.size());
+        assertEquals(4, requests.stream().mapToInt(ReplenishmentRequest::getId).distinct().count());
+        assertTrue(requests.stream().allMatch(rr -> rr.getId() > 0));
+        ReplenishmentRequest added = new ReplenishmentRequest(medication, 5, null, pharmacist);
+        loadedIr.addReplenishmentRequest(added);
+        assertTrue(requests.stream().allMatch(rr -> rr.getId() < added.getId()));
+        assertEquals(
+                5,
+                loadedIr.getReplenishmentRequestsByStatus(ReplenishmentRequestStatus.PENDING)
+                        .size());
+    }
+
+    @Test
+    @DisplayName("Test: Compact Snapshot Has Bounded Stack Depth")
+    void testBoundedStackDepth() throws InterruptedException {
+        // Years of slots for a single doctor, with a long chain of patients booking them
+        Doctor doctor =
+                new Doctor("D999", "busy", "Busy", "Doctor", "password", "b@x.com", "+1234");
+        rm.getUserRepository().addUser(doctor);
+        List<Appointment> slots =
+                doctor.getSchedule()
+                        .addMultipleAppointmentDays(
+                                LocalDate.of(2020, 1, 1),
+                                LocalDate.of(2024, 12, 31),
+                                LocalTime.of(8, 0),
+                                LocalTime.of(17, 0));
+        List<Patient> patients = new ArrayList<>();
+        for (User user : rm.getUserRepository().getAllUsers()) {
+            if (user instanceof Patient patient) {
+                patients.add(patient);
+            }
+        }
+        for (int i = 0; i < slots.size(); i += 2) {
+            new PatientController(patients.get(i % patients.size()))
+                    .scheduleAppointment(slots.get(i));
+        }
+        int total = rm.getAppointmentRepository().getAllAppointments().size();
+
+        // Writing and reading walk the entities iteratively, so a small stack is enough
+        Throwable[] failure = new Throwable[1];
+        int[] read = new int[1];
+        Thread thread =
+                new Thread(
+                        null,
+                        () -> {
+                            try {
+                                rm.serialize(COMPACT_PATH);
+                                RepositoryManager.deserialize(COMPACT_PATH);
+                                read[0] =
+                                        RepositoryManager.getInstance()
+                                                .getAppointmentRepository()
+                                                .getAllAppointments()
+                                                .size();
+                            } catch (Throwable t) {
+                                failure[0] = t;
+                            }
+                        },
+                        "small-stack",
+                        128 * 1024);
+        thread.start();
+        thread.join();
+
+        assertTrue(failure[0] == null, "failed with " + failure[0]);
+        assertEquals(total, read[0]);
+        Doctor loaded =
+                (Doctor)
+                        RepositoryManager.getInstance()
+                                .getUserRepository()
+                                .getUserById("D999")
+                                .get();
+        assertEquals(slots.size(), loaded.getSchedule().getAppointments().size());
+    }
+
+    @Test
+    @DisplayName("Test: Compact Snapshot Is Smaller")
+    void testCompactSize() throws IOException {
+        writeLegacy(rm, LEGACY_PATH);
+        rm.serialize(COMPACT_PATH);
+        assertTrue(new File(LEGACY_PATH).length() >= 5 * new File(COMPACT_PATH).length());
+    }
+
+    @Test
+    @Tag("benchmark")
+    @DisplayName("Benchmark: Compact Snapshot vs Java Serialization")
+    void benchmarkAgainstJavaSerialization() throws IOException, ClassNotFoundException {
+        int rounds = 10;
+        long legacySave = 0, legacyLoad = 0, compactSave = 0, compactLoad = 0;
+        for (int round = -3; round < rounds; round++) {
+            // Negative rounds warm up the JIT and are not measured
+            long t0 = System.nanoTime();
+            writeLegacy(rm, LEGACY_PATH);
+            long t1 = System.nanoTime();
+            RepositoryManager.deserialize(LEGACY_PATH);
+            long t2 = System.nanoTime();
+            rm.serialize(COMPACT_PATH);
+            long t3 = System.nanoTime();
+            RepositoryManager.deserialize(COMPACT_PATH);
+            long t4 = System.nanoTime();
+
+            if (round >= 0) {
+                legacySave += t1 - t0;
+                legacyLoad += t2 - t1;
+                compactSave += t3 - t2;
+                compactLoad += t4 - t3;
+            }
+        }
+
+        long legacySize = new File(LEGACY_PATH).length();
+        long compactSize = new File(COMPACT_PATH).length();
+        System.out.printf(
+                "%d appointments: java serialization %d bytes, save %.2f ms, load %.2f ms;"
+                        + " compact %d bytes, save %.2f ms, load %.2f ms (%.1fx smaller)%n",
+                rm.getAppointmentRepository().getAllAppointments().size(),
+                legacySize,
+                legacySave / 1e6 / rounds,
+                legacyLoad / 1e6 / rounds,
+                compactSize,
+                compactSave / 1e6 / rounds,
+                compactLoad / 1e6 / rounds,
+                (double) legacySize / compactSize);
+    }
+
+    // Writes the repositories in the Java serialization format used before the compact format
+    private static void writeLegacy(RepositoryManager rm, String filePath) throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filePath))) {
+            out.writeObject(rm);
+        }
+    }
+}
@@ -115,13 +115,17 @@ public class TestUtils {
      */
     public static Appointment createTestAppointment(Doctor d) {
         DoctorController dc = new DoctorController(d);
-        int year = 2024 + (int) (Math.random() * 5);
-        int month = 1 + (int) (Math.random() * 12);
-        int day = 1 + (int) (Math.random() * 28);
-        int startHour = (int) (Math.random() * 24);
+        LocalDateTime startDateTime;
+        LocalDateTime endDateTime;
+        do {
+            int year = 2024 + (int) (Math.random() * 5);
+            int month = 1 + (int) (Math.random() * 12);
+            int day = 1 + (int) (Math.random() * 28);
+            int startHour = (int) (Math.random() * 24);
 
-        LocalDateTime startDateTime = LocalDateTime.of(year, month, day, startHour, 0);
-        LocalDateTime endDateTime = startDateTime.plusHours(1);
+            startDateTime = LocalDateTime.of(year, month, day, startHour, 0);
+            endDateTime = startDateTime.plusHours(1);
+        } while (!d.getSchedule().isFree(startDateTime, endDateTime));
 
         Appointment ap = dc.addAppointment(startDateTime, endDateTime);
         return ap;